@@ -18,4 +18,34 @@ public class CommonThreadPools {
             60,        // Same as default
             TimeUnit.SECONDS);      // Same as default
 
+    // Pool for evaluating batches of rows in parallel, the tasks are cpu bound and never block.
+    public static final ForkJoinPool stepThreadPool = new ForkJoinPool(
+            Integer.parseInt(System.getProperty("gor.parallel.steps.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+    // Pool for reading and unzipping blocks of files ahead of the reader.
+    public static final ForkJoinPool blockThreadPool = new ForkJoinPool(
+            Integer.parseInt(System.getProperty("gor.gorz.prefetch.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+    // Pool for zipping blocks of files and writing them in order behind the writer.
+    public static final ForkJoinPool zipThreadPool = new ForkJoinPool(
+            Integer.parseInt(System.getProperty("gor.gorz.write.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+    // Pool for sorting, spilling and merging runs of rows of external sorts.
+    public static final ForkJoinPool sortThreadPool = new ForkJoinPool(
+            Integer.parseInt(System.getProperty("gor.sort.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+    // Pool for finishing the completed bins of binned aggregations, see BinAggregator.
+    public static final ForkJoinPool binThreadPool = new ForkJoinPool(
+            Integer.parseInt(System.getProperty("gor.bin.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+    // Pool shared by all queries for running the partitions and creates of scripts, see ParallelExecutor.
+    public static final ForkJoinPool queryThreadPool = new ForkJoinPool(
+            Integer.parseInt(System.getProperty("gor.query.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
 }
@@ -0,0 +1,110 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.benchmarks;
+
+import gorsat.parser.CalcCompiler;
+import gorsat.parser.CalcHandleCompiler;
+import gorsat.parser.ParseArith;
+import gorsat.parser.TypedCalcLambda;
+import org.gorpipe.gor.SyntaxChecker;
+import org.gorpipe.gor.model.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluating calc expressions on rows, with the classic parser combinator functions of ParseArith, the lambdas of
+ * CalcCompiler and the method handles of CalcHandleCompiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CalcBenchmark {
+    private static final int ROWS = 10000;
+    private static final String[] COLUMN_TYPES = {"S", "I", "S", "S", "S", "D", "I"};
+
+    @Param({"AF * Depth + 1", "log(AF + 1.0) * Depth", "if(Gene = 'G3', AF, Depth / 2.0)"})
+    public String expression;
+
+    private Row[] rows;
+    private ParseArith parseArith;
+    private TypedCalcLambda lambda;
+    private TypedCalcLambda handles;
+
+    @Setup
+    public void setup() {
+        rows = SyntheticData.rows(SyntheticData.variants(ROWS, 1)).toArray(new Row[0]);
+        final String[] columns = SyntheticData.VARIANT_HEADER.split("\t");
+
+        parseArith = new ParseArith(null);
+        parseArith.setColumnNamesAndTypes(columns, COLUMN_TYPES);
+        parseArith.compileCalculation(expression);
+
+        lambda = compile(new CalcCompiler(), columns);
+        handles = compile(new CalcHandleCompiler(), columns);
+    }
+
+    private TypedCalcLambda compile(CalcCompiler compiler, String[] columns) {
+        compiler.setColumnNamesAndTypes(columns, COLUMN_TYPES);
+        return new SyntaxChecker().parseCalc(expression).accept(compiler);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void parseArith(Blackhole bh) {
+        for (Row row : rows) {
+            bh.consume(parseArith.evalDoubleFunction(row));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void calcCompiler(Blackhole bh) {
+        for (Row row : rows) {
+            bh.consume(lambda.evaluateDouble(row));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void calcHandleCompiler(Blackhole bh) {
+        for (Row row : rows) {
+            bh.consume(handles.evaluateDouble(row));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.benchmarks;
+
+import org.gorpipe.gor.binsearch.GorzSeekableIterator;
+import org.gorpipe.gor.driver.adapters.StreamSourceSeekableFile;
+import org.gorpipe.gor.driver.meta.SourceReference;
+import org.gorpipe.gor.driver.providers.stream.sources.file.FileSource;
+import org.gorpipe.gor.model.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading gorz files, a full scan and seeks to random positions followed by a short read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GorzReadBenchmark {
+    private static final int SEEKS = 100;
+    private static final int ROWS_PER_SEEK = 10;
+
+    @Param({"false", "true"})
+    public boolean columnCompress;
+
+    @Param({"200000"})
+    public int rows;
+
+    private Path dir;
+    private Path file;
+    private String[] seekChromosomes;
+    private int[] seekPositions;
+    private GorzSeekableIterator seekIterator;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = SyntheticData.createTempDirectory();
+        final List<String> lines = SyntheticData.variants(rows, 1);
+        file = SyntheticData.writeGorz(dir.resolve("variants.gorz"), SyntheticData.VARIANT_HEADER, lines, columnCompress);
+
+        final Random random = new Random(2);
+        seekChromosomes = new String[SEEKS];
+        seekPositions = new int[SEEKS];
+        for (int i = 0; i < SEEKS; i++) {
+            final String[] cols = lines.get(random.nextInt(lines.size())).split("\t");
+            seekChromosomes[i] = cols[0];
+            seekPositions[i] = Integer.parseInt(cols[1]);
+        }
+        seekIterator = open(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        seekIterator.close();
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public long scan(Blackhole bh) {
+        long count = 0;
+        final GorzSeekableIterator iterator = open(file);
+        try {
+            while (iterator.hasNext()) {
+                bh.consume(iterator.next());
+                count++;
+            }
+        } finally {
+            iterator.close();
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEEKS)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void seek(Blackhole bh) {
+        for (int i = 0; i < SEEKS; i++) {
+            seekIterator.seek(seekChromosomes[i], seekPositions[i]);
+            for (int j = 0; j < ROWS_PER_SEEK && seekIterator.hasNext(); j++) {
+                final Row row = seekIterator.next();
+                bh.consume(row);
+            }
+        }
+    }
+
+    private static GorzSeekableIterator open(Path file) {
+        return new GorzSeekableIterator(new StreamSourceSeekableFile(new FileSource(new SourceReference(file.toString()))));
+    }
+}
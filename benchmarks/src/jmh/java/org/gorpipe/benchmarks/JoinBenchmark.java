@@ -0,0 +1,100 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.benchmarks;
+
+import gorsat.TestUtils;
+import gorsat.process.PipeInstance;
+import org.gorpipe.gor.model.GenomicIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joins of gorz files through the gor pipe, variants to variants and segments to segments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JoinBenchmark {
+
+    @Param({"snpsnp", "segseg"})
+    public String joinType;
+
+    @Param({"100000"})
+    public int rows;
+
+    private Path dir;
+    private String query;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = SyntheticData.createTempDirectory();
+        final Path left;
+        final Path right;
+        if (joinType.equals("snpsnp")) {
+            left = SyntheticData.writeGorz(dir.resolve("left.gorz"), SyntheticData.VARIANT_HEADER, SyntheticData.variants(rows, 1), false);
+            right = SyntheticData.writeGorz(dir.resolve("right.gorz"), SyntheticData.VARIANT_HEADER, SyntheticData.variants(rows, 2), false);
+        } else {
+            left = SyntheticData.writeGorz(dir.resolve("left.gorz"), SyntheticData.SEGMENT_HEADER, SyntheticData.segments(rows, 1000, 1), false);
+            right = SyntheticData.writeGorz(dir.resolve("right.gorz"), SyntheticData.SEGMENT_HEADER, SyntheticData.segments(rows, 1000, 2), false);
+        }
+        query = "gor " + left + " | join -" + joinType + " " + right;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public long join(Blackhole bh) {
+        long count = 0;
+        try (PipeInstance pipe = TestUtils.createPipeInstance(false)) {
+            pipe.init(query, null);
+            final GenomicIterator iterator = pipe.getIterator();
+            while (iterator.hasNext()) {
+                bh.consume(iterator.next());
+                count++;
+            }
+        }
+        return count;
+    }
+}
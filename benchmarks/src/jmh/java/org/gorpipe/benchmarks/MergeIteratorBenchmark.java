@@ -0,0 +1,112 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.benchmarks;
+
+import org.gorpipe.gor.binsearch.GorzSeekableIterator;
+import org.gorpipe.gor.driver.adapters.StreamSourceSeekableFile;
+import org.gorpipe.gor.driver.meta.SourceReference;
+import org.gorpipe.gor.driver.providers.stream.sources.file.FileSource;
+import org.gorpipe.gor.model.GenomicIterator;
+import org.gorpipe.gor.model.MergeIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging many gorz sources, as done when reading a dictionary. The rows are dealt round robin to the sources so
+ * the merge has to switch source on every row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeIteratorBenchmark {
+
+    @Param({"8", "64"})
+    public int sources;
+
+    @Param({"false", "true"})
+    public boolean prefetch;
+
+    @Param({"200000"})
+    public int rows;
+
+    private Path dir;
+    private final List<Path> files = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = SyntheticData.createTempDirectory();
+        final List<String> lines = SyntheticData.variants(rows, 1);
+        for (int i = 0; i < sources; i++) {
+            final List<String> part = new ArrayList<>();
+            for (int j = i; j < lines.size(); j += sources) {
+                part.add(lines.get(j));
+            }
+            files.add(SyntheticData.writeGorz(dir.resolve("part" + i + ".gorz"), SyntheticData.VARIANT_HEADER, part, false));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public long merge(Blackhole bh) {
+        final List<GenomicIterator> iterators = new ArrayList<>();
+        for (Path file : files) {
+            iterators.add(new GorzSeekableIterator(new StreamSourceSeekableFile(new FileSource(new SourceReference(file.toString())))));
+        }
+        long count = 0;
+        final MergeIterator merge = new MergeIterator(iterators, false, null, null, prefetch);
+        try {
+            while (merge.hasNext()) {
+                bh.consume(merge.next());
+                count++;
+            }
+        } finally {
+            merge.close();
+        }
+        return count;
+    }
+}
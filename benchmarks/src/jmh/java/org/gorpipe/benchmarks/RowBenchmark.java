@@ -0,0 +1,99 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.benchmarks;
+
+import org.gorpipe.gor.model.Row;
+import org.gorpipe.model.gor.RowObj;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing rows from text and accessing their columns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowBenchmark {
+    private static final int ROWS = 10000;
+
+    private String[] lines;
+    private Row[] rows;
+
+    @Setup
+    public void setup() {
+        final List<String> variants = SyntheticData.variants(ROWS, 1);
+        lines = variants.toArray(new String[0]);
+        rows = SyntheticData.rows(variants).toArray(new Row[0]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void splitArray(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(RowObj.splitArray(line));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void parseRow(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(RowObj.apply(line));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void columnAccess(Blackhole bh) {
+        for (Row row : rows) {
+            bh.consume(row.colAsString(4));
+            bh.consume(row.colAsDouble(5));
+            bh.consume(row.colAsInt(6));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void selectColumns(Blackhole bh) {
+        final int[] columns = {0, 1, 4, 5};
+        for (Row row : rows) {
+            bh.consume(row.rowWithSelectedColumns(columns));
+        }
+    }
+}
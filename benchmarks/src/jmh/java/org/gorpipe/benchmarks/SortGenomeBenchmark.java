@@ -0,0 +1,91 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.benchmarks;
+
+import gorsat.Analysis.SortGenome;
+import gorsat.Commands.Analysis;
+import org.gorpipe.gor.model.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting shuffled rows into genomic order. With a smaller batch size the sort spills sorted runs to disk and merges
+ * them at the end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortGenomeBenchmark {
+
+    /**
+     * Divides the default batch size of the sort, 2000000 rows.
+     */
+    @Param({"1", "40"})
+    public int div;
+
+    @Param({"500000"})
+    public int rows;
+
+    private List<Row> input;
+
+    static class RowCounter extends Analysis {
+        long count = 0;
+
+        @Override
+        public void process(Row r) {
+            count++;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        input = SyntheticData.shuffled(SyntheticData.rows(SyntheticData.variants(rows, 1)), 2);
+    }
+
+    @Benchmark
+    public long sort() {
+        final RowCounter counter = new RowCounter();
+        final Analysis sort = new SortGenome(new Row.SortInfo[0], div).$bar(counter);
+        sort.securedSetup(null);
+        for (Row row : input) {
+            sort.process(row);
+        }
+        sort.securedFinish(null);
+        return counter.count;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.benchmarks;
+
+import org.gorpipe.gor.binsearch.GorZipLexOutputStream;
+import org.gorpipe.gor.model.Row;
+import org.gorpipe.model.gor.RowObj;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates synthetic genomic data for the benchmarks. The data is generated from a seed, so every run of a
+ * benchmark sees the same rows.
+ */
+public final class SyntheticData {
+    public static final String VARIANT_HEADER = "Chrom\tPos\tRef\tAlt\tGene\tAF\tDepth";
+    public static final String SEGMENT_HEADER = "Chrom\tbpStart\tbpStop\tName";
+
+    private static final String[] CHROMOSOMES = {"chr1", "chr2", "chr3"};
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    private static final int GENES = 500;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * @return Variant rows in genomic order, spread evenly over the chromosomes
+     */
+    public static List<String> variants(int count, long seed) {
+        final Random random = new Random(seed);
+        final List<String> lines = new ArrayList<>(count);
+        final int perChromosome = (count + CHROMOSOMES.length - 1) / CHROMOSOMES.length;
+        for (String chrom : CHROMOSOMES) {
+            int pos = 0;
+            for (int i = 0; i < perChromosome && lines.size() < count; i++) {
+                pos += 1 + random.nextInt(200);
+                final int ref = random.nextInt(BASES.length);
+                final int alt = (ref + 1 + random.nextInt(BASES.length - 1)) % BASES.length;
+                lines.add(chrom + "\t" + pos + "\t" + BASES[ref] + "\t" + BASES[alt] + "\tG" + (pos / 20000) % GENES
+                        + "\t" + String.format("%.5f", random.nextDouble()) + "\t" + random.nextInt(100));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return Segment rows in genomic order, each up to maxLength bases long
+     */
+    public static List<String> segments(int count, int maxLength, long seed) {
+        final Random random = new Random(seed);
+        final List<String> lines = new ArrayList<>(count);
+        final int perChromosome = (count + CHROMOSOMES.length - 1) / CHROMOSOMES.length;
+        for (String chrom : CHROMOSOMES) {
+            int pos = 0;
+            for (int i = 0; i < perChromosome && lines.size() < count; i++) {
+                pos += 1 + random.nextInt(maxLength);
+                lines.add(chrom + "\t" + pos + "\t" + (pos + 1 + random.nextInt(maxLength)) + "\tS" + i);
+            }
+        }
+        return lines;
+    }
+
+    public static List<Row> rows(List<String> lines) {
+        final List<Row> rows = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            rows.add(RowObj.apply(line));
+        }
+        return rows;
+    }
+
+    public static List<Row> shuffled(List<Row> rows, long seed) {
+        final List<Row> copy = new ArrayList<>(rows);
+        Collections.shuffle(copy, new Random(seed));
+        return copy;
+    }
+
+    /**
+     * @return The lines as a block of text, as stored in gorz blocks
+     */
+    public static byte[] block(List<String> lines) {
+        return (String.join("\n", lines) + "\n").getBytes();
+    }
+
+    public static Path writeGorz(Path file, String header, List<String> lines, boolean columnCompress) throws IOException {
+        try (GorZipLexOutputStream out = new GorZipLexOutputStream(file.toString(), columnCompress)) {
+            out.setHeader(header);
+            for (String line : lines) {
+                out.write(RowObj.apply(line));
+            }
+        }
+        return file;
+    }
+
+    public static Path createTempDirectory() throws IOException {
+        return Files.createTempDirectory("gorbenchmark");
+    }
+
+    public static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -40,6 +40,7 @@ import org.gorpipe.gor.driver.providers.stream.RequestRange;
 import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
 import org.gorpipe.gor.session.GorSession;
 import org.gorpipe.gor.table.util.PathUtils;
+import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
@@ -56,6 +57,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.FileAttribute;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
@@ -181,6 +183,24 @@ public class S3Source implements StreamSource {
         return openRequest(reqBuilder.build());
     }
 
+    @Override
+    public CompletableFuture<byte[]> readRange(long start, int length) {
+        if (asyncClient == null) {
+            return StreamSource.super.readRange(start, length);
+        }
+        RequestRange range = RequestRange.fromFirstLength(start, length).limitTo(getSourceMetadata().getLength());
+        if (range.isEmpty()) return CompletableFuture.completedFuture(new byte[0]);
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(key)
+                .range(BytesRange.startLengthtoRange(range.getFirst(), range.getLength())).build();
+        return asyncClient.getObject(request, AsyncResponseTransformer.toBytes())
+                .thenApply(ResponseBytes::asByteArrayUnsafe);
+    }
+
+    @Override
+    public boolean supportsConcurrentRangeReads() {
+        return asyncClient != null;
+    }
+
     private InputStream openWithFileSystem(RequestRange range) {
         Path path = Path.of(URI.create(getName()));
         try {
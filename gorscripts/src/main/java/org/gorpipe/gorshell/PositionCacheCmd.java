@@ -25,12 +25,17 @@ package org.gorpipe.gorshell;
 import org.gorpipe.gor.binsearch.PositionCache;
 import picocli.CommandLine;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 @CommandLine.Command(
         name="pc",
         description = "PositionCache",
         subcommands = {
                 PositionCacheCmd.Info.class,
-                PositionCacheCmd.Clear.class
+                PositionCacheCmd.Clear.class,
+                PositionCacheCmd.Save.class,
+                PositionCacheCmd.Load.class
         }
 )
 public class PositionCacheCmd implements Runnable {
@@ -57,7 +62,9 @@ public class PositionCacheCmd implements Runnable {
         public void run() {
             int files = PositionCache.getNumFilesInCache();
             int numKeys = PositionCache.getTotalNumKeysInCache();
-            String msg = String.format("Position cache: %d files, %d keys", files, numKeys);
+            long hits = PositionCache.getHitCount();
+            long misses = PositionCache.getMissCount();
+            String msg = String.format("Position cache: %d files, %d keys, %d hits, %d misses", files, numKeys, hits, misses);
             parent.parent.print(msg);
         }
     }
@@ -76,4 +83,48 @@ public class PositionCacheCmd implements Runnable {
             parent.parent.print("Position cache cleared");
         }
     }
+
+    @CommandLine.Command(
+            name="save",
+            description = "Save the position cache to a file"
+    )
+    static class Save implements Runnable {
+        @CommandLine.ParentCommand
+        private PositionCacheCmd parent;
+
+        @CommandLine.Parameters(index = "0")
+        private String file;
+
+        @Override
+        public void run() {
+            try {
+                PositionCache.save(Paths.get(file));
+                parent.parent.print("Position cache saved to " + file);
+            } catch (IOException e) {
+                parent.parent.print("Unable to save position cache: " + e.getMessage());
+            }
+        }
+    }
+
+    @CommandLine.Command(
+            name="load",
+            description = "Load the position cache from a file"
+    )
+    static class Load implements Runnable {
+        @CommandLine.ParentCommand
+        private PositionCacheCmd parent;
+
+        @CommandLine.Parameters(index = "0")
+        private String file;
+
+        @Override
+        public void run() {
+            try {
+                PositionCache.load(Paths.get(file));
+                parent.parent.print("Position cache loaded from " + file);
+            } catch (IOException e) {
+                parent.parent.print("Unable to load position cache: " + e.getMessage());
+            }
+        }
+    }
 }
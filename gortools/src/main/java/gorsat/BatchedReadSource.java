@@ -36,6 +36,7 @@ import java.time.Duration;
 import java.util.Iterator;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A wrapper rowSource reading the child rowSource in a thread into a buffer and offering to the main thread in batches
@@ -61,6 +62,8 @@ public class BatchedReadSource extends GenomicIteratorBase {
     private long totalTimeNs = 0;
     private int avgCount;
     private int bavgCount = 0;
+    private final LongAdder offerWaitNs = new LongAdder();
+    private final LongAdder pollWaitNs = new LongAdder();
 
     private final GorMonitor gorMonitor;
 
@@ -121,17 +124,20 @@ public class BatchedReadSource extends GenomicIteratorBase {
         }
 
         void offerBatch(RowBuffer current, Duration batchOfferTimeout) throws InterruptedException {
+            long t = System.nanoTime();
             int count = 0;
             while (!stopProcessingThread && !rowQueue.offer(current, batchOfferTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
                 if (count++ % numberOfPollsBeforeLog == 0) {
                     log.debug("Offering batch for for" + batchOfferTimeout.getSeconds() * count + ", batchsize " + current.size() + " threadid: " + Thread.currentThread().getId());
                 }
             }
+            offerWaitNs.add(System.nanoTime() - t);
         }
 
         int lastCount = 0;
         int pollCount = 0;
         RowBuffer pollBatch() throws InterruptedException {
+            long t = System.nanoTime();
             RowBuffer rowBuffer = rowQueue.poll(batchOfferTimeout.toMillis(), TimeUnit.MILLISECONDS);
             int count = 0;
             while (!stopProcessingThread && rowBuffer == null) {
@@ -144,6 +150,7 @@ public class BatchedReadSource extends GenomicIteratorBase {
                 rowBuffer = rowQueue.poll(batchOfferTimeout.toMillis(), TimeUnit.MILLISECONDS);
             }
             pollCount += count+1;
+            pollWaitNs.add(System.nanoTime() - t);
 
             if( gorMonitor != null && rowBuffer != null && pollCount-lastCount > 200 ) {
                 if (isCancelled()) {
@@ -255,6 +262,20 @@ public class BatchedReadSource extends GenomicIteratorBase {
     @Override
     public double getAvgSeekTimeMilliSecond() { return avgSeekTimeMilliSecond; }
 
+    /**
+     * @return Time the reader thread has waited for the consumer to take batches
+     */
+    public long getOfferWaitNanos() {
+        return offerWaitNs.sum();
+    }
+
+    /**
+     * @return Time the consumer has waited for the reader thread to offer batches
+     */
+    public long getPollWaitNanos() {
+        return pollWaitNs.sum();
+    }
+
     @Override
     public double getAvgBatchSize() {
         return avgBatchSize;
@@ -0,0 +1,423 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.parser;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.gorpipe.exceptions.GorSystemException;
+import org.gorpipe.gor.GorScriptParser;
+import org.gorpipe.gor.model.ColumnValueProvider;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * CalcHandleCompiler is a CalcCompiler that compiles the predicates of an expression, comparisons, IN lists
+ * and boolean operators, into a single method handle instead of a tree of lambdas. Once a method handle has
+ * been invoked often enough the JVM spins bytecode for the whole tree, so the predicate is compiled and
+ * inlined as one unit rather than as a chain of megamorphic lambda calls.
+ *
+ * Type checking is still done by CalcCompiler, so an expression fails with the same errors in both compilers.
+ * Constant predicates are folded and AND/OR short circuit as before. Parts of an expression that are not
+ * handled here, such as arithmetic and function calls, are evaluated through the lambdas built by CalcCompiler.
+ */
+public class CalcHandleCompiler extends CalcCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodHandle EVALUATE_BOOLEAN = findVirtual(TypedCalcLambda.class, "evaluateBoolean", boolean.class);
+    private static final MethodHandle EVALUATE_DOUBLE = findVirtual(TypedCalcLambda.class, "evaluateDouble", double.class);
+    private static final MethodHandle EVALUATE_LONG = findVirtual(TypedCalcLambda.class, "evaluateLong", long.class);
+    private static final MethodHandle EVALUATE_STRING = findVirtual(TypedCalcLambda.class, "evaluateString", String.class);
+    private static final MethodHandle STRING_VALUE = findColumnValue("stringValue", String.class);
+    private static final MethodHandle INT_VALUE = findColumnValue("intValue", int.class);
+    private static final MethodHandle LONG_VALUE = findColumnValue("longValue", long.class);
+    private static final MethodHandle DOUBLE_VALUE = findColumnValue("doubleValue", double.class);
+    private static final MethodHandle NOT = findStatic("not", boolean.class);
+    private static final MethodHandle CONTAINS = findStatic("contains", Set.class, String.class);
+    private static final MethodHandle MATCHES = findStatic("matches", Pattern.class, String.class);
+    private static final MethodHandle TRUE = CalcLambdaHandle.constant(true).getHandle();
+    private static final MethodHandle FALSE = CalcLambdaHandle.constant(false).getHandle();
+
+    public CalcHandleCompiler() {
+        super();
+    }
+
+    public CalcHandleCompiler(ParseArith owner) {
+        super(owner);
+    }
+
+    @Override
+    public TypedCalcLambda visitNot_rel_expr(GorScriptParser.Not_rel_exprContext ctx) {
+        TypedCalcLambda expr = ctx.getChild(1).accept(this);
+        if (isConstant(expr)) {
+            return CalcLambdaHandle.constant(!((CalcLambdaHandle) expr).getConstantValue());
+        }
+        return new CalcLambdaHandle(MethodHandles.filterReturnValue(predicate(expr), NOT));
+    }
+
+    @Override
+    public TypedCalcLambda visitIn_expression(GorScriptParser.In_expressionContext ctx) {
+        TypedCalcLambda left = ctx.getChild(0).accept(this);
+
+        Set<String> sl = new HashSet<>();
+
+        ParseTree slCtx = ctx.getChild(2);
+
+        for (int argIx = 1; argIx < slCtx.getChildCount(); argIx += 2) {
+            TypedCalcLambda arg = slCtx.getChild(argIx).accept(this);
+            sl.add(arg.evaluateString(null));
+        }
+
+        if (left instanceof Constant) {
+            return CalcLambdaHandle.constant(sl.contains(left.evaluateString(null)));
+        }
+        return new CalcLambdaHandle(MethodHandles.filterArguments(CONTAINS.bindTo(sl), 0, stringValue(left)));
+    }
+
+    @Override
+    public TypedCalcLambda visitRel_term(GorScriptParser.Rel_termContext ctx) {
+        TypedCalcLambda accumulator = ctx.getChild(0).accept(this);
+        int childCount = ctx.getChildCount();
+        for (int i = 1; i < childCount; i += 2) {
+            int op = ((TerminalNode) ctx.getChild(i)).getSymbol().getType();
+            TypedCalcLambda nextTerm = ctx.getChild(i + 1).accept(this);
+            if (op == GorScriptParser.AND) {
+                if (isConstant(accumulator)) {
+                    accumulator = ((CalcLambdaHandle) accumulator).getConstantValue() ? asPredicate(nextTerm) : accumulator;
+                } else {
+                    accumulator = new CalcLambdaHandle(MethodHandles.guardWithTest(predicate(accumulator), predicate(nextTerm), FALSE));
+                }
+            }
+        }
+        return accumulator;
+    }
+
+    @Override
+    public TypedCalcLambda visitRel_expr(GorScriptParser.Rel_exprContext ctx) {
+        TypedCalcLambda accumulator = ctx.getChild(0).accept(this);
+        int childCount = ctx.getChildCount();
+        for (int i = 1; i < childCount; i += 2) {
+            int op = ((TerminalNode) ctx.getChild(i)).getSymbol().getType();
+            TypedCalcLambda nextTerm = ctx.getChild(i + 1).accept(this);
+            if (op == GorScriptParser.OR) {
+                if (isConstant(accumulator)) {
+                    accumulator = ((CalcLambdaHandle) accumulator).getConstantValue() ? accumulator : asPredicate(nextTerm);
+                } else {
+                    accumulator = new CalcLambdaHandle(MethodHandles.guardWithTest(predicate(accumulator), TRUE, predicate(nextTerm)));
+                }
+            }
+        }
+        return accumulator;
+    }
+
+    @Override
+    public TypedCalcLambda visitCompare_expressions(GorScriptParser.Compare_expressionsContext ctx) {
+        GorScriptParser.ExpressionContext leftCtx = ctx.getChild(GorScriptParser.ExpressionContext.class, 0);
+        GorScriptParser.ExpressionContext rightCtx = ctx.getChild(GorScriptParser.ExpressionContext.class, 1);
+        int op = ((TerminalNode) ctx.getChild(1)).getSymbol().getType();
+
+        TypedCalcLambda left = leftCtx.accept(this);
+        TypedCalcLambda right = rightCtx.accept(this);
+
+        // The lambda checks the types and reports errors as before, it is also the fallback for comparisons
+        // that aren't compiled into handles
+        TypedCalcLambda lambda = left.compare(right, op);
+
+        try {
+            if (left instanceof Constant && right instanceof Constant) {
+                return CalcLambdaHandle.constant(lambda.evaluateBoolean(null));
+            }
+
+            MethodHandle handle = null;
+            TypedCalcLambda leftLambda = left.toLambda();
+            if (left instanceof CalcLambdaVariable && right instanceof StringType
+                    || leftLambda instanceof CalcLambdaString) {
+                handle = compareStrings(stringValue(left), right, op);
+            } else if (leftLambda instanceof CalcLambdaStringConstant && right instanceof StringType) {
+                handle = compareStrings(stringValue(left), right, op);
+            } else if (leftLambda instanceof CalcLambdaNumeric) {
+                if (CalcLambdaNumeric.isWholeNumber(leftLambda) && CalcLambdaNumeric.isWholeNumber(right.toLambda())) {
+                    handle = compareNumbers(longValue(left), longValue(right), long.class, op);
+                } else {
+                    handle = compareNumbers(doubleValue(left), doubleValue(right), double.class, op);
+                }
+            }
+            return handle != null ? new CalcLambdaHandle(handle) : lambda;
+        } catch (RuntimeException e) {
+            // Errors in constant parts, e.g. an invalid regular expression, are reported when evaluating
+            return lambda;
+        }
+    }
+
+    private static MethodHandle compareStrings(MethodHandle left, TypedCalcLambda right, int op) {
+        switch (op) {
+            case GorScriptParser.EQ:
+            case GorScriptParser.S_EQ:
+                return combine(findStatic("eq", String.class, String.class), left, stringValue(right));
+            case GorScriptParser.NE:
+                return combine(findStatic("ne", String.class, String.class), left, stringValue(right));
+            case GorScriptParser.GT:
+                return combine(findStatic("gt", String.class, String.class), left, stringValue(right));
+            case GorScriptParser.GE:
+                return combine(findStatic("ge", String.class, String.class), left, stringValue(right));
+            case GorScriptParser.LT:
+                return combine(findStatic("lt", String.class, String.class), left, stringValue(right));
+            case GorScriptParser.LE:
+                return combine(findStatic("le", String.class, String.class), left, stringValue(right));
+            case GorScriptParser.LIKE:
+                if (right instanceof CalcLambdaStringConstant) {
+                    String pattern = right.evaluateString(null).replace("*", ".*").replace("?", ".");
+                    return MethodHandles.filterArguments(MATCHES.bindTo(Pattern.compile(pattern)), 0, left);
+                }
+                return null;
+            case GorScriptParser.RLIKE:
+                if (right instanceof CalcLambdaStringConstant) {
+                    String pattern = right.evaluateString(null);
+                    return MethodHandles.filterArguments(MATCHES.bindTo(Pattern.compile(pattern)), 0, left);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param type The type of the values, long or double
+     */
+    private static MethodHandle compareNumbers(MethodHandle left, MethodHandle right, Class<?> type, int op) {
+        switch (op) {
+            case GorScriptParser.EQ:
+            case GorScriptParser.S_EQ:
+                return combine(findStatic("eq", type, type), left, right);
+            case GorScriptParser.NE:
+                return combine(findStatic("ne", type, type), left, right);
+            case GorScriptParser.GT:
+                return combine(findStatic("gt", type, type), left, right);
+            case GorScriptParser.GE:
+                return combine(findStatic("ge", type, type), left, right);
+            case GorScriptParser.LT:
+                return combine(findStatic("lt", type, type), left, right);
+            case GorScriptParser.LE:
+                return combine(findStatic("le", type, type), left, right);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Applies a binary operator to the values of two handles taking the same ColumnValueProvider.
+     */
+    private static MethodHandle combine(MethodHandle operator, MethodHandle left, MethodHandle right) {
+        MethodHandle filtered = MethodHandles.filterArguments(operator, 0, left, right);
+        return MethodHandles.permuteArguments(filtered, CalcLambdaHandle.TYPE, 0, 0);
+    }
+
+    private static boolean isConstant(TypedCalcLambda lambda) {
+        return lambda instanceof CalcLambdaHandle && ((CalcLambdaHandle) lambda).isConstant();
+    }
+
+    private static TypedCalcLambda asPredicate(TypedCalcLambda lambda) {
+        return lambda instanceof CalcLambdaHandle ? lambda : new CalcLambdaHandle(predicate(lambda));
+    }
+
+    private static MethodHandle predicate(TypedCalcLambda lambda) {
+        if (lambda instanceof CalcLambdaHandle) {
+            return ((CalcLambdaHandle) lambda).getHandle();
+        }
+        return EVALUATE_BOOLEAN.bindTo(lambda);
+    }
+
+    /**
+     * @return A handle evaluating lambda as a string, the same as lambda.evaluateString
+     */
+    private static MethodHandle stringValue(TypedCalcLambda lambda) {
+        if (lambda instanceof CalcLambdaVariable) {
+            return MethodHandles.insertArguments(STRING_VALUE, 1, ((CalcLambdaVariable) lambda).getColumnIndex());
+        }
+        if (lambda instanceof Constant) {
+            return constant(String.class, lambda.evaluateString(null));
+        }
+        return EVALUATE_STRING.bindTo(lambda);
+    }
+
+    /**
+     * @return A handle evaluating lambda as a number, the same as lambda.toLambda().evaluateDouble
+     */
+    private static MethodHandle doubleValue(TypedCalcLambda lambda) {
+        if (lambda instanceof CalcLambdaVariable) {
+            CalcLambdaVariable variable = (CalcLambdaVariable) lambda;
+            MethodHandle columnValue;
+            switch (variable.getType()) {
+                case "D":
+                    columnValue = DOUBLE_VALUE;
+                    break;
+                case "L":
+                    columnValue = LONG_VALUE;
+                    break;
+                case "I":
+                    columnValue = INT_VALUE;
+                    break;
+                default:
+                    return EVALUATE_DOUBLE.bindTo(lambda.toLambda());
+            }
+            MethodHandle handle = MethodHandles.insertArguments(columnValue, 1, variable.getColumnIndex());
+            return handle.asType(MethodType.methodType(double.class, ColumnValueProvider.class));
+        }
+        if (lambda instanceof Constant) {
+            return constant(double.class, lambda.evaluateDouble(null));
+        }
+        return EVALUATE_DOUBLE.bindTo(lambda.toLambda());
+    }
+
+    /**
+     * @return A handle evaluating an integer or long lambda as a long, the same as lambda.toLambda().evaluateLong
+     */
+    private static MethodHandle longValue(TypedCalcLambda lambda) {
+        if (lambda instanceof CalcLambdaVariable) {
+            CalcLambdaVariable variable = (CalcLambdaVariable) lambda;
+            MethodHandle columnValue = variable.getType().equals("I") ? INT_VALUE : LONG_VALUE;
+            MethodHandle handle = MethodHandles.insertArguments(columnValue, 1, variable.getColumnIndex());
+            return handle.asType(MethodType.methodType(long.class, ColumnValueProvider.class));
+        }
+        if (lambda instanceof Constant) {
+            return constant(long.class, lambda.evaluateLong(null));
+        }
+        return EVALUATE_LONG.bindTo(lambda.toLambda());
+    }
+
+    private static MethodHandle constant(Class<?> type, Object value) {
+        return MethodHandles.dropArguments(MethodHandles.constant(type, value), 0, ColumnValueProvider.class);
+    }
+
+    private static MethodHandle findVirtual(Class<?> owner, String name, Class<?> returnType) {
+        try {
+            return LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, ColumnValueProvider.class));
+        } catch (ReflectiveOperationException e) {
+            throw new GorSystemException(e);
+        }
+    }
+
+    private static MethodHandle findColumnValue(String name, Class<?> returnType) {
+        try {
+            return LOOKUP.findVirtual(ColumnValueProvider.class, name, MethodType.methodType(returnType, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new GorSystemException(e);
+        }
+    }
+
+    private static MethodHandle findStatic(String name, Class<?>... argumentTypes) {
+        try {
+            return LOOKUP.findStatic(CalcHandleCompiler.class, name, MethodType.methodType(boolean.class, argumentTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new GorSystemException(e);
+        }
+    }
+
+    private static boolean not(boolean a) {
+        return !a;
+    }
+
+    private static boolean contains(Set<String> set, String s) {
+        return set.contains(s);
+    }
+
+    private static boolean matches(Pattern pattern, String s) {
+        return pattern.matcher(s).matches();
+    }
+
+    private static boolean eq(double a, double b) {
+        return a == b;
+    }
+
+    private static boolean ne(double a, double b) {
+        return a != b;
+    }
+
+    private static boolean gt(double a, double b) {
+        return a > b;
+    }
+
+    private static boolean ge(double a, double b) {
+        return a >= b;
+    }
+
+    private static boolean lt(double a, double b) {
+        return a < b;
+    }
+
+    private static boolean le(double a, double b) {
+        return a <= b;
+    }
+
+    private static boolean eq(long a, long b) {
+        return a == b;
+    }
+
+    private static boolean ne(long a, long b) {
+        return a != b;
+    }
+
+    private static boolean gt(long a, long b) {
+        return a > b;
+    }
+
+    private static boolean ge(long a, long b) {
+        return a >= b;
+    }
+
+    private static boolean lt(long a, long b) {
+        return a < b;
+    }
+
+    private static boolean le(long a, long b) {
+        return a <= b;
+    }
+
+    private static boolean eq(String a, String b) {
+        return a.equals(b);
+    }
+
+    private static boolean ne(String a, String b) {
+        return !a.equals(b);
+    }
+
+    private static boolean gt(String a, String b) {
+        return a.compareTo(b) > 0;
+    }
+
+    private static boolean ge(String a, String b) {
+        return a.compareTo(b) >= 0;
+    }
+
+    private static boolean lt(String a, String b) {
+        return a.compareTo(b) < 0;
+    }
+
+    private static boolean le(String a, String b) {
+        return a.compareTo(b) <= 0;
+    }
+}
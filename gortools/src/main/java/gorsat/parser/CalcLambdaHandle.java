@@ -0,0 +1,80 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.parser;
+
+import org.gorpipe.exceptions.GorSystemException;
+import org.gorpipe.gor.model.ColumnValueProvider;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * A boolean lambda backed by a method handle taking a ColumnValueProvider and returning a boolean.
+ * See CalcHandleCompiler.
+ */
+public class CalcLambdaHandle extends CalcLambdaBoolean {
+    static final MethodType TYPE = MethodType.methodType(boolean.class, ColumnValueProvider.class);
+
+    private final MethodHandle handle;
+    private final Boolean constantValue;
+
+    CalcLambdaHandle(MethodHandle handle) {
+        this(handle, null);
+    }
+
+    private CalcLambdaHandle(MethodHandle handle, Boolean constantValue) {
+        super(null);
+        this.handle = handle.asType(TYPE);
+        this.constantValue = constantValue;
+    }
+
+    static CalcLambdaHandle constant(boolean value) {
+        MethodHandle handle = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, value),
+                0, ColumnValueProvider.class);
+        return new CalcLambdaHandle(handle, value);
+    }
+
+    MethodHandle getHandle() {
+        return handle;
+    }
+
+    boolean isConstant() {
+        return constantValue != null;
+    }
+
+    boolean getConstantValue() {
+        return constantValue;
+    }
+
+    @Override
+    public boolean evaluateBoolean(ColumnValueProvider cvp) {
+        try {
+            return (boolean) handle.invokeExact(cvp);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new GorSystemException(t);
+        }
+    }
+}
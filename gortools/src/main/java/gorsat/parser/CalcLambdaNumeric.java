@@ -34,6 +34,26 @@ public abstract class CalcLambdaNumeric implements Numeric, TypedCalcLambda {
         if (!(other instanceof Numeric)) {
             throw new GorParsingException("Number can only be compared to another number");
         }
+        if (isWholeNumber(this) && isWholeNumber(other)) {
+            // Longs above 2^53 are not exact as doubles
+            switch (op) {
+                case GorScriptParser.EQ:
+                case GorScriptParser.S_EQ:
+                    return (new CalcLambdaBoolean((ColumnValueProvider cvp) -> evaluateLong(cvp) == other.evaluateLong(cvp)));
+                case GorScriptParser.NE:
+                    return (new CalcLambdaBoolean((ColumnValueProvider cvp) -> evaluateLong(cvp) != other.evaluateLong(cvp)));
+                case GorScriptParser.GT:
+                    return (new CalcLambdaBoolean((ColumnValueProvider cvp) -> evaluateLong(cvp) > other.evaluateLong(cvp)));
+                case GorScriptParser.GE:
+                    return (new CalcLambdaBoolean((ColumnValueProvider cvp) -> evaluateLong(cvp) >= other.evaluateLong(cvp)));
+                case GorScriptParser.LT:
+                    return (new CalcLambdaBoolean((ColumnValueProvider cvp) -> evaluateLong(cvp) < other.evaluateLong(cvp)));
+                case GorScriptParser.LE:
+                    return (new CalcLambdaBoolean((ColumnValueProvider cvp) -> evaluateLong(cvp) <= other.evaluateLong(cvp)));
+                default:
+                    throw new GorParsingException("Unknown operator");
+            }
+        }
         switch (op) {
             case GorScriptParser.EQ:
             case GorScriptParser.S_EQ:
@@ -52,4 +72,11 @@ public abstract class CalcLambdaNumeric implements Numeric, TypedCalcLambda {
                 throw new GorParsingException("Unknown operator");
         }
     }
+
+    /**
+     * @return Whether the lambda evaluates to an integer or a long
+     */
+    static boolean isWholeNumber(TypedCalcLambda lambda) {
+        return lambda instanceof IntegerType || lambda instanceof LongType;
+    }
 }
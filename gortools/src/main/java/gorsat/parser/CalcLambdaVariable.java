@@ -62,6 +62,10 @@ public class CalcLambdaVariable implements TypedCalcLambda {
         return columnType;
     }
 
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
     @Override
     public int evaluateInt(ColumnValueProvider cvp) {
         return cvp.intValue(columnIndex);
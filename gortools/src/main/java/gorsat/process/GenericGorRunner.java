@@ -24,6 +24,7 @@ package gorsat.process;
 
 import gorsat.BatchedReadSource;
 import gorsat.Commands.Processor;
+import gorsat.Monitors.ProfileMonitor;
 import org.gorpipe.gor.model.GenomicIterator;
 import org.gorpipe.gor.session.GorRunner;
 
@@ -52,6 +53,10 @@ public class GenericGorRunner extends GorRunner {
             while (brs.hasNext() && !processor.wantsNoMore()) {
                 processor.process(brs.next());
             }
+            if (brs instanceof BatchedReadSource) {
+                BatchedReadSource batched = (BatchedReadSource) brs;
+                ProfileMonitor.recordReadWait(processor, batched.getPollWaitNanos(), batched.getOfferWaitNanos());
+            }
         } catch (Exception ex) {
             exception = ex;
             throw ex;
@@ -22,60 +22,170 @@
 
 package gorsat.process;
 
+import org.gorpipe.base.concurrency.CommonThreadPools;
 import scala.Function0;
 import scala.Unit;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class encapsulates a general execution in parallel of the pgor command when a
  * standard parallel query handler is not used.
+ * <p>
+ * The commands are run on a pool shared by all queries in the process, so the number of threads running commands
+ * is bounded no matter how many queries run at the same time. Each execution gets a fair share of the pool, and the
+ * calling thread runs commands as well so nested executions make progress when the pool is busy.
  */
 public class ParallelExecutor {
 
-    private Throwable firstException;
-    private final Thread[] threads;
+    private static final AtomicInteger activeExecutions = new AtomicInteger();
+
+    private final int workers;
     private final Function0<Unit>[] commands;
+    private final ForkJoinPool pool;
+    private final ConcurrentLinkedQueue<Function0<Unit>> queue = new ConcurrentLinkedQueue<>();
+    private final Set<Thread> helperThreads = new HashSet<>();
+    // The calling thread while it runs commands, and whether a failure interrupted it. Guarded by this.
+    private Thread caller;
+    private boolean callerInterrupted;
+    private volatile Throwable firstException;
 
     public ParallelExecutor(int workers, Function0<Unit>[] commands) {
+        this(workers, commands, CommonThreadPools.queryThreadPool);
+    }
+
+    ParallelExecutor(int workers, Function0<Unit>[] commands, ForkJoinPool pool) {
+        this.workers = workers;
         this.commands = commands;
-        this.threads = new Thread[workers];
+        this.pool = pool;
         this.firstException = null;
     }
 
     @SuppressWarnings("squid:S00112") // We need to handle Throwable here, sorry
     public void parallelExecute() throws Throwable {
-        ConcurrentLinkedQueue<Function0<Unit>> clq = new ConcurrentLinkedQueue<>(Arrays.asList(commands));
-        for( int i = 0; i < threads.length; i++ ) {
-            Thread t = new Thread(() -> {
-                Function0<Unit> func = clq.poll();
-                while( func != null ) {
-                    func.apply();
-                    func = clq.poll();
-                }
-            }, "ParallelExecutorThread-" + i);
-            t.setUncaughtExceptionHandler(this::parallelExcecuteUncaughtExceptionHandler);
-            t.start();
-            threads[i] = t;
-        }
-        for( Thread t : threads ) {
-            t.join();
+        queue.addAll(Arrays.asList(commands));
+        int active = activeExecutions.incrementAndGet();
+        try {
+            int share = Math.max(1, pool.getParallelism() / active);
+            // The calling thread is one of the workers
+            int helperCount = Math.min(Math.min(workers, share), commands.length) - 1;
+            List<Helper> helpers = new ArrayList<>();
+            for (int i = 0; i < helperCount; i++) {
+                Helper helper = new Helper();
+                helpers.add(helper);
+                pool.execute(helper);
+            }
+
+            drainOnCaller();
+
+            for (Helper helper : helpers) {
+                helper.claimOrAwait();
+            }
             if (firstException != null) {
                 throw firstException;
             }
+        } finally {
+            activeExecutions.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return Number of parallel executions currently running in the process
+     */
+    public static int getActiveExecutions() {
+        return activeExecutions.get();
+    }
+
+    private void drainOnCaller() {
+        synchronized (this) {
+            caller = Thread.currentThread();
+        }
+        try {
+            drain();
+        } finally {
+            synchronized (this) {
+                caller = null;
+                // Only clear an interrupt caused by a failure in another command, the caller may be cancelled
+                if (callerInterrupted) {
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("squid:S1181") // Any failure of a command fails the execution
+    private void drain() {
+        Function0<Unit> func = queue.poll();
+        while (func != null && firstException == null) {
+            try {
+                func.apply();
+            } catch (Throwable t) {
+                failed(t);
+                return;
+            }
+            func = queue.poll();
         }
     }
 
-    private synchronized void parallelExcecuteUncaughtExceptionHandler(Thread thread, Throwable throwable) {
+    private synchronized void failed(Throwable throwable) {
         if (firstException == null) {
             firstException = throwable;
-            for (Thread t : threads) {
-                if (t != thread) {
+            queue.clear();
+            Thread current = Thread.currentThread();
+            for (Thread t : helperThreads) {
+                if (t != current) {
                     t.interrupt();
                 }
             }
+            if (caller != null && caller != current) {
+                caller.interrupt();
+                callerInterrupted = true;
+            }
         }
     }
 
+    /**
+     * Runs commands on a pool thread. A helper that has not started when the calling thread runs out of commands is
+     * claimed by the calling thread and does nothing, so the caller never waits for a pool thread to become free.
+     */
+    private class Helper implements Runnable {
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            Thread current = Thread.currentThread();
+            synchronized (ParallelExecutor.this) {
+                helperThreads.add(current);
+            }
+            try {
+                drain();
+            } finally {
+                synchronized (ParallelExecutor.this) {
+                    helperThreads.remove(current);
+                    // Pool threads are reused, clear an interrupt caused by a failure in another command
+                    Thread.interrupted();
+                }
+                done.countDown();
+            }
+        }
+
+        void claimOrAwait() throws InterruptedException {
+            if (!started.compareAndSet(false, true)) {
+                done.await();
+            }
+        }
+    }
 }
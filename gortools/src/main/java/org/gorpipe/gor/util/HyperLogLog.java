@@ -0,0 +1,200 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A HyperLogLog sketch for estimating the number of distinct values in a stream, see Flajolet et al.,
+ * "HyperLogLog: the analysis of a near-optimal cardinality estimation algorithm".
+ * <p>
+ * The sketch has 2^precision registers of one byte each, the relative error of the estimate is about
+ * 1.04/sqrt(2^precision), 1.6% with the default precision. Until the number of distinct hashes reaches an eighth
+ * of the number of registers the hashes themselves are kept, so small counts are exact. Sketches with the same
+ * precision can be merged.
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final int exactLimit;
+    private Set<Long> exact = new HashSet<>();
+    private byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.exactLimit = (1 << precision) / 8;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(CharSequence value) {
+        addHash(hash(value));
+    }
+
+    public void add(double value) {
+        // 0.0 and -0.0 are the same value
+        addHash(mix(Double.doubleToLongBits(value + 0.0)));
+    }
+
+    public void addHash(long hash) {
+        if (exact != null) {
+            exact.add(hash);
+            if (exact.size() > exactLimit) toRegisters();
+        } else {
+            addToRegisters(hash);
+        }
+    }
+
+    private void addToRegisters(long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        final int rank = Math.min(Long.numberOfLeadingZeros(hash << precision), 64 - precision) + 1;
+        if (rank > registers[index]) registers[index] = (byte) rank;
+    }
+
+    /**
+     * Adds the values of other to this sketch.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches with precision " + precision + " and " + other.precision);
+        }
+        if (other.exact != null) {
+            for (long hash : other.exact) {
+                addHash(hash);
+            }
+            return;
+        }
+        if (exact != null) toRegisters();
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+        }
+    }
+
+    private void toRegisters() {
+        registers = new byte[1 << precision];
+        for (long hash : exact) {
+            addToRegisters(hash);
+        }
+        exact = null;
+    }
+
+    /**
+     * @return Estimated number of distinct values added to the sketch
+     */
+    public long estimate() {
+        if (exact != null) return exact.size();
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        final double alpha = 0.7213 / (1 + 1.079 / m);
+        final double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        if (exact != null) {
+            // Sorted so the same values always give the same bytes
+            final long[] hashes = exact.stream().mapToLong(Long::longValue).sorted().toArray();
+            out.writeInt(hashes.length);
+            for (long hash : hashes) {
+                out.writeLong(hash);
+            }
+        } else {
+            out.writeInt(-1);
+            out.write(registers);
+        }
+    }
+
+    /**
+     * @throws IOException if the input is not a sketch written by {@link #write}
+     */
+    public static HyperLogLog read(DataInput in) throws IOException {
+        final int precision = in.readByte();
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IOException("Invalid distinct sketch, precision is " + precision);
+        }
+        final HyperLogLog sketch = new HyperLogLog(precision);
+        final int count = in.readInt();
+        if (count < -1 || count > sketch.exactLimit) {
+            throw new IOException("Invalid distinct sketch with " + count + " hashes");
+        }
+        if (count < 0) {
+            sketch.exact = null;
+            sketch.registers = new byte[1 << sketch.precision];
+            in.readFully(sketch.registers);
+        } else {
+            for (int i = 0; i < count; i++) {
+                sketch.addHash(in.readLong());
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the characters, with the murmur3 finalizer to spread the bits.
+     */
+    static long hash(CharSequence value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            h = (h ^ (c & 0xff)) * 0x100000001b3L;
+            h = (h ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
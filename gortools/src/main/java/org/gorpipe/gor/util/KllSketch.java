@@ -0,0 +1,293 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A KLL quantile sketch of a stream of numbers, see Karnin, Lang and Liberty, "Optimal Quantile Approximation in
+ * Streams".
+ * <p>
+ * The sketch keeps a hierarchy of compactors, an item on level h stands for 2^h values of the stream. When the
+ * sketch is full a level is sorted and every other item in it is promoted to the level above, so the memory is
+ * bounded by roughly 3k items no matter how many values are added. The rank error of a quantile is about 1.7/k of
+ * the number of values. Sketches with the same k can be merged, so sketches of parts of a stream can be combined
+ * into a sketch of the whole stream. The items are kept exactly until the first compaction, so quantiles and the
+ * median of short streams are exact.
+ */
+public class KllSketch {
+
+    public static final int DEFAULT_K = 200;
+
+    private static final double C = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 2;
+    // An item on level h has weight 2^h
+    private static final int MAX_HEIGHT = 63;
+
+    private final int k;
+    private double[][] levels = new double[0][];
+    private int[] sizes = new int[0];
+    private int size;
+    private int maxSize;
+    private long n;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    // Deterministic coin for the compactions, so the same input always gives the same sketch
+    private long seed = 0x9E3779B97F4A7C15L;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k Accuracy parameter, the size of the top level of the sketch
+     */
+    public KllSketch(int k) {
+        if (k < MIN_CAPACITY) throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY);
+        this.k = k;
+        grow();
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return Number of values added to the sketch
+     */
+    public long getN() {
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public void update(double value) {
+        if (Double.isNaN(value)) return;
+        if (n == 0) {
+            min = value;
+            max = value;
+        } else {
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+        n++;
+        append(0, value);
+        size++;
+        if (size >= maxSize) compress();
+    }
+
+    /**
+     * Adds the values of other to this sketch.
+     */
+    public void merge(KllSketch other) {
+        if (other.k != k) throw new IllegalArgumentException("Cannot merge sketches with k " + k + " and " + other.k);
+        if (other.n == 0) return;
+        if (n == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        n += other.n;
+        while (levels.length < other.levels.length) grow();
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        size = retained();
+        while (size >= maxSize) compress();
+    }
+
+    /**
+     * @return The median, the mean of the two middle values of an even number of values while no values have been
+     * compacted, the same as the exact median. NaN if the sketch is empty.
+     */
+    public double median() {
+        if (n == 0) return Double.NaN;
+        // Without compactions every item has weight one and is on the first level
+        if (n % 2 == 0 && retained() == n) {
+            final double[] values = Arrays.copyOf(levels[0], sizes[0]);
+            Arrays.sort(values);
+            final int middle = (int) (n / 2);
+            return (values[middle - 1] + values[middle]) / 2.0;
+        }
+        return quantile(0.5);
+    }
+
+    /**
+     * @param fraction Rank of the quantile, between 0 and 1
+     * @return The value at the given rank, the upper of the two middle values for rank 0.5 of an even number of
+     * values. NaN if the sketch is empty.
+     */
+    public double quantile(double fraction) {
+        if (n == 0) return Double.NaN;
+        if (fraction <= 0) return min;
+        if (fraction >= 1) return max;
+
+        final int count = retained();
+        final double[] values = new double[count];
+        final long[] weights = new long[count];
+        int c = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[c] = levels[h][i];
+                weights[c] = 1L << h;
+                c++;
+            }
+        }
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        final double target = fraction * n;
+        long cumulative = 0;
+        for (int i : order) {
+            cumulative += weights[i];
+            if (cumulative > target) return values[i];
+        }
+        return max;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(k);
+        out.writeLong(n);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeInt(levels.length);
+        for (int h = 0; h < levels.length; h++) {
+            out.writeInt(sizes[h]);
+            for (int i = 0; i < sizes[h]; i++) {
+                out.writeDouble(levels[h][i]);
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if the input is not a sketch written by {@link #write}
+     */
+    public static KllSketch read(DataInput in) throws IOException {
+        final int k = in.readInt();
+        if (k < MIN_CAPACITY) throw new IOException("Invalid quantile sketch, k is " + k);
+        final KllSketch sketch = new KllSketch(k);
+        sketch.n = in.readLong();
+        sketch.min = in.readDouble();
+        sketch.max = in.readDouble();
+        final int height = in.readInt();
+        if (sketch.n < 0 || height < 1 || height > MAX_HEIGHT) {
+            throw new IOException("Invalid quantile sketch of " + sketch.n + " values with " + height + " levels");
+        }
+        while (sketch.levels.length < height) sketch.grow();
+        for (int h = 0; h < height; h++) {
+            final int levelSize = in.readInt();
+            // A written sketch is compressed, it holds fewer items than its maximum size
+            if (levelSize < 0 || sketch.retained() + levelSize >= sketch.maxSize) {
+                throw new IOException("Invalid quantile sketch, level " + h + " has " + levelSize + " items");
+            }
+            for (int i = 0; i < levelSize; i++) {
+                sketch.append(h, in.readDouble());
+            }
+        }
+        sketch.size = sketch.retained();
+        if (sketch.size > sketch.n) {
+            throw new IOException("Invalid quantile sketch, " + sketch.size + " items for " + sketch.n + " values");
+        }
+        return sketch;
+    }
+
+    private int capacity(int level) {
+        final int depth = levels.length - level - 1;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(Math.pow(C, depth) * k) + 1);
+    }
+
+    private void grow() {
+        final int height = levels.length + 1;
+        levels = Arrays.copyOf(levels, height);
+        sizes = Arrays.copyOf(sizes, height);
+        levels[height - 1] = new double[MIN_CAPACITY];
+        maxSize = 0;
+        for (int h = 0; h < height; h++) {
+            maxSize += capacity(h);
+        }
+    }
+
+    private void append(int level, double value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][sizes[level]++] = value;
+    }
+
+    private int retained() {
+        int count = 0;
+        for (int s : sizes) count += s;
+        return count;
+    }
+
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] >= capacity(h)) {
+                if (h + 1 >= levels.length) grow();
+                compact(h);
+                size = retained();
+                if (size < maxSize) break;
+            }
+        }
+    }
+
+    /**
+     * Sorts the level and promotes every other item of it to the level above, an odd item is left on the level.
+     */
+    private void compact(int level) {
+        final double[] items = levels[level];
+        final int count = sizes[level];
+        Arrays.sort(items, 0, count);
+        final int first = count & 1;
+        final int offset = first + (coin() ? 1 : 0);
+        for (int i = offset; i < count; i += 2) {
+            append(level + 1, items[i]);
+        }
+        sizes[level] = first;
+    }
+
+    private boolean coin() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (seed & 1) == 1;
+    }
+}
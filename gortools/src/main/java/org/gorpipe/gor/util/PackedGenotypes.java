@@ -0,0 +1,314 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import java.util.Arrays;
+
+/**
+ * A matrix of genotypes packed two bits each, for pairwise statistics between genotype vectors.
+ * <p>
+ * Each row of the matrix is a vector of genotypes, such as the genotypes of a sample over variants or the
+ * genotypes of a variant over samples, given by the characters 0 (hom-ref), 1 (het), 2 (hom-alt) and 3 (missing).
+ * A row is stored as two bit-planes, the low and the high bit of the genotype, with 64 genotypes in each word, so
+ * the pairwise counts are computed a word at a time with bitwise operations and popcounts. Characters other than
+ * 0, 1 and 2 are stored as missing, as are genotypes that have not been set.
+ */
+public class PackedGenotypes {
+
+    /** Index of the opposite homozygote count (0/2 or 2/0) in the counts from {@link #kingCounts}. */
+    public static final int IBS0 = 0;
+    /** Index of the squared genotype difference sum in the counts from {@link #kingCounts}. */
+    public static final int XX = 1;
+    /** Index of the count of genotypes that are het in both rows in the counts from {@link #kingCounts}. */
+    public static final int HET_HET = 2;
+    /** Index of the count of genotypes that are het in the first row in the counts from {@link #kingCounts}. */
+    public static final int HET_A = 3;
+    /** Index of the count of genotypes that are het in the second row in the counts from {@link #kingCounts}. */
+    public static final int HET_B = 4;
+    /** Index of the count of genotypes that are non-missing in both rows in the counts from {@link #kingCounts}. */
+    public static final int BOTH_VALID = 5;
+    public static final int KING_COUNTS = 6;
+
+    private final long[][] low;
+    private final long[][] high;
+    private final int length;
+
+    /**
+     * @param rows   Number of genotype vectors
+     * @param length Number of genotypes in each vector
+     */
+    public PackedGenotypes(int rows, int length) {
+        final int words = (length + 63) >>> 6;
+        this.low = new long[rows][words];
+        this.high = new long[rows][words];
+        this.length = length;
+        clear();
+    }
+
+    /**
+     * @return A single row holding the genotypes in values
+     */
+    public static PackedGenotypes of(CharSequence values) {
+        final PackedGenotypes genotypes = new PackedGenotypes(1, values.length());
+        for (int i = 0; i < values.length(); i++) {
+            genotypes.set(0, i, values.charAt(i));
+        }
+        return genotypes;
+    }
+
+    public int rows() {
+        return low.length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Sets all genotypes to missing.
+     */
+    public void clear() {
+        for (int row = 0; row < low.length; row++) {
+            Arrays.fill(low[row], -1L);
+            Arrays.fill(high[row], -1L);
+        }
+    }
+
+    public void set(int row, int index, char gt) {
+        final int word = index >>> 6;
+        final long bit = 1L << index;
+        switch (gt) {
+            case '0':
+                low[row][word] &= ~bit;
+                high[row][word] &= ~bit;
+                break;
+            case '1':
+                low[row][word] |= bit;
+                high[row][word] &= ~bit;
+                break;
+            case '2':
+                low[row][word] &= ~bit;
+                high[row][word] |= bit;
+                break;
+            default:
+                low[row][word] |= bit;
+                high[row][word] |= bit;
+        }
+    }
+
+    public char get(int row, int index) {
+        final int word = index >>> 6;
+        return (char) ('0' + ((low[row][word] >>> index) & 1) + 2 * ((high[row][word] >>> index) & 1));
+    }
+
+    /**
+     * @return The number of het or hom-alt genotypes in the row
+     */
+    public int carriers(int row) {
+        int count = 0;
+        for (int w = 0; w < low[row].length; w++) {
+            count += Long.bitCount(low[row][w] ^ high[row][w]);
+        }
+        return count;
+    }
+
+    private static long homRef(long l, long h) {
+        return ~(l | h);
+    }
+
+    private static long het(long l, long h) {
+        return l & ~h;
+    }
+
+    private static long homAlt(long l, long h) {
+        return h & ~l;
+    }
+
+    private static long valid(long l, long h) {
+        return ~(l & h);
+    }
+
+    /**
+     * @return The number of genotypes that are non-missing in both row i of a and row j of b
+     */
+    public static int bothValid(PackedGenotypes a, int i, PackedGenotypes b, int j) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            count += Long.bitCount(valid(la[w], ha[w]) & valid(lb[w], hb[w]));
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of genotypes that are hom-ref in one row and hom-alt in the other
+     */
+    public static int ibs0(PackedGenotypes a, int i, PackedGenotypes b, int j) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            count += Long.bitCount(homRef(la[w], ha[w]) & homAlt(lb[w], hb[w])
+                    | homAlt(la[w], ha[w]) & homRef(lb[w], hb[w]));
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of genotypes that are het in both rows
+     */
+    public static int hetHet(PackedGenotypes a, int i, PackedGenotypes b, int j) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            count += Long.bitCount(het(la[w], ha[w]) & het(lb[w], hb[w]));
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of genotypes that are non-missing and equal in both rows
+     */
+    public static int concordance(PackedGenotypes a, int i, PackedGenotypes b, int j) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            count += Long.bitCount(~(la[w] ^ lb[w]) & ~(ha[w] ^ hb[w]) & valid(la[w], ha[w]));
+        }
+        return count;
+    }
+
+    /**
+     * Counts the genotype combinations of two rows, for linkage disequilibrium.
+     *
+     * @param counts Receives the number of genotypes that are x in row i of a and y in row j of b at index x + 3y,
+     *               for x and y in 0, 1 and 2
+     */
+    public static void ldCounts(PackedGenotypes a, int i, PackedGenotypes b, int j, int[] counts) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        Arrays.fill(counts, 0, 9, 0);
+        for (int w = 0; w < words; w++) {
+            final long a0 = homRef(la[w], ha[w]), a1 = het(la[w], ha[w]), a2 = homAlt(la[w], ha[w]);
+            final long b0 = homRef(lb[w], hb[w]), b1 = het(lb[w], hb[w]), b2 = homAlt(lb[w], hb[w]);
+            counts[0] += Long.bitCount(a0 & b0);
+            counts[1] += Long.bitCount(a1 & b0);
+            counts[2] += Long.bitCount(a2 & b0);
+            counts[3] += Long.bitCount(a0 & b1);
+            counts[4] += Long.bitCount(a1 & b1);
+            counts[5] += Long.bitCount(a2 & b1);
+            counts[6] += Long.bitCount(a0 & b2);
+            counts[7] += Long.bitCount(a1 & b2);
+            counts[8] += Long.bitCount(a2 & b2);
+        }
+    }
+
+    /**
+     * Computes the counts of the KING kinship estimator for two rows in one pass, over the genotypes that are
+     * non-missing in both rows.
+     *
+     * @param counts Receives the counts, at the indices {@link #IBS0}, {@link #XX}, {@link #HET_HET},
+     *               {@link #HET_A}, {@link #HET_B} and {@link #BOTH_VALID}
+     */
+    public static void kingCounts(PackedGenotypes a, int i, PackedGenotypes b, int j, int[] counts) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        int ibs0 = 0, oneApart = 0, hetHet = 0, hetA = 0, hetB = 0, bothValid = 0;
+        for (int w = 0; w < words; w++) {
+            final long valid = valid(la[w], ha[w]) & valid(lb[w], hb[w]);
+            final long a1 = het(la[w], ha[w]) & valid;
+            final long b1 = het(lb[w], hb[w]) & valid;
+            final long ahom = (homRef(la[w], ha[w]) | homAlt(la[w], ha[w])) & valid;
+            final long bhom = (homRef(lb[w], hb[w]) | homAlt(lb[w], hb[w])) & valid;
+            // Both homozygous and different in the high bit, i.e. 0/2 or 2/0
+            ibs0 += Long.bitCount(ahom & bhom & (ha[w] ^ hb[w]));
+            oneApart += Long.bitCount(a1 & bhom | ahom & b1);
+            hetHet += Long.bitCount(a1 & b1);
+            hetA += Long.bitCount(a1);
+            hetB += Long.bitCount(b1);
+            bothValid += Long.bitCount(valid);
+        }
+        counts[IBS0] = ibs0;
+        counts[XX] = oneApart + 4 * ibs0;
+        counts[HET_HET] = hetHet;
+        counts[HET_A] = hetA;
+        counts[HET_B] = hetB;
+        counts[BOTH_VALID] = bothValid;
+    }
+
+    /**
+     * Counts the carriers, het or hom-alt genotypes, of row i of a against row j of b.
+     *
+     * @param counts Receives the number of genotypes that are carriers in both rows at index 0, and the number of
+     *               genotypes that are carriers in row i of a and non-missing in row j of b at index 1
+     */
+    public static void carrierCounts(PackedGenotypes a, int i, PackedGenotypes b, int j, int[] counts) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        int shared = 0, valid = 0;
+        for (int w = 0; w < words; w++) {
+            final long carrier = la[w] ^ ha[w];
+            shared += Long.bitCount(carrier & (lb[w] ^ hb[w]));
+            valid += Long.bitCount(carrier & valid(lb[w], hb[w]));
+        }
+        counts[0] = shared;
+        counts[1] = valid;
+    }
+
+    /**
+     * Adds the weights of the genotypes that are non-missing in both rows to sum, in the order of the genotypes,
+     * so the result is the same as adding them one genotype at a time.
+     */
+    public static double sumWeights(PackedGenotypes a, int i, PackedGenotypes b, int j, float[] weights, double sum) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        for (int w = 0; w < words; w++) {
+            long valid = valid(la[w], ha[w]) & valid(lb[w], hb[w]);
+            while (valid != 0) {
+                sum += weights[(w << 6) + Long.numberOfTrailingZeros(valid)];
+                valid &= valid - 1;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Adds the weights of the genotypes that are non-missing in both rows to sum, as {@link #sumWeights} but
+     * summing in single precision.
+     */
+    public static float sumWeightsFloat(PackedGenotypes a, int i, PackedGenotypes b, int j, float[] weights, float sum) {
+        final long[] la = a.low[i], ha = a.high[i], lb = b.low[j], hb = b.high[j];
+        final int words = Math.min(la.length, lb.length);
+        for (int w = 0; w < words; w++) {
+            long valid = valid(la[w], ha[w]) & valid(lb[w], hb[w]);
+            while (valid != 0) {
+                sum += weights[(w << 6) + Long.numberOfTrailingZeros(valid)];
+                valid &= valid - 1;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+
+/**
+ * Sketch of the values of a column, with a {@link KllSketch} for quantiles of numeric values and a
+ * {@link HyperLogLog} for the number of distinct values. Either part can be left out.
+ * <p>
+ * A sketch is serialized to a base64 string so it can be stored in a column, and sketches of parts of the data,
+ * such as pgor partitions or buckets, can be merged into a sketch of all the data.
+ */
+public class ValueSketch {
+
+    private static final byte VERSION = 1;
+    private static final int HAS_QUANTILES = 1;
+    private static final int HAS_DISTINCT = 2;
+
+    private KllSketch quantiles;
+    private HyperLogLog distinct;
+
+    /**
+     * @param quantiles Whether to sketch quantiles, only meaningful for numeric values
+     * @param distinct  Whether to sketch the number of distinct values
+     */
+    public ValueSketch(boolean quantiles, boolean distinct) {
+        this.quantiles = quantiles ? new KllSketch() : null;
+        this.distinct = distinct ? new HyperLogLog() : null;
+    }
+
+    private ValueSketch(KllSketch quantiles, HyperLogLog distinct) {
+        this.quantiles = quantiles;
+        this.distinct = distinct;
+    }
+
+    public boolean hasQuantiles() {
+        return quantiles != null;
+    }
+
+    public boolean hasDistinct() {
+        return distinct != null;
+    }
+
+    public void add(double value) {
+        if (quantiles != null) quantiles.update(value);
+        if (distinct != null) distinct.add(value);
+    }
+
+    public void add(CharSequence value) {
+        if (distinct != null) distinct.add(value);
+    }
+
+    /**
+     * Adds the values of other to this sketch. A part missing from either sketch is dropped, as it no longer
+     * describes all the values.
+     */
+    public void merge(ValueSketch other) {
+        if (quantiles != null && other.quantiles != null) {
+            quantiles.merge(other.quantiles);
+        } else {
+            quantiles = null;
+        }
+        if (distinct != null && other.distinct != null) {
+            distinct.merge(other.distinct);
+        } else {
+            distinct = null;
+        }
+    }
+
+    /**
+     * @return The approximate median, NaN if there are no numeric values in the sketch
+     * @see KllSketch#median()
+     */
+    public double median() {
+        return quantiles != null ? quantiles.median() : Double.NaN;
+    }
+
+    /**
+     * @return The approximate upper median, the upper of the two middle values of an even number of values. NaN if
+     * there are no numeric values in the sketch
+     */
+    public double upperMedian() {
+        return quantiles != null ? quantiles.quantile(0.5) : Double.NaN;
+    }
+
+    /**
+     * @return The approximate number of distinct values, -1 if distinct values are not sketched
+     */
+    public long distinctCount() {
+        return distinct != null ? distinct.estimate() : -1;
+    }
+
+    public String serialize() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeByte((quantiles != null ? HAS_QUANTILES : 0) | (distinct != null ? HAS_DISTINCT : 0));
+            if (quantiles != null) quantiles.write(out);
+            if (distinct != null) distinct.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @param value A sketch from {@link #serialize}
+     * @return The sketch
+     * @throws IllegalArgumentException if the value is not a valid sketch
+     */
+    public static ValueSketch parse(CharSequence value) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(value.toString())))) {
+            final byte version = in.readByte();
+            if (version != VERSION) throw new IllegalArgumentException("Unsupported sketch version " + version);
+            final int parts = in.readByte();
+            final KllSketch quantiles = (parts & HAS_QUANTILES) != 0 ? KllSketch.read(in) : null;
+            final HyperLogLog distinct = (parts & HAS_DISTINCT) != 0 ? HyperLogLog.read(in) : null;
+            return new ValueSketch(quantiles, distinct);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid sketch", e);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.gorpipe.exceptions.GorDataException
 import org.gorpipe.gor.model.{Line, Row}
 import org.gorpipe.gor.monitor.GorMonitor
 import org.gorpipe.gor.session.GorSession
+import org.gorpipe.gor.util.PackedGenotypes
 import org.gorpipe.model.gor.{BinaryHolder, RowObj}
 import org.gorpipe.model.gor.iterators.LineIterator
 
@@ -228,6 +229,8 @@ object GorKing2 {
                            uv: String) extends BinFactory {
     def create: BinState =
       KingState(session, lookupSignature, buckCol, valCol, grCols, afCol, sepVal, valSize, uv)
+
+    override def isParallelizable: Boolean = true
   }
 
   case class BucketInfo(pbt: PnBucketTable, pns1: Array[Int], pns2: Array[Int])
@@ -262,7 +265,7 @@ object GorKing2 {
     var numberOfPNs = 1;
     var markerNumber = 0
 
-    var gtbarray : Array[Array[Byte]] = null
+    var genotypes : PackedGenotypes = null
     var tpqc : Array[Float] = null
     var kpqc : Array[Float] = null
     /*
@@ -271,23 +274,12 @@ object GorKing2 {
     var pns1 : Array[Int] = null
     var pns2 : Array[Int] = null
 
-    def setGTb(pn : Int, marker : Int, gt : Char) : Unit = { /* only to be used once per seat */
-      val shift = (marker % 4)*2
-      val mpos = marker / 4
-      gtbarray(pn)(mpos) = (gtbarray(pn)(mpos) | (((gt-'0') & 3) << shift)).toByte
-    }
-    def getGTb(pn : Int, marker : Int) : Char = { /* not used in the optimized access */
-      val shift : Int = (marker % 4)*2
-      val mpos : Int = marker / 4
-      return ('0'+((gtbarray(pn)(mpos) >>> shift) & 3)).toChar
-    }
-
     override def process(r: Row): Unit = {
       bh = r.bH.asInstanceOf[binaryHolder]
       if (needsInitialization) {
         needsInitialization = false
         numberOfPNs = bh.GTS.length
-        gtbarray = Array.ofDim[Byte](numberOfPNs,(maxVars+3)/4)
+        genotypes = new PackedGenotypes(numberOfPNs, maxVars)
         val af = bh.af
         tpqc = Array.ofDim[Float](maxVars)
         kpqc = Array.ofDim[Float](maxVars)
@@ -303,8 +295,9 @@ object GorKing2 {
         kpqc(markerNumber) = 2.0f*af*(1.0f-af)
         var pn = 0
         while (pn < numberOfPNs) {
+          // Values other than 0, 1 and 2 are read by their two lowest bits, 3 being missing
           val gt = bh.GTS(pn)
-          setGTb(pn, markerNumber, gt)
+          genotypes.set(pn, markerNumber, ('0' + ((gt - '0') & 3)).toChar)
           pn += 1
         }
         markerNumber += 1
@@ -320,61 +313,21 @@ object GorKing2 {
     def process_group(pns1 : Array[Int], pns2 : Array[Int], symmetric_PNlists : Boolean): Unit = {
       val skip_test = if (!t_pi0 && !t_phi && !t_theta) true else false
       var outrows : List[Row] = Nil
+      val counts = new Array[Int](PackedGenotypes.KING_COUNTS)
       pns1.foreach(pn1 => {
         if (!wantsNoMore) {
           pns2.foreach(pn2 => {
             if (!wantsNoMore && (!symmetric_PNlists || pn1 < pn2)) {
-              var IBS0: Int = 0
-              var XX: Int = 0
-              var Nhet: Int = 0
-              var Nhom: Int = 0
-              var NAai: Int = 0
-              var NAaj: Int = 0
-              var tpq: Double = 0.0
-              var kpq: Double = 0.0
-              var count: Int = 0
-
-              var mi = 0
-              var shift = 0
-              var mpos = 0
-              var temp1 = gtbarray(pn1)(mpos)
-              var temp2 = gtbarray(pn2)(mpos)
-
-              while (mi < markerNumber) {
-
-                val gt1 = ('0' + ((temp1 >>> shift) & 3)).toChar
-                val gt2 = ('0' + ((temp2 >>> shift) & 3)).toChar
-
-                if (gt1 != '3' && gt2 != '3') {
-                  count += 1
-                  tpq += tpqc(mi)
-                  kpq += kpqc(mi)
-
-                  if (gt1 == '0' && gt2 == '2' || gt1 == '2' && gt2 == '0') IBS0 += 1
-
-                  if (gt1 == '0' && gt2 == '1' || gt1 == '1' && gt2 == '0' || gt1 == '2' && gt2 == '1' || gt1 == '1' && gt2 == '2') {
-                    XX += 1
-                  } else if (gt1 == '0' && gt2 == '2' || gt1 == '2' && gt2 == '0') {
-                    XX += 4
-                    Nhom += 1
-                  }
-
-                  if (gt1 == '1' && gt2 == '1') Nhet += 1
-
-                  if (gt1 == '1') NAai += 1
-
-                  if (gt2 == '1') NAaj += 1
-                }
-
-                mi += 1
-                shift += 2
-                if (mi % 4 == 0 && mi < markerNumber) {
-                  mpos += 1;
-                  shift = 0;
-                  temp1 = gtbarray(pn1)(mpos);
-                  temp2 = gtbarray(pn2)(mpos);
-                }
-              }
+              PackedGenotypes.kingCounts(genotypes, pn1, genotypes, pn2, counts)
+              val IBS0 = counts(PackedGenotypes.IBS0)
+              val XX = counts(PackedGenotypes.XX)
+              val Nhet = counts(PackedGenotypes.HET_HET)
+              val Nhom = IBS0
+              val NAai = counts(PackedGenotypes.HET_A)
+              val NAaj = counts(PackedGenotypes.HET_B)
+              val count = counts(PackedGenotypes.BOTH_VALID)
+              val tpq = PackedGenotypes.sumWeights(genotypes, pn1, genotypes, pn2, tpqc, 0.0)
+              val kpq = PackedGenotypes.sumWeights(genotypes, pn1, genotypes, pn2, kpqc, 0.0)
 
               val PNi = bh.bui.getPnNameFromIdx(pn1)
               val PNj = bh.bui.getPnNameFromIdx(pn2)
@@ -419,7 +372,7 @@ object GorKing2 {
           else jpns1groups.parallelStream().forEach(x => process_group(x, pns2,symmetric_PNlists))
 
            /* pns1groups.foreach(x => process_group(x, pns2, symmetric_PNlists)) */
-          gtbarray = Array.ofDim[Byte](1,1) /* Free the memory */
+          genotypes = null /* Free the memory */
         }
       }
   }
@@ -29,6 +29,7 @@ import org.gorpipe.exceptions.GorDataException
 import org.gorpipe.gor.model.{Line, Row}
 import org.gorpipe.gor.monitor.GorMonitor
 import org.gorpipe.gor.session.GorSession
+import org.gorpipe.gor.util.PackedGenotypes
 import org.gorpipe.model.gor.{BinaryHolder, RowObj}
 import org.gorpipe.model.gor.iterators.LineIterator
 
@@ -231,6 +232,8 @@ object GorKing {
                            uv: String) extends BinFactory {
     def create: BinState =
       KingState(session, lookupSignature, buckCol, valCol, grCols, afCol, sepVal, valSize, uv)
+
+    override def isParallelizable: Boolean = true
   }
 
   case class BucketInfo(pbt: PnBucketTable, idPairs: Array[(Int,Int)])
@@ -262,6 +265,14 @@ object GorKing {
       super.setRowHeader(RowHeader(columnNames,columnTypes))
     }
 
+    // The genotypes of a block of variants, the pair statistics are computed a block at a time
+    val blockSize: Int = 64
+    var block: PackedGenotypes = _
+    val blockTpqc = new Array[Float](blockSize)
+    val blockKpqc = new Array[Float](blockSize)
+    var blockCount: Int = 0
+    val counts = new Array[Int](PackedGenotypes.KING_COUNTS)
+
     override def process(r: Row): Unit = {
 
       bh = r.bH.asInstanceOf[binaryHolder]
@@ -278,12 +289,42 @@ object GorKing {
         tpq = new Array[Float](gtPairSize)
         kpq = new Array[Float](gtPairSize)
         count = new Array[Int](gtPairSize)
+        block = new PackedGenotypes(gtSize, blockSize)
       }
 
       val af = bh.af
       val tpqc = 2.0f*af*af*(1.0f-af)*(1.0f-af)
       val kpqc = 2.0f*af*(1.0f-af)
 
+      if (hasOnlyGenotypes(bh.GTS)) {
+        blockTpqc(blockCount) = tpqc
+        blockKpqc(blockCount) = kpqc
+        var pn: Int = 0
+        while (pn < gtSize) {
+          block.set(pn, blockCount, bh.GTS(pn))
+          pn += 1
+        }
+        blockCount += 1
+        if (blockCount == blockSize) processBlock()
+      } else {
+        // Values other than 0, 1, 2 and 3 are valid but match no genotype, which can not be packed, so the
+        // variant is counted on its own after the variants before it
+        if (blockCount > 0) processBlock()
+        processVariant(tpqc, kpqc)
+      }
+    }
+
+    def hasOnlyGenotypes(gts: Array[Char]): Boolean = {
+      var i: Int = 0
+      while (i < gts.length) {
+        val gt = gts(i)
+        if (gt < '0' || gt > '3') return false
+        i += 1
+      }
+      true
+    }
+
+    def processVariant(tpqc: Float, kpqc: Float): Unit = {
       var ai: Int = 0
       while (ai < gtPairSize && !cancelled) {
         val (pn1,pn2) = bh.bui.idPairs(ai)
@@ -296,9 +337,6 @@ object GorKing {
           kpq(ai) += kpqc
 
           if (gt1 == '0' && gt2 == '2' || gt1 == '2' && gt2 == '0') IBS0(ai) += 1
-          /*
-          | calc IBS0 if(values='02' or values = '20',1,0)
-          */
           if (gt1 == '0' && gt2 == '1' || gt1 == '1' && gt2 == '0' || gt1 == '2' && gt2 == '1' || gt1 == '1' && gt2 == '2') {
             XX(ai) += 1
           }
@@ -306,22 +344,9 @@ object GorKing {
             XX(ai) += 4
             Nhom(ai) += 1
           }
-          /* else XX(ai) += 0
-          | calc XX if(values='01' or values = '10' or values = '21' or values = '12',1,if(values='02' or values = '20',4,0))
-          | calc Nhom if(values = '02' or values = '20',1,0)
-          */
           if (gt1 == '1' && gt2 == '1') Nhet(ai) += 1
-          /*
-          | calc Nhet if(values = '11',1,0)
-           */
           if (gt1 == '1') NAai(ai) += 1
-          /*
-          | calc NAai if(left(values,1)='1',1,0)
-          */
           if (gt2 == '1') NAaj(ai) += 1
-          /*
-          | calc NAaj if(right(values,1)='1',1,0)
-          */
         }
 
         if (ai % 1000 == 0 && gm != null && gm.isCancelled()) {
@@ -332,8 +357,42 @@ object GorKing {
       }
     }
 
+    def processBlock(): Unit = {
+      var ai: Int = 0
+      while (ai < gtPairSize && !cancelled) {
+        val (pn1,pn2) = bh.bui.idPairs(ai)
+        /*
+        | calc IBS0 if(values='02' or values = '20',1,0)
+        | calc XX if(values='01' or values = '10' or values = '21' or values = '12',1,if(values='02' or values = '20',4,0))
+        | calc Nhom if(values = '02' or values = '20',1,0)
+        | calc Nhet if(values = '11',1,0)
+        | calc NAai if(left(values,1)='1',1,0)
+        | calc NAaj if(right(values,1)='1',1,0)
+        */
+        PackedGenotypes.kingCounts(block, pn1, block, pn2, counts)
+        IBS0(ai) += counts(PackedGenotypes.IBS0)
+        XX(ai) += counts(PackedGenotypes.XX)
+        Nhom(ai) += counts(PackedGenotypes.IBS0)
+        Nhet(ai) += counts(PackedGenotypes.HET_HET)
+        NAai(ai) += counts(PackedGenotypes.HET_A)
+        NAaj(ai) += counts(PackedGenotypes.HET_B)
+        count(ai) += counts(PackedGenotypes.BOTH_VALID)
+        tpq(ai) = PackedGenotypes.sumWeightsFloat(block, pn1, block, pn2, blockTpqc, tpq(ai))
+        kpq(ai) = PackedGenotypes.sumWeightsFloat(block, pn1, block, pn2, blockKpqc, kpq(ai))
+
+        if (ai % 1000 == 0 && gm != null && gm.isCancelled()) {
+          reportWantsNoMore()
+          cancelled = true
+        }
+        ai += 1
+      }
+      block.clear()
+      blockCount = 0
+    }
+
     override def finish(): Unit = {
       val skip_test = if (!t_pi0 && !t_phi && !t_theta) true else false
+      if (!cancelled && !needsInitialization && blockCount > 0) processBlock()
       if (!cancelled && !needsInitialization) {
         var ai: Int = 0
         while (ai < gtPairSize && !cancelled && !wantsNoMore) {
@@ -363,6 +422,7 @@ object GorKing {
       tpq = null
       kpq = null
       count = null
+      block = null
     }
   }
 
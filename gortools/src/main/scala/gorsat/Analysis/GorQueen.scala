@@ -28,6 +28,7 @@ import org.gorpipe.exceptions.GorDataException
 import org.gorpipe.gor.model.{Line, Row}
 import org.gorpipe.gor.monitor.GorMonitor
 import org.gorpipe.gor.session.GorSession
+import org.gorpipe.gor.util.PackedGenotypes
 import org.gorpipe.model.gor.{BinaryHolder, RowObj}
 import org.gorpipe.model.gor.iterators.LineIterator
 
@@ -288,6 +289,14 @@ object GorQueen {
       super.setRowHeader(RowHeader(columnNames,columnTypes))
     }
 
+    // The carriers of a block of variants in the first list and the genotypes in the second list, the sharing is
+    // counted a block at a time
+    val blockSize: Int = 64
+    var carriers: PackedGenotypes = _
+    var genotypes: PackedGenotypes = _
+    var blockCount: Int = 0
+    val counts = new Array[Int](2)
+
     override def process(r: Row): Unit = {
 
       bh = r.bH.asInstanceOf[binaryHolder]
@@ -298,29 +307,53 @@ object GorQueen {
         gtPairSize = gtSize1 * gtSize2
         share = new Array[Int](gtPairSize)
         count = new Array[Int](gtPairSize)
+        carriers = new PackedGenotypes(gtSize1, blockSize)
+        genotypes = new PackedGenotypes(gtSize2, blockSize)
       }
 
       var i: Int = 0
       while (i < bh.IDX1size) {
-        val pni = bh.IDX1(i)
-        var j: Int = 0
-        var ai = pni*gtSize2
-        while (j < gtSize2) {
-            val gt2 = bh.GTS2(j)
-            if (gt2 == '1' || gt2 == '2') share(ai) += 1
-            if (gt2 != '3') count(ai) += 1
+        carriers.set(bh.IDX1(i), blockCount, '1')
+        i += 1
+      }
+      var j: Int = 0
+      while (j < gtSize2) {
+        // Values other than 1, 2 and 3 are valid and not carriers, the same as 0
+        val gt = bh.GTS2(j)
+        genotypes.set(j, blockCount, if (gt == '1' || gt == '2' || gt == '3') gt else '0')
+        j += 1
+      }
+      blockCount += 1
+      if (blockCount == blockSize) processBlock()
+    }
+
+    def processBlock(): Unit = {
+      var pni: Int = 0
+      while (pni < gtSize1 && !cancelled) {
+        if (carriers.carriers(pni) > 0) {
+          var j: Int = 0
+          var ai = pni*gtSize2
+          while (j < gtSize2) {
+            PackedGenotypes.carrierCounts(carriers, pni, genotypes, j, counts)
+            share(ai) += counts(0)
+            count(ai) += counts(1)
             ai += 1
             j += 1
+          }
+          if (gm != null && gm.isCancelled()) {
+            reportWantsNoMore()
+            cancelled = true
+          }
         }
-        if (gm != null && gm.isCancelled()) {
-          reportWantsNoMore()
-          cancelled = true
-        }
-        i += 1
+        pni += 1
       }
+      carriers.clear()
+      genotypes.clear()
+      blockCount = 0
     }
 
     override def finish(): Unit = {
+      if (!cancelled && !needsInitialization && blockCount > 0) processBlock()
       if (!cancelled && !needsInitialization) {
         var i: Int = 0
         while (i < gtSize1 && !cancelled && !wantsNoMore) {
@@ -344,6 +377,8 @@ object GorQueen {
       }
       share = null
       count = null
+      carriers = null
+      genotypes = null
     }
   }
 
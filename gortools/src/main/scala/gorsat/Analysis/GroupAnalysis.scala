@@ -26,18 +26,42 @@ import gorsat.Commands._
 import org.gorpipe.exceptions.GorDataException
 import org.gorpipe.gor.model.Row
 import org.gorpipe.gor.session.GorSession
+import org.gorpipe.gor.util.ValueSketch
 import org.gorpipe.model.gor.RowObj
 
 import scala.collection.mutable
 
 object GroupAnalysis {
 
+  /**
+    * Sketch based aggregates, computed in bounded memory per group. The serialized sketches of partial results, such
+    * as from pgor partitions, can be merged in a final group.
+    *
+    * @param useAmed   Approximate median of numeric columns
+    * @param useAdis   Approximate number of distinct values
+    * @param useSketch Serialized sketch of the values
+    * @param skCols    Columns with serialized sketches to merge
+    */
+  case class SketchOptions(useAmed: Boolean = false, useAdis: Boolean = false, useSketch: Boolean = false,
+                           skCols: List[Int] = Nil) {
+    def isUsed: Boolean = useAmed || useAdis || useSketch
+  }
+
+  val NO_SKETCHES: SketchOptions = SketchOptions()
+
+  /**
+    * @return Name of the aggregated column for a column of sketches, without the sketch_ prefix added by -sketch
+    */
+  def sketchColumnName(name: String): String = {
+    if (name.toLowerCase.startsWith("sketch_") && name.length > "sketch_".length) name.substring("sketch_".length) else name
+  }
+
   // Aggregate the columns per bin in the stream
   case class AggregateState(binSize: Int, useSegment: Boolean, useCount: Boolean, useCdist: Boolean, useMax: Boolean,
                             useMin: Boolean, useMed: Boolean, useDis: Boolean, useSet: Boolean, useLis: Boolean,
                             useAvg: Boolean, useStd: Boolean, useSum: Boolean,
                             acCols: List[Int], icCols: List[Int], fcCols: List[Int], grCols: List[Int], setLen: Int,
-                            truncate: Boolean, sepVal: String) extends BinState {
+                            truncate: Boolean, sepVal: String, sketches: SketchOptions = NO_SKETCHES) extends BinState {
 
     case class StatHolder(numCols: Int) {
       val sums = new Array[Double](numCols)
@@ -53,6 +77,8 @@ object GroupAnalysis {
       sbuff.indices.foreach(i => {
         sbuff(i) = new mutable.StringBuilder(100)
       })
+      val vSketch = new Array[ValueSketch](numCols)
+      val mSketch = new Array[ValueSketch](skCols.length)
       var gList = List.empty[String]
       var allCount: Long = 0
     }
@@ -74,6 +100,8 @@ object GroupAnalysis {
       .sortWith((x, y) => x._1 < y._1)
     val numCols: Int = anyCols.size
     val collectLists: Boolean = useDis || useMed || useSet
+    val useSketches: Boolean = sketches.isUsed
+    val skCols: Array[Int] = sketches.skCols.toArray
     val useGroup: Boolean = if (grCols.nonEmpty) true else false
 
     var groupMap = scala.collection.mutable.HashMap.empty[String, StatHolder]
@@ -90,6 +118,16 @@ object GroupAnalysis {
         sh.aList(i) = Nil
         sh.fList(i) = Nil
         sh.sbuff(i).setLength(0)
+        if (useSketches) {
+          val numeric = anyCols(i)._2 != 'a'
+          sh.vSketch(i) = new ValueSketch(numeric && (sketches.useAmed || sketches.useSketch),
+            sketches.useAdis || sketches.useSketch)
+        }
+        i += 1
+      }
+      i = 0
+      while (i < skCols.length) {
+        sh.mSketch(i) = null
         i += 1
       }
       sh.allCount = 0
@@ -123,6 +161,7 @@ object GroupAnalysis {
             val v = r.colAsDouble(j)
             if (!v.isNaN) {
               if (collectLists) sh.fList(i) ::= v
+              if (useSketches) sh.vSketch(i).add(v)
               if (useLis) {
                 if (sh.ns(i) > 0) sh.sbuff(i).append(sepVal)
                 sh.sbuff(i).append(r.colAsString(j))
@@ -146,6 +185,7 @@ object GroupAnalysis {
           try {
             val v = r.colAsString(j).toString
             if (collectLists) sh.aList(i) ::= v
+            if (useSketches) sh.vSketch(i).add(v)
             if (useLis) {
               if (sh.ns(i) > 0) sh.sbuff(i).append(sepVal)
               sh.sbuff(i).append(r.colAsString(j))
@@ -164,6 +204,42 @@ object GroupAnalysis {
         }
         i += 1
       }
+      i = 0
+      while (i < skCols.length) {
+        val v = r.colAsString(skCols(i))
+        if (v.length > 0) {
+          val sketch = try {
+            ValueSketch.parse(v)
+          } catch {
+            case e: IllegalArgumentException =>
+              throw new GorDataException("Column does not hold a valid sketch", skCols(i) + 1, "", r.toString, e)
+          }
+          if (sh.mSketch(i) == null) sh.mSketch(i) = sketch else sh.mSketch(i).merge(sketch)
+        }
+        i += 1
+      }
+    }
+
+    private def appendSketch(lineBuilder: mutable.StringBuilder, sketch: ValueSketch, withMedian: Boolean,
+                             asLong: Boolean): Unit = {
+      if (sketches.useAmed && withMedian) {
+        lineBuilder.append('\t')
+        if (sketch != null && sketch.hasQuantiles) {
+          // As -med, the upper middle value for integers and the mean of the middle values for floats
+          val median = if (asLong) sketch.upperMedian() else sketch.median()
+          if (!median.isNaN) {
+            if (asLong) lineBuilder.append(median.toLong) else lineBuilder.append(median)
+          }
+        }
+      }
+      if (sketches.useAdis) {
+        lineBuilder.append('\t')
+        if (sketch != null && sketch.hasDistinct) lineBuilder.append(sketch.distinctCount())
+      }
+      if (sketches.useSketch) {
+        lineBuilder.append('\t')
+        if (sketch != null) lineBuilder.append(sketch.serialize())
+      }
     }
 
     def sendToNextProcessor(bi: BinInfo, nextProcessor: Processor): Unit = {
@@ -274,6 +350,7 @@ object GroupAnalysis {
                   lineBuilder.append(sh.sums(i))
                 }
               }
+              if (useSketches) appendSketch(lineBuilder, sh.vSketch(i), withMedian = true, asLong = cType == 'i')
             } else { // the 'a' case
               if (useMin) {
                 lineBuilder.append('\t')
@@ -301,6 +378,7 @@ object GroupAnalysis {
                 lineBuilder.append('\t')
                 lineBuilder.append(sh.aList(i).distinct.length)
               }
+              if (useSketches) appendSketch(lineBuilder, sh.vSketch(i), withMedian = false, asLong = false)
             }
           } else {
             if (useMin) lineBuilder.append('\t')
@@ -314,9 +392,15 @@ object GroupAnalysis {
               if (useStd) lineBuilder.append('\t')
               if (useSum) lineBuilder.append('\t')
             }
+            if (useSketches) appendSketch(lineBuilder, null, withMedian = cType != 'a', asLong = false)
           }
           i += 1
         }
+        i = 0
+        while (i < skCols.length) {
+          appendSketch(lineBuilder, sh.mSketch(i), withMedian = true, asLong = false)
+          i += 1
+        }
         nextProcessor.process(RowObj(lineBuilder.toString))
       }
 
@@ -356,20 +440,24 @@ object GroupAnalysis {
                               useMin: Boolean, useMed: Boolean, useDis: Boolean, useSet: Boolean, useLis: Boolean,
                               useAvg: Boolean, useStd: Boolean, useSum: Boolean,
                               acCols: List[Int], icCols: List[Int], fcCols: List[Int], grCols: List[Int],
-                              setLen: Int, truncate: Boolean, sepVal: String) extends BinFactory {
+                              setLen: Int, truncate: Boolean, sepVal: String,
+                              sketches: SketchOptions = NO_SKETCHES) extends BinFactory {
     def create: BinState =
       AggregateState(binSize, useSegment, useCount, useCdist, useMax, useMin, useMed, useDis, useSet, useLis, useAvg,
-        useStd, useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal)
+        useStd, useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal, sketches)
+
+    override def isParallelizable: Boolean = true
   }
 
   case class Aggregate(binSize: Int, useCount: Boolean, useCdist: Boolean, useMax: Boolean, useMin: Boolean,
                        useMed: Boolean, useDis: Boolean, useSet: Boolean, useLis: Boolean, useAvg: Boolean,
                        useStd: Boolean, useSum: Boolean,
                        acCols: List[Int], icCols: List[Int], fcCols: List[Int], grCols: List[Int], setLen: Int,
-                       truncate: Boolean, sepVal: String, outgoingHeader: RowHeader) extends
+                       truncate: Boolean, sepVal: String, outgoingHeader: RowHeader,
+                       sketches: SketchOptions = NO_SKETCHES) extends
     BinAnalysis(RegularRowHandler(binSize), BinAggregator(
       AggregateFactory(binSize, binSize > 1, useCount, useCdist, useMax, useMin, useMed, useDis, useSet, useLis, useAvg,
-        useStd, useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal), 2, 1)) {
+        useStd, useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal, sketches), 2, 1)) {
 
 
     override def isTypeInformationMaintained: Boolean = outgoingHeader != null
@@ -386,10 +474,11 @@ object GroupAnalysis {
                        useMed: Boolean, useDis: Boolean, useSet: Boolean, useLis: Boolean, useAvg: Boolean,
                        useStd: Boolean, useSum: Boolean,
                        acCols: List[Int], icCols: List[Int], fcCols: List[Int], grCols: List[Int], setLen: Int,
-                       truncate: Boolean, sepVal: String, outgoingHeader: RowHeader) extends
+                       truncate: Boolean, sepVal: String, outgoingHeader: RowHeader,
+                       sketches: SketchOptions = NO_SKETCHES) extends
     BinAnalysis(GroupingColumnRowHandler(binSize, grCols.toArray), BinAggregator(
       AggregateFactory(binSize, binSize > 1, useCount, useCdist, useMax, useMin, useMed, useDis, useSet, useLis, useAvg,
-        useStd, useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal), 2, 1)) {
+        useStd, useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal, sketches), 2, 1)) {
 
 
     override def isTypeInformationMaintained: Boolean = outgoingHeader != null
@@ -406,10 +495,11 @@ object GroupAnalysis {
                             useMin: Boolean, useMed: Boolean, useDis: Boolean, useSet: Boolean, useLis: Boolean,
                             useAvg: Boolean, useStd: Boolean, useSum: Boolean,
                             acCols: List[Int], icCols: List[Int], fcCols: List[Int], grCols: List[Int], setLen: Int,
-                            truncate: Boolean, sepVal: String, outgoingHeader: RowHeader) extends
+                            truncate: Boolean, sepVal: String, outgoingHeader: RowHeader,
+                            sketches: SketchOptions = NO_SKETCHES) extends
     BinAnalysis(SlidingRowHandler(binSize, slideSteps), BinAggregator(
       AggregateFactory(binSize, binSize > 1, useCount, useCdist, useMax, useMin, useMed, useDis, useSet, useLis, useAvg,
-        useStd, useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal), 2 * 2 * slideSteps, 2 * 1 * slideSteps)) {
+        useStd, useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal, sketches), 2 * 2 * slideSteps, 2 * 1 * slideSteps)) {
 
     override def isTypeInformationMaintained: Boolean = outgoingHeader != null
 
@@ -425,10 +515,11 @@ object GroupAnalysis {
                             useMin: Boolean, useMed: Boolean, useDis: Boolean, useSet: Boolean, useLis: Boolean,
                             useAvg: Boolean, useStd: Boolean, useSum: Boolean,
                             acCols: List[Int], icCols: List[Int], fcCols: List[Int], grCols: List[Int], setLen: Int,
-                            truncate: Boolean, sepVal: String, outgoingHeader: RowHeader) extends
+                            truncate: Boolean, sepVal: String, outgoingHeader: RowHeader,
+                            sketches: SketchOptions = NO_SKETCHES) extends
     BinAnalysis(ChromRowHandler(session), BinAggregator(
       AggregateFactory(1, true, useCount, useCdist, useMax, useMin, useMed, useDis, useSet, useLis, useAvg, useStd,
-        useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal), 2, 1)) {
+        useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal, sketches), 2, 1)) {
 
     override def isTypeInformationMaintained: Boolean = outgoingHeader != null
 
@@ -444,10 +535,11 @@ object GroupAnalysis {
                              useMed: Boolean, useDis: Boolean, useSet: Boolean, useLis: Boolean, useAvg: Boolean,
                              useStd: Boolean, useSum: Boolean,
                              acCols: List[Int], icCols: List[Int], fcCols: List[Int], grCols: List[Int], setLen: Int,
-                             truncate: Boolean, sepVal: String, outgoingHeader: RowHeader) extends
+                             truncate: Boolean, sepVal: String, outgoingHeader: RowHeader,
+                             sketches: SketchOptions = NO_SKETCHES) extends
     BinAnalysis(GenomeRowHandler(), BinAggregator(
       AggregateFactory(1, true, useCount, useCdist, useMax, useMin, useMed, useDis, useSet, useLis, useAvg, useStd,
-        useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal), 2, 1, useKeyForChrom = true)) {
+        useSum, acCols, icCols, fcCols, grCols, setLen, truncate, sepVal, sketches), 2, 1, useKeyForChrom = true)) {
 
     override def isTypeInformationMaintained: Boolean = outgoingHeader != null
 
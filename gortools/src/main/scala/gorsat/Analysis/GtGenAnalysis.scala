@@ -119,6 +119,8 @@ object GtGenAnalysis {
   case class GtGenFactory(context: GorContext, lookupSignature: String, GtCol: Int, PNCol: Int, grCols: List[Int]) extends BinFactory {
     def create: BinState =
       GtGenState(context, lookupSignature, GtCol, PNCol, grCols)
+
+    override def isParallelizable: Boolean = true
   }
 
   case class GtGenAnalysis(fileName1: String, iteratorCommand1: String, iterator1: LineIterator, GtCol: Int, PNCol: Int,
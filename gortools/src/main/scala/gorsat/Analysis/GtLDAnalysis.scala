@@ -28,6 +28,7 @@ import gorsat.Iterators.{ChromBoundedIteratorSource, RowListIterator}
 import gorsat.process.GenericGorRunner
 import org.gorpipe.exceptions.GorDataException
 import org.gorpipe.gor.model.{GenomicIterator, Row}
+import org.gorpipe.gor.util.PackedGenotypes
 import org.gorpipe.model.gor.{BinaryHolder, RowObj}
 
 object GtLDAnalysis {
@@ -38,7 +39,7 @@ object GtLDAnalysis {
 
     var rightSource = new ChromBoundedIteratorSource(inRightSource)
 
-    type myRowBufferType = scala.collection.mutable.ArrayBuffer[SEGinfo]
+    type myRowBufferType = scala.collection.mutable.ArrayBuffer[LDSegInfo]
     var lastRightChr = "chr"
     var lastRightPos = 0
     var maxLeftStop = -1
@@ -159,7 +160,6 @@ object GtLDAnalysis {
               case e: Exception => throw new GorDataException("Illegal stop position in column #" + (rstop + 1) + " in the JOIN right-source.", rstop + 1, "", rr.toString(), e);
             }
           }
-          val rSeg = SEGinfo(rightStart, rightStop, rr)
 
           if (useGroup) {
             val groupKeyRight = rr.selectedColumns(req)
@@ -173,6 +173,7 @@ object GtLDAnalysis {
           } else gr = singleGroupHolder
 
           if (rr.chr == lr.chr && rightStop >= leftStart - fuzzFactor) {
+            val rSeg = LDSegInfo(rightStart, rightStop, rr, PackedGenotypes.of(rr.colAsString(valuesCol)))
             if (gr.rowBuffer(gr.buffer).size <= gr.bufferSize) gr.rowBuffer(gr.buffer) += rSeg else gr.rowBuffer(gr.buffer)(gr.bufferSize) = rSeg
             gr.bufferSize += 1
             lastRightChr = rr.chr
@@ -183,6 +184,7 @@ object GtLDAnalysis {
 
       }
       val lSeg = SEGinfo(leftStart, leftStop, lr)
+      lazy val lGts = PackedGenotypes.of(lr.colAsString(valuesCol))
 
       if (useGroup) {
         val groupKeyLeft = lr.selectedColumns(leq)
@@ -202,7 +204,7 @@ object GtLDAnalysis {
         val rSeg = gr.rowBuffer(gr.buffer)(i)
         val rr = rSeg.r
         if (lr.chr == rr.chr && lSeg.start - fuzzFactor < rSeg.stop && lSeg.stop + fuzzFactor > rSeg.start) {
-            val LDs = LDstatCalc(lr.colAsString(valuesCol).toString, rr.colAsString(valuesCol).toString)
+            val LDs = LDstatCalc(lGts, rSeg.gts)
             nextProcessor.process(RowObj(s"${lr.chr}\t${lr.pos}\t${lr.selectedColumns(otherCols)}\t${(rr.pos - lr.pos)}\t${rr.pos}\t${rr.selectedColumns(otherCols)}\t${LDs.g00}\t${LDs.g10}\t${LDs.g20}\t${LDs.g01}\t${LDs.g11}\t${LDs.g21}\t${LDs.g02}\t${LDs.g12}\t${LDs.g22}"))
 
         }
@@ -259,6 +261,14 @@ object GtLDAnalysis {
 
   case class LDstats(g00 : Int, g10 : Int, g20 : Int, g01 : Int, g11 :Int, g21 : Int, g02 : Int, g12 : Int, g22 : Int)
 
+  case class LDSegInfo(start: Int, stop: Int, r: Row, gts: PackedGenotypes)
+
+  def LDstatCalc(a : PackedGenotypes, b : PackedGenotypes) : LDstats = {
+    val g = new Array[Int](9)
+    PackedGenotypes.ldCounts(a, 0, b, 0, g)
+    LDstats(g(0),g(1),g(2),g(3),g(4),g(5),g(6),g(7),g(8))
+  }
+
   def LDstatCalc(a : String, b : String) : LDstats = {
     var i = 0
     var g00 = 0; var g10 = 0; var g20 = 0;
@@ -357,11 +367,14 @@ object GtLDAnalysis {
     def sendToNextProcessor(bi: BinInfo, nextProcessor: Processor): Unit = {
       if (nextProcessor.wantsNoMore) return
       if (rRows.nonEmpty && lRows.length * rRows.length < 400) {
-        for (lr <- lRows.reverse;
-             rr <- rRows.reverse) {
+        // Each row takes part in several pairs, the genotypes are packed once
+        val lPacked = lRows.reverse.map(r => (r, PackedGenotypes.of(r.colAsString(valuesCol))))
+        val rPacked = rRows.reverse.map(r => (r, PackedGenotypes.of(r.colAsString(valuesCol))))
+        for ((lr, lGts) <- lPacked;
+             (rr, rGts) <- rPacked) {
           if (nextProcessor.wantsNoMore) return
           if (rr.pos - fuzz - 1 < lr.pos && lr.pos <= rr.pos + fuzz && (noEquijoin || rr.selectedColumns(req) == lr.selectedColumns(req))) {
-              val LDs = LDstatCalc(lr.colAsString(valuesCol).toString, rr.colAsString(valuesCol).toString)
+              val LDs = LDstatCalc(lGts, rGts)
               val r = RowObj(s"${lr.chr}\t${lr.pos}\t${lr.selectedColumns(otherCols)}\t${rr.pos - lr.pos}\t${rr.pos}\t${rr.selectedColumns(otherCols)}\t${LDs.g00}\t${LDs.g10}\t${LDs.g20}\t${LDs.g01}\t${LDs.g11}\t${LDs.g21}\t${LDs.g02}\t${LDs.g12}\t${LDs.g22}")
               nextProcessor.process(r)
           }
@@ -209,11 +209,11 @@ object  JoinAnalysis {
         val rSeg = gr.rowBuffer(gr.buffer)(i)
         val rr = rSeg.r
         var use_row_again = true
-        if (lr.chr == rr.chr && lSeg.start - fuzzFactor < rSeg.stop && lSeg.stop + fuzzFactor > rSeg.start) {
+        if (lr.compareChr(rr) == 0 && lSeg.start - fuzzFactor < rSeg.stop && lSeg.stop + fuzzFactor > rSeg.start) {
           output_row(lSeg, rSeg)
           if (ir) use_row_again = false
         }
-        if (!((rr.chr == lr.chr && rSeg.stop + fuzzFactor < lSeg.start) || rr.chr < lr.chr) && use_row_again) {
+        if (!((rr.compareChr(lr) == 0 && rSeg.stop + fuzzFactor < lSeg.start) || rr.compareChr(lr) < 0) && use_row_again) {
           if (gr.rowBuffer(nextBuffer).size <= nextBufferSize) {
             gr.rowBuffer(nextBuffer) += gr.rowBuffer(gr.buffer)(i)
           } else {
@@ -231,12 +231,12 @@ object  JoinAnalysis {
 
       //##########
       // Check if we need to fetch more segments from the right-source, i.e. have we moved upwards with the left-source
-      if (((maxLeftStop < leftStop && lastLeftChr == lr.chr) || lastLeftChr < lr.chr) &&
-        (lastRightChr < lr.chr || (lastRightChr == lr.chr && lastRightPos <= leftStop + fuzzFactor))) {
+      if (((maxLeftStop < leftStop && lastLeftChr == lr.chr) || lr.compareChr(lastLeftChr) > 0) &&
+        (lr.compareChr(lastRightChr) > 0 || (lastRightChr == lr.chr && lastRightPos <= leftStop + fuzzFactor))) {
         if (lr.chr == lastSeekChr && !rightSource.hasNext) {
           /* do nothing */
         }
-        else if (lr.chr > lastRightChr) {
+        else if (lr.compareChr(lastRightChr) > 0) {
           if (snpsnp || segsnp) {
             rightSource.seek(lr.chr, (lr.pos - fuzzFactor - maxSegSize).max(0))
           } else {
@@ -302,7 +302,7 @@ object  JoinAnalysis {
           }
 
           var use_row_again = true
-          if (lr.chr == rr.chr && lSeg.start - fuzzFactor < rSeg.stop && lSeg.stop + fuzzFactor > rSeg.start && (!useGroup || groupKeyLeft == groupKeyRight)) {
+          if (lr.compareChr(rr) == 0 && lSeg.start - fuzzFactor < rSeg.stop && lSeg.stop + fuzzFactor > rSeg.start && (!useGroup || groupKeyLeft == groupKeyRight)) {
             output_row(lSeg, rSeg)
             if (ir) use_row_again = false
           }
@@ -310,12 +310,12 @@ object  JoinAnalysis {
           lastRightChr = rr.chr
           lastRightPos = rightStart // rr.pos
 
-          if (use_row_again && (next_lr != null && ((rr.chr == next_lr.chr && rightStop >= next_leftStart - fuzzFactor) || rr.chr >= next_lr.chr))) {
+          if (use_row_again && (next_lr != null && ((rr.compareChr(next_lr) == 0 && rightStop >= next_leftStart - fuzzFactor) || rr.compareChr(next_lr) >= 0))) {
             // Only insert row to buffer if overlap with next row
             if (gr.rowBuffer(gr.buffer).size <= gr.bufferSize) gr.rowBuffer(gr.buffer) += rSeg else gr.rowBuffer(gr.buffer)(gr.bufferSize) = rSeg
             gr.bufferSize += 1
           }
-          if (rr.chr > lr.chr || (rr.chr == lr.chr && rightStart > leftStop + fuzzFactor)) keepOn = false // Continue until there is no overlap with the left-seg
+          if (rr.compareChr(lr) > 0 || (rr.compareChr(lr) == 0 && rightStart > leftStop + fuzzFactor)) keepOn = false // Continue until there is no overlap with the left-seg
         }
 
       }
@@ -345,7 +345,7 @@ object  JoinAnalysis {
           while (i < gr.bufferSize) {
             val rSeg = gr.rowBuffer(gr.buffer)(i)
             val rr = rSeg.r
-            if (!((rr.chr == lr.chr && rSeg.stop + fuzzFactor < lSeg.start) || rr.chr < lr.chr)) {
+            if (!((rr.compareChr(lr) == 0 && rSeg.stop + fuzzFactor < lSeg.start) || rr.compareChr(lr) < 0)) {
               if (gr.rowBuffer(nextBuffer).size <= nextBufferSize) {
                 gr.rowBuffer(nextBuffer) += gr.rowBuffer(gr.buffer)(i)
               } else {
@@ -0,0 +1,259 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Analysis
+
+import gorsat.Commands.{Analysis, RowHeader}
+import org.gorpipe.base.concurrency.CommonThreadPools
+import org.gorpipe.gor.model.Row
+
+import java.util
+import java.util.concurrent.{CompletableFuture, CompletionException, ConcurrentLinkedQueue}
+import scala.collection.mutable.ArrayBuffer
+
+object ParallelSteps {
+  val ENABLED: Boolean = System.getProperty("gor.parallel.steps", "false").toBoolean
+  val BATCH_SIZE: Int = System.getProperty("gor.parallel.steps.batch.size", "1024").toInt
+
+  /**
+    * @return A new instance of the step if it is stateless and can be run on many rows concurrently, else null
+    */
+  def copyOf(step: Analysis): Analysis = step match {
+    case s: CalcAnalysis => s.copy()
+    case s: WhereAnalysis => s.copy()
+    case s: ReplaceAnalysis => s.copy()
+    case s: Select2 => Select2(s.columns: _*)
+    case s: ColSplitAnalysis => s.copy()
+    case _ => null
+  }
+
+  private def isEvaluating(step: Analysis): Boolean = step match {
+    case _: CalcAnalysis | _: WhereAnalysis | _: ReplaceAnalysis => true
+    case _ => false
+  }
+
+  /**
+    * Replaces runs of consecutive stateless steps in the pipe with a ParallelSteps step. Runs without any
+    * expression evaluation are left as they are, as they are too cheap to gain from it.
+    *
+    * @param pipeStep First step of the pipe
+    * @return First step of the new pipe
+    */
+  def fuse(pipeStep: Analysis): Analysis = {
+    val steps = ArrayBuffer[Analysis]()
+    var step = pipeStep
+    while (step != null) {
+      steps += step
+      step = step.pipeTo
+    }
+
+    val result = ArrayBuffer[Analysis]()
+    var fused = false
+    var i = 0
+    while (i < steps.length) {
+      var j = i
+      while (j < steps.length && copyOf(steps(j)) != null) j += 1
+      if (j > i && steps.slice(i, j).exists(isEvaluating)) {
+        result += ParallelSteps(link(steps.slice(i, j).toSeq))
+        fused = true
+        i = j
+      } else {
+        result += steps(i)
+        i += 1
+      }
+    }
+    if (fused) link(result.toSeq) else pipeStep
+  }
+
+  private def link(steps: Seq[Analysis]): Analysis = {
+    steps.foreach { s =>
+      s.pipeTo = null
+      s.pipeFrom = null
+      s.nextProcessor = null
+    }
+    steps.tail.foreach(s => steps.head | s)
+    steps.head
+  }
+
+  /**
+    * Collects the rows and the outgoing header of one copy of the steps.
+    */
+  private case class Collector() extends Analysis {
+    var rows = new util.ArrayList[Row]()
+    var outgoingHeader: RowHeader = _
+
+    override def setRowHeader(header: RowHeader): Unit = {
+      outgoingHeader = header
+    }
+
+    override def process(r: Row): Unit = {
+      rows.add(r)
+    }
+  }
+
+  private class Copy(val steps: Analysis) {
+    val collector: Collector = Collector()
+    steps | collector
+
+    def run(batch: Array[Row], size: Int): util.ArrayList[Row] = {
+      val rows = new util.ArrayList[Row](size)
+      collector.rows = rows
+      var i = 0
+      while (i < size) {
+        steps.process(batch(i))
+        i += 1
+      }
+      rows
+    }
+
+    def reset(): Unit = {
+      var s = steps
+      while (s != null) {
+        s.alreadyFinished = false
+        s.wantsNoMore = false
+        s = s.pipeTo
+      }
+    }
+  }
+}
+
+/**
+  * Runs a chain of stateless steps on batches of rows in parallel. Each worker uses its own copy of the steps,
+  * and the results of the batches are passed on in the order the batches were made, so the order of the rows is
+  * kept.
+  *
+  * @param steps The steps, must only contain steps supported by [[ParallelSteps.copyOf]]
+  */
+case class ParallelSteps(steps: Analysis,
+                         parallelism: Int = CommonThreadPools.stepThreadPool.getParallelism,
+                         batchSize: Int = ParallelSteps.BATCH_SIZE) extends Analysis {
+
+  import ParallelSteps._
+
+  private val copies: Array[Copy] = Array.tabulate(math.max(1, parallelism)) { i =>
+    if (i == 0) new Copy(steps) else {
+      var s = steps
+      var head: Analysis = null
+      while (s != null && !s.isInstanceOf[Collector]) {
+        head = if (head == null) copyOf(s) else head | copyOf(s)
+        s = s.pipeTo
+      }
+      new Copy(head)
+    }
+  }
+  private val idle = new ConcurrentLinkedQueue[Copy](util.Arrays.asList(copies: _*))
+  private val inFlight = new util.ArrayDeque[CompletableFuture[util.ArrayList[Row]]]()
+  private var batch = new Array[Row](batchSize)
+  private var batchCount = 0
+
+  override def isTypeInformationNeeded: Boolean = steps.isTypeInformationNeeded
+
+  override def isTypeInformationMaintained: Boolean = {
+    var maintained = true
+    var s = steps
+    while (s != null && !s.isInstanceOf[Collector]) {
+      maintained &&= s.isTypeInformationMaintained
+      s = s.pipeTo
+    }
+    maintained
+  }
+
+  override def setRowHeader(header: RowHeader): Unit = {
+    rowHeader = header
+    // The steps compile their expressions when they get the header, so no batches may be in flight
+    drain()
+    copies.foreach(_.steps.setRowHeader(header))
+    val outgoingHeader = copies(0).collector.outgoingHeader
+    if (pipeTo != null && outgoingHeader != null) pipeTo.setRowHeader(outgoingHeader)
+  }
+
+  override def setup(): Unit = {
+    copies.foreach(_.steps.securedSetup(null))
+  }
+
+  override def reset(): Unit = {
+    super.reset()
+    inFlight.clear()
+    batchCount = 0
+    copies.foreach(_.reset())
+  }
+
+  override def process(r: Row): Unit = {
+    batch(batchCount) = r
+    batchCount += 1
+    if (batchCount == batchSize) submit()
+  }
+
+  override def finish(): Unit = {
+    if (isInErrorState) {
+      inFlight.forEach(f => f.handle((_, _) => null).join())
+      inFlight.clear()
+    } else {
+      if (batchCount > 0) submit()
+      drain()
+    }
+    copies.foreach { c =>
+      c.collector.rows = new util.ArrayList[Row]()
+      c.steps.securedFinish(null)
+      if (!isInErrorState) emit(c.collector.rows)
+    }
+  }
+
+  private def submit(): Unit = {
+    while (inFlight.size() >= copies.length) emit(await(inFlight.poll()))
+
+    val rows = batch
+    val size = batchCount
+    inFlight.add(CompletableFuture.supplyAsync(() => {
+      val copy = idle.poll()
+      try {
+        copy.run(rows, size)
+      } finally {
+        idle.add(copy)
+      }
+    }, CommonThreadPools.stepThreadPool))
+    batch = new Array[Row](batchSize)
+    batchCount = 0
+
+    while (!inFlight.isEmpty && inFlight.peek().isDone) emit(await(inFlight.poll()))
+  }
+
+  private def drain(): Unit = {
+    while (!inFlight.isEmpty) emit(await(inFlight.poll()))
+  }
+
+  private def await(f: CompletableFuture[util.ArrayList[Row]]): util.ArrayList[Row] = {
+    try {
+      f.join()
+    } catch {
+      case e: CompletionException if e.getCause != null => throw e.getCause
+    }
+  }
+
+  private def emit(rows: util.ArrayList[Row]): Unit = {
+    var i = 0
+    while (i < rows.size() && !wantsNoMore) {
+      super.process(rows.get(i))
+      i += 1
+    }
+  }
+}
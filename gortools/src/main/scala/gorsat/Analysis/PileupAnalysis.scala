@@ -437,6 +437,8 @@ object GorPileup {
 
   case class pooledPileupFactory(session: GorSession, grCols: List[Int], pa: Parameters, refSeq: RefSeq) extends BinFactory {
     def create: BinState = pooledPileupState(session, grCols, pa, refSeq)
+
+    override def isParallelizable: Boolean = true
   }
 
   case class pooledPileup(session: GorSession, grCols: List[Int], pa: Parameters, columns: PileupColumns, span: Int, refSeq: RefSeq) extends
@@ -0,0 +1,183 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Analysis
+
+import gorsat.Commands.Analysis
+import gorsat.RowBuffer
+import org.gorpipe.exceptions.GorSystemException
+import org.gorpipe.gor.model.Row
+import org.slf4j.MDC
+
+import java.util.concurrent.{ArrayBlockingQueue, TimeUnit}
+
+object PipelineStage {
+  val BATCH_SIZE: Int = System.getProperty("gor.pipeline.batch.size", "1024").toInt
+  val QUEUE_SIZE: Int = math.max(1, System.getProperty("gor.pipeline.queue.size", "4").toInt)
+  private val POLL_MILLIS = 100L
+
+  /**
+    * Commands before which the pipe is cut into a new stage. INPUT cuts the pipe right after the input source.
+    * Empty disables pipelined execution.
+    */
+  val STAGE_COMMANDS: Set[String] = System.getProperty("gor.pipeline.stages", "")
+    .split(',').map(_.trim.toUpperCase).filter(_.nonEmpty).toSet
+
+  def isEnabled: Boolean = STAGE_COMMANDS.nonEmpty
+}
+
+/**
+  * Boundary between two stages of a pipe. Rows are collected into batches which are handed over a bounded queue
+  * to a thread that runs the rest of the pipe, so the steps before and after the boundary run concurrently.
+  * The downstream thread is started on the first row and is joined in finish, after which the following steps are
+  * finished as usual.
+  */
+case class PipelineStage(batchSize: Int = PipelineStage.BATCH_SIZE,
+                         queueSize: Int = PipelineStage.QUEUE_SIZE) extends Analysis {
+
+  private val freeBatches = new ArrayBlockingQueue[RowBuffer](queueSize + 1)
+  private val fullBatches = new ArrayBlockingQueue[RowBuffer](queueSize + 1)
+  private val endOfStream = new RowBuffer()
+  private var batch: RowBuffer = _
+  private var worker: Thread = _
+  @volatile private var downstreamDone = false
+  @volatile private var error: Throwable = _
+
+  override def isTypeInformationMaintained: Boolean = true
+
+  override def reportWantsNoMore(): Unit = {
+    // Steps upstream are only touched from the producing thread, which picks this up on the next row
+    if (Thread.currentThread() eq worker) downstreamDone = true
+    else super.reportWantsNoMore()
+  }
+
+  override def reset(): Unit = {
+    super.reset()
+    downstreamDone = false
+    error = null
+  }
+
+  override def process(r: Row): Unit = {
+    if (error != null) throw error
+    if (downstreamDone) {
+      if (!wantsNoMore) super.reportWantsNoMore()
+    } else if (!wantsNoMore) {
+      if (worker == null) start()
+      batch.add(r)
+      if (batch.isFull) {
+        handOver(batch)
+        batch = takeFree()
+      }
+    }
+  }
+
+  override def finish(): Unit = {
+    if (worker != null) {
+      if (isInErrorState) downstreamDone = true
+      else if (!batch.isEmpty) handOver(batch)
+      handOver(endOfStream)
+      try {
+        worker.join()
+      } catch {
+        case e: InterruptedException =>
+          Thread.currentThread().interrupt()
+          throw new GorSystemException("Interrupted waiting for pipeline stage", e)
+      }
+      worker = null
+      batch = null
+    }
+    if (error != null && !isInErrorState) throw error
+  }
+
+  private def start(): Unit = {
+    freeBatches.clear()
+    fullBatches.clear()
+    for (_ <- 0 until queueSize) freeBatches.add(new RowBuffer(batchSize))
+    batch = new RowBuffer(batchSize)
+
+    val contextMap = MDC.getCopyOfContextMap
+    worker = new Thread(() => {
+      if (contextMap != null) MDC.setContextMap(contextMap)
+      run()
+    }, Thread.currentThread().getName + "::PipelineStage")
+    worker.setDaemon(true)
+    worker.start()
+  }
+
+  private def run(): Unit = {
+    try {
+      var b = fullBatches.take()
+      while (b ne endOfStream) {
+        try {
+          var i = 0
+          while (i < b.size && !downstreamDone && !nextProcessor.wantsNoMore) {
+            nextProcessor.process(b.get(i))
+            i += 1
+          }
+        } catch {
+          case e: Throwable =>
+            // Keep draining so the producing thread never blocks on a full queue
+            error = e
+            downstreamDone = true
+        }
+        b.clear()
+        freeBatches.put(b)
+        b = fullBatches.take()
+      }
+    } catch {
+      case e: InterruptedException =>
+        error = new GorSystemException("Pipeline stage interrupted", e)
+        downstreamDone = true
+    }
+  }
+
+  private def handOver(b: RowBuffer): Unit = {
+    try {
+      while (!fullBatches.offer(b, PipelineStage.POLL_MILLIS, TimeUnit.MILLISECONDS)) checkWorker()
+    } catch {
+      case e: InterruptedException =>
+        Thread.currentThread().interrupt()
+        throw new GorSystemException("Interrupted handing rows to pipeline stage", e)
+    }
+  }
+
+  private def takeFree(): RowBuffer = {
+    try {
+      var b = freeBatches.poll(PipelineStage.POLL_MILLIS, TimeUnit.MILLISECONDS)
+      while (b == null) {
+        checkWorker()
+        b = freeBatches.poll(PipelineStage.POLL_MILLIS, TimeUnit.MILLISECONDS)
+      }
+      b
+    } catch {
+      case e: InterruptedException =>
+        Thread.currentThread().interrupt()
+        throw new GorSystemException("Interrupted waiting for pipeline stage", e)
+    }
+  }
+
+  private def checkWorker(): Unit = {
+    if (!worker.isAlive) {
+      throw if (error != null) error else new GorSystemException("Pipeline stage thread stopped", null)
+    }
+  }
+}
@@ -209,6 +209,8 @@ object RankAnalysis {
   case class RankFactory(binSize: Int, rc: Int, grCols: List[Int], pa: Parameters) extends BinFactory {
     def create: BinState =
       RankState(binSize, rc, grCols, pa)
+
+    override def isParallelizable: Boolean = true
   }
 
   case class Rank(binSize: Int, rc: Int, grCols: List[Int], pa: Parameters, outgoingHeader: RowHeader) extends
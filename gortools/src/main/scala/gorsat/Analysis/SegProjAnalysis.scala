@@ -28,11 +28,11 @@ import org.gorpipe.gor.session.GorSession
 case class SegProjAnalysis(grCols: List[Int], maxSeg: Int, fuzzfac: Int, sumColumns: List[Int], header: String,
                            session: GorSession, outgoingHeader: RowHeader) extends Analysis {
   if (grCols.nonEmpty) {
-    this | Chopper(fuzzfac, header, session) | SortAnalysis(header, session, maxSeg) | CheckOrder() |
-      VennSeg(grCols, sumColumns, header) | SortAnalysis(header, session, maxSeg)
+    this | Chopper(fuzzfac, header, session) | SortAnalysis(maxSeg) | CheckOrder() |
+      VennSeg(grCols, sumColumns, header) | SortAnalysis(maxSeg)
   }
   else {
-    this | Chopper(fuzzfac, header, session) | SortAnalysis(header, session, maxSeg) | CheckOrder() |
+    this | Chopper(fuzzfac, header, session) | SortAnalysis(maxSeg) | CheckOrder() |
       VennSeg(grCols, sumColumns, header)
   }
 
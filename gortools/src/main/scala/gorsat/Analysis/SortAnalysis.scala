@@ -25,14 +25,10 @@ package gorsat.Analysis
 import gorsat.Commands.{Processor, _}
 import org.gorpipe.gor.model.Row
 import org.gorpipe.gor.model.Row.SortInfo
-import org.gorpipe.gor.session.GorSession
 
-case class SortAnalysis(header: String,
-                        session: GorSession,
-                        range: Int,
+case class SortAnalysis(range: Int,
                         sortInfo: Array[Row.SortInfo] = null)
-  extends BinAnalysis(SortRowHandler(2 * (1 + range / 11.min(range))), BinAggregator(SortFactory(header,
-    session, sortInfo, 10.min(range) + 2), 10.min(range) + 2, 10.min(range)))
+  extends BinAnalysis(SortRowHandler(2 * (1 + range / 11.min(range))), BinAggregator(SortFactory(sortInfo, 10.min(range) + 2), 10.min(range) + 2, 10.min(range)))
 {
   override def isTypeInformationMaintained: Boolean = true
 }
@@ -51,8 +47,8 @@ case class SortState(sortStep: SortGenome) extends BinState {
   }
 }
 
-case class SortFactory(header: String, session: GorSession, sortInfo: Array[SortInfo], div: Int) extends BinFactory {
-  def create: BinState = SortState(SortGenome(header, session, sortInfo, div))
+case class SortFactory(sortInfo: Array[SortInfo], div: Int) extends BinFactory {
+  def create: BinState = SortState(SortGenome(sortInfo, div))
 }
 
 case class SortRowHandler(binsize: Int) extends RowHandler {
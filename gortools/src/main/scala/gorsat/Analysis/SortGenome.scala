@@ -22,82 +22,123 @@
 
 package gorsat.Analysis
 
+import java.io.File
 import java.util
+import java.util.concurrent.CompletableFuture
+
 import gorsat.Commands.Analysis
-import gorsat.Iterators.{MultiFileSource, RowArrayIterator}
-import gorsat.Outputs.OutFile
-import gorsat.process.{GenericGorRunner, GenericSessionFactory}
+import org.gorpipe.base.concurrency.CommonThreadPools
 import org.gorpipe.exceptions.custom.GorWriteQuotaExceededException
-import org.gorpipe.gor.driver.meta.DataType
-import org.gorpipe.gor.model.{GenomicIterator, Row}
-import org.gorpipe.gor.session.GorSession
+import org.gorpipe.gor.model.Row
 
-case class SortGenome(header: String, session: GorSession, sortInfo: Array[Row.SortInfo], div: Int = 1) extends Analysis {
+/**
+  * Sorts rows with an external merge sort. Batches of rows are sorted and spilled to run files in the background
+  * while the next batch is collected, and the runs are merged with a loser tree when all rows have been seen.
+  * If there are more than fanIn runs they are first merged in groups, see [[SortRuns]].
+  */
+case class SortGenome(sortInfo: Array[Row.SortInfo], div: Int = 1) extends Analysis {
   var lines = 0
   var batchSize: Int = System.getProperty("gor.sort.batchSize", "2000000").toInt / div
   var maxBufferSize: Int = batchSize * 100
+  var fanIn: Int = SortRuns.FAN_IN
   var bufferSize = 0
   private var alreadySorted = true
 
   private var inputArray = new Array[Row](batchSize)
-  private var ordFileList: List[String] = List()
+  // Buffer for the next batch, while the last one is being spilled
+  private var spareArray: Array[Row] = _
+  private var spill: CompletableFuture[(File, Array[Row])] = _
+  private var runs: List[File] = List()
   private var wroteBuffer = false
-  // If no quota is set we default to 0 and do not deal with write quotas
+  // If no quota is set we default to 0 and do not deal with write quotas. Only the bytes of the run files count.
   private val writeQuota: Long = System.getProperty("gor.querylimits.writequota.mb", "0").toLong * 1024 * 1024
   private var writeQuotaUsed = 0L
 
+  private val comparator: util.Comparator[Row] = (o1: Row, o2: Row) => o1.advancedCompare(o2, sortInfo)
+
   override def isTypeInformationMaintained: Boolean = true
 
   def reinit(): Unit = {
     resetBuffer()
+    deleteRuns()
 
-    ordFileList = List()
     wroteBuffer = false
     writeQuotaUsed = 0L
   }
 
   def resetBuffer(): Unit = {
-    var i = 0
-    while(i < lines) {
-      inputArray(i) = null
-      i += 1
-    }
+    util.Arrays.fill(inputArray.asInstanceOf[Array[AnyRef]], 0, lines, null)
     lines = 0
     bufferSize = 0
     alreadySorted = true
   }
 
   private def flushToDisk(): Unit = {
-    ensureSorted()
-    val outputArray = inputArray.take(lines)
-    resetBuffer()
+    awaitSpill()
 
-    val f = java.io.File.createTempFile("gorsort", DataType.GORZ.suffix)
-    f.deleteOnExit()
-    val outputFile = f.getAbsolutePath
-    ordFileList = outputFile :: ordFileList
+    val rows = inputArray
+    val length = lines
+    val sorted = alreadySorted
+    spill = CompletableFuture.supplyAsync(() => {
+      if (!sorted) util.Arrays.parallelSort(rows, 0, length, comparator)
+      val run = SortRuns.write(rows, length)
+      util.Arrays.fill(rows.asInstanceOf[Array[AnyRef]], 0, length, null)
+      (run, rows)
+    }, CommonThreadPools.sortThreadPool)
     wroteBuffer = true
 
-    val runner = new GenericGorRunner
-    val sortFileReader = session.getProjectContext.getSystemFileReader
-    runner.run(RowArrayIterator(outputArray, outputArray.length), OutFile.driver(outputFile, sortFileReader, header, skipHeader = false, OutputOptions(writeMeta = false)))
+    inputArray = if (spareArray != null && spareArray.length >= batchSize) spareArray else new Array[Row](batchSize)
+    spareArray = null
+    lines = 0
+    bufferSize = 0
+    alreadySorted = true
   }
 
-  private def ensureSorted(): Unit = {
-    if (!alreadySorted) util.Arrays.parallelSort(inputArray, 0, lines, (o1: Row, o2: Row) => o1.advancedCompare(o2, sortInfo))
+  private def awaitSpill(): Unit = {
+    if (spill != null) {
+      val f = spill
+      spill = null
+      val (run, rows) = SortRuns.await(f)
+      runs = runs :+ run
+      spareArray = rows
+      chargeQuota(run)
+    }
   }
 
-  override def process(r: Row): Unit = {
+  private def chargeQuota(run: File): Unit = {
     if (writeQuota > 0) {
-      writeQuotaUsed += r.getAllCols.length
+      writeQuotaUsed += run.length()
       if (writeQuotaUsed > writeQuota) {
         throw new GorWriteQuotaExceededException(s"Write quota exceeded. Write quota is set to ${writeQuota / (1024 * 1024)} MB")
       }
     }
+  }
+
+  private def deleteRuns(): Unit = {
+    if (spill != null) {
+      spill.handle[Unit]((result, _) => if (result != null) result._1.delete()).join()
+      spill = null
+    }
+    runs.foreach(x => {
+      try {
+        x.delete
+      } catch {
+        case _: Exception =>
+          // Do nothing
+      }
+    })
+    runs = List()
+  }
+
+  private def ensureSorted(): Unit = {
+    if (!alreadySorted) util.Arrays.parallelSort(inputArray, 0, lines, comparator)
+  }
+
+  override def process(r: Row): Unit = {
     if (alreadySorted && lines > 0 && r.advancedCompare(inputArray(lines - 1), sortInfo) < 0) {
       alreadySorted = false
     }
-    inputArray(lines) = r
+    inputArray(lines) = r.detachedRow()
     bufferSize += r.getAllCols.length
     lines += 1
     if (lines == batchSize || bufferSize > maxBufferSize) {
@@ -107,33 +148,17 @@ case class SortGenome(header: String, session: GorSession, sortInfo: Array[Row.S
 
   override def finish(): Unit = {
     if (wroteBuffer) {
-      var rSource: GenomicIterator = null
+      var merge: SortRuns.SortRunMerge = null
       try {
         if (lines > 0) flushToDisk()
-        val gorString = ordFileList.mkString(" ")
-        val sessionFactory = new GenericSessionFactory()
-        rSource = new MultiFileSource(gorString.split(' ').toList, null, "", sortInfo, sessionFactory.create().getGorContext)
-        rSource.seek("", 0)
+        awaitSpill()
+        runs = SortRuns.reduce(runs, comparator, fanIn, chargeQuota)
+        merge = SortRuns.merge(runs, comparator)
 
-        while (rSource.hasNext) super.process(rSource.next())
+        while (merge.hasNext) super.process(merge.next())
       } finally {
-        if (rSource != null) {
-          try {
-            rSource.close()
-          } catch {
-            case _: Exception =>
-              // Do nothing
-          }
-        }
-        ordFileList.foreach(x => {
-          try {
-            val f = new java.io.File(x)
-            f.delete
-          } catch {
-            case _: Exception =>
-              // Do nothing
-          }
-        })
+        if (merge != null) merge.close()
+        deleteRuns()
       }
     } else {
       ensureSorted()
@@ -0,0 +1,217 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Analysis
+
+import java.io._
+import java.nio.charset.StandardCharsets
+import java.util
+import java.util.concurrent.{CompletableFuture, CompletionException}
+import java.util.zip.{Deflater, DeflaterOutputStream, Inflater, InflaterInputStream}
+
+import org.gorpipe.base.concurrency.CommonThreadPools
+import org.gorpipe.gor.model.Row
+import org.gorpipe.gor.util.LoserTree
+import org.gorpipe.model.gor.RowObj
+
+import scala.jdk.CollectionConverters._
+import scala.util.{Failure, Success, Try}
+
+/**
+  * Run files of the external sort in [[SortGenome]]. A run is a sorted sequence of rows stored as length prefixed
+  * UTF-8 lines in a temporary file, deflated as one stream with the same compression level as gorz files. There are
+  * no blocks or file format in between, so a run is written and read back sequentially without seeking.
+  */
+object SortRuns {
+  val FAN_IN: Int = System.getProperty("gor.sort.fanIn", "64").toInt
+  private val BUFFER_SIZE = 1 << 16
+
+  /**
+    * Writes rows to a new run file
+    *
+    * @param rows Sorted rows
+    * @return The run file, it is deleted on exit
+    */
+  def write(rows: util.Iterator[Row]): File = {
+    val file = File.createTempFile("gorsort", ".run")
+    file.deleteOnExit()
+    var success = false
+    val deflater = new Deflater(Deflater.BEST_SPEED)
+    try {
+      val out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(file), deflater, BUFFER_SIZE), BUFFER_SIZE))
+      try {
+        while (rows.hasNext) writeRow(out, rows.next())
+        success = true
+      } finally {
+        out.close()
+      }
+    } finally {
+      deflater.end()
+      if (!success) file.delete()
+    }
+    file
+  }
+
+  def write(rows: Array[Row], length: Int): File = write(new util.Iterator[Row] {
+    private var i = 0
+
+    override def hasNext: Boolean = i < length
+
+    override def next(): Row = {
+      i += 1
+      rows(i - 1)
+    }
+  })
+
+  /**
+    * @return A merge of the runs, rows that compare equal are returned in the order of the runs
+    */
+  def merge(runs: Seq[File], comparator: util.Comparator[Row]): SortRunMerge = new SortRunMerge(runs, comparator)
+
+  /**
+    * Merges groups of fanIn runs into single runs, in parallel, until there are no more than fanIn runs left.
+    * The runs that are merged are deleted.
+    *
+    * @param written Called with each run that is written by a merge
+    * @return The remaining runs, in the order of the rows they hold
+    */
+  def reduce(runs: List[File], comparator: util.Comparator[Row], fanIn: Int, written: File => Unit = _ => ()): List[File] = {
+    var current = runs
+    while (current.length > fanIn) {
+      val groups = current.grouped(fanIn).toList
+      val merges = groups.map { group =>
+        if (group.length == 1) CompletableFuture.completedFuture(group.head)
+        else CompletableFuture.supplyAsync(() => mergeToRun(group, comparator), CommonThreadPools.sortThreadPool)
+      }
+      val results = merges.map(f => Try(await(f)))
+      results.collectFirst { case Failure(e) => e } match {
+        case Some(e) =>
+          results.foreach { case Success(file) => file.delete() case _ => }
+          throw e
+        case None =>
+          current = results.map(_.get)
+          try {
+            groups.zip(current).foreach { case (group, run) => if (group.length > 1) written(run) }
+          } catch {
+            case e: Throwable =>
+              current.foreach(_.delete())
+              throw e
+          }
+      }
+    }
+    current
+  }
+
+  def await[T](f: CompletableFuture[T]): T = {
+    try {
+      f.join()
+    } catch {
+      case e: CompletionException if e.getCause != null => throw e.getCause
+    }
+  }
+
+  private def mergeToRun(group: Seq[File], comparator: util.Comparator[Row]): File = {
+    val merged = merge(group, comparator)
+    val file = try {
+      write(merged)
+    } finally {
+      merged.close()
+    }
+    group.foreach(_.delete())
+    file
+  }
+
+  private def writeRow(out: DataOutputStream, r: Row): Unit = {
+    val bytes = r.getAllCols.toString.getBytes(StandardCharsets.UTF_8)
+    var len = bytes.length
+    while ((len & ~0x7F) != 0) {
+      out.write((len & 0x7F) | 0x80)
+      len >>>= 7
+    }
+    out.write(len)
+    out.write(bytes)
+  }
+
+  class SortRunReader(file: File) extends util.Iterator[Row] with AutoCloseable {
+    private val inflater = new Inflater()
+    private val in = try {
+      new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file), inflater, BUFFER_SIZE), BUFFER_SIZE))
+    } catch {
+      case e: Throwable =>
+        inflater.end()
+        throw e
+    }
+    private var buffer = new Array[Byte](1024)
+    private var nextRow: Row = read()
+
+    override def hasNext: Boolean = nextRow != null
+
+    override def next(): Row = {
+      if (nextRow == null) throw new NoSuchElementException
+      val r = nextRow
+      nextRow = read()
+      r
+    }
+
+    private def read(): Row = {
+      var b = in.read()
+      if (b < 0) return null
+      var len = 0
+      var shift = 0
+      while ((b & 0x80) != 0) {
+        len |= (b & 0x7F) << shift
+        shift += 7
+        b = in.readUnsignedByte()
+      }
+      len |= b << shift
+      if (buffer.length < len) buffer = new Array[Byte](math.max(len, 2 * buffer.length))
+      in.readFully(buffer, 0, len)
+      RowObj(new String(buffer, 0, len, StandardCharsets.UTF_8))
+    }
+
+    override def close(): Unit = {
+      try {
+        in.close()
+      } finally {
+        inflater.end()
+      }
+    }
+  }
+
+  class SortRunMerge(runs: Seq[File], comparator: util.Comparator[Row]) extends util.Iterator[Row] with AutoCloseable {
+    private val readers = new util.ArrayList[SortRunReader]()
+    try {
+      runs.foreach(run => readers.add(new SortRunReader(run)))
+    } catch {
+      case e: Throwable =>
+        close()
+        throw e
+    }
+    private val tree = new LoserTree[Row](readers, comparator)
+
+    override def hasNext: Boolean = tree.hasNext
+
+    override def next(): Row = tree.next()
+
+    override def close(): Unit = readers.asScala.foreach(r => Try(r.close()))
+  }
+}
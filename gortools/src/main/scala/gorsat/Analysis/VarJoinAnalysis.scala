@@ -103,10 +103,10 @@ object VarJoinAnalysis {
       leftStart = lr.pos; leftStop = leftStart + lRef.length
 
       // Check if we need to fetch more segments from the right-source, i.e. have we moved upwards with the left-source
-      if ( ((maxLeftStop < leftStop && lastLeftChr == lr.chr) || lastLeftChr < lr.chr) &&
-        (lastRightChr < lr.chr || (lastRightChr == lr.chr && lastRightPos <= leftStop + fuzzFactor))) {
+      if ( ((maxLeftStop < leftStop && lastLeftChr == lr.chr) || lr.compareChr(lastLeftChr) > 0) &&
+        (lr.compareChr(lastRightChr) > 0 || (lastRightChr == lr.chr && lastRightPos <= leftStop + fuzzFactor))) {
         if (lr.chr == lastSeekChr && !rightSource.hasNext) { /* do nothing */ }
-        else if (lr.chr > lastRightChr) {
+        else if (lr.compareChr(lastRightChr) > 0) {
           rightSource.seek(lr.chr,(lr.pos-fuzzFactor-maxSegSize).max(0))
           lastSeekChr = lr.chr
         } else if (lr.chr == lastRightChr && lr.pos - fuzzFactor - maxSegSize > lastRightPos) {
@@ -142,12 +142,12 @@ object VarJoinAnalysis {
             }
           } else gr = singleGroupHolder
 
-          if (rr.chr == lr.chr && rightStop >= leftStart - fuzzFactor) {
+          if (rr.compareChr(lr) == 0 && rightStop >= leftStart - fuzzFactor) {
             if (gr.rowBuffer(gr.buffer).size <= gr.bufferSize) gr.rowBuffer(gr.buffer) += rSeg else gr.rowBuffer(gr.buffer)(gr.bufferSize) = rSeg
             gr.bufferSize += 1
             lastRightChr = rr.chr; lastRightPos = rightStart // rr.pos
           }
-          if (rr.chr > lr.chr || (rr.chr == lr.chr && rightStart > leftStop + fuzzFactor)) keepOn = false  // Continue until there is no overlap with the left-seg
+          if (rr.compareChr(lr) > 0 || (rr.compareChr(lr) == 0 && rightStart > leftStop + fuzzFactor)) keepOn = false  // Continue until there is no overlap with the left-seg
         }
       }
       val lSeg = varSEGinfo(leftStart,leftStop,lr,lRef,lAlt)
@@ -172,7 +172,7 @@ object VarJoinAnalysis {
         val rSeg = gr.rowBuffer(gr.buffer)(i)
         val rr = rSeg.r
         var use_row_again = true
-        if (lr.chr == rr.chr && lSeg.start-fuzzFactor < rSeg.stop && lSeg.stop+fuzzFactor > rSeg.start && (
+        if (lr.compareChr(rr) == 0 && lSeg.start-fuzzFactor < rSeg.stop && lSeg.stop+fuzzFactor > rSeg.start && (
           exactJoin && (lSeg.start == rSeg.start && lSeg.ref == rSeg.ref && lSeg.alt == rSeg.alt) ||
             allelesFoundVCF(lSeg.start,lSeg.ref,lSeg.alt,rSeg.start,rSeg.ref,rSeg.alt,refSeqProvider,lr.chr) >= minAllShare ) ) {
           if (!negjoin && !ic) {
@@ -187,7 +187,7 @@ object VarJoinAnalysis {
           ovlaps += 1
           if (ir) use_row_again = false
         }
-        if (!((rr.chr == lr.chr && rSeg.stop+fuzzFactor < lSeg.start) || rr.chr < lr.chr) && use_row_again) {
+        if (!((rr.compareChr(lr) == 0 && rSeg.stop+fuzzFactor < lSeg.start) || rr.compareChr(lr) < 0) && use_row_again) {
           if (gr.rowBuffer(nextBuffer).size <= nextBufferSize) gr.rowBuffer(nextBuffer) += gr.rowBuffer(gr.buffer)(i)
           else gr.rowBuffer(nextBuffer)(nextBufferSize) = gr.rowBuffer(gr.buffer)(i)
           gr.rowBuffer(gr.buffer)(i) = null
@@ -215,7 +215,7 @@ object VarJoinAnalysis {
           while (i < gr.bufferSize) {
             val rSeg = gr.rowBuffer(gr.buffer)(i)
             val rr = rSeg.r
-            if (!((rr.chr == lr.chr && rSeg.stop+fuzzFactor < lSeg.start) || rr.chr < lr.chr)) {
+            if (!((rr.compareChr(lr) == 0 && rSeg.stop+fuzzFactor < lSeg.start) || rr.compareChr(lr) < 0)) {
               if (gr.rowBuffer(nextBuffer).size <= nextBufferSize) gr.rowBuffer(nextBuffer) += gr.rowBuffer(gr.buffer)(i)
               else gr.rowBuffer(nextBuffer)(nextBufferSize) = gr.rowBuffer(gr.buffer)(i)
               gr.rowBuffer(gr.buffer)(i) = null
@@ -37,6 +37,9 @@ case class WhereAnalysis(context: GorContext, executeNor: Boolean, paramString:
 
   filter.setContext(context, executeNor)
 
+  private val passedStat = statsCounter("rows passed through filter")
+  private val filteredStat = statsCounter("rows filtered out")
+
   var isFilterValid: Boolean = false
 
   override def isTypeInformationNeeded: Boolean = true
@@ -67,10 +70,10 @@ case class WhereAnalysis(context: GorContext, executeNor: Boolean, paramString:
   override def process(r: Row): Unit = {
     if ((isFilterValid && filter.evalBooleanFunction(r)) || (!isFilterValid && ignoreFilterError)) {
       // Row is passed if the filter is invalid (TRYWHERE) or if the filter evaluates to true
-      statsInc("rows passed through filter")
+      if (passedStat != null) passedStat.inc()
       super.process(r)
     } else {
-      statsInc("rows filtered out")
+      if (filteredStat != null) filteredStat.inc()
     }
   }
 
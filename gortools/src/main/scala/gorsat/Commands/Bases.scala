@@ -48,7 +48,7 @@ class Bases extends CommandInfo("BASES",
     val hcol = forcedInputHeader.split("\t")
     var header = "Chrom\tPos\tRef\tBase\tReadPos\tBaseQual\tMDI"
     for (c <- gcCols) header += "\t" + hcol(c)
-    val pipeStep: Analysis = CigarVarSegs(cigarCol, gcCols.toArray, useRef, outputBases = true, seqBasesCol, seqQualCol, context.getSession) | SortAnalysis(forcedInputHeader, context.getSession, sortWindow)
+    val pipeStep: Analysis = CigarVarSegs(cigarCol, gcCols.toArray, useRef, outputBases = true, seqBasesCol, seqQualCol, context.getSession) | SortAnalysis(sortWindow)
 
     CommandParsingResult(pipeStep, header)
   }
@@ -55,9 +55,9 @@ class CigarSegs extends CommandInfo("CIGARSEGS",
     var pipeStep: Analysis = null
     if (useSeq) {
       seqQualCol = seqBasesCol
-      pipeStep = CigarVarSegs(cigarCol, gcCols.toArray, useRef = false, outputBases = false, seqBasesCol, seqQualCol, context.getSession) | SortAnalysis(forcedInputHeader, context.getSession, sortWindow)
+      pipeStep = CigarVarSegs(cigarCol, gcCols.toArray, useRef = false, outputBases = false, seqBasesCol, seqQualCol, context.getSession) | SortAnalysis(sortWindow)
     } else {
-      pipeStep = CigarSegsAnalysis(cigarCol, gcCols.toArray) | SortAnalysis(forcedInputHeader, context.getSession, sortWindow)
+      pipeStep = CigarSegsAnalysis(cigarCol, gcCols.toArray) | SortAnalysis(sortWindow)
     }
 
     CommandParsingResult(pipeStep, header)
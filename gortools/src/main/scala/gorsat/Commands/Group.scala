@@ -31,8 +31,8 @@ import org.gorpipe.gor.session.GorContext
 import scala.collection.mutable.ListBuffer
 
 class Group extends CommandInfo("GROUP",
-  CommandArguments("-count -cdist -min -med -max -dis -set -lis -avg -std -sum -h -ordered -notruncate", "-gc -sc -ac -ic -fc -len -steps " +
-    "-s", 0, 1),
+  CommandArguments("-count -cdist -min -med -max -dis -set -lis -avg -std -sum -amed -adis -sketch -h -ordered -notruncate",
+    "-gc -sc -ac -ic -fc -skc -len -steps -s", 0, 1),
   CommandOptions(gorCommand = true, norCommand = true, memoryMonitorCommand = true, verifyCommand = true,
     cancelCommand = true, ignoreSplitCommand = true)) {
   override def processArguments(context: GorContext, argString: String, iargs: Array[String],
@@ -63,6 +63,9 @@ class Group extends CommandInfo("GROUP",
     val useAvg = hasOption(args, "-avg")
     val useStd = hasOption(args, "-std")
     val useSum = hasOption(args, "-sum")
+    val useAmed = hasOption(args, "-amed")
+    val useAdis = hasOption(args, "-adis")
+    val useSketch = hasOption(args, "-sketch")
     val truncate = !hasOption(args, "-notruncate")
 
     val assumeOrdered = hasOption(args, "-ordered")
@@ -93,23 +96,27 @@ class Group extends CommandInfo("GROUP",
       Nil
     }
     var icCols: List[Int] = columnsOfOptionWithNil(args, "-ic", inputHeader, executeNor).distinct
-    val fcCols: List[Int] = columnsOfOptionWithNil(args, "-fc", inputHeader, executeNor).distinct
+    var fcCols: List[Int] = columnsOfOptionWithNil(args, "-fc", inputHeader, executeNor).distinct
+    val skCols: List[Int] = columnsOfOptionWithNil(args, "-skc", inputHeader, executeNor).distinct
 
     gcCols.foreach { x =>
-      if (acCols.contains(x) || icCols.contains(x) || fcCols.contains(x)) {
+      if (acCols.contains(x) || icCols.contains(x) || fcCols.contains(x) || skCols.contains(x)) {
         throw new GorParsingException(s"Grouping column $x is selected for aggregation.")
       }
     }
 
-    acCols = acCols filterNot (x => icCols.contains(x) || fcCols.contains(x))
-    icCols = icCols filterNot (x => fcCols.contains(x))
+    acCols = acCols filterNot (x => icCols.contains(x) || fcCols.contains(x) || skCols.contains(x))
+    icCols = icCols filterNot (x => fcCols.contains(x) || skCols.contains(x))
+    fcCols = fcCols filterNot (x => skCols.contains(x))
 
-    if (useMax || useMin || useMed || useDis || useSet || useLis || useAvg || useStd || useSum) {
-      if (gcCols.length + acCols.length + icCols.length + fcCols.length == 0) {
-        throw new GorParsingException("No columns selected for aggregation. Use -gc, -sc, -ic, or -fc to specify " +
+    if (useMax || useMin || useMed || useDis || useSet || useLis || useAvg || useStd || useSum || useAmed || useAdis ||
+      useSketch) {
+      if (gcCols.length + acCols.length + icCols.length + fcCols.length + skCols.length == 0) {
+        throw new GorParsingException("No columns selected for aggregation. Use -gc, -sc, -ic, -fc or -skc to specify " +
           "which columns should be aggregated.")
       }
     }
+    val sketches = GroupAnalysis.SketchOptions(useAmed, useAdis, useSketch, skCols)
 
     val hcol = inputHeader.split("\t")
     var columns = ListBuffer[ColumnHeader]()
@@ -166,7 +173,28 @@ class Group extends CommandInfo("GROUP",
           if (useSum) {
             columns += ColumnHeader("sum_" + hcol(i), i.toString)
           }
+          if (useAmed) {
+            columns += ColumnHeader("amed_" + hcol(i), i.toString)
+          }
+        }
+        if (useAdis) {
+          columns += ColumnHeader("adis_" + hcol(i), "I")
         }
+        if (useSketch) {
+          columns += ColumnHeader("sketch_" + hcol(i), "S")
+        }
+      }
+    }
+    for (c <- skCols) {
+      val name = GroupAnalysis.sketchColumnName(hcol(c))
+      if (useAmed) {
+        columns += ColumnHeader("amed_" + name, "D")
+      }
+      if (useAdis) {
+        columns += ColumnHeader("adis_" + name, "I")
+      }
+      if (useSketch) {
+        columns += ColumnHeader("sketch_" + name, "S")
       }
     }
 
@@ -180,22 +208,22 @@ class Group extends CommandInfo("GROUP",
 
     if (chrGen.startsWith("CHR")) {
       pipeStep = GroupAnalysis.ChromAggregate(context.getSession, useCount, useCdist, useMax, useMin, useMed, useDis, useSet,
-        useLis, useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header)
+        useLis, useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header, sketches)
     } else if (chrGen.startsWith("GEN")) {
       overwriteValidtion = true
       pipeStep = GroupAnalysis.GenomeAggregate(useCount, useCdist, useMax, useMin, useMed, useDis, useSet, useLis,
-        useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header)
+        useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header, sketches)
     } else {
       if (slideSteps > 1) {
         pipeStep = GroupAnalysis.SlideAggregate(slideSteps, binSize, useCount, useCdist, useMax, useMin, useMed,
-          useDis, useSet, useLis, useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header)
+          useDis, useSet, useLis, useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header, sketches)
       } else {
         pipeStep = if (assumeOrdered)
           GroupAnalysis.OrderedAggregate(binSize, useCount, useCdist, useMax, useMin, useMed, useDis, useSet,
-            useLis, useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header)
+            useLis, useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header, sketches)
           else
           GroupAnalysis.Aggregate(binSize, useCount, useCdist, useMax, useMin, useMed, useDis, useSet,
-            useLis, useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header)
+            useLis, useAvg, useStd, useSum, acCols, icCols, fcCols, gcCols, setLen, truncate, sepVal, header, sketches)
       }
     }
 
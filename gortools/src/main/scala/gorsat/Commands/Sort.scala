@@ -58,9 +58,9 @@ class Sort extends CommandInfo("SORT",
     }
 
     val pipeStep = if (useTempfiles) {
-      SortGenome(forcedInputHeader, context.getSession, sortInfo)
+      SortGenome(sortInfo)
     } else {
-      SortAnalysis(forcedInputHeader, context.getSession, window, sortInfo) | CheckOrder(name + " " + args.mkString(" "))
+      SortAnalysis(window, sortInfo) | CheckOrder(name + " " + args.mkString(" "))
     }
 
     CommandParsingResult(pipeStep, forcedInputHeader)
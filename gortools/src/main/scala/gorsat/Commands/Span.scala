@@ -50,7 +50,7 @@ object Span {
     val combinedHeader = validHeader(outgoingHeader.toString)
 
     if (gcCols.nonEmpty) {
-      pipeStep = ProjectSegments(gcCols, window, outgoingHeader) | SortAnalysis(combinedHeader, session, window * 2) | CheckOrder("SEGSPAN " + args.mkString(" "))
+      pipeStep = ProjectSegments(gcCols, window, outgoingHeader) | SortAnalysis(window * 2) | CheckOrder("SEGSPAN " + args.mkString(" "))
     } else if (hasOption(args, "-maxseg")) {
       pipeStep = ProjectSegments(gcCols, window, outgoingHeader) | ChopSegment(window)
     } else {
@@ -239,7 +239,7 @@ class VarJoin extends CommandInfo("VARJOIN",
         }
 
         if (hasOption(args, "-ir") && !exactJoin) {
-          aPipeStep = aPipeStep  | SortAnalysis(combinedHeader,context.getSession,1000)
+          aPipeStep = aPipeStep  | SortAnalysis(1000)
         }
       } // end overlap
 
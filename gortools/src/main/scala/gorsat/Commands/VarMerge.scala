@@ -45,6 +45,6 @@ class VarMerge extends CommandInfo("VARMERGE",
       throw new GorParsingException("Error in columns - Specify the 2 columns for the reference and the alternative allele: ")
     }
 
-    CommandParsingResult(MergeGenotypes(refCol, alleleCol, seg, forcedInputHeader, normalize, mergeSpan, context.getSession) | SortAnalysis(forcedInputHeader, context.getSession, 250.max(mergeSpan)), forcedInputHeader)
+    CommandParsingResult(MergeGenotypes(refCol, alleleCol, seg, forcedInputHeader, normalize, mergeSpan, context.getSession) | SortAnalysis(250.max(mergeSpan)), forcedInputHeader)
   }
 }
@@ -79,7 +79,7 @@ class Variants extends CommandInfo("VARIANTS",
       }
 
     } else {
-      pipeStep = pipeStep | SortAnalysis(header, context.getSession, sortWindow)
+      pipeStep = pipeStep | SortAnalysis(sortWindow)
     }
 
     CommandParsingResult(pipeStep, header)
@@ -77,5 +77,7 @@ class SingleRowIteratorSource(theIterator: GenomicIterator) extends GenomicItera
 
   override def pushdownFilter(gorwhere: String): Boolean = theIterator.pushdownFilter(gorwhere)
 
+  override def pushdownSelect(colList: Array[String]): Boolean = theIterator.pushdownSelect(colList)
+
   override def pushdownTop(limit: Int): Boolean = theIterator.pushdownTop(limit)
 }
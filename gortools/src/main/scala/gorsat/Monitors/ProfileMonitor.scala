@@ -0,0 +1,193 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Monitors
+
+import gorsat.Commands.{Analysis, Processor}
+import org.gorpipe.gor.model.Row
+import org.gorpipe.gor.stats.StatsCollector
+import org.slf4j.{Logger, LoggerFactory}
+
+import java.util.concurrent.atomic.AtomicInteger
+import scala.collection.mutable.ArrayBuffer
+
+object ProfileMonitor {
+  private val log: Logger = LoggerFactory.getLogger(this.getClass)
+
+  val ENABLED: Boolean = System.getProperty("gor.query.profile", "false").toBoolean
+
+  private val profileIds = new AtomicInteger()
+
+  /**
+    * Profile of one step in the pipe. Times are wall clock times on the thread running the pipe, excluding the time
+    * spent in the steps after it.
+    */
+  case class StepProfile(name: String, rowsIn: Long, rowsOut: Long, bytesIn: Long, bytesOut: Long, setupNanos: Long, nanos: Long)
+
+  /**
+    * Profile of a pipe, collected by the monitors placed before and after each step.
+    */
+  class Profile(stats: StatsCollector) {
+    val id: Int = profileIds.incrementAndGet()
+    val monitors = ArrayBuffer[ProfileMonitor]()
+    val stepNames = ArrayBuffer[String]()
+
+    /** Time the pipe waited for the reader thread of the source */
+    var readWaitNanos = 0L
+    /** Time the reader thread of the source waited for the pipe */
+    var queueWaitNanos = 0L
+
+    def sourceRows: Long = monitors.head.rows
+
+    def sourceBytes: Long = monitors.head.bytes
+
+    /**
+      * @return The profile of each step, the step between monitor i and i + 1 runs its rows within the process calls
+      *         of monitor i and its finish between the finish calls of the monitors.
+      */
+    def steps: Seq[StepProfile] = stepNames.indices.map { i =>
+      val before = monitors(i)
+      val after = monitors(i + 1)
+      StepProfile(stepNames(i), before.rows, after.rows, before.bytes, after.bytes,
+        after.setupStart - before.setupStart,
+        before.nanos - after.nanos + after.finishStart - before.finishStart)
+    }
+
+    def report(): Unit = {
+      val profiles = steps
+      if (stats != null) {
+        val source = stats.registerSender("Profile " + id, "0 Source")
+        stats.add(source, "rowsOut", sourceRows)
+        stats.add(source, "bytesOut", sourceBytes)
+        stats.add(source, "readWaitNanos", readWaitNanos)
+        stats.add(source, "queueWaitNanos", queueWaitNanos)
+        profiles.zipWithIndex.foreach { case (p, i) =>
+          val sender = stats.registerSender("Profile " + id, (i + 1) + " " + p.name)
+          stats.add(sender, "rowsIn", p.rowsIn)
+          stats.add(sender, "rowsOut", p.rowsOut)
+          stats.add(sender, "bytesIn", p.bytesIn)
+          stats.add(sender, "bytesOut", p.bytesOut)
+          stats.add(sender, "setupNanos", p.setupNanos)
+          stats.add(sender, "nanos", p.nanos)
+        }
+      }
+      if (log.isInfoEnabled) log.info(format(profiles))
+    }
+
+    private def format(profiles: Seq[StepProfile]): String = {
+      val sb = new StringBuilder(s"Query profile $id\n")
+      sb.append(f"${"#"}%-4s${"Step"}%-24s${"Rows in"}%14s${"Rows out"}%14s${"Bytes in"}%16s${"Bytes out"}%16s${"Setup ms"}%12s${"Time ms"}%12s\n")
+      sb.append(f"${"0"}%-4s${"Source"}%-24s${""}%14s$sourceRows%14d${""}%16s$sourceBytes%16d${""}%12s${""}%12s\n")
+      profiles.zipWithIndex.foreach { case (p, i) =>
+        sb.append(f"${(i + 1).toString}%-4s${p.name}%-24s${p.rowsIn}%14d${p.rowsOut}%14d${p.bytesIn}%16d${p.bytesOut}%16d${p.setupNanos / 1e6}%12.1f${p.nanos / 1e6}%12.1f\n")
+      }
+      sb.append(f"Waited ${readWaitNanos / 1e6}%.1f ms for the source, the source waited ${queueWaitNanos / 1e6}%.1f ms for the pipe")
+      sb.toString()
+    }
+  }
+
+  /**
+    * Places a profile monitor before each step of the pipe and one after the last step. The profile is reported to
+    * the stats collector, if any, and to the log when the pipe finishes without errors.
+    *
+    * @param pipeStep First step of the pipe
+    * @param stats    Stats collector of the query, may be null
+    * @return First step of the profiled pipe
+    */
+  def instrument(pipeStep: Analysis, stats: StatsCollector): Analysis = {
+    val profile = new Profile(stats)
+    var head: Analysis = null
+    var previous: Analysis = null
+    var step = pipeStep
+    while (step != null) {
+      val next = step.pipeTo
+      val monitor = ProfileMonitor(profile)
+      monitor.rowHeader = step.rowHeader
+      if (previous != null) link(previous, monitor)
+      link(monitor, step)
+      profile.monitors += monitor
+      profile.stepNames += stepName(step)
+      if (head == null) head = monitor
+      previous = step
+      step = next
+    }
+
+    val last = ProfileMonitor(profile)
+    // Keep the header of the last step, the color outputs read it from the end of the pipe
+    last.rowHeader = previous.rowHeader
+    last.nextProcessor = previous.nextProcessor
+    link(previous, last)
+    profile.monitors += last
+    head
+  }
+
+  /**
+    * Adds the wait times of the reader thread feeding the pipe to its profile, if the pipe is profiled.
+    */
+  def recordReadWait(processor: Processor, readWaitNanos: Long, queueWaitNanos: Long): Unit = processor match {
+    case m: ProfileMonitor =>
+      m.profile.readWaitNanos += readWaitNanos
+      m.profile.queueWaitNanos += queueWaitNanos
+    case _ =>
+  }
+
+  private def link(from: Analysis, to: Analysis): Unit = {
+    from.pipeTo = to
+    from.nextProcessor = to
+    to.pipeFrom = from
+  }
+
+  private def stepName(step: Analysis): String = {
+    val name = step.getClass.getSimpleName
+    if (name.nonEmpty) name else step.getClass.getName
+  }
+}
+
+/**
+  * Counts the rows and bytes passing between two steps and the time spent in the steps after it.
+  */
+case class ProfileMonitor(profile: ProfileMonitor.Profile) extends Analysis {
+  var rows = 0L
+  var bytes = 0L
+  var nanos = 0L
+  var setupStart = 0L
+  var finishStart = 0L
+
+  override def isTypeInformationMaintained: Boolean = true
+
+  override def setup(): Unit = {
+    setupStart = System.nanoTime()
+  }
+
+  override def process(r: Row): Unit = {
+    rows += 1
+    bytes += r.length() + 1
+    val t = System.nanoTime()
+    super.process(r)
+    nanos += System.nanoTime() - t
+  }
+
+  override def finish(): Unit = {
+    finishStart = System.nanoTime()
+    if (!isInErrorState && (this eq profile.monitors.last)) profile.report()
+  }
+}
@@ -26,7 +26,7 @@ import gorsat.Analysis.OutputOptions
 
 import java.util.zip.Deflater
 import gorsat.Commands.{Analysis, Output}
-import org.gorpipe.gor.binsearch.{GorIndexType, GorZipLexOutputStream}
+import org.gorpipe.gor.binsearch.{GorIndexType, GorZipLexOutputStream, GorzZoneMap}
 import org.gorpipe.gor.driver.meta.DataType
 import org.gorpipe.gor.model.{FileReader, GorMeta, Row}
 import org.gorpipe.gor.util.DataUtil
@@ -45,6 +45,8 @@ import java.nio.file.Paths
 class GORzip(fileName: String, fileReader: FileReader, header: String = null, skipHeader: Boolean = false, append: Boolean = false, options: OutputOptions, schema: Array[String]) extends Output {
 
   val out = new GorZipLexOutputStream(fileReader.getOutputStream(fileName, append), options.columnCompress, options.md5, if(options.md5File) fileReader.toAbsolutePath(fileName+".md5") else null, if (options.idx != GorIndexType.NONE) fileReader.getOutputStream(fileName + DataType.GORI.suffix) else null, options.idx, options.compressionLevel)
+  if (GorzZoneMap.ENABLED) out.setZoneMapOutput(fileReader.getOutputStream(fileName + GorzZoneMap.SUFFIX, append))
+  else if (fileReader.exists(fileName + GorzZoneMap.SUFFIX)) fileReader.delete(fileName + GorzZoneMap.SUFFIX)
 
   override def getName: String = fileName
 
@@ -0,0 +1,287 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Script
+
+import gorsat.Commands.CommandParseUtilities
+import gorsat.process.GorPrePipe
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource
+import org.gorpipe.gor.model.{FileReader, GorOptions}
+import org.gorpipe.gor.session.GorContext
+import org.gorpipe.gor.table.util.PathUtils
+import org.gorpipe.gor.util.DataUtil
+import org.slf4j.{Logger, LoggerFactory}
+
+import java.util
+import java.util.concurrent.CompletableFuture
+
+/**
+  * Plans pgor splits from the density of the input data instead of the genomic length of the build. The density is
+  * read from the index files of gorz inputs and from the ranges and file sizes of dictionary entries, and each
+  * chromosome gets a number of splits proportional to its share of the data, cut where the data is split in equal
+  * parts. Data within an index block is assumed to be evenly spread, so a dense region is cut into several splits.
+  */
+object DensitySplitPlanner {
+
+  private val log: Logger = LoggerFactory.getLogger(this.getClass)
+
+  /**
+    * Weight of the input data in the range start to end on a chromosome.
+    */
+  case class DensityPoint(chrom: String, start: Int, end: Int, weight: Double)
+
+  def enabled: Boolean = System.getProperty("gor.pgor.split.density", "false").toBoolean
+
+  private val MINIMUM_NUMBER_OF_SPLITS: Int = System.getProperty("gor.pgor.split.density.count", "0").toInt
+  private val MAXIMUM_DICTIONARY_FILES: Int = System.getProperty("gor.pgor.split.density.maxfiles", "1000").toInt
+  private val PLAN_CACHE_SIZE = 100
+
+  // The pgor macro and the script engine plan the same query, they must get the same splits. Plans are only shared
+  // between queries on the same project and reference build, and are made again when an input file changes.
+  // A plan is made outside the cache lock, queries planning the same key wait for its future.
+  private val planCache = util.Collections.synchronizedMap(new util.LinkedHashMap[String, CompletableFuture[Option[Map[String, SplitEntry]]]](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: util.Map.Entry[String, CompletableFuture[Option[Map[String, SplitEntry]]]]): Boolean = size > PLAN_CACHE_SIZE
+  })
+
+  /**
+    * @param query      Partition query containing the split replacement pattern
+    * @param context    Current gor context
+    * @param splitCount Number of splits to aim for
+    * @return Splits based on the data density, or None if no density information was found for the input
+    */
+  def planSplits(query: String, context: GorContext, splitCount: Int): Option[Map[String, SplitEntry]] = {
+    try {
+      val projectContext = context.getSession.getProjectContext
+      val referenceBuild = projectContext.getReferenceBuild
+      val fileReader = projectContext.getFileReader
+      val files = inputFiles(query, context)
+      val key = (Seq(projectContext.getRealProjectRoot, referenceBuild.getVersion, referenceBuild.getBuildPath,
+        referenceBuild.getBuildSize.hashCode, splitCount, query) ++ files.flatMap(f => inputIds(f, fileReader))).mkString("\t")
+      val plan = new CompletableFuture[Option[Map[String, SplitEntry]]]()
+      val existing = planCache.putIfAbsent(key, plan)
+      if (existing != null) {
+        existing.join()
+      } else {
+        try {
+          val points = files.flatMap(f => densityOfFile(f, fileReader))
+          val splits = splitsFromDensity(points, referenceBuild.getBuildSize, Math.max(splitCount, MINIMUM_NUMBER_OF_SPLITS))
+          plan.complete(if (splits.isEmpty) None else Some(splits))
+        } catch {
+          case e: Exception =>
+            log.warn("Unable to plan splits from data density, using the default splits", e)
+            plan.complete(None)
+        } finally {
+          if (!plan.isDone) {
+            planCache.remove(key, plan)
+            plan.complete(None)
+          }
+        }
+        plan.join()
+      }
+    } catch {
+      case e: Exception =>
+        log.warn("Unable to plan splits from data density, using the default splits", e)
+        None
+    }
+  }
+
+  private def inputFiles(query: String, context: GorContext): List[String] = {
+    val nested = CommandParseUtilities.quoteSafeSplit(query, ' ').map(_.trim).find(x => CommandParseUtilities.isNestedCommand(x))
+    nested match {
+      case Some(n) =>
+        val firstStep = CommandParseUtilities.quoteSafeSplit(CommandParseUtilities.parseNestedCommand(n), '|')(0)
+        GorPrePipe.getUsedFiles(firstStep, context.getSession).distinct
+      case None => Nil
+    }
+  }
+
+  /**
+    * @return Unique ids of the files the density of the input is read from, the entries of a dictionary are covered
+    *         by the id of the dictionary file
+    */
+  private def inputIds(file: String, fileReader: FileReader): Seq[String] = {
+    if (file.startsWith("#gordict#")) {
+      val dictFile = file.substring("#gordict#".length, if (file.contains("#gortags#")) file.indexOf("#gortags#") else file.length)
+      Seq(file, uniqueId(dictionaryPath(dictFile, fileReader), fileReader))
+    } else if (DataUtil.isGorz(file)) {
+      val indexFile = file + ".gori"
+      Seq(file, uniqueId(file, fileReader), if (fileReader.exists(indexFile)) uniqueId(indexFile, fileReader) else "")
+    } else {
+      Nil
+    }
+  }
+
+  private def dictionaryPath(dictFile: String, fileReader: FileReader): String = {
+    if (fileReader.isDirectory(dictFile)) PathUtils.resolve(dictFile, GorOptions.DEFAULT_FOLDER_DICTIONARY_NAME) else dictFile
+  }
+
+  private def uniqueId(file: String, fileReader: FileReader): String = {
+    val source = fileReader.resolveUrl(file)
+    try {
+      source.getSourceMetadata.getUniqueId
+    } finally {
+      source.close()
+    }
+  }
+
+  private def densityOfFile(file: String, fileReader: FileReader): Seq[DensityPoint] = {
+    if (file.startsWith("#gordict#")) {
+      val hasTags = file.contains("#gortags#")
+      val dictFile = file.substring("#gordict#".length, if (hasTags) file.indexOf("#gortags#") else file.length)
+      val tags = if (hasTags) file.substring(file.indexOf("#gortags#") + "#gortags#".length).split(",").toSet else Set.empty[String]
+      densityOfDictionary(dictFile, tags, fileReader)
+    } else if (DataUtil.isGorz(file)) {
+      densityOfIndex(file, fileReader)
+    } else {
+      Nil
+    }
+  }
+
+  private def densityOfIndex(file: String, fileReader: FileReader): Seq[DensityPoint] = {
+    val indexFile = file + ".gori"
+    if (!fileReader.exists(indexFile)) return Nil
+
+    val points = Seq.newBuilder[DensityPoint]
+    var lastChrom = ""
+    var lastPos = 0
+    var lastOffset = 0L
+    fileReader.readAll(indexFile).foreach(line => {
+      if (!line.startsWith("##") && line.nonEmpty) {
+        val cols = line.split('\t')
+        val chrom = cols(0)
+        val pos = cols(1).toInt
+        val offset = cols(2).toLong
+        // The bytes read since the last entry hold the rows up to this entry
+        val start = if (chrom == lastChrom) lastPos else 0
+        points += DensityPoint(chrom, start, pos, (offset - lastOffset).toDouble)
+        lastChrom = chrom
+        lastPos = pos
+        lastOffset = offset
+      }
+    })
+    points.result()
+  }
+
+  private def densityOfDictionary(dictFile: String, tags: Set[String], fileReader: FileReader): Seq[DensityPoint] = {
+    val dictPath = dictionaryPath(dictFile, fileReader)
+    val dictRoot = PathUtils.getParent(dictPath)
+    val entries = fileReader.readAll(dictPath).filter(x => x.nonEmpty && !x.startsWith("#")).map(_.split('\t'))
+      .filter(cols => tags.isEmpty || (cols.length > 1 && tags.contains(cols(1))) || (cols.length > 6 && cols(6).split(',').exists(tags.contains)))
+
+    // Sample large dictionaries, each sampled entry stands for the ones skipped
+    val step = Math.max(1, entries.length / MAXIMUM_DICTIONARY_FILES)
+    entries.indices.by(step).flatMap(i => {
+      val cols = entries(i)
+      val file = if (PathUtils.isAbsolutePath(cols(0))) cols(0) else PathUtils.resolve(dictRoot, cols(0))
+      val indexed = if (DataUtil.isGorz(file)) densityOfIndex(file, fileReader) else Nil
+      val points = if (indexed.nonEmpty) {
+        indexed
+      } else if (cols.length >= 6 && cols(2).nonEmpty && cols(2) == cols(4)) {
+        val length = fileLength(file, fileReader)
+        if (length > 0) Seq(DensityPoint(cols(2), cols(3).toInt, cols(5).toInt, length.toDouble)) else Nil
+      } else {
+        Nil
+      }
+      points.map(p => p.copy(weight = p.weight * step))
+    })
+  }
+
+  private def fileLength(file: String, fileReader: FileReader): Long = {
+    val source = fileReader.resolveUrl(file)
+    try {
+      source match {
+        case streamSource: StreamSource =>
+          val length = streamSource.getSourceMetadata.getLength
+          if (length == null) -1 else length
+        case _ => -1
+      }
+    } finally {
+      source.close()
+    }
+  }
+
+  /**
+    * Cuts the chromosomes of the build into splits with roughly equal weight of data. Every chromosome gets at least
+    * one split, the remaining splits are divided between chromosomes in proportion to their weight.
+    *
+    * @param points     Data density of the input
+    * @param buildSizes Sizes of the chromosomes in the build
+    * @param splitCount Number of splits to aim for
+    * @return The splits, empty if there is no weight on the chromosomes of the build
+    */
+  def splitsFromDensity(points: Seq[DensityPoint], buildSizes: util.Map[String, Integer], splitCount: Int): Map[String, SplitEntry] = {
+    val byChrom = points.filter(p => p.weight > 0 && buildSizes.containsKey(p.chrom)).groupBy(_.chrom)
+    val weights = byChrom.map(x => x._1 -> x._2.map(_.weight).sum)
+    val total = weights.values.sum
+    if (total <= 0) return Map.empty
+
+    val chroms = new util.ArrayList[String](buildSizes.keySet())
+    val extra = Math.max(0, splitCount - chroms.size)
+    val shares = weights.map(x => x._1 -> x._2 / total * extra)
+    val counts = new util.HashMap[String, Integer]()
+    chroms.forEach(c => counts.put(c, 1 + shares.getOrElse(c, 0.0).toInt))
+    // Largest remainder for the splits left after rounding down
+    val left = extra - shares.values.map(_.toInt).sum
+    shares.toSeq.sortBy(x => -(x._2 - x._2.toInt)).take(left).foreach(x => counts.put(x._1, counts.get(x._1) + 1))
+
+    var chromosomeSplits = Map.empty[String, SplitEntry]
+    chroms.forEach(chrom => {
+      val size = buildSizes.get(chrom).intValue()
+      val cuts = cutPositions(byChrom.getOrElse(chrom, Nil), counts.get(chrom), size)
+      if (cuts.isEmpty) {
+        chromosomeSplits += (chrom -> SplitEntry(chrom, 0, SplitManager.getUpperBounds(chrom, size, buildSizes)))
+      } else {
+        val starts = 0 +: cuts.map(_ + 1)
+        val ends = cuts :+ SplitManager.getUpperBounds(chrom, size, buildSizes)
+        starts.zip(ends).zipWithIndex.foreach { case ((start, end), i) =>
+          chromosomeSplits += ((chrom + "_" + (i + 1)) -> SplitEntry(chrom, start, end))
+        }
+      }
+    })
+
+    chromosomeSplits
+  }
+
+  private def cutPositions(points: Seq[DensityPoint], count: Int, size: Int): Seq[Int] = {
+    val total = points.map(_.weight).sum
+    if (count <= 1 || total <= 0) return Nil
+
+    val sorted = points.sortBy(p => (p.start, p.end))
+    val cuts = Seq.newBuilder[Int]
+    var cumulative = 0.0
+    var next = 1
+    var lastCut = 0
+    sorted.foreach(p => {
+      while (next < count && cumulative + p.weight >= total * next / count) {
+        val fraction = (total * next / count - cumulative) / p.weight
+        val cut = Math.min(size - 1, (p.start + (p.end - p.start) * fraction).toInt)
+        if (cut > lastCut) {
+          cuts += cut
+          lastCut = cut
+        }
+        next += 1
+      }
+      cumulative += p.weight
+    })
+    cuts.result()
+  }
+}
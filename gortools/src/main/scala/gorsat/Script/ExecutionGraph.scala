@@ -22,6 +22,7 @@
 
 package gorsat.Script
 
+import scala.collection.mutable
 import scala.collection.mutable.ArrayBuffer
 
 case class ExecutionGraph(gorCommands: Array[String]) {
@@ -31,6 +32,8 @@ case class ExecutionGraph(gorCommands: Array[String]) {
 
   val levels: Array[List[ExecutionBlock]] = buildLevels()
 
+  lazy val criticalPaths: Map[String, Int] = ExecutionGraph.criticalPathLengths(blocks)
+
   private def buildLevels(): Array[List[ExecutionBlock]] = {
     val l = ArrayBuffer[List[ExecutionBlock]]()
     if (root != null) {
@@ -93,3 +96,37 @@ case class ExecutionGraph(gorCommands: Array[String]) {
     nextLevel ++ level
   }
 }
+
+object ExecutionGraph {
+
+  /**
+    * Computes the length of the longest chain of blocks from each virtual relation to the end of the script, the
+    * relation itself included. Relations that nothing depends on have length one. Relations that are only referenced
+    * as dependencies, such as the partitions of a pgor query, are included.
+    *
+    * @param blocks Execution blocks keyed by their virtual relation name
+    * @return Critical path length of each relation
+    */
+  def criticalPathLengths(blocks: java.util.Map[String, ExecutionBlock]): Map[String, Int] = {
+    val dependents = mutable.Map[String, List[String]]()
+    blocks.forEach((key, block) => {
+      block.dependencies.foreach(d => dependents(d) = key :: dependents.getOrElse(d, Nil))
+    })
+
+    val lengths = mutable.Map[String, Int]()
+    def length(name: String, visiting: Set[String]): Int = lengths.get(name) match {
+      case Some(l) => l
+      case None =>
+        // Cycles are reported by the script engine, here they are only cut to terminate
+        val next = dependents.getOrElse(name, Nil).filterNot(visiting.contains)
+        val l = 1 + next.map(d => length(d, visiting + name)).maxOption.getOrElse(0)
+        lengths(name) = l
+        l
+    }
+
+    val names = mutable.Set[String]()
+    blocks.keySet.forEach(k => names += k)
+    names ++= dependents.keys
+    names.map(n => n -> length(n, Set.empty)).toMap
+  }
+}
@@ -30,13 +30,15 @@ import gorsat.gorsatGorIterator.MapAndListUtilities.{exists, singleHashMap}
 import gorsat.Utilities.{AnalysisUtilities, MacroUtilities, StringUtilities}
 import gorsat.process.{GorJavaUtilities, GorPipeMacros, GorPrePipe, PipeInstance}
 import gorsat.DynIterator
-import org.gorpipe.exceptions.{GorParsingException, GorResourceException, GorSystemException}
+import org.gorpipe.base.concurrency.CommonThreadPools
+import org.gorpipe.exceptions.{GorException, GorParsingException, GorResourceException, GorSystemException}
 import org.gorpipe.gor.session.GorContext
 import org.gorpipe.gor.GorScriptAnalyzer
 import org.gorpipe.gor.model.GorParallelQueryHandler
 import org.slf4j.{Logger, LoggerFactory}
 
-import java.util.concurrent.ConcurrentHashMap
+import java.util
+import java.util.concurrent.{CancellationException, ConcurrentHashMap, LinkedBlockingQueue}
 
 object ScriptExecutionEngine {
   // Set the dyniterator iterator create function
@@ -46,6 +48,12 @@ object ScriptExecutionEngine {
   type ExecutionBlocks = java.util.Map[String, ExecutionBlock]
 
   val GOR_FINAL = "gorfinal"
+
+  /**
+    * When set, script blocks are launched as soon as the relations they depend on are created, instead of waiting
+    * for every block of the previous level to finish.
+    */
+  def dependencyScheduling: Boolean = System.getProperty("gor.script.dependency.scheduling", "false").toBoolean
   val INCLUDE_KEYWORD: String = "include"
 
   def parseScript(commands: Array[String]): java.util.Map[String, ExecutionBlock] = {
@@ -190,7 +198,9 @@ class ScriptExecutionEngine(queryHandler: GorParallelQueryHandler,
     var executionBatch: ExecutionBatch = null
     var allUsedFiles: java.util.List[String] = null
 
-    do {
+    if (!suggestName && ScriptExecutionEngine.dependencyScheduling) {
+      gorCommand = processScriptByDependencies(validate)
+    } else do {
       level += 1
 
       // Create a new batch of execution blocks which are independent from each other
@@ -210,6 +220,156 @@ class ScriptExecutionEngine(queryHandler: GorParallelQueryHandler,
     gorCommand
   }
 
+  private case class CommandResult(command: ExecutionCommand, files: Array[String], error: Throwable)
+
+  /**
+    * Executes the script blocks as a dependency graph. A block is expanded and its commands queued as soon as all
+    * its dependencies have been created, and queued commands are launched, longest critical path first, whenever
+    * fewer than the number of workers are running. The commands run on the query pool shared by all queries, so
+    * concurrent scripts do not add threads of their own.
+    */
+  private def processScriptByDependencies(validate: Boolean): String = {
+    val pool = CommonThreadPools.queryThreadPool
+    val workers = Math.max(1, Math.min(context.getSession.getSystemContext.getWorkers, pool.getParallelism))
+    val queued = new util.PriorityQueue[(Int, Int, ExecutionCommand)](Ordering.by[(Int, Int, ExecutionCommand), (Int, Int)](x => (-x._1, x._2)))
+    val pending = new util.HashSet[String]()
+    val launched = new util.HashMap[String, LaunchedCommand]()
+    val completed = new LinkedBlockingQueue[CommandResult]()
+    var sequence = 0
+    var gorCommand = ""
+    var level = 0
+
+    try {
+      var planned = true
+      while (planned || !launched.isEmpty) {
+        level += 1
+        val executionBatch = getNextBatch(level, pending)
+        planned = executionBatch.hasBlocks
+        if (planned) {
+          gorCommand = processBlocks(context, false, executionBatch, validate, gorCommand).getFirst
+          val criticalPaths = ExecutionGraph.criticalPathLengths(executionBlocks)
+          executionBatch.getCommands.foreach(x => {
+            pending.add(x.createName)
+            queued.add((criticalPaths.getOrElse(x.createName, 1), sequence, x))
+            sequence += 1
+          })
+        }
+
+        while (!queued.isEmpty && launched.size < workers) {
+          val command = new LaunchedCommand(queued.poll()._3, completed)
+          launched.put(command.command.createName, command)
+          pool.execute(command)
+        }
+
+        if (!planned && !launched.isEmpty) {
+          var result = completed.take()
+          while (result != null) {
+            launched.remove(result.command.createName)
+            pending.remove(result.command.createName)
+            commandCompleted(result)
+            result = completed.poll()
+          }
+          // Blocks depending on the created relations might be ready now
+          planned = true
+        }
+      }
+    } finally {
+      launched.values.forEach(_.cancel())
+      awaitLaunched(launched, completed)
+    }
+
+    gorCommand
+  }
+
+  /**
+    * Waits for cancelled commands to report, so no command of the script still writes its result or holds a thread
+    * of the shared pool when the script ends.
+    */
+  private def awaitLaunched(launched: util.Map[String, LaunchedCommand], completed: LinkedBlockingQueue[CommandResult]): Unit = {
+    try {
+      while (!launched.isEmpty) {
+        launched.remove(completed.take().command.createName)
+      }
+    } catch {
+      case _: InterruptedException => Thread.currentThread().interrupt()
+    }
+  }
+
+  /**
+    * A command running on the shared query pool. Cancelling it interrupts the pool thread only while the command
+    * runs on it, as the thread is reused by other queries afterwards. A command always reports to the completed
+    * queue, also when it is cancelled before it starts.
+    */
+  private class LaunchedCommand(val command: ExecutionCommand, completed: LinkedBlockingQueue[CommandResult]) extends Runnable {
+    private var thread: Thread = _
+    private var cancelled = false
+
+    override def run(): Unit = {
+      val current = Thread.currentThread()
+      val start = synchronized {
+        if (!cancelled) thread = current
+        !cancelled
+      }
+      if (start) {
+        var files: Array[String] = null
+        var error: Throwable = null
+        try {
+          files = executeCommand(command)
+        } catch {
+          case t: Throwable => error = t
+        } finally {
+          synchronized {
+            thread = null
+            Thread.interrupted()
+          }
+        }
+        completed.add(CommandResult(command, files, error))
+      } else {
+        completed.add(CommandResult(command, null, new CancellationException("Script command cancelled: " + command.createName)))
+      }
+    }
+
+    def cancel(): Unit = synchronized {
+      cancelled = true
+      if (thread != null) thread.interrupt()
+    }
+  }
+
+  private def executeCommand(command: ExecutionCommand): Array[String] = {
+    val activeQueryHandler = if (CommandParseUtilities.isDictionaryQuery(command.query)) localQueryHandler else queryHandler
+    val monitor = context.getSession.getSystemContext.getMonitor
+
+    if (ScriptExecutionEngine.log.isDebugEnabled) {
+      ScriptExecutionEngine.log.debug("executeCommand input: {} - {} - {} - {}", command.signature, command.query, command.batchGroupName, command.createName)
+    }
+
+    activeQueryHandler.executeBatch(Array(command.signature), Array(command.query), Array(command.createName),
+      Array(command.cacheFile), monitor)
+  }
+
+  private def commandCompleted(result: CommandResult): Unit = {
+    if (result.error != null) {
+      result.error match {
+        case ge: GorException => throw ge
+        case e => throw new GorSystemException(e)
+      }
+    }
+
+    if (result.files.length != 1) {
+      throw new GorSystemException(String.format("Number of cache/result files (%d) does not match number of queries (%d)",
+        result.files.length, 1), null)
+    }
+
+    val createName = result.command.createName
+    virtualFileManager.add(createName)
+    virtualFileManager.updateCreatedFile(createName, result.files(0))
+    executionBlocks.remove(createName)
+
+    if (ScriptExecutionEngine.log.isDebugEnabled) {
+      ScriptExecutionEngine.log.debug("commandCompleted createdFile: {} - {}", createName, result.files(0))
+    }
+  }
+
   private def preValidateExecution(): Unit = {
     var externalVirtualRelation: List[String] = Nil
     executionBlocks.values.forEach(block => {
@@ -249,11 +409,13 @@ class ScriptExecutionEngine(queryHandler: GorParallelQueryHandler,
     }
   }
 
-  private def getNextBatch(level: Int): ExecutionBatch = {
+  private def getNextBatch(level: Int, exclude: util.Set[String] = util.Collections.emptySet()): ExecutionBatch = {
     val executionBatch = ExecutionBatch(level)
     executionBlocks.forEach( (e1,e2) => {
       val x = virtualFileManager.get(e1)
-      if (x!=null) {
+      if (exclude.contains(e1)) {
+        // Commands for the block are already queued or running
+      } else if (x!=null) {
           if (x.fileName == null) {
             createBlockIfAvailable(executionBatch, e1, e2)
           }
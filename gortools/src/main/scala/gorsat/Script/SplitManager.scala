@@ -117,6 +117,9 @@ object SplitManager {
       } else if (splitOpt != "") {
         splitManager = SplitManager(groupName, parseArbitrarySplit(context.getSession.getProjectContext.getReferenceBuild.getBuildSize, splits.toInt,
           if (splitOverlap == "") 0 else splitOverlap.toInt), splitManager.replacementPattern)
+      } else if (splitManager.replacementPattern == SPLIT_REPLACEMENT_PATTERN && DensitySplitPlanner.enabled) {
+        DensitySplitPlanner.planSplits(commandToExecute, context, splitManager.chromosomeSplits.size).foreach(splits =>
+          splitManager = SplitManager(groupName, splits, SPLIT_REPLACEMENT_PATTERN))
       }
     }
 
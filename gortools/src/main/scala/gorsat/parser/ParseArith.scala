@@ -74,7 +74,8 @@ class ParseArith(rs: GenomicIterator = null) extends JavaTokenParsers with Seria
   private var orgColNames: Array[String] = _
   private var orgColTypes: Array[String] = _
 
-  @transient private val calcCompiler = new CalcCompiler(this)
+  @transient private val calcCompiler =
+    if (System.getenv("GOR_CALCMODE") == "compiled") new CalcHandleCompiler(this) else new CalcCompiler(this)
   private var calcLambda: TypedCalcLambda = _
   private var compileAntlr = false
   private var runAntlr = false
@@ -97,7 +98,7 @@ class ParseArith(rs: GenomicIterator = null) extends JavaTokenParsers with Seria
         runAntlr = false
         compileClassic = true
         runClassic = true
-      case "runAntlr" =>
+      case "runAntlr" | "compiled" =>
         compileAntlr = true
         runAntlr = true
         compileClassic = false
@@ -29,7 +29,7 @@ import gorsat.Commands.CommandParseUtilities.{hasOption, rangeOfOption, stringVa
 import gorsat.Commands.{Analysis, _}
 import gorsat.DynIterator.DynamicRowSource
 import gorsat.Iterators.StdInputSourceIterator
-import gorsat.Monitors.{CancelMonitor, MemoryMonitor, TimeoutMonitor}
+import gorsat.Monitors.{CancelMonitor, MemoryMonitor, ProfileMonitor, TimeoutMonitor}
 import gorsat.Script.{ScriptEngineFactory, ScriptExecutionEngine, ScriptParsers}
 import gorsat.Utilities.IteratorUtilities.validHeader
 import gorsat._
@@ -320,6 +320,8 @@ class PipeInstance(context: GorContext, outputValidateOrder: Boolean = false) ex
             pushdown = pushdownWrite(fullCommand.substring(6).trim)
           } else if (command.equals("CMD")) {
             pushdown = pushdownCmd(fullCommand.substring(4).trim)
+          } else if (command.equals("SELECT")) {
+            pushdown = pushdownSelect(fullCommand.drop(7).trim) || theInputSource.pushdownGor(fullCommand)
           } else {
             pushdown = theInputSource.pushdownGor(fullCommand)
           }
@@ -352,6 +354,7 @@ class PipeInstance(context: GorContext, outputValidateOrder: Boolean = false) ex
               if (thePipeStep == null || thePipeStep.isInstanceOf[PlaceHolder]) {
                 thePipeStep = aPipeStep
               } else {
+                if (PipelineStage.STAGE_COMMANDS.contains(command)) thePipeStep | PipelineStage()
                 thePipeStep | aPipeStep
               }
             }
@@ -368,6 +371,10 @@ class PipeInstance(context: GorContext, outputValidateOrder: Boolean = false) ex
       if (!isNorContext && outputValidateOrder) {
         thePipeStep = thePipeStep | CheckOrder("Output")
       }
+
+      if (PipelineStage.STAGE_COMMANDS.contains("INPUT") && thePipeStep != null && !thePipeStep.isInstanceOf[PlaceHolder]) {
+        thePipeStep = PipelineStage() | thePipeStep
+      }
     } catch {
       case e: Throwable =>
         if (theInputSource != null) {
@@ -378,6 +385,10 @@ class PipeInstance(context: GorContext, outputValidateOrder: Boolean = false) ex
 
     thePipeStep = PipeInstance.injectTypeInferral(thePipeStep)
 
+    if (ParallelSteps.ENABLED) {
+      thePipeStep = ParallelSteps.fuse(thePipeStep)
+    }
+
     // Add timeout monitor
     thePipeStep = thePipeStep | TimeoutMonitor()
 
@@ -386,6 +397,10 @@ class PipeInstance(context: GorContext, outputValidateOrder: Boolean = false) ex
       thePipeStep = CancelMonitor(context.getSession.getSystemContext.getMonitor) | thePipeStep | CancelMonitor(context.getSession.getSystemContext.getMonitor)
     }
 
+    if (ProfileMonitor.ENABLED) {
+      thePipeStep = ProfileMonitor.instrument(thePipeStep, context.getStats)
+    }
+
     inputHeader
   }
 
@@ -497,6 +512,21 @@ class PipeInstance(context: GorContext, outputValidateOrder: Boolean = false) ex
     theInputSource.pushdownCalc(formula, colName)
   }
 
+  def pushdownSelect(select: String): Boolean = {
+    val args = select.split(" ").filter(_.nonEmpty)
+    // Only plain column lists starting with the chromosome and position columns are pushed down
+    if (isNorContext || args.isEmpty || args.exists(_.startsWith("-"))) return false
+    val header = theInputSource.getHeader
+    val cols = try {
+      CommandParseUtilities.columnsFromHeader(args.mkString(","), header)
+    } catch {
+      case _: GorParsingException => return false
+    }
+    if (cols.length < 2 || cols.head != 0 || cols(1) != 1 || cols.distinct.length != cols.length) return false
+    val columns = header.split("\t", -1)
+    theInputSource.pushdownSelect(cols.map(columns(_)).toArray)
+  }
+
   def pushdownTop(top: String): Boolean = {
     try {
       val limit = Integer.parseInt(top)
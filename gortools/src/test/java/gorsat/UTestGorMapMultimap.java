@@ -265,6 +265,49 @@ public class UTestGorMapMultimap {
         Assert.assertEquals("GOR multimap cartesian join failed", 36, count);
     }
 
+    @Test
+    public void testOffHeapLookupTables() throws IOException {
+        String patientsPath = createPatientsFile();
+        String patientRelationsPath = createPatientRelationsFileWithMixedCaseData();
+        String[] queries = {
+                "nor -h " + patientsPath + " | map -c patient_id " + patientRelationsPath,
+                "nor -h " + patientsPath + " | map -cis -c patient_id -m missing " + patientRelationsPath,
+                "nor -h " + patientsPath + " | multimap -cis -c patient_id " + patientRelationsPath,
+                "nor -h " + patientsPath + " | inset -c patient_id -b " + patientRelationsPath,
+                "gor " + gorFile.getCanonicalPath() + " | multimap -c Gene_Symbol " + mapJoin.getCanonicalPath(),
+                "gor " + gorFile.getCanonicalPath() + " | multimap -cartesian " + mapJoin.getCanonicalPath()
+        };
+        File tableDir = workDir.newFolder("tables");
+        try {
+            System.setProperty("gor.lookup.offheap", "false");
+            String[] expected = Arrays.stream(queries).map(UTestGorMapMultimap::sortedResult).toArray(String[]::new);
+
+            System.setProperty("gor.lookup.offheap", "true");
+            System.setProperty("gor.lookup.offheap.minsize", "0");
+            System.setProperty("gor.lookup.offheap.dir", tableDir.getAbsolutePath());
+            for (int i = 0; i < queries.length; i++) {
+                Assert.assertEquals(queries[i], expected[i], sortedResult(queries[i]));
+                // Second run uses the shared table
+                Assert.assertEquals(queries[i], expected[i], sortedResult(queries[i]));
+            }
+        } finally {
+            System.clearProperty("gor.lookup.offheap");
+            System.clearProperty("gor.lookup.offheap.minsize");
+            System.clearProperty("gor.lookup.offheap.dir");
+        }
+
+        File[] tables = tableDir.listFiles((dir, name) -> name.endsWith(".gorlut"));
+        Assert.assertNotNull(tables);
+        // Config files read by the session are also stored as tables
+        Assert.assertTrue(tables.length >= queries.length);
+    }
+
+    private static String sortedResult(String query) {
+        String[] lines = TestUtils.runGorPipe(query).split("\n");
+        Arrays.sort(lines);
+        return String.join("\n", lines);
+    }
+
     private static String createPatientRelationsFileWithMixedCaseData() throws IOException {
         String patientRelationsPath = createPatientRelationsFile();
 
@@ -36,6 +36,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 public class UTestGroup {
 
@@ -257,6 +258,56 @@ public class UTestGroup {
         Assert.assertEquals("Group -dis results correct", "2", lines[1].split("\t")[4].trim());
     }
 
+    @Test
+    public void testGroupApproximateAggregates() {
+        String[] lines = TestUtils.runGorPipeLines("norrows 11 | calc s 'x'+str(mod(rownum,4)) | group -ic rownum -sc s -med -amed -adis");
+        Assert.assertEquals("ChromNOR\tPosNOR\tmed_RowNum\tamed_RowNum\tadis_RowNum\tmed_s\tadis_s", lines[0].trim());
+        Assert.assertEquals("chrN\t0\t5\t5\t11\tx1\t4", lines[1].trim());
+
+        lines = TestUtils.runGorPipeLines("gorrows -p chr1:1-200001 | calc v mod(pos*7919,10000) | group chrom -ic v -med -amed -dis -adis");
+        String[] columns = lines[1].trim().split("\t");
+        Assert.assertEquals("chrom\tbpStart\tbpStop\tmed_v\tdis_v\tamed_v\tadis_v", lines[0].trim());
+        Assert.assertEquals(Long.parseLong(columns[3]), Long.parseLong(columns[5]), 200);
+        Assert.assertEquals(Long.parseLong(columns[4]), Long.parseLong(columns[6]), 500);
+
+        // Short groups with an even number of rows have the same median as -med
+        lines = TestUtils.runGorPipeLines("norrows 10 | calc f rownum*1.5 | group -ic rownum -fc f -med -amed");
+        List<String> header = Arrays.asList(lines[0].trim().split("\t"));
+        columns = lines[1].trim().split("\t");
+        Assert.assertEquals("5", columns[header.indexOf("med_RowNum")]);
+        Assert.assertEquals("5", columns[header.indexOf("amed_RowNum")]);
+        Assert.assertEquals("6.75", columns[header.indexOf("med_f")]);
+        Assert.assertEquals("6.75", columns[header.indexOf("amed_f")]);
+    }
+
+    @Test
+    public void testGroupMergeSketches() {
+        String input = "gorrows -p chr1:1-60001 | merge <(gorrows -p chr2:1-40001) | calc v mod(pos*31,5000) | calc g mod(pos,2)";
+        String[] exact = TestUtils.runGorPipeLines(input + " | group genome -gc g -ic v -med -dis");
+        String[] merged = TestUtils.runGorPipeLines(input + " | group chrom -gc g -ic v -sketch" +
+                " | group genome -gc g -skc sketch_v -amed -adis -sketch");
+
+        Assert.assertEquals("chrom\tbpStart\tbpStop\tg\tamed_v\tadis_v\tsketch_v", merged[0].trim());
+        Assert.assertEquals(exact.length, merged.length);
+        for (int i = 1; i < exact.length; i++) {
+            String[] expected = exact[i].trim().split("\t");
+            String[] actual = merged[i].trim().split("\t");
+            Assert.assertEquals(expected[3], actual[3]);
+            Assert.assertEquals(Double.parseDouble(expected[4]), Double.parseDouble(actual[4]), 100);
+            Assert.assertEquals(Double.parseDouble(expected[5]), Double.parseDouble(actual[5]), 125);
+        }
+    }
+
+    @Test
+    public void testGroupMergeInvalidSketch() {
+        try {
+            TestUtils.runGorPipe("gorrows -p chr1:1-10 | calc s 'abc' | group chrom -skc s -adis");
+            Assert.fail("Should fail on invalid sketch");
+        } catch (GorDataException ex) {
+            Assert.assertTrue(ex.getMessage().contains("valid sketch"));
+        }
+    }
+
     @Test
     public void set() throws IOException {
         String contents = "Chrom\tPos\tData\n" +
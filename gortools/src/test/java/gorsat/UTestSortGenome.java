@@ -144,7 +144,7 @@ public class UTestSortGenome {
         String curdir = new File(".").getAbsolutePath();
         GenomicIterator inputSource = new FastGorSource(orderGor.getCanonicalPath(), curdir, session.getGorContext(), false, null, 0);
         String header = inputSource.getHeader();
-        Analysis analyser = new SortAnalysis(header, session, 500000000, null);
+        Analysis analyser = new SortAnalysis(500000000, null);
         PipeStepIteratorAdaptor pit = new PipeStepIteratorAdaptor(inputSource, analyser, header);
 
         Row prev = null;
@@ -0,0 +1,120 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.monitors;
+
+import gorsat.Commands.Analysis;
+import gorsat.Monitors.ProfileMonitor;
+import org.gorpipe.gor.model.Row;
+import org.gorpipe.gor.stats.StatsCollector;
+import org.gorpipe.model.gor.RowObj;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class UTestProfileMonitor {
+
+    static class Passing extends Analysis {
+    }
+
+    static class DropOdd extends Analysis {
+        @Override
+        public void process(Row r) {
+            if (r.pos % 2 == 0) super.process(r);
+        }
+
+        @Override
+        public void finish() {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void testStepProfiles() {
+        final StatsCollector stats = new StatsCollector();
+        final Analysis head = ProfileMonitor.instrument(new Passing().$bar(new DropOdd()), stats);
+        Assert.assertTrue(head instanceof ProfileMonitor);
+
+        head.securedSetup(null);
+        for (int i = 1; i <= 10; i++) {
+            head.process(RowObj.apply("chr1\t" + i));
+        }
+        ProfileMonitor.recordReadWait(head, 1000, 2000);
+        head.securedFinish(null);
+
+        final Map<String, Double> source = statsOf(stats, "0 Source");
+        Assert.assertEquals(10.0, source.get("rowsOut"), 0.0);
+        Assert.assertEquals(1000.0, source.get("readWaitNanos"), 0.0);
+        Assert.assertEquals(2000.0, source.get("queueWaitNanos"), 0.0);
+
+        final Map<String, Double> passing = statsOf(stats, "1 Passing");
+        Assert.assertEquals(10.0, passing.get("rowsIn"), 0.0);
+        Assert.assertEquals(10.0, passing.get("rowsOut"), 0.0);
+        Assert.assertEquals(passing.get("bytesIn"), passing.get("bytesOut"), 0.0);
+
+        final Map<String, Double> dropOdd = statsOf(stats, "2 DropOdd");
+        Assert.assertEquals(10.0, dropOdd.get("rowsIn"), 0.0);
+        Assert.assertEquals(5.0, dropOdd.get("rowsOut"), 0.0);
+        Assert.assertTrue(dropOdd.get("bytesOut") < dropOdd.get("bytesIn"));
+
+        // The time spent finishing a step is counted for that step only
+        Assert.assertTrue(dropOdd.get("nanos") >= 50e6);
+        Assert.assertTrue(passing.get("nanos") < 50e6);
+    }
+
+    @Test
+    public void testRowsReachTheEndOfThePipe() {
+        final Passing last = new Passing() {
+            int count = 0;
+
+            @Override
+            public void process(Row r) {
+                count++;
+            }
+
+            @Override
+            public void finish() {
+                Assert.assertEquals(5, count);
+            }
+        };
+        final Analysis head = ProfileMonitor.instrument(new DropOdd().$bar(last), null);
+
+        head.securedSetup(null);
+        for (int i = 1; i <= 10; i++) {
+            head.process(RowObj.apply("chr1\t" + i));
+        }
+        head.securedFinish(null);
+        Assert.assertTrue(last.alreadyFinished());
+    }
+
+    private static Map<String, Double> statsOf(StatsCollector stats, String step) {
+        return stats.getStats().entrySet().stream()
+                .filter(e -> e.getKey().startsWith("Profile ") && e.getKey().endsWith(":" + step))
+                .map(Map.Entry::getValue)
+                .findFirst().orElseThrow();
+    }
+}
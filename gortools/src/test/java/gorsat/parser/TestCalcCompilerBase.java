@@ -79,10 +79,14 @@ class TestCalcCompilerBase {
         assertEquals(expected, f.evaluateString(cvp));
     }
 
-    private TypedCalcLambda compileLambda(String input, ColumnValue[] cols) {
+    protected CalcCompiler createCompiler() {
+        return new CalcCompiler();
+    }
+
+    protected TypedCalcLambda compileLambda(String input, ColumnValue[] cols) {
         SyntaxChecker syntaxChecker = new SyntaxChecker();
         ParseTree context = syntaxChecker.parseCalc(input);
-        CalcCompiler calcCompiler = new CalcCompiler();
+        CalcCompiler calcCompiler = createCompiler();
         if (cols != null) {
             String[] names = new String[cols.length];
             String[] types = new String[cols.length];
@@ -0,0 +1,151 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.parser;
+
+import org.gorpipe.exceptions.GorParsingException;
+import org.gorpipe.gor.SyntaxChecker;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UTestCalcHandleCompiler extends TestCalcCompilerBase {
+    private final ColumnValue[] cols = {
+            new ColumnValue("s", "S", "bingo"),
+            new ColumnValue("i", "I", 10),
+            new ColumnValue("l", "L", 123456789012345L),
+            new ColumnValue("d", "D", 3.14),
+            new ColumnValue("n", "S", "10"),
+            new ColumnValue("bad", "I", "notanumber"),
+            new ColumnValue("big", "L", 9007199254740993L),
+            new ColumnValue("big2", "L", 9007199254740992L),
+    };
+
+    @Override
+    protected CalcCompiler createCompiler() {
+        return new CalcHandleCompiler();
+    }
+
+    @Test
+    public void predicatesAreCompiledToHandles() {
+        Assert.assertTrue(compileFilter("i > 5 and s = 'bingo'") instanceof CalcLambdaHandle);
+        Assert.assertTrue(compileFilter("not(d < 1) or s in ('a', 'b')") instanceof CalcLambdaHandle);
+    }
+
+    @Test
+    public void constantPredicatesAreFolded() {
+        assertConstant("1 > 0", true);
+        assertConstant("'a' = 'b'", false);
+        assertConstant("not(1 > 0)", false);
+        assertConstant("1 > 0 or i > 5", true);
+        assertConstant("1 < 0 and i > 5", false);
+        assertConstant("'b' in ('a', 'b')", true);
+    }
+
+    @Test
+    public void numericComparisons() {
+        assertPredicate("i = 10", true);
+        assertPredicate("i != 10", false);
+        assertPredicate("i > l", false);
+        assertPredicate("l >= i", true);
+        assertPredicate("d < i", true);
+        assertPredicate("d <= 3.14", true);
+        assertPredicate("i * 2 = 20", true);
+        assertPredicate("len(s) = 5", true);
+    }
+
+    @Test
+    public void longComparisonsAreExact() {
+        // 2^53 + 1 and 2^53 are the same double
+        assertPredicate("big > big2", true);
+        assertPredicate("big = big2", false);
+        assertPredicate("big2 < big", true);
+        assertPredicate("big != 9007199254740992", true);
+        assertPredicate("big = 9007199254740993", true);
+        assertPredicate("big >= i", true);
+        assertPredicate("big + 0 > big2", true);
+        assertPredicate("big > 9007199254740992.0", false);
+    }
+
+    @Test
+    public void stringComparisons() {
+        assertPredicate("s = 'bingo'", true);
+        assertPredicate("s != 'bingo'", false);
+        assertPredicate("s > 'bingn'", true);
+        assertPredicate("'bingn' >= upper(s)", true);
+        assertPredicate("upper(s) = 'BINGO'", true);
+        assertPredicate("n = '10'", true);
+        assertPredicate("i = '10'", true);
+        assertPredicate("s like 'bi*'", true);
+        assertPredicate("s like 'b?ngo'", true);
+        assertPredicate("s like 'x*'", false);
+        assertPredicate("s rlike 'b.*o'", true);
+        assertPredicate("s in ('bingo', 'bongo')", true);
+        assertPredicate("i in ('10')", true);
+    }
+
+    @Test
+    public void booleanOperatorsShortCircuit() {
+        assertPredicate("i < 5 and bad > 0", false);
+        assertPredicate("i > 5 or bad > 0", true);
+        assertPredicate("not(i < 5) and (s = 'x' or d > 3)", true);
+    }
+
+    @Test
+    public void evaluationErrorsArePropagated() {
+        TypedCalcLambda f = compileFilter("i > 5 and bad > 0");
+        Assert.assertThrows(RuntimeException.class, () -> f.evaluateBoolean(new TestCalcCompilerCVP(cols)));
+    }
+
+    @Test
+    public void typeErrorsAreReported() {
+        Assert.assertThrows(GorParsingException.class, () -> compileFilter("'a' > s"));
+        Assert.assertThrows(GorParsingException.class, () -> compileFilter("s > 1"));
+    }
+
+    private void assertPredicate(String input, boolean expected) {
+        TestCalcCompilerCVP cvp = new TestCalcCompilerCVP(cols);
+        TypedCalcLambda lambda = compileFilter(new CalcCompiler(), input);
+        Assert.assertEquals(input, lambda.evaluateBoolean(cvp), compileFilter(input).evaluateBoolean(cvp));
+        Assert.assertEquals(input, expected, compileFilter(input).evaluateBoolean(cvp));
+    }
+
+    private TypedCalcLambda compileFilter(String input) {
+        return compileFilter(createCompiler(), input);
+    }
+
+    private TypedCalcLambda compileFilter(CalcCompiler calcCompiler, String input) {
+        String[] names = new String[cols.length];
+        String[] types = new String[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            names[i] = cols[i].getName();
+            types[i] = cols[i].getType();
+        }
+        calcCompiler.setColumnNamesAndTypes(names, types);
+        return new SyntaxChecker().parseFilter(input).accept(calcCompiler);
+    }
+
+    private void assertConstant(String input, boolean expected) {
+        TypedCalcLambda f = compileFilter(input);
+        Assert.assertTrue(input, f instanceof CalcLambdaHandle && ((CalcLambdaHandle) f).isConstant());
+        Assert.assertEquals(input, expected, f.evaluateBoolean(null));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.process;
+
+import org.junit.Assert;
+import org.junit.Test;
+import scala.Function0;
+import scala.Unit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UTestParallelExecutor {
+
+    @SuppressWarnings("unchecked")
+    private static Function0<Unit>[] commands(int count, Runnable runnable) {
+        Function0<Unit>[] commands = new Function0[count];
+        for (int i = 0; i < count; i++) {
+            commands[i] = () -> {
+                runnable.run();
+                return null;
+            };
+        }
+        return commands;
+    }
+
+    @Test
+    public void testAllCommandsRunWithinWorkerLimit() throws Throwable {
+        AtomicInteger count = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            new ParallelExecutor(3, commands(50, () -> {
+                int r = running.incrementAndGet();
+                maxRunning.accumulateAndGet(r, Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                count.incrementAndGet();
+            }), pool).parallelExecute();
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(50, count.get());
+        Assert.assertTrue(maxRunning.get() <= 3);
+        Assert.assertEquals(0, ParallelExecutor.getActiveExecutions());
+    }
+
+    @Test
+    public void testFirstExceptionIsThrown() {
+        AtomicInteger count = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new ParallelExecutor(2, commands(100, () -> {
+                if (count.incrementAndGet() == 5) {
+                    throw new IllegalStateException("failed");
+                }
+            }), pool).parallelExecute();
+            Assert.fail("Should throw");
+        } catch (Throwable t) {
+            Assert.assertEquals("failed", t.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertTrue(count.get() < 100);
+    }
+
+    @Test
+    public void testFailureInterruptsRunningCommands() {
+        AtomicInteger claimed = new AtomicInteger();
+        AtomicInteger interrupted = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        long start = System.nanoTime();
+        try {
+            // Whether the calling thread or the helper runs the long command, it is interrupted by the failure
+            new ParallelExecutor(2, commands(2, () -> {
+                if (claimed.incrementAndGet() == 1) {
+                    started.countDown();
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        interrupted.incrementAndGet();
+                    }
+                } else {
+                    try {
+                        started.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalStateException("failed");
+                }
+            }), pool).parallelExecute();
+            Assert.fail("Should throw");
+        } catch (Throwable t) {
+            Assert.assertEquals("failed", t.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(1, interrupted.get());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 30);
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testNestedExecutionsOnBusyPool() throws Throwable {
+        AtomicInteger count = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            new ParallelExecutor(4, commands(4, () -> {
+                try {
+                    new ParallelExecutor(4, commands(4, count::incrementAndGet), pool).parallelExecute();
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            }), pool).parallelExecute();
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(16, count.get());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class UTestPackedGenotypes {
+
+    @Test
+    public void testSetAndGet() {
+        final String values = "0123012x3210";
+        final PackedGenotypes genotypes = PackedGenotypes.of(values);
+        Assert.assertEquals(1, genotypes.rows());
+        Assert.assertEquals(values.length(), genotypes.length());
+        Assert.assertEquals("0123012332103", get(genotypes, values.length()) + genotypes.get(0, 12));
+        Assert.assertEquals(6, genotypes.carriers(0));
+
+        genotypes.set(0, 3, '1');
+        genotypes.set(0, 0, '3');
+        Assert.assertEquals('1', genotypes.get(0, 3));
+        Assert.assertEquals('3', genotypes.get(0, 0));
+
+        genotypes.clear();
+        Assert.assertEquals("333333333333", get(genotypes, values.length()));
+    }
+
+    @Test
+    public void testKernelsAgainstCharacters() {
+        final Random random = new Random(17);
+        for (int length : new int[] {1, 63, 64, 65, 200}) {
+            for (int k = 0; k < 20; k++) {
+                final String a = randomGenotypes(random, length);
+                final String b = randomGenotypes(random, length);
+                final PackedGenotypes pa = PackedGenotypes.of(a);
+                final PackedGenotypes pb = PackedGenotypes.of(b);
+
+                final int[] ld = new int[9];
+                PackedGenotypes.ldCounts(pa, 0, pb, 0, ld);
+                final int[] king = new int[PackedGenotypes.KING_COUNTS];
+                PackedGenotypes.kingCounts(pa, 0, pb, 0, king);
+                final int[] carriers = new int[2];
+                PackedGenotypes.carrierCounts(pa, 0, pb, 0, carriers);
+
+                final int[] expectedLd = new int[9];
+                final int[] expectedKing = new int[PackedGenotypes.KING_COUNTS];
+                final float[] weights = new float[length];
+                double expectedSum = 0.0;
+                int expectedConcordance = 0;
+                int expectedShared = 0;
+                int expectedCarrierValid = 0;
+                for (int i = 0; i < length; i++) {
+                    weights[i] = random.nextFloat();
+                    final int x = a.charAt(i) - '0';
+                    final int y = b.charAt(i) - '0';
+                    final boolean carrier = x == 1 || x == 2;
+                    if (carrier && (y == 1 || y == 2)) expectedShared++;
+                    if (carrier && y != 3) expectedCarrierValid++;
+                    if (x == 3 || y == 3) continue;
+                    expectedLd[x + 3 * y]++;
+                    expectedSum += weights[i];
+                    if (x == y) expectedConcordance++;
+                    if (Math.abs(x - y) == 2) expectedKing[PackedGenotypes.IBS0]++;
+                    expectedKing[PackedGenotypes.XX] += (x - y) * (x - y);
+                    if (x == 1 && y == 1) expectedKing[PackedGenotypes.HET_HET]++;
+                    if (x == 1) expectedKing[PackedGenotypes.HET_A]++;
+                    if (y == 1) expectedKing[PackedGenotypes.HET_B]++;
+                    expectedKing[PackedGenotypes.BOTH_VALID]++;
+                }
+
+                Assert.assertArrayEquals(expectedLd, ld);
+                Assert.assertArrayEquals(expectedKing, king);
+                Assert.assertArrayEquals(new int[] {expectedShared, expectedCarrierValid}, carriers);
+                Assert.assertEquals(expectedKing[PackedGenotypes.IBS0], PackedGenotypes.ibs0(pa, 0, pb, 0));
+                Assert.assertEquals(expectedKing[PackedGenotypes.HET_HET], PackedGenotypes.hetHet(pa, 0, pb, 0));
+                Assert.assertEquals(expectedKing[PackedGenotypes.BOTH_VALID], PackedGenotypes.bothValid(pa, 0, pb, 0));
+                Assert.assertEquals(expectedConcordance, PackedGenotypes.concordance(pa, 0, pb, 0));
+                // Summed in the same order, the result is exactly the same
+                Assert.assertEquals(expectedSum, PackedGenotypes.sumWeights(pa, 0, pb, 0, weights, 0.0), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testRowsOfMatrix() {
+        final String[] samples = {"0120", "2103", "1111"};
+        final PackedGenotypes genotypes = new PackedGenotypes(samples.length, 4);
+        for (int row = 0; row < samples.length; row++) {
+            for (int i = 0; i < 4; i++) {
+                genotypes.set(row, i, samples[row].charAt(i));
+            }
+        }
+        Assert.assertEquals(2, PackedGenotypes.ibs0(genotypes, 0, genotypes, 1));
+        Assert.assertEquals(1, PackedGenotypes.hetHet(genotypes, 1, genotypes, 2));
+        Assert.assertEquals(3, PackedGenotypes.bothValid(genotypes, 1, genotypes, 2));
+        Assert.assertEquals(1, PackedGenotypes.concordance(genotypes, 0, genotypes, 2));
+    }
+
+    private static String get(PackedGenotypes genotypes, int length) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(genotypes.get(0, i));
+        }
+        return sb.toString();
+    }
+
+    private static String randomGenotypes(Random random, int length) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('0' + random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+}
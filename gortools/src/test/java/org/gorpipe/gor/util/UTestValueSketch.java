@@ -0,0 +1,198 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+public class UTestValueSketch {
+
+    @Test
+    public void testQuantilesOfShortStreamAreExact() {
+        final KllSketch sketch = new KllSketch();
+        for (int v : new int[] {7, 3, 9, 1, 5, 3}) {
+            sketch.update(v);
+        }
+        Assert.assertEquals(6, sketch.getN());
+        Assert.assertEquals(1.0, sketch.getMin(), 0.0);
+        Assert.assertEquals(9.0, sketch.getMax(), 0.0);
+        Assert.assertEquals(5.0, sketch.quantile(0.5), 0.0);
+        Assert.assertEquals(3.0, sketch.quantile(0.25), 0.0);
+        Assert.assertEquals(4.0, sketch.median(), 0.0);
+        Assert.assertTrue(Double.isNaN(new KllSketch().quantile(0.5)));
+        Assert.assertTrue(Double.isNaN(new KllSketch().median()));
+    }
+
+    @Test
+    public void testQuantilesOfLongStream() {
+        final int n = 1000000;
+        final double[] values = new double[n];
+        final Random random = new Random(3);
+        final KllSketch sketch = new KllSketch();
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextGaussian();
+            sketch.update(values[i]);
+        }
+        Arrays.sort(values);
+        for (double q : new double[] {0.01, 0.25, 0.5, 0.75, 0.99}) {
+            assertRankError(values, sketch.quantile(q), q, 0.02);
+        }
+        Assert.assertEquals(values[0], sketch.quantile(0.0), 0.0);
+        Assert.assertEquals(values[n - 1], sketch.quantile(1.0), 0.0);
+    }
+
+    @Test
+    public void testMergedQuantiles() {
+        final int parts = 20;
+        final int perPart = 50000;
+        final double[] values = new double[parts * perPart];
+        final KllSketch merged = new KllSketch();
+        for (int p = 0; p < parts; p++) {
+            final KllSketch part = new KllSketch();
+            for (int i = 0; i < perPart; i++) {
+                // Each part covers its own range of values
+                final double v = p * perPart + i;
+                values[p * perPart + i] = v;
+                part.update(v);
+            }
+            merged.merge(part);
+        }
+        Assert.assertEquals(values.length, merged.getN());
+        for (double q : new double[] {0.1, 0.5, 0.9}) {
+            assertRankError(values, merged.quantile(q), q, 0.02);
+        }
+    }
+
+    @Test
+    public void testDistinctCount() {
+        final HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 1000; i++) {
+            small.add("v" + (i % 25));
+        }
+        Assert.assertEquals(25, small.estimate());
+
+        for (int n : new int[] {1000, 100000, 2000000}) {
+            final HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < n; i++) {
+                sketch.add(i);
+            }
+            Assert.assertEquals(n, sketch.estimate(), n * 0.05);
+        }
+        Assert.assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    public void testMergedDistinctCount() {
+        final HyperLogLog a = new HyperLogLog();
+        final HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 60000; i++) {
+            a.add("key" + i);
+            b.add("key" + (i + 30000));
+        }
+        a.merge(b);
+        Assert.assertEquals(90000, a.estimate(), 90000 * 0.05);
+    }
+
+    @Test
+    public void testSerializeAndMerge() {
+        final ValueSketch numbers = new ValueSketch(true, true);
+        final ValueSketch more = new ValueSketch(true, true);
+        for (int i = 0; i < 1001; i++) {
+            numbers.add(i % 500);
+            more.add(-i);
+        }
+        final ValueSketch parsed = ValueSketch.parse(numbers.serialize());
+        Assert.assertEquals(numbers.median(), parsed.median(), 0.0);
+        Assert.assertEquals(numbers.distinctCount(), parsed.distinctCount());
+        Assert.assertEquals(numbers.serialize(), parsed.serialize());
+
+        parsed.merge(ValueSketch.parse(more.serialize()));
+        Assert.assertEquals(0.0, parsed.median(), 50.0);
+        Assert.assertEquals(1500, parsed.distinctCount(), 1500 * 0.05);
+
+        final ValueSketch text = new ValueSketch(false, true);
+        text.add("a");
+        text.add("b");
+        final ValueSketch parsedText = ValueSketch.parse(text.serialize());
+        Assert.assertFalse(parsedText.hasQuantiles());
+        Assert.assertEquals(2, parsedText.distinctCount());
+        Assert.assertTrue(Double.isNaN(parsedText.median()));
+
+        // Quantiles are dropped when merged with a sketch without them
+        parsed.merge(parsedText);
+        Assert.assertFalse(parsed.hasQuantiles());
+        Assert.assertTrue(parsed.hasDistinct());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidSketch() {
+        ValueSketch.parse("not a sketch");
+    }
+
+    @Test
+    public void testParseMalformedSketch() throws IOException {
+        final ByteArrayOutputStream quantiles = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(quantiles)) {
+            out.writeByte(1);
+            out.writeByte(1);
+            out.writeInt(KllSketch.DEFAULT_K);
+            out.writeLong(1);
+            out.writeDouble(1.0);
+            out.writeDouble(1.0);
+            out.writeInt(Integer.MAX_VALUE);
+        }
+        assertInvalid(quantiles.toByteArray());
+
+        final ByteArrayOutputStream distinct = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(distinct)) {
+            out.writeByte(1);
+            out.writeByte(2);
+            out.writeByte(HyperLogLog.DEFAULT_PRECISION);
+            out.writeInt(Integer.MAX_VALUE);
+        }
+        assertInvalid(distinct.toByteArray());
+    }
+
+    private static void assertInvalid(byte[] bytes) {
+        try {
+            ValueSketch.parse(Base64.getEncoder().encodeToString(bytes));
+            Assert.fail("Should fail on malformed sketch");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static void assertRankError(double[] sorted, double value, double q, double maxError) {
+        int rank = Arrays.binarySearch(sorted, value);
+        Assert.assertTrue("Value not in input " + value, rank >= 0);
+        final double error = Math.abs((double) rank / sorted.length - q);
+        Assert.assertTrue("Rank error " + error + " for quantile " + q, error <= maxError);
+    }
+}
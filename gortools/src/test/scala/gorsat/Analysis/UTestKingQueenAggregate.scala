@@ -0,0 +1,129 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+package gorsat.Analysis
+
+import gorsat.Buckets.PnBucketTable
+import org.gorpipe.model.gor.RowObj
+import org.junit.runner.RunWith
+import org.scalatest.funsuite.AnyFunSuite
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.util.Random
+
+/**
+  * Compares KING and QUEEN with the per variant computation they had before the genotypes were packed, including
+  * values that are not genotypes.
+  */
+@RunWith(classOf[JUnitRunner])
+class UTestKingQueenAggregate extends AnyFunSuite {
+
+  private def genotypes(random: Random, n: Int, values: String): Array[Char] =
+    Array.fill(n)(values.charAt(random.nextInt(values.length)))
+
+  test("KING gives the same counts as per variant") {
+    val random = new Random(11)
+    val n = 12
+    val pbt = new PnBucketTable(Map("b1" -> 0), Array("b1"), Array(n), (0 until n).map(i => s"PN$i" -> i).toMap,
+      Array.tabulate(n)(i => s"PN$i"), Array.fill(n)(0), Array.tabulate(n)(i => i))
+    val pairs = (for (i <- 0 until n; j <- i + 1 until n) yield (i, j)).toArray
+    val bui = GorKing.BucketInfo(pbt, pairs)
+
+    val IBS0, XX, Nhet, Nhom, NAai, NAaj, count = new Array[Int](pairs.length)
+    val tpq, kpq = new Array[Float](pairs.length)
+
+    val sink = AnalysisSink()
+    val king = GorKing.KingAggregate(0.0f, 0.0f, 0.0f, t_pi0 = false, t_phi = false, t_theta = false, null) | sink
+    for (v <- 0 until 150) {
+      val gts = genotypes(random, n, if (v % 7 == 3) "0123x." else "0123")
+      val af = 0.05f + 0.45f * random.nextFloat()
+      val r = RowObj(s"chr1\t${v + 1}")
+      r.bH = GorKing.binaryHolder(bui, af, gts)
+      king.process(r)
+
+      val tpqc = 2.0f*af*af*(1.0f-af)*(1.0f-af)
+      val kpqc = 2.0f*af*(1.0f-af)
+      for (ai <- pairs.indices) {
+        val gt1 = gts(pairs(ai)._1)
+        val gt2 = gts(pairs(ai)._2)
+        if (gt1 != '3' && gt2 != '3') {
+          count(ai) += 1
+          tpq(ai) += tpqc
+          kpq(ai) += kpqc
+          if (gt1 == '0' && gt2 == '2' || gt1 == '2' && gt2 == '0') IBS0(ai) += 1
+          if (gt1 == '0' && gt2 == '1' || gt1 == '1' && gt2 == '0' || gt1 == '2' && gt2 == '1' || gt1 == '1' && gt2 == '2') {
+            XX(ai) += 1
+          } else if (gt1 == '0' && gt2 == '2' || gt1 == '2' && gt2 == '0') {
+            XX(ai) += 4
+            Nhom(ai) += 1
+          }
+          if (gt1 == '1' && gt2 == '1') Nhet(ai) += 1
+          if (gt1 == '1') NAai(ai) += 1
+          if (gt2 == '1') NAaj(ai) += 1
+        }
+      }
+    }
+    king.securedFinish(null)
+
+    val expected = pairs.indices.map(ai => {
+      val pi0 = IBS0(ai)/tpq(ai)
+      val phi = 0.5f-XX(ai)/(4.0f*kpq(ai))
+      val theta = (Nhet(ai)-2.0f*Nhom(ai))/(NAai(ai)+NAaj(ai))
+      s"chrA\t0\tPN${pairs(ai)._1}\tPN${pairs(ai)._2}\t${IBS0(ai)}\t${XX(ai)}\t${tpq(ai)}\t${kpq(ai)}\t${Nhet(ai)}\t${Nhom(ai)}\t${NAai(ai)}\t${NAaj(ai)}\t${count(ai)}\t$pi0\t$phi\t$theta"
+    })
+    assert(sink.rows.map(_.toString) == expected.toList)
+  }
+
+  test("QUEEN gives the same counts as per variant") {
+    val random = new Random(13)
+    val n1 = 8
+    val n2 = 10
+    val bui = GorQueen.BucketInfo()
+    bui.outputTags = Array.tabulate(n1)(i => s"A$i")
+    bui.outputTags2 = Array.tabulate(n2)(j => s"B$j")
+
+    val share, count = new Array[Int](n1 * n2)
+
+    val sink = AnalysisSink()
+    val queen = GorQueen.QueenAggregate(-1.0f, null) | sink
+    for (v <- 0 until 150) {
+      val idx1 = (0 until n1).filter(_ => random.nextInt(3) == 0).toArray
+      val gts2 = genotypes(random, n2, if (v % 5 == 2) "0123x." else "0123")
+      val r = RowObj(s"chr1\t${v + 1}")
+      r.bH = GorQueen.binaryHolder(bui, 0.1f, idx1, idx1.length, n1, gts2)
+      queen.process(r)
+
+      for (pni <- idx1; j <- 0 until n2) {
+        val gt2 = gts2(j)
+        if (gt2 == '1' || gt2 == '2') share(pni * n2 + j) += 1
+        if (gt2 != '3') count(pni * n2 + j) += 1
+      }
+    }
+    queen.securedFinish(null)
+
+    val expected = for (i <- 0 until n1; j <- 0 until n2) yield {
+      val ai = i * n2 + j
+      val avgSharing = if (count(ai) > 0) share(ai).toFloat/count(ai) else -1.0f
+      s"chrA\t0\tA$i\tB$j\t$avgSharing\t${share(ai)}\t${count(ai)}"
+    }
+    assert(sink.rows.map(_.toString) == expected.toList)
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Analysis
+
+import gorsat.Commands.{BinAggregator, BinAnalysis, BinFactory, BinInfo, BinState, Processor, RegularRowHandler}
+import gorsat.TestUtils
+import org.apache.commons.io.FileUtils
+import org.gorpipe.gor.model.Row
+import org.gorpipe.model.gor.RowObj
+import org.gorpipe.test.utils.FileTestUtils
+import org.junit.runner.RunWith
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatestplus.junit.JUnitRunner
+
+import java.io.File
+import java.nio.file.Files
+
+@RunWith(classOf[JUnitRunner])
+class UTestParallelBins extends AnyFlatSpec {
+
+  private val queries = Seq(
+    "gorrows -p chr1:1-200000 | calc g mod(pos,7) | group 100 -gc g -count -med -dis -ic pos",
+    "gorrows -p chr1:1-50000 | calc g mod(pos,3) | group 1000 -steps 4 -gc g -count -avg -ic pos",
+    "gorrows -p chr1:1-20000 | merge <(gorrows -p chr2:1-30000) | calc g mod(pos,5) | calc h mod(pos,11) | group chrom -gc g -count -set -sc h",
+    "gorrows -p chr1:1-100000 | calc g mod(pos,3) | calc v mod(pos*13,101) | rank 500 v -gc g -z")
+
+  private def run(query: String, parallel: Boolean): String = withParallel(parallel)(TestUtils.runGorPipe(query))
+
+  private def run(args: Array[String], parallel: Boolean): String = withParallel(parallel)(TestUtils.runGorPipe(args: _*))
+
+  private def withParallel(parallel: Boolean)(body: => String): String = {
+    val previous = System.getProperty("gor.bin.parallel")
+    System.setProperty("gor.bin.parallel", parallel.toString)
+    try {
+      body
+    } finally {
+      if (previous == null) System.clearProperty("gor.bin.parallel") else System.setProperty("gor.bin.parallel", previous)
+    }
+  }
+
+  "Parallel bins" should "give the same rows in the same order as sequential bins" in {
+    queries.foreach { query =>
+      val expected = run(query, parallel = false)
+      val actual = run(query, parallel = true)
+      assert(expected.split('\n').length > 2, query)
+      assert(actual == expected, query)
+    }
+  }
+
+  it should "give the same rows for PILEUP" in {
+    val args = Array("gor -p chr22 ../tests/data/external/samtools/index_test.bam | pileup", "-config", "../tests/config/gor_unittests_config.txt")
+    val expected = run(args, parallel = false)
+    assert(expected.split('\n').length > 2)
+    assert(run(args, parallel = true) == expected)
+  }
+
+  it should "give the same rows for GTGEN" in {
+    val directory = FileTestUtils.createTempDirectory(this.getClass.getName)
+    try {
+      val buckets = new File(directory, "buckets.tsv")
+      Files.writeString(buckets.toPath, "PN1\tBUCKET1\nPN2\tBUCKET1\nPN3\tBUCKET2\n")
+      val coverage = new File(directory, "coverage.gor")
+      Files.writeString(coverage.toPath, "CHROM\tPOS\tEND\tPN\nchr1\t1\t5000\tPN1\nchr1\t1\t3000\tPN2\nchr1\t2000\t5000\tPN3\n")
+      val query = "gorrows -p chr1:1-5000 | calc pn 'PN'+str(mod(pos,3)+1) | calc gt str(mod(pos*7,3)) | where mod(pos,5) != 0" +
+        " | gtgen " + buckets.getCanonicalPath + " " + coverage.getCanonicalPath
+      val expected = run(query, parallel = false)
+      assert(expected.split('\n').length > 2)
+      assert(run(query, parallel = true) == expected)
+    } finally {
+      FileUtils.deleteDirectory(directory)
+    }
+  }
+
+  private case class ThrowingState() extends BinState {
+    var sta = 0
+
+    override def initialize(binInfo: BinInfo): Unit = {
+      sta = binInfo.sta
+    }
+
+    override def process(r: Row): Unit = {}
+
+    override def sendToNextProcessor(binInfo: BinInfo, nextProcessor: Processor): Unit = {
+      if (sta == 500) throw new IllegalStateException("Failed bin")
+      nextProcessor.process(RowObj(s"${binInfo.chr}\t${binInfo.sta}"))
+    }
+  }
+
+  private case class ThrowingFactory() extends BinFactory {
+    override def create: BinState = ThrowingState()
+
+    override def isParallelizable: Boolean = true
+  }
+
+  private case class ThrowingAnalysis() extends BinAnalysis(RegularRowHandler(100), BinAggregator(ThrowingFactory(), 2, 1))
+
+  it should "pass on the failure of a bin" in {
+    System.setProperty("gor.bin.parallel", "true")
+    try {
+      val pipe = ThrowingAnalysis() | AnalysisSink()
+      pipe.securedSetup(null)
+      val thrown = intercept[IllegalStateException] {
+        (1 to 1000).foreach(i => pipe.process(RowObj(s"chr1\t$i")))
+        pipe.finish()
+      }
+      assert(thrown.getMessage == "Failed bin")
+    } finally {
+      System.clearProperty("gor.bin.parallel")
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Analysis
+
+import gorsat.Commands.{Analysis, RowHeader}
+import gorsat.Script.ScriptExecutionEngine
+import gorsat.process.GenericSessionFactory
+import org.gorpipe.gor.model.Row
+import org.gorpipe.model.gor.RowObj
+import org.junit.runner.RunWith
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatestplus.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class UTestParallelSteps extends AnyFlatSpec {
+  // This is needed to initialize things needed by GorPipeSession
+  private val se = ScriptExecutionEngine
+  private val context = new GenericSessionFactory().create().getGorContext
+
+  private val header = "chrom\tpos\tA"
+  private val rowHeader = RowHeader(header, Array("S", "I", "I"))
+
+  private def rows(n: Int): Seq[Row] = (1 to n).map(i => RowObj(s"chr1\t$i\t${i % 17}"))
+
+  private def steps(): Analysis = {
+    CalcAnalysis(context, executeNor = false, Array("A*2", "'x'+A"), header, Array("B", "C")) |
+      WhereAnalysis(context, executeNor = false, "B > 10", header + "\tB\tC") |
+      Select2(1, 2, 4, 5)
+  }
+
+  private def run(pipe: Analysis, sink: AnalysisSink, input: Seq[Row]): Seq[String] = {
+    pipe.securedSetup(null)
+    pipe.setRowHeader(rowHeader)
+    input.foreach(pipe.process)
+    pipe.securedFinish(null)
+    sink.rows.map(_.toString)
+  }
+
+  "ParallelSteps" should "give the same rows in the same order as the steps" in {
+    val expectedSink = AnalysisSink()
+    val expected = run(steps() | expectedSink, expectedSink, rows(5000))
+
+    val sink = AnalysisSink()
+    val actual = run(ParallelSteps(steps(), 4, 7) | sink, sink, rows(5000))
+
+    assert(expected.nonEmpty)
+    assert(actual == expected)
+  }
+
+  it should "pass on the header of the last step" in {
+    val sink = AnalysisSink()
+    val pipe = ParallelSteps(steps(), 2, 10) | sink
+    pipe.setRowHeader(rowHeader)
+
+    assert(sink.rowHeader.columnNames.toSeq == Seq("chrom", "pos", "B", "C"))
+    assert(sink.rowHeader.columnTypes.toSeq == Seq("S", "I", "I", "S"))
+  }
+
+  it should "pass on rows from a partial batch" in {
+    val sink = AnalysisSink()
+    val actual = run(ParallelSteps(steps(), 3, 1000) | sink, sink, rows(20))
+
+    assert(actual == (6 to 16).map(i => s"chr1\t$i\t${2 * i}\tx$i"))
+  }
+
+  "fuse" should "replace runs of stateless steps" in {
+    val sink = AnalysisSink()
+    val pipe = ParallelSteps.fuse(CheckOrder() | steps() | DistinctRows() | Select2(1, 2) | sink)
+
+    assert(pipe.isInstanceOf[CheckOrder])
+    assert(pipe.pipeTo.isInstanceOf[ParallelSteps])
+    assert(pipe.pipeTo.pipeTo.isInstanceOf[DistinctRows])
+    assert(pipe.pipeTo.pipeTo.pipeTo.isInstanceOf[Select2])
+    assert(pipe.pipeTo.pipeTo.pipeTo.pipeTo eq sink)
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Analysis
+
+import gorsat.Commands.Analysis
+import org.gorpipe.exceptions.GorDataException
+import org.gorpipe.gor.model.Row
+import org.gorpipe.model.gor.RowObj
+import org.junit.runner.RunWith
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatestplus.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class UTestPipelineStage extends AnyFlatSpec {
+
+  private def rows(n: Int): Seq[Row] = (1 to n).map(i => RowObj(s"chr1\t$i\tv$i"))
+
+  case class FailAt(pos: Int) extends Analysis {
+    override def process(r: Row): Unit = {
+      if (r.pos == pos) throw new GorDataException("Failed at " + pos)
+      super.process(r)
+    }
+  }
+
+  case class StopAfter(n: Int) extends Analysis {
+    var count = 0
+    override def process(r: Row): Unit = {
+      if (count < n) super.process(r)
+      count += 1
+      if (count == n) reportWantsNoMore()
+    }
+  }
+
+  "process" should "pass all rows through in order" in {
+    val sink = AnalysisSink()
+    val pipe = PipelineStage(3, 1) | sink
+    rows(100).foreach(pipe.process)
+    pipe.securedFinish(null)
+
+    assert(sink.rows.map(_.pos) == (1 to 100))
+  }
+
+  it should "run the following steps on another thread" in {
+    var threads = Set[Thread]()
+    val sink = AnalysisSink()
+    val pipe = PipelineStage(2, 1) | new Analysis {
+      override def process(r: Row): Unit = {
+        threads += Thread.currentThread()
+        super.process(r)
+      }
+    } | sink
+    rows(10).foreach(pipe.process)
+    pipe.securedFinish(null)
+
+    assert(sink.rows.size == 10)
+    assert(threads.size == 1)
+    assert(!threads.contains(Thread.currentThread()))
+  }
+
+  it should "pass no rows when there is no input" in {
+    val sink = AnalysisSink()
+    val pipe = PipelineStage() | sink
+    pipe.securedFinish(null)
+
+    assert(sink.rows.isEmpty)
+  }
+
+  it should "rethrow errors from the following steps" in {
+    val sink = AnalysisSink()
+    val pipe = PipelineStage(2, 1) | FailAt(5) | sink
+
+    assertThrows[GorDataException] {
+      rows(100).foreach(pipe.process)
+      pipe.securedFinish(null)
+    }
+    assert(sink.rows.map(_.pos) == (1 to 4))
+  }
+
+  it should "stop passing rows when the following steps want no more" in {
+    val sink = AnalysisSink()
+    val pipe = PipelineStage(2, 1) | StopAfter(3) | sink
+    rows(100).foreach(r => if (!pipe.wantsNoMore) pipe.process(r))
+    pipe.securedFinish(null)
+
+    assert(sink.rows.map(_.pos) == (1 to 3))
+  }
+
+  "reset" should "allow the stage to be run again" in {
+    val sink = AnalysisSink()
+    val stage = PipelineStage(4, 2)
+    val pipe = stage | sink
+    rows(10).foreach(pipe.process)
+    pipe.securedFinish(null)
+    stage.reset()
+    rows(5).foreach(pipe.process)
+    pipe.securedFinish(null)
+
+    assert(sink.rows.map(_.pos) == (1 to 10) ++ (1 to 5))
+  }
+}
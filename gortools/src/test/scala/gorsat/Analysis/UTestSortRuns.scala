@@ -0,0 +1,110 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package gorsat.Analysis
+
+import gorsat.Commands.RowHeader
+import org.gorpipe.gor.model.Row
+import org.gorpipe.model.gor.RowObj
+import org.junit.runner.RunWith
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.util.Random
+
+@RunWith(classOf[JUnitRunner])
+class UTestSortRuns extends AnyFlatSpec {
+  private val header = "chrom\tpos\tA\tB"
+  private val sortInfo = Array(new Row.SortInfo(2, Row.SortOrder.FORWARD, Row.SortType.NUMBERIC))
+
+  private def rows(n: Int): Seq[Row] = {
+    val random = new Random(17)
+    (1 to n).map(i => RowObj(s"chr${1 + random.nextInt(3)}\t${random.nextInt(50)}\t${random.nextInt(20)}\tx$i"))
+  }
+
+  private def sort(input: Seq[Row], batchSize: Int, fanIn: Int): Seq[String] = {
+    val step = SortGenome(sortInfo)
+    step.batchSize = math.min(batchSize, step.batchSize)
+    step.fanIn = fanIn
+    val sink = AnalysisSink()
+    val pipe = step | sink
+    pipe.securedSetup(null)
+    pipe.setRowHeader(RowHeader(header, Array("S", "I", "I", "S")))
+    input.foreach(pipe.process)
+    pipe.securedFinish(null)
+    sink.rows.map(_.toString).toSeq
+  }
+
+  private def expected(input: Seq[Row]): Seq[String] = {
+    input.sortWith((a, b) => a.advancedCompare(b, sortInfo) < 0).map(_.toString)
+  }
+
+  "SortGenome" should "sort rows that fit in one batch" in {
+    val input = rows(1000)
+    assert(sort(input, 5000, 64) == expected(input))
+  }
+
+  it should "merge spilled runs" in {
+    val input = rows(5000)
+    assert(sort(input, 300, 64) == expected(input))
+  }
+
+  it should "merge runs in many levels when there are more runs than the fan in" in {
+    val input = rows(5000)
+    assert(sort(input, 37, 3) == expected(input))
+  }
+
+  it should "keep the input order of rows that compare equal" in {
+    val input = rows(3000)
+    val sorted = sort(input, 101, 4)
+    assert(sorted == expected(input))
+    val order = sorted.map(_.split("\t")(3).drop(1).toInt)
+    val keys = sorted.map(_.split("\t").take(3).mkString("\t"))
+    assert(keys.zip(order).sliding(2).forall {
+      case Seq((k1, o1), (k2, o2)) => k1 != k2 || o1 < o2
+      case _ => true
+    })
+  }
+
+  "SortRuns" should "read back the rows it writes" in {
+    val input = rows(100) :+ RowObj("chr1\t1\t" + "æ" * 300 + "\tlong")
+    val run = SortRuns.write(input.toArray, input.length)
+    try {
+      val reader = new SortRuns.SortRunReader(run)
+      val read = Iterator.continually(reader).takeWhile(_.hasNext).map(_.next().toString).toSeq
+      reader.close()
+      assert(read == input.map(_.toString))
+    } finally {
+      run.delete()
+    }
+  }
+
+  it should "compress the rows it writes" in {
+    val input = rows(2000)
+    val run = SortRuns.write(input.toArray, input.length)
+    try {
+      assert(run.length() < input.map(_.toString.length + 1).sum / 2)
+    } finally {
+      run.delete()
+    }
+  }
+}
@@ -75,4 +75,29 @@ class UTestExecutionGraph extends AnyFlatSpec {
     assert(g.blocks.size == 4)
     assert(g.levels.length == 3)
   }
+
+  "Critical paths" should "count the longest chain of dependent blocks" in {
+    val g = ExecutionGraph(Array(
+      "create w = gor test.gor",
+      "create x = gor right.gor",
+      "create y = gor left.gor | join [x]" ,
+      "create z = gor [y]",
+      "gor [z] [w]"
+    ))
+    assert(g.criticalPaths("[]") == 1)
+    assert(g.criticalPaths("[w]") == 2)
+    assert(g.criticalPaths("[z]") == 2)
+    assert(g.criticalPaths("[y]") == 3)
+    assert(g.criticalPaths("[x]") == 4)
+  }
+
+  it should "include relations that are only dependencies" in {
+    val blocks = new java.util.HashMap[String, ExecutionBlock]()
+    blocks.put("[x]", ExecutionBlock("x", "gordict [x_1] [x_2]", null, Array("[x_1]", "[x_2]")))
+    blocks.put("[]", ExecutionBlock(ScriptExecutionEngine.GOR_FINAL, "gor [x]", null, Array("[x]")))
+    val paths = ExecutionGraph.criticalPathLengths(blocks)
+    assert(paths("[x_1]") == 3)
+    assert(paths("[x_2]") == 3)
+    assert(paths("[x]") == 2)
+  }
 }
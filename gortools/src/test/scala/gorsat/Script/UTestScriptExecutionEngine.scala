@@ -246,5 +246,31 @@ class UTestScriptExecutionEngine extends AnyFunSuite with BeforeAndAfter {
     Assert.assertNotEquals(signature, signature3)
   }
 
+  test("Dependency scheduling gives the same results as level scheduling") {
+    val script = "create a = gorrows -p chr1:1-100 | signature -timeres 1; " +
+      "create b = gor [a] | where pos > 10 | signature -timeres 1; " +
+      "create c = gor [b] | calc x pos*2 | signature -timeres 1; " +
+      "create d = pgor gorrows -p chr1:1-50 | signature -timeres 1; " +
+      "create e = gor [c] | select 1,2 | merge [d] | signature -timeres 1; " +
+      "gor [e] [a] | group chrom -count"
+
+    val expected = TestUtils.runGorPipe(script)
+    System.setProperty("gor.script.dependency.scheduling", "true")
+    try {
+      Assert.assertEquals(expected, TestUtils.runGorPipe(script))
+    } finally {
+      System.clearProperty("gor.script.dependency.scheduling")
+    }
+  }
 
+  test("Dependency scheduling reports errors from created relations") {
+    System.setProperty("gor.script.dependency.scheduling", "true")
+    try {
+      intercept[GorException] {
+        TestUtils.runGorPipe("create a = gorrows -p chr1:1-10 | calc x 1/0a; create b = gorrows -p chr1:1-10; gor [a] [b]")
+      }
+    } finally {
+      System.clearProperty("gor.script.dependency.scheduling")
+    }
+  }
 }
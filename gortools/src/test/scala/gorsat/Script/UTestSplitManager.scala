@@ -22,15 +22,18 @@
 
 package gorsat.Script
 
-import gorsat.DynIterator
+import gorsat.{DynIterator, TestUtils}
 import gorsat.process.{GenericSessionFactory, PipeInstance, PipeOptions, TestSessionFactory}
 import org.gorpipe.exceptions.GorParsingException
 import org.gorpipe.gor.reference.ReferenceBuildDefaults
 import org.gorpipe.gor.session.GorContext
+import org.apache.commons.io.FileUtils
+import org.gorpipe.test.utils.FileTestUtils
 import org.junit.runner.RunWith
 import org.scalatest.funsuite.AnyFunSuite
 import org.scalatestplus.junit.JUnitRunner
 
+import java.io.File
 import java.util
 
 @RunWith(classOf[JUnitRunner])
@@ -246,4 +249,53 @@ class UTestSplitManager extends AnyFunSuite {
     assert(SplitManager.useWholeChromosomeSplit("pgor #dbsnp# | calc rank = 'some text' | top 100") == false)
   }
 
+  test("Density splits follow the data") {
+    val buildSizes = ReferenceBuildDefaults.buildSizeGeneric
+    val points = Seq(
+      DensitySplitPlanner.DensityPoint("chr1", 0, 1000000, 100.0),
+      DensitySplitPlanner.DensityPoint("chr1", 1000000, 2000000, 700.0),
+      DensitySplitPlanner.DensityPoint("chr1", 2000000, 200000000, 100.0),
+      DensitySplitPlanner.DensityPoint("chr2", 0, 200000000, 100.0))
+    val splits = DensitySplitPlanner.splitsFromDensity(points, buildSizes, 34)
+
+    assertResult(buildSizes.size)(splits.values.map(_.chrom).toSet.size)
+    assertResult(34)(splits.size)
+    val chr1 = splits.values.filter(_.chrom == "chr1").toSeq.sortBy(_.start)
+    assertResult(8)(chr1.size)
+    // Each split gets an equal share of the data, most of them in the dense region
+    assertResult(6)(chr1.count(x => x.start >= 1000000 && x.end > 0 && x.end <= 2000000))
+    assertResult(0)(chr1.head.start)
+    assertResult(-1)(chr1.last.end)
+    chr1.sliding(2).foreach(x => assertResult(x(0).end + 1)(x(1).start))
+  }
+
+  test("Density splits are empty without data") {
+    assert(DensitySplitPlanner.splitsFromDensity(Nil, ReferenceBuildDefaults.buildSizeGeneric, 40).isEmpty)
+    assert(DensitySplitPlanner.splitsFromDensity(Seq(DensitySplitPlanner.DensityPoint("chrUnknown", 0, 10, 1.0)),
+      ReferenceBuildDefaults.buildSizeGeneric, 40).isEmpty)
+  }
+
+  test("Create splitmanager from command: pgor with density splits") {
+    val directory = FileTestUtils.createTempDirectory(this.getClass.getName)
+    System.setProperty("gor.pgor.split.density", "true")
+    try {
+      val file = new File(directory, "dense.gorz").getCanonicalPath
+      TestUtils.runGorPipe("gorrows -p chr1:1-200000 | calc data random() | write -i FULL " + file)
+      val query = "gor -p " + SplitManager.SPLIT_REPLACEMENT_PATTERN + " <(" + file + " | top 10)"
+
+      val manager = createSplitManagerFromCommand(query)
+      assertResult(SplitManager.SPLIT_REPLACEMENT_PATTERN)(manager.replacementPattern)
+      val chr1 = manager.chromosomeSplits.values.filter(_.chrom == "chr1").toSeq
+      assert(chr1.size > 1)
+      // The whole file is in the first 200000 bases, only the last split reaches the end of the chromosome
+      assertResult(chr1.size - 1)(chr1.count(x => x.end > 0 && x.end <= 200000))
+
+      val expected = TestUtils.runGorPipe("gor " + file + " | group chrom -count")
+      assertResult(expected)(TestUtils.runGorPipe("pgor " + file + " | group chrom -count"))
+    } finally {
+      System.clearProperty("gor.pgor.split.density")
+      FileUtils.deleteDirectory(directory)
+    }
+  }
 }
+
@@ -22,6 +22,7 @@
 
 package org.gorpipe.gor.binsearch;
 
+import org.gorpipe.exceptions.GorDataException;
 import org.gorpipe.exceptions.GorSystemException;
 import org.gorpipe.gor.util.ByteTextBuilder;
 import org.gorpipe.gor.util.GLongHashMap;
@@ -95,6 +96,22 @@ public class BlockPacker {
      * @return The number of bytes written into the destination buffer
      */
     public static int decode(final byte[] src, int off, byte[] dest, int destOffset, Map<Integer, Map<Integer, byte[]>> mapExternalTables) {
+        return decode(src, off, dest, destOffset, mapExternalTables, null);
+    }
+
+    /**
+     * Decode the given columns of a block previously encoded by format defined by this class. Only the values of
+     * the given columns are decoded, the rows written contain the columns in the given order.
+     *
+     * @param src               The source byte buffer containing the block
+     * @param off               The position in buffer where the block starts
+     * @param dest              The destination byte buffer for the decoded block
+     * @param destOffset        The position in the destination buffer to start writing
+     * @param mapExternalTables External lookup table content, used to get values from
+     * @param columns           Zero based indices of the columns to decode, null for all columns
+     * @return The number of bytes written into the destination buffer
+     */
+    public static int decode(final byte[] src, int off, byte[] dest, int destOffset, Map<Integer, Map<Integer, byte[]>> mapExternalTables, int[] columns) {
         // Read the rowcnt
         final int rowcnt = ByteArray.readUnsignedShortBigEndian(src, off);
 
@@ -121,7 +138,23 @@ public class BlockPacker {
         // Write the decoded block into the destination buffer
         int dp = destOffset;
         final int colcnt = decoders.length;
-        if (colcnt != 0) {
+        if (columns != null && colcnt != 0) {
+            final RowDecoder[] selected = new RowDecoder[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j] >= colcnt) {
+                    throw new GorDataException("Column " + (columns[j] + 1) + " not found in block with " + colcnt + " columns");
+                }
+                selected[j] = decoders[columns[j]];
+            }
+            for (int i = 0; i < rowcnt; i++) {
+                dp += selected[0].decodeNext(dest, dp);
+                for (int j = 1; j < selected.length; j++) {
+                    dest[dp++] = '\t';
+                    dp += selected[j].decodeNext(dest, dp);
+                }
+                dest[dp++] = '\n';
+            }
+        } else if (colcnt != 0) {
             for (int i = 0; i < rowcnt; i++) {
                 dp += decoders[0].decodeNext(dest, dp);
                 for (int j = 1; j < colcnt; j++) {
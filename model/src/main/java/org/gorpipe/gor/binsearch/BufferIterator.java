@@ -22,6 +22,9 @@
 
 package org.gorpipe.gor.binsearch;
 
+import org.gorpipe.gor.model.ByteRowBase;
+import org.gorpipe.gor.model.Row;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
@@ -41,6 +44,7 @@ class BufferIterator {
     private final StringIntKey comparator;
     private StringIntKey firstKey;
     private StringIntKey lastKey;
+    private byte[] sharedBuffer; //The last buffer rows have been created from.
 
     BufferIterator(StringIntKey comparator) {
         this.comparator = comparator;
@@ -93,6 +97,30 @@ class BufferIterator {
         return toReturn;
     }
 
+    /**
+     * Returns the next line as a row viewing the buffer. The buffer is marked as shared and must not be
+     * overwritten by the owner afterwards, see {@link #isShared(byte[])}.
+     *
+     * @param numColumns The number of columns in the line, or a negative value if it should be counted.
+     * @param prevChr The chromosome of the previous row, reused by the row if it matches.
+     */
+    Row getNextAsRow(int numColumns, String prevChr) {
+        final int beginOfNextLine = getEndOfNextLine(this.buffer, this.bufferIdx, this.upperBound);
+        final int len = this.buffer[beginOfNextLine - 2] == '\r' ? beginOfNextLine - this.bufferIdx - 2 : beginOfNextLine - this.bufferIdx - 1;
+        final Row toReturn = ByteRowBase.create(this.buffer, this.bufferIdx, len, numColumns, prevChr);
+        this.sharedBuffer = this.buffer;
+        this.bufferIdx = beginOfNextLine;
+        this.hasNext = this.bufferIdx < this.upperBound;
+        return toReturn;
+    }
+
+    /**
+     * @return Whether rows viewing the given buffer have been handed out, in which case it must not be overwritten.
+     */
+    boolean isShared(byte[] buffer) {
+        return buffer != null && buffer == this.sharedBuffer;
+    }
+
     byte[] getNextAsBytes() {
         final int beginOfNextLine = getEndOfNextLine(this.buffer, this.bufferIdx, this.upperBound);
         final int len = this.buffer[beginOfNextLine - 2] == '\r' ? beginOfNextLine - this.bufferIdx - 2 : beginOfNextLine - this.bufferIdx - 1;
@@ -27,6 +27,7 @@ import org.gorpipe.exceptions.GorResourceException;
 import org.gorpipe.exceptions.GorSystemException;
 import org.gorpipe.gor.driver.adapters.StreamSourceSeekableFile;
 import org.gorpipe.gor.driver.providers.stream.datatypes.gor.GorHeader;
+import org.gorpipe.gor.model.ByteRowBase;
 import org.gorpipe.gor.model.GenomicIteratorBase;
 import org.gorpipe.gor.model.Row;
 import org.gorpipe.model.gor.RowObj;
@@ -41,6 +42,7 @@ public class GorSeekableIterator extends GenomicIteratorBase {
     private final SeekableIterator iterator;
     private final String filePath;
     private GorHeader header;
+    private String lastChr;
 
     public GorSeekableIterator(StreamSourceSeekableFile file) {
         try {
@@ -84,6 +86,11 @@ public class GorSeekableIterator extends GenomicIteratorBase {
     @Override
     public Row next() {
         try {
+            if (ByteRowBase.ENABLED) {
+                final Row row = this.iterator.getNextAsRow(-1, this.lastChr);
+                this.lastChr = row.chr;
+                return row;
+            }
             return RowObj.apply(this.iterator.getNextAsString());
         } catch (IOException e) {
             throw wrapIOException(e);
@@ -24,6 +24,8 @@ package org.gorpipe.gor.binsearch;
 
 import com.github.luben.zstd.ZstdOutputStream;
 import htsjdk.samtools.util.Md5CalculatingOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.gorpipe.base.concurrency.CommonThreadPools;
 import org.gorpipe.exceptions.GorDataException;
 import org.gorpipe.exceptions.GorSystemException;
 import org.gorpipe.gor.driver.meta.DataType;
@@ -38,13 +40,18 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.zip.Deflater;
 
 /**
@@ -56,11 +63,15 @@ public class GorZipLexOutputStream extends OutputStream {
     private static final Logger log = LoggerFactory.getLogger(GorZipLexOutputStream.class);
 
     static final int DEFAULT_CHUNK = 1024 * 32; //The default unzipped size of blocks to be zipped.
+    // Maximum number of blocks being zipped and written behind the writer, 0 zips and writes on the calling thread.
+    static final int DEFAULT_WRITE_QUEUE = Integer.parseInt(System.getProperty("gor.gorz.write.queue", "16"));
     private static final int DEF_CHR_COL = 0;
     private static final int DEF_POS_COL = 1;
 
     private final OutputStream target;
+    private final CountingOutputStream counter; //Counts the bytes written to the gorz file, for its zone map.
     private final GorIndexFile idx;
+    private GorzZoneMap.Writer zoneMap = null;
     private final ByteArrayWrapper byteOutput;
     private int beginOfLastLine = 0;
     private String headerToWrite = null;
@@ -70,6 +81,10 @@ public class GorZipLexOutputStream extends OutputStream {
     private final boolean useZStd = Boolean.parseBoolean(System.getProperty("gor.compression.useZStd", "false"));
     private final BufferInfo[] cachedOutput = new BufferInfo[16];
     private int cachedOutputIdx = 0;
+    private int writeQueueSize = DEFAULT_WRITE_QUEUE;
+    private final ArrayDeque<CompletableFuture<BufferInfo>> pendingWrites = new ArrayDeque<>();
+    private CompletableFuture<BufferInfo> lastWrite = CompletableFuture.completedFuture(null);
+    private final ArrayDeque<BufferInfo> freeBuffers = new ArrayDeque<>();
     private final byte byteToWrite;
 
     private final int compressionLevel;
@@ -122,6 +137,11 @@ public class GorZipLexOutputStream extends OutputStream {
      */
     public GorZipLexOutputStream(String fileName, boolean append, boolean useColumnEncodingZip, boolean md5, boolean md5File, GorIndexType idx) throws IOException {
         this(new FileOutputStream(fileName, append), useColumnEncodingZip, md5, md5File ? Paths.get(fileName + ".md5") : null, idx != GorIndexType.NONE ? new FileOutputStream(fileName + DataType.GORI.suffix) : null, idx, Deflater.BEST_SPEED);
+        if (GorzZoneMap.ENABLED) {
+            setZoneMapOutput(new FileOutputStream(fileName + GorzZoneMap.SUFFIX, append));
+        } else {
+            Files.deleteIfExists(Paths.get(fileName + GorzZoneMap.SUFFIX));
+        }
     }
 
     /**
@@ -132,6 +152,11 @@ public class GorZipLexOutputStream extends OutputStream {
      */
     public GorZipLexOutputStream(String fileName, boolean append, boolean useColumnEncodingZip, boolean md5, boolean md5File, GorIndexType idx, int compressionLevel) throws IOException {
         this(new FileOutputStream(fileName, append), useColumnEncodingZip, md5, md5File ? Paths.get(fileName + ".md5") : null, idx != GorIndexType.NONE ? new FileOutputStream(fileName + DataType.GORI.suffix) : null, idx, compressionLevel);
+        if (GorzZoneMap.ENABLED) {
+            setZoneMapOutput(new FileOutputStream(fileName + GorzZoneMap.SUFFIX, append));
+        } else {
+            Files.deleteIfExists(Paths.get(fileName + GorzZoneMap.SUFFIX));
+        }
     }
 
     /**
@@ -169,7 +194,8 @@ public class GorZipLexOutputStream extends OutputStream {
     private GorZipLexOutputStream(OutputStream output, int chrCol, int posCol, boolean useColumnEncodingZip, boolean md5, Path md5File, OutputStream idxFile, GorIndexType idxType, int compressionLevel, boolean base64) throws IOException {
         this.chrColRow = new LexRow(chrCol, posCol);
         this.idx = idxFile != null ? new GorIndexFile(idxFile, idxType) : null;
-        this.target = md5 ? new Md5CalculatingOutputStream(output, md5File) : output;
+        this.counter = new CountingOutputStream(output);
+        this.target = md5 ? new Md5CalculatingOutputStream(this.counter, md5File) : this.counter;
         this.byteOutput = new ByteArrayWrapper(DEFAULT_CHUNK);
         this.useColumnEncodingZip = useColumnEncodingZip;
         this.byteToWrite = (byte) ((useColumnEncodingZip ? 1 : 0) + ((useZStd ? 1 : 0) << 1));
@@ -177,6 +203,25 @@ public class GorZipLexOutputStream extends OutputStream {
         this.base64 = base64;
     }
 
+    /**
+     * Write a zone map of the blocks, see {@link GorzZoneMap}. Must be called before any rows are written.
+     *
+     * @param zoneMapOutput The stream to write the zone map to
+     */
+    public void setZoneMapOutput(OutputStream zoneMapOutput) throws IOException {
+        this.zoneMap = new GorzZoneMap.Writer(zoneMapOutput);
+    }
+
+    /**
+     * Set the maximum number of blocks being zipped and written behind the writer. Must be called before any rows
+     * are written.
+     *
+     * @param writeQueueSize Number of blocks, 0 zips and writes blocks on the calling thread
+     */
+    void setWriteQueueSize(int writeQueueSize) {
+        this.writeQueueSize = writeQueueSize;
+    }
+
     public String getMd5() {
         if(target instanceof  Md5CalculatingOutputStream) return ((Md5CalculatingOutputStream)target).md5();
         return null;
@@ -281,20 +326,56 @@ public class GorZipLexOutputStream extends OutputStream {
         if (this.cachedOutputIdx != 0) {
             writeCachedData();
         }
+        while (!this.pendingWrites.isEmpty()) {
+            waitForOldestWrite();
+        }
         this.target.flush();
     }
 
     @Override
     public void close() throws IOException {
-        flush();
+        try {
+            flush();
+        } catch (Throwable e) {
+            closeAfterFailure(e);
+            throw e;
+        }
 
         if (this.idx != null) {
             this.idx.writeLastEntry();
             this.idx.close();
         }
+        if (this.zoneMap != null) {
+            this.zoneMap.finish(this.counter.getByteCount());
+            this.zoneMap.close();
+        }
         this.target.close();
     }
 
+    /**
+     * Close the outputs when the last blocks could not be written, after the writes still running have ended.
+     */
+    private void closeAfterFailure(Throwable failure) {
+        for (CompletableFuture<BufferInfo> write : this.pendingWrites) {
+            try {
+                write.join();
+            } catch (CompletionException e) {
+                // Only the first failure is reported
+            }
+        }
+        this.pendingWrites.clear();
+        for (AutoCloseable output : new AutoCloseable[] {this.idx, this.zoneMap, this.target}) {
+            if (output == null) {
+                continue;
+            }
+            try {
+                output.close();
+            } catch (Throwable e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
     private void writeBuffer() throws IOException {
         writeBuffer(this.byteOutput.size());
     }
@@ -308,6 +389,9 @@ public class GorZipLexOutputStream extends OutputStream {
         while (buffer[endOfLastLineIdx++] != '\t'); //Run over chromosome key.
         //Now we are at the first byte of the position key.
         while (buffer[endOfLastLineIdx] != '\t' && buffer[endOfLastLineIdx] != '\n') ++endOfLastLineIdx; //Run over position.
+        if (this.zoneMap != null) {
+            this.zoneMap.addBlock(Arrays.copyOfRange(buffer, this.beginOfLastLine, endOfLastLineIdx), buffer, bufferLen);
+        }
         if (this.useColumnEncodingZip) {
             final byte[] dest = new byte[1024 + bufferLen];
             final int extMapSize = 32 * 1024 - (this.headerToWrite.length() + 1 + 1); // Total - header - zero - newline
@@ -322,15 +406,63 @@ public class GorZipLexOutputStream extends OutputStream {
     }
 
     private void writeBlock(byte[] keyInBytes, byte[] block, int blockLen) throws IOException {
-        // Cache prepared blocks and do not write to file so that an external table can be better
-        if (this.cachedOutput[this.cachedOutputIdx] == null) {
-            this.cachedOutput[this.cachedOutputIdx] = new BufferInfo();
-        }
-        final BufferInfo bi = this.cachedOutput[this.cachedOutputIdx];
-        this.cachedOutputIdx += 1;
+        final BufferInfo bi = this.freeBuffers.isEmpty() ? new BufferInfo() : this.freeBuffers.poll();
         bi.updateVariables(keyInBytes, block, blockLen);
-        if (this.cachedOutputIdx == this.cachedOutput.length) {
-            writeCachedData(); // Have reached the cache limit, force data into file
+        if (this.useColumnEncodingZip && !this.isHeaderWritten) {
+            // Cache the first blocks and do not write to file so that the external table, written with the header, can be better
+            this.cachedOutput[this.cachedOutputIdx++] = bi;
+            if (this.cachedOutputIdx == this.cachedOutput.length) {
+                writeCachedData(); // Have reached the cache limit, force data into file
+            }
+        } else {
+            writeHeader();
+            queueBlock(bi);
+        }
+    }
+
+    /**
+     * Zip the block and write it to the target after all blocks queued before it. Blocks for the next writes are
+     * zipped while this one is being written, the caller is only blocked when the queue is full.
+     */
+    private void queueBlock(BufferInfo bufferInfo) throws IOException {
+        if (this.writeQueueSize < 1) {
+            zipBlock(bufferInfo);
+            writeZippedBlock(bufferInfo);
+            this.freeBuffers.add(bufferInfo);
+            return;
+        }
+        while (this.pendingWrites.size() >= this.writeQueueSize) {
+            waitForOldestWrite();
+        }
+        final CompletableFuture<BufferInfo> zipped = CompletableFuture.supplyAsync(() -> {
+            zipBlock(bufferInfo);
+            return bufferInfo;
+        }, CommonThreadPools.zipThreadPool);
+        this.lastWrite = this.lastWrite.thenCombineAsync(zipped, (previous, bi) -> {
+            try {
+                writeZippedBlock(bi);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bi;
+        }, CommonThreadPools.zipThreadPool);
+        this.pendingWrites.add(this.lastWrite);
+    }
+
+    private void waitForOldestWrite() throws IOException {
+        try {
+            this.freeBuffers.add(this.pendingWrites.poll().join());
+        } catch (CompletionException e) {
+            this.pendingWrites.clear();
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GorSystemException(cause);
         }
     }
 
@@ -385,43 +517,46 @@ public class GorZipLexOutputStream extends OutputStream {
 
     private void writeCachedData() throws IOException {
         writeHeader();
-        Arrays.stream(this.cachedOutput, 0, this.cachedOutputIdx).parallel().forEach(bufferInfo -> {
-            int len = this.useZStd ? zipItZStd(bufferInfo, compressionLevel) : zipItZLib(bufferInfo, compressionLevel);
-            byte[] buffer = bufferInfo.block;
-            byte[] zipBuffer = bufferInfo.zipBuffer;
-            int siz = base64 ? base64Length(len, true) : base128Length(len);
-            if( buffer.length < siz ) {
-                int newLen = buffer.length;
-                while ((newLen <<= 1) < siz);
-                buffer = new byte[newLen];
-                bufferInfo.block = buffer;
-            }
-            if( base64 ) {
-                siz = Base64.getEncoder().encode(Arrays.copyOfRange(zipBuffer,0,len), buffer);
-            } else ByteArray.to7Bit(zipBuffer, len, buffer);
-            bufferInfo.blockLen = siz;
-        });
-
-        BufferInfo bufferInfo;
         for (int i = 0; i < this.cachedOutputIdx; ++i) {
-            bufferInfo = this.cachedOutput[i];
-            final byte[] keyInBytes = bufferInfo.keyInBytes;
-            this.target.write(keyInBytes);
-            this.target.write('\t');
-            this.target.write(this.byteToWrite);
-            this.target.write(bufferInfo.block, 0, bufferInfo.blockLen);
-            this.target.write('\n');
-
-            if (this.idx != null) {
-                this.start += 3 + keyInBytes.length + bufferInfo.blockLen;
-                String key = new String(keyInBytes);
-                String[] components = key.split("\t");
-                this.idx.putFilePosition(components[0], Integer.parseInt(components[1]), this.start);
-            }
+            queueBlock(this.cachedOutput[i]);
+            this.cachedOutput[i] = null;
         }
         this.cachedOutputIdx = 0;
     }
 
+    private void zipBlock(BufferInfo bufferInfo) {
+        int len = this.useZStd ? zipItZStd(bufferInfo, compressionLevel) : zipItZLib(bufferInfo, compressionLevel);
+        byte[] buffer = bufferInfo.block;
+        byte[] zipBuffer = bufferInfo.zipBuffer;
+        int siz = base64 ? base64Length(len, true) : base128Length(len);
+        if( buffer.length < siz ) {
+            int newLen = buffer.length;
+            while ((newLen <<= 1) < siz);
+            buffer = new byte[newLen];
+            bufferInfo.block = buffer;
+        }
+        if( base64 ) {
+            siz = Base64.getEncoder().encode(Arrays.copyOfRange(zipBuffer,0,len), buffer);
+        } else ByteArray.to7Bit(zipBuffer, len, buffer);
+        bufferInfo.blockLen = siz;
+    }
+
+    private void writeZippedBlock(BufferInfo bufferInfo) throws IOException {
+        final byte[] keyInBytes = bufferInfo.keyInBytes;
+        this.target.write(keyInBytes);
+        this.target.write('\t');
+        this.target.write(this.byteToWrite);
+        this.target.write(bufferInfo.block, 0, bufferInfo.blockLen);
+        this.target.write('\n');
+
+        if (this.idx != null) {
+            this.start += 3 + keyInBytes.length + bufferInfo.blockLen;
+            String key = new String(keyInBytes);
+            String[] components = key.split("\t");
+            this.idx.putFilePosition(components[0], Integer.parseInt(components[1]), this.start);
+        }
+    }
+
     private static byte[] zipItZLib(byte[] buffer, int compressionLevel) {
         final Deflater deflater = new Deflater(compressionLevel);
         deflater.setInput(buffer);
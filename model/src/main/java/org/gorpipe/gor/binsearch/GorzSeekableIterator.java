@@ -23,12 +23,15 @@
 package org.gorpipe.gor.binsearch;
 
 import com.github.luben.zstd.ZstdInputStream;
+import org.gorpipe.base.concurrency.CommonThreadPools;
 import org.gorpipe.exceptions.GorDataException;
 import org.gorpipe.exceptions.GorException;
 import org.gorpipe.exceptions.GorResourceException;
 import org.gorpipe.exceptions.GorSystemException;
 import org.gorpipe.gor.driver.adapters.StreamSourceSeekableFile;
 import org.gorpipe.gor.driver.providers.stream.datatypes.gor.GorHeader;
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
+import org.gorpipe.gor.model.ByteRowBase;
 import org.gorpipe.gor.model.GenomicIteratorBase;
 import org.gorpipe.gor.model.Row;
 import org.gorpipe.model.gor.RowObj;
@@ -40,18 +43,27 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.zip.DataFormatException;
 import java.util.zip.InflaterOutputStream;
 
 public class GorzSeekableIterator extends GenomicIteratorBase {
     private static final Logger log = LoggerFactory.getLogger(GorzSeekableIterator.class);
+    private static final int DEFAULT_PREFETCH_BLOCKS = Integer.parseInt(System.getProperty("gor.gorz.prefetch", "0"));
 
     private final SeekableIterator seekableIterator; //The iterator on the underlying file.
     private final String filePath;
-    private final GorHeader header;
+    private final StreamSource fileSource;
+    private GorHeader header;
     private int columnCount = -1;
     private final Unzipper unzipper;
     private byte[] buffer;
@@ -59,6 +71,11 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
     private final ByteArrayWrapper rawDataHolder = new ByteArrayWrapper();
     private boolean firstBlock = true;
     private boolean isClosed = false;
+    private String lastChr;
+    private GorzZoneMap.BlockSkipper blockSkipper = null; //Blocks that can not contain rows matching the pushed down filter.
+    private int[] projection = null; //The columns decoded from column compressed blocks, null for all columns.
+    private int prefetchBlocks = DEFAULT_PREFETCH_BLOCKS; //Number of blocks to read ahead, zero to read blocks when needed.
+    private BlockPrefetcher prefetcher = null;
 
     public GorzSeekableIterator(StreamSourceSeekableFile file) {
         this(file, null);
@@ -67,6 +84,7 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
     public GorzSeekableIterator(StreamSourceSeekableFile file, StreamSourceSeekableFile index) {
         try {
             this.filePath = file.getCanonicalPath();
+            this.fileSource = file.getDataSource();
             this.seekableIterator = new SeekableIterator(file, index,true);
         } catch (IOException e) {
             throw wrapIOException(e);
@@ -91,6 +109,83 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
         return String.join("\t", this.header.getColumns());
     }
 
+    @Override
+    public boolean pushdownFilter(String where) {
+        if (GorzZoneMap.ENABLED) {
+            useZoneMap(where);
+        }
+        // Only whole blocks are skipped, the filter must still be applied to the rows returned
+        return false;
+    }
+
+    /**
+     * Skip blocks that can not contain rows matching the filter, if the file has a zone map.
+     *
+     * @param where The WHERE filter
+     */
+    void useZoneMap(String where) {
+        ZoneMapFilter filter = ZoneMapFilter.parse(where, this.header.getColumns());
+        if (filter == null) {
+            return;
+        }
+        if (this.projection != null) {
+            filter = filter.project(this.projection);
+        }
+        try {
+            final StreamSource zoneMap = GorzZoneMap.find(this.fileSource);
+            if (zoneMap != null) {
+                this.blockSkipper = GorzZoneMap.load(zoneMap, this.fileSource, filter);
+                if (this.blockSkipper == null) {
+                    log.debug("Ignoring zone map of {}, it was written for another version of the file", this.filePath);
+                } else {
+                    log.debug("Zone map of {} skips {} of {} blocks for filter {}", this.filePath,
+                            this.blockSkipper.getSkipCount(), this.blockSkipper.getBlockCount(), where);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to use zone map of {}: {}", this.filePath, e.getMessage());
+        }
+    }
+
+    /**
+     * @param blocks Number of blocks to read and unzip ahead of the reader, zero to read blocks when needed
+     */
+    void setPrefetchBlocks(int blocks) {
+        this.prefetchBlocks = blocks;
+    }
+
+    GorzZoneMap.BlockSkipper getBlockSkipper() {
+        return this.blockSkipper;
+    }
+
+    /**
+     * Only the selected columns of column compressed files are decoded, other files are read as before.
+     */
+    @Override
+    public boolean pushdownSelect(String[] colList) {
+        if (!(this.unzipper instanceof ColumnCompressedUnzipper) || !this.firstBlock || this.prefetcher != null) {
+            return false;
+        }
+        final String[] columns = this.header.getColumns();
+        final int[] selected = new int[colList.length];
+        for (int i = 0; i < colList.length; i++) {
+            selected[i] = -1;
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j].equalsIgnoreCase(colList[i])) {
+                    if (selected[i] >= 0) return false; // Ambiguous column name
+                    selected[i] = j;
+                }
+            }
+            if (selected[i] < 0) return false;
+        }
+        if (selected.length < 2 || selected[0] != 0 || selected[1] != 1) {
+            return false;
+        }
+        this.header = new GorHeader(Arrays.stream(selected).mapToObj(i -> columns[i]).toArray(String[]::new));
+        this.projection = this.projection == null ? selected : Arrays.stream(selected).map(i -> this.projection[i]).toArray();
+        return true;
+    }
+
     @Override
     public boolean seek(String chr, int pos) {
         if (isClosed) {
@@ -101,6 +196,9 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
         if (this.bufferIterator.hasNext() && this.bufferIterator.getFirstKey().compareTo(key) < 0) {
             return true;
         } else {
+            if (this.prefetcher != null) {
+                this.prefetcher.reset();
+            }
             try {
                 return seekFile(key);
             } catch (IOException e) {
@@ -120,13 +218,15 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
     }
 
     private boolean seekFile(StringIntKey key) throws IOException, DataFormatException {
-        this.seekableIterator.seek(key);
-        if (this.seekableIterator.hasNext()) {
-            loadBufferIterator();
-            this.bufferIterator.seek(key);
-            return true;
-        } else {
-            return false;
+        synchronized (this.seekableIterator) {
+            this.seekableIterator.seek(key);
+            if (this.seekableIterator.hasNext()) {
+                loadBufferIterator();
+                this.bufferIterator.seek(key);
+                return true;
+            } else {
+                return false;
+            }
         }
     }
 
@@ -135,7 +235,19 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
         if (isClosed) {
             throw new GorSystemException("Iterator is closed", null);
         }
-        return this.bufferIterator.hasNext() || this.seekableIterator.hasNext();
+        if (this.prefetchBlocks > 0) {
+            while (!this.bufferIterator.hasNext()) {
+                if (!loadPrefetchedBlock()) return false;
+            }
+            return true;
+        }
+        if (this.blockSkipper == null) {
+            return this.bufferIterator.hasNext() || this.seekableIterator.hasNext();
+        }
+        while (!this.bufferIterator.hasNext() && this.seekableIterator.hasNext()) {
+            loadNextBlock();
+        }
+        return this.bufferIterator.hasNext();
     }
 
     @Override
@@ -144,13 +256,19 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
             throw new GorSystemException("Iterator is closed", null);
         }
         if (!this.bufferIterator.hasNext()) {
-            try {
-                loadBufferIterator();
-            } catch (IOException e) {
-                throw wrapIOException(e);
-            } catch (DataFormatException e) {
-                throw new GorResourceException("Corrupt gorz file: " + e.getMessage(), this.filePath, e);
+            if (this.blockSkipper == null && this.prefetchBlocks == 0) {
+                loadNextBlock();
+            } else if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+        }
+        if (ByteRowBase.ENABLED) {
+            final Row row = this.bufferIterator.getNextAsRow(columnCount, lastChr);
+            if (columnCount < 0) {
+                columnCount = row.numCols();
             }
+            lastChr = row.chr;
+            return row;
         }
         String rowString = this.bufferIterator.getNextAsString();
         return RowObj.apply(rowString, countColumns(rowString));
@@ -159,8 +277,13 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
     @Override
     public void close() {
         isClosed = true;
+        if (this.prefetcher != null) {
+            this.prefetcher.reset();
+        }
         try {
-            this.seekableIterator.close();
+            synchronized (this.seekableIterator) {
+                this.seekableIterator.close();
+            }
         } catch (IOException e) {
             log.warn(e.getMessage());
         }
@@ -173,23 +296,64 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
         return columnCount;
     }
 
+    private void loadNextBlock() {
+        try {
+            loadBufferIterator();
+        } catch (IOException e) {
+            throw wrapIOException(e);
+        } catch (DataFormatException e) {
+            throw new GorResourceException("Corrupt gorz file: " + e.getMessage(), this.filePath, e);
+        }
+    }
+
+    private boolean loadPrefetchedBlock() {
+        if (this.prefetcher == null) {
+            this.prefetcher = new BlockPrefetcher();
+        }
+        final Block block = this.prefetcher.next();
+        if (block == null) {
+            return false;
+        }
+        this.bufferIterator.update(block.data, 0, block.len, true, true);
+        return true;
+    }
+
     private void loadBufferIterator() throws IOException, DataFormatException {
         this.rawDataHolder.reset();
         this.seekableIterator.writeNextToStream(this.rawDataHolder);
         final byte[] in = this.rawDataHolder.getBuffer();
         final int len = this.rawDataHolder.size();
         final int blockIdx = getBeginningOfBlock(in);
+        checkBlock(in, blockIdx, len);
+        if (this.firstBlock) {
+            this.unzipper.setType(getCompressionType(in, blockIdx));
+            this.firstBlock = false;
+        }
 
-        if (len <= blockIdx || len == 0 || blockIdx == 0) {
-            throw new GorDataException(String.format("Zip block not found or is invalid in %s. Block starts with '%s'.",
-                    filePath, new String(Arrays.copyOfRange(in, 0, Math.min(len, 50)))));
+        if (this.blockSkipper != null && canSkipBlock(in)) {
+            this.bufferIterator.update(this.buffer, 0, 0, true, true);
+            return;
         }
 
-        final int unzippedLen = unzipBlock(in, blockIdx, len - blockIdx);
-        this.bufferIterator.update(this.buffer, 0, unzippedLen, true, true);
+        if (this.bufferIterator.isShared(this.buffer)) {
+            // Rows from the previous block are still viewing the buffer
+            this.buffer = new byte[this.buffer.length];
+        }
+        final Block block = unzipBlock(this.unzipper, in, blockIdx, len - blockIdx, this.buffer);
+        this.buffer = block.data;
+        this.bufferIterator.update(this.buffer, 0, block.len, true, true);
     }
 
 
+    private boolean canSkipBlock(byte[] in) {
+        int idx = 0;
+        while (in[idx] != '\t') idx++;
+        final String chr = new String(in, 0, idx, StandardCharsets.UTF_8);
+        int pos = 0;
+        while (in[++idx] != '\t') pos = 10 * pos + (in[idx] - '0');
+        return this.blockSkipper.canSkip(chr, pos);
+    }
+
     private int getBeginningOfBlock(byte[] in) {
         int idx = 0;
         while (idx < in.length && in[idx++] != '\t');
@@ -200,59 +364,225 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
             throw new GorDataException(msg);
         }
 
-        if (this.firstBlock) {
-            byte beginOfBlockByte = in[idx];
-            final CompressionType type = (beginOfBlockByte & 0x02) == 0 ? CompressionType.ZLIB : CompressionType.ZSTD;
-            this.unzipper.setType(type);
-            this.firstBlock = false;
-        }
-
         return idx + 1;
     }
 
-    private int unzipBlock(byte[] in, int blockIdx, int len) throws DataFormatException, IOException {
-        this.unzipper.setInput(in, blockIdx, len);
+    private static CompressionType getCompressionType(byte[] in, int blockIdx) {
+        final byte beginOfBlockByte = in[blockIdx - 1];
+        return (beginOfBlockByte & 0x02) == 0 ? CompressionType.ZLIB : CompressionType.ZSTD;
+    }
+
+    private void checkBlock(byte[] in, int blockIdx, int len) {
+        if (len <= blockIdx || len == 0 || blockIdx == 0) {
+            throw new GorDataException(String.format("Zip block not found or is invalid in %s. Block starts with '%s'.",
+                    filePath, new String(Arrays.copyOfRange(in, 0, Math.min(len, 50)))));
+        }
+    }
+
+    private static Block unzipBlock(Unzipper unzipper, byte[] in, int blockIdx, int len, byte[] buffer) throws DataFormatException, IOException {
+        unzipper.setInput(in, blockIdx, len);
         int totalRead = 0;
         do {
             int read;
-            while ((read = this.unzipper.decompress(this.buffer, totalRead, this.buffer.length - totalRead)) > 0) {
+            while ((read = unzipper.decompress(buffer, totalRead, buffer.length - totalRead)) > 0) {
                 totalRead += read;
             }
-            if (totalRead == this.buffer.length) {
-                this.buffer = Arrays.copyOf(this.buffer, 2 * this.buffer.length);
+            if (totalRead == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
             } else {
                 break;
             }
         } while (true);
-        return totalRead;
+        return new Block(buffer, totalRead);
+    }
+
+    private static final class Block {
+        final byte[] data;
+        final int len;
+
+        Block(byte[] data, int len) {
+            this.data = data;
+            this.len = len;
+        }
+    }
+
+    /**
+     * Reads and unzips the blocks following the current one on a shared pool, so that reading and unzipping
+     * overlaps with the processing of rows. Blocks are read in order, one at a time, and unzipped in parallel.
+     * A seek resets the prefetcher, blocks read before it are dropped.
+     */
+    private final class BlockPrefetcher {
+        private final ArrayDeque<CompletableFuture<Block>> blocks = new ArrayDeque<>();
+        private final ArrayBlockingQueue<Unzipper> unzippers = new ArrayBlockingQueue<>(prefetchBlocks);
+        private CompletableFuture<byte[]> lastRead;
+        private int generation = 0; //Guarded by the seekable iterator, changed on each reset to drop blocks being read.
+        private boolean endOfFile;
+
+        BlockPrefetcher() {
+            reset();
+        }
+
+        /**
+         * @return The next block, or null if there are no more blocks
+         */
+        Block next() {
+            if (this.endOfFile) {
+                return null;
+            }
+            fill();
+            final Block block = join(this.blocks.poll());
+            this.endOfFile = block == null;
+            return block;
+        }
+
+        void reset() {
+            for (CompletableFuture<Block> block : this.blocks) {
+                block.cancel(false);
+            }
+            this.blocks.clear();
+            synchronized (seekableIterator) {
+                this.generation++;
+            }
+            this.lastRead = CompletableFuture.completedFuture(new byte[0]);
+            this.endOfFile = false;
+        }
+
+        private void fill() {
+            final int gen = this.generation;
+            while (this.blocks.size() < prefetchBlocks) {
+                // Each read waits for the previous one so the blocks are read in order
+                final CompletableFuture<byte[]> read = this.lastRead.thenApplyAsync(prev -> prev == null ? null : read(gen),
+                        CommonThreadPools.blockThreadPool);
+                this.lastRead = read;
+                this.blocks.add(read.thenApplyAsync(this::unzip, CommonThreadPools.blockThreadPool));
+            }
+        }
+
+        private byte[] read(int gen) {
+            synchronized (seekableIterator) {
+                if (gen != this.generation || isClosed || !seekableIterator.hasNext()) {
+                    return null;
+                }
+                final ByteArrayWrapper holder = new ByteArrayWrapper();
+                try {
+                    seekableIterator.writeNextToStream(holder);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return Arrays.copyOf(holder.getBuffer(), holder.size());
+            }
+        }
+
+        private Block unzip(byte[] in) {
+            if (in == null) {
+                return null;
+            }
+            final int blockIdx = getBeginningOfBlock(in);
+            checkBlock(in, blockIdx, in.length);
+            if (blockSkipper != null && canSkipBlock(in)) {
+                return new Block(in, 0);
+            }
+            Unzipper blockUnzipper = this.unzippers.poll();
+            if (blockUnzipper == null) {
+                blockUnzipper = unzipper instanceof ColumnCompressedUnzipper ? new ColumnCompressedUnzipper((ColumnCompressedUnzipper) unzipper) : new Unzipper();
+            }
+            try {
+                final CompressionType type = getCompressionType(in, blockIdx);
+                if (blockUnzipper.type != type) {
+                    blockUnzipper.setType(type);
+                }
+                return unzipBlock(blockUnzipper, in, blockIdx, in.length - blockIdx, new byte[32 * 1024]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (DataFormatException e) {
+                throw new GorResourceException("Corrupt gorz file: " + e.getMessage(), filePath, e);
+            } finally {
+                this.unzippers.offer(blockUnzipper);
+            }
+        }
+
+        private Block join(CompletableFuture<Block> block) {
+            try {
+                return block.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw wrapIOException(((UncheckedIOException) cause).getCause());
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new GorSystemException(cause);
+            }
+        }
     }
 
     class ColumnCompressedUnzipper extends Unzipper {
         private final byte[] buffer;
-        private byte[] lookupBytesCompressed7Bit;
-        private final Map<Integer, Map<Integer, byte[]>> mapExtTable;
-        private boolean lookupTableParsed = false;
+        private final LookupTable lookupTable;
 
         ColumnCompressedUnzipper(byte[] lookupBytesCompressed7Bit) {
             super();
             this.buffer = new byte[32 * 1024];
-            this.mapExtTable = new HashMap<>();
+            this.lookupTable = new LookupTable(lookupBytesCompressed7Bit);
+        }
+
+        /**
+         * An unzipper sharing the lookup table of another one.
+         */
+        ColumnCompressedUnzipper(ColumnCompressedUnzipper other) {
+            super();
+            this.buffer = new byte[32 * 1024];
+            this.lookupTable = other.lookupTable;
+        }
+
+        @Override
+        public int decompress(byte[] out, int offset, int len) throws DataFormatException, IOException {
+            final Map<Integer, Map<Integer, byte[]>> mapExtTable = this.lookupTable.get(this.type);
+            if (this.done) {
+                return 0;
+            } else {
+                super.decompress(this.buffer, 0, this.buffer.length);
+                return BlockPacker.decode(this.buffer, 0, out, offset, mapExtTable, projection);
+            }
+        }
+    }
+
+    /**
+     * The external lookup table of a column compressed file, parsed on first use.
+     */
+    private class LookupTable {
+        private byte[] lookupBytesCompressed7Bit;
+        private Map<Integer, Map<Integer, byte[]>> mapExtTable = null;
+
+        LookupTable(byte[] lookupBytesCompressed7Bit) {
             this.lookupBytesCompressed7Bit = lookupBytesCompressed7Bit;
         }
 
-        private byte[] getLookupTable() {
+        synchronized Map<Integer, Map<Integer, byte[]>> get(CompressionType type) {
+            if (this.mapExtTable == null) {
+                final Map<Integer, Map<Integer, byte[]>> map = new HashMap<>();
+                BlockPacker.lookupMapFromBytes(map, getLookupTable(type));
+                this.mapExtTable = map;
+                this.lookupBytesCompressed7Bit = null;
+            }
+            return this.mapExtTable;
+        }
+
+        private byte[] getLookupTable(CompressionType type) {
             final byte[] lookupBytesCompressed = ByteArray.to8Bit(lookupBytesCompressed7Bit);
             final byte[] toReturn;
             try {
-                toReturn = inflate(lookupBytesCompressed);
+                toReturn = inflate(lookupBytesCompressed, type);
             } catch (IOException e) {
                 throw new GorDataException("Could not uncompress the lookup table in " + filePath, e);
             }
             return toReturn;
         }
 
-        private byte[] inflate(byte[] lookupBytesCompressed) throws IOException {
-            if (this.type == CompressionType.ZLIB) {
+        private byte[] inflate(byte[] lookupBytesCompressed, CompressionType type) throws IOException {
+            if (type == CompressionType.ZLIB) {
                 final ByteArrayOutputStream baos = new ByteArrayOutputStream();
                 try (final InflaterOutputStream infOS = new InflaterOutputStream(baos)) {
                     infOS.write(lookupBytesCompressed);
@@ -276,21 +606,5 @@ public class GorzSeekableIterator extends GenomicIteratorBase {
                 return toReturn;
             }
         }
-
-        @Override
-        public int decompress(byte[] out, int offset, int len) throws DataFormatException, IOException {
-            if (!this.lookupTableParsed) {
-                final byte[] lookupTable = getLookupTable();
-                BlockPacker.lookupMapFromBytes(this.mapExtTable, lookupTable);
-                this.lookupTableParsed = true;
-                this.lookupBytesCompressed7Bit = null;
-            }
-            if (this.done) {
-                return 0;
-            } else {
-                super.decompress(this.buffer, 0, this.buffer.length);
-                return BlockPacker.decode(this.buffer, 0, out, offset, this.mapExtTable);
-            }
-        }
     }
 }
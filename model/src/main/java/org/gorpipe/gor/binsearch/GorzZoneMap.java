@@ -0,0 +1,457 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.binsearch;
+
+import org.gorpipe.exceptions.GorDataException;
+import org.gorpipe.gor.driver.DataSource;
+import org.gorpipe.gor.driver.GorDriverFactory;
+import org.gorpipe.gor.driver.meta.SourceReference;
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per block column summaries (zone maps) of a gorz file, stored in a side file next to the gorz file and its
+ * index. Each block of the gorz file has a line with the key of the block, the chromosome and position of its
+ * last row, followed by a summary of each column after the position column.
+ * <p>
+ * A column summary always has the lexicographical min and max of the values in the block. Blocks where all
+ * values of a column are numbers also have the numeric min and max. Columns with few distinct values have
+ * the distinct values, other columns have a bloom filter of them. The summaries are used to skip blocks that
+ * can not contain rows matching a simple WHERE filter without decompressing them, see {@link ZoneMapFilter}.
+ * <p>
+ * Each write of the gorz file ends the zone map with the number of bytes written to the gorz file, appending
+ * to a gorz file appends to its zone map. A zone map is only used if the sum of these equals the length of the
+ * gorz file, otherwise it describes another version of the file.
+ */
+public class GorzZoneMap {
+    public static final String SUFFIX = ".zmap";
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("gor.gorz.zonemap", "false"));
+
+    private static final String VERSION = "GORZMv1";
+    private static final String GORZ_BYTES = "## gorz_bytes=";
+    private static final int MAX_DICTIONARY_SIZE = 16;
+    private static final int MAX_STRING_LENGTH = 64;
+    private static final int BLOOM_BITS_PER_VALUE = 8;
+    private static final int MAX_BLOOM_BITS = 8192;
+    private static final int BLOOM_HASHES = 3;
+    private static final int CACHE_SIZE = 16;
+
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+    private static final Map<String, BlockSkipper> skipperCache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BlockSkipper> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private GorzZoneMap() {}
+
+    /**
+     * @param gorzSource The gorz file
+     * @return The zone map of the gorz file, or null if it has none
+     */
+    public static StreamSource find(StreamSource gorzSource) throws IOException {
+        final String name = gorzSource.getSourceMetadata().getNamedUrl() + SUFFIX;
+        final DataSource source = GorDriverFactory.fromConfig()
+                .resolveDataSource(new SourceReference(name, gorzSource.getSourceReference()));
+        return source instanceof StreamSource && source.exists() ? (StreamSource) source : null;
+    }
+
+    /**
+     * Finds the blocks that can be skipped for the given filter. The result is cached, as queries split into
+     * partitions open the same file many times with the same filter.
+     *
+     * @param zoneMap    The zone map
+     * @param gorzSource The gorz file the zone map belongs to
+     * @param filter     The filter rows must match
+     * @return The blocks that can not contain rows matching the filter, or null if the zone map does not describe
+     * the current version of the gorz file
+     */
+    public static BlockSkipper load(StreamSource zoneMap, StreamSource gorzSource, ZoneMapFilter filter) throws IOException {
+        final Long gorzLength = gorzSource.getSourceMetadata().getLength();
+        final String key = gorzSource.getSourceMetadata().getUniqueId() + '\t'
+                + zoneMap.getSourceMetadata().getNamedUrl() + '\t'
+                + zoneMap.getSourceMetadata().getLastModified() + '\t' + filter;
+        BlockSkipper skipper;
+        synchronized (skipperCache) {
+            skipper = skipperCache.get(key);
+        }
+        if (skipper == null) {
+            try (InputStream in = zoneMap.open()) {
+                skipper = load(in, filter);
+            }
+            synchronized (skipperCache) {
+                skipperCache.put(key, skipper);
+            }
+        }
+        return gorzLength != null && skipper.getGorzBytes() == gorzLength ? skipper : null;
+    }
+
+    static BlockSkipper load(InputStream in, ZoneMapFilter filter) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        final BlockSkipper skipper = new BlockSkipper();
+        String line = reader.readLine();
+        if (line == null || !line.equals("## fileformat=" + VERSION)) {
+            throw new GorDataException("Invalid version of zone map file");
+        }
+
+        // Blocks can share a key if a position spans them, such a key can only be skipped if all its blocks can
+        String lastChr = null;
+        int lastPos = -1;
+        boolean lastSkippable = false;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(GORZ_BYTES)) {
+                skipper.gorzBytes += Long.parseLong(line.substring(GORZ_BYTES.length()));
+                continue;
+            }
+            if (line.isEmpty() || line.startsWith("##")) continue;
+            final String[] fields = line.split("\t", -1);
+            final String chr = fields[0];
+            final int pos = Integer.parseInt(fields[1]);
+            final boolean skippable = !filter.mayMatch(fields);
+            if (pos == lastPos && chr.equals(lastChr)) {
+                lastSkippable &= skippable;
+            } else {
+                if (lastChr != null) skipper.add(lastChr, lastPos, lastSkippable);
+                lastChr = chr;
+                lastPos = pos;
+                lastSkippable = skippable;
+            }
+        }
+        if (lastChr != null) skipper.add(lastChr, lastPos, lastSkippable);
+        skipper.freeze();
+        return skipper;
+    }
+
+    /**
+     * The blocks of a gorz file that can be skipped, identified by their keys.
+     */
+    public static class BlockSkipper {
+        private final Map<String, int[]> skipped = new HashMap<>();
+        private final Map<String, Integer> counts = new HashMap<>();
+        private int blockCount = 0;
+        private int skipCount = 0;
+        private long gorzBytes = 0;
+
+        private void add(String chr, int pos, boolean skippable) {
+            blockCount++;
+            if (!skippable) return;
+            skipCount++;
+            int[] positions = skipped.computeIfAbsent(chr, c -> new int[16]);
+            final int count = counts.getOrDefault(chr, 0);
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, 2 * count);
+                skipped.put(chr, positions);
+            }
+            positions[count] = pos;
+            counts.put(chr, count + 1);
+        }
+
+        private void freeze() {
+            counts.forEach((chr, count) -> skipped.put(chr, Arrays.copyOf(skipped.get(chr), count)));
+            counts.clear();
+        }
+
+        /**
+         * @param chr Chromosome of the last row of the block
+         * @param pos Position of the last row of the block
+         * @return Whether the block can not contain matching rows
+         */
+        public boolean canSkip(String chr, int pos) {
+            final int[] positions = skipped.get(chr);
+            return positions != null && Arrays.binarySearch(positions, pos) >= 0;
+        }
+
+        public int getBlockCount() {
+            return blockCount;
+        }
+
+        public int getSkipCount() {
+            return skipCount;
+        }
+
+        /**
+         * @return Length of the gorz file the zone map was written for
+         */
+        public long getGorzBytes() {
+            return gorzBytes;
+        }
+    }
+
+    /**
+     * Summary of the values of one column in a block.
+     */
+    static class ColumnSummary {
+        String min;
+        String max;
+        boolean numeric;
+        double numMin;
+        double numMax;
+        Set<String> dictionary;
+        long[] bloom;
+
+        static ColumnSummary parse(String text) {
+            final ColumnSummary summary = new ColumnSummary();
+            for (String part : text.split("\\|")) {
+                if (part.isEmpty()) continue;
+                final String value = part.substring(1);
+                switch (part.charAt(0)) {
+                    case 'S':
+                        final int comma = value.indexOf(',');
+                        summary.min = decode(value.substring(0, comma));
+                        summary.max = decode(value.substring(comma + 1));
+                        break;
+                    case 'N':
+                        final String[] minMax = value.split(",");
+                        summary.numeric = true;
+                        summary.numMin = Double.parseDouble(minMax[0]);
+                        summary.numMax = Double.parseDouble(minMax[1]);
+                        break;
+                    case 'D':
+                        summary.dictionary = new HashSet<>();
+                        for (String v : value.split(",", -1)) {
+                            summary.dictionary.add(decode(v));
+                        }
+                        break;
+                    case 'B':
+                        final byte[] bytes = decoder.decode(value);
+                        summary.bloom = new long[bytes.length / 8];
+                        for (int i = 0; i < summary.bloom.length; i++) {
+                            for (int b = 0; b < 8; b++) {
+                                summary.bloom[i] |= (bytes[i * 8 + b] & 0xffL) << (8 * b);
+                            }
+                        }
+                        break;
+                    default:
+                        // Parts added by later versions are ignored
+                }
+            }
+            return summary;
+        }
+
+        /**
+         * @return Whether a value in the block might be equal to the given value
+         */
+        boolean mightContain(String value) {
+            if (dictionary != null) {
+                return dictionary.contains(value);
+            }
+            if (value.compareTo(min) < 0 || value.compareTo(max) > 0) {
+                return false;
+            }
+            if (bloom != null) {
+                final int bits = bloom.length * 64;
+                for (int idx : bloomIndices(value, bits)) {
+                    if ((bloom[idx >>> 6] & (1L << idx)) == 0) return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the zone map of a gorz file as its blocks are written.
+     */
+    public static class Writer implements AutoCloseable {
+        private final BufferedWriter out;
+
+        public Writer(OutputStream outputStream) throws IOException {
+            this.out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            this.out.write("## fileformat=" + VERSION + "\n");
+        }
+
+        /**
+         * @param key    The key of the block, the chromosome and position of its last row separated by a tab
+         * @param buffer The uncompressed rows of the block
+         * @param len    Length of the rows in the buffer
+         */
+        public void addBlock(byte[] key, byte[] buffer, int len) throws IOException {
+            final List<ColumnStats> columns = new ArrayList<>();
+            int lineStart = 0;
+            while (lineStart < len) {
+                int col = 0;
+                int colStart = lineStart;
+                int idx = lineStart;
+                while (idx < len && buffer[idx] != '\n') {
+                    if (buffer[idx] == '\t') {
+                        addValue(columns, col, buffer, colStart, idx);
+                        col++;
+                        colStart = idx + 1;
+                    }
+                    idx++;
+                }
+                final int end = idx > lineStart && buffer[idx - 1] == '\r' ? idx - 1 : idx;
+                addValue(columns, col, buffer, colStart, end);
+                lineStart = idx + 1;
+            }
+
+            out.write(new String(key, StandardCharsets.UTF_8));
+            for (int col = 2; col < columns.size(); col++) {
+                out.write('\t');
+                out.write(columns.get(col).format());
+            }
+            out.write('\n');
+        }
+
+        /**
+         * Ends the zone map of this write of the gorz file. A zone map that is closed without this is never used.
+         *
+         * @param gorzBytes Number of bytes written to the gorz file
+         */
+        public void finish(long gorzBytes) throws IOException {
+            out.write(GORZ_BYTES + gorzBytes + "\n");
+        }
+
+        private static void addValue(List<ColumnStats> columns, int col, byte[] buffer, int start, int end) {
+            if (col < 2) return;
+            while (columns.size() <= col) columns.add(new ColumnStats());
+            columns.get(col).add(new String(buffer, start, end - start, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static class ColumnStats {
+        private final Set<String> values = new HashSet<>();
+        private String min;
+        private String max;
+        private boolean numeric = true;
+        private double numMin = Double.POSITIVE_INFINITY;
+        private double numMax = Double.NEGATIVE_INFINITY;
+
+        void add(String value) {
+            if (!values.add(value)) return;
+            if (min == null || value.compareTo(min) < 0) min = value;
+            if (max == null || value.compareTo(max) > 0) max = value;
+            if (numeric) {
+                if (isNumber(value)) {
+                    final double d = Double.parseDouble(value);
+                    numMin = Math.min(numMin, d);
+                    numMax = Math.max(numMax, d);
+                } else {
+                    numeric = false;
+                }
+            }
+        }
+
+        String format() {
+            final StringBuilder sb = new StringBuilder();
+            // A prefix is a lower bound of the min, a prefix followed by the largest char an upper bound of the max
+            sb.append('S').append(encode(min.length() > MAX_STRING_LENGTH ? min.substring(0, MAX_STRING_LENGTH) : min));
+            sb.append(',').append(encode(max.length() > MAX_STRING_LENGTH ? max.substring(0, MAX_STRING_LENGTH) + '\uffff' : max));
+            if (numeric) {
+                sb.append("|N").append(numMin).append(',').append(numMax);
+            }
+            if (values.size() <= MAX_DICTIONARY_SIZE && values.stream().allMatch(v -> v.length() <= MAX_STRING_LENGTH)) {
+                sb.append("|D");
+                boolean first = true;
+                for (String value : values) {
+                    if (!first) sb.append(',');
+                    sb.append(encode(value));
+                    first = false;
+                }
+            } else {
+                int bits = 64;
+                while (bits < values.size() * BLOOM_BITS_PER_VALUE && bits < MAX_BLOOM_BITS) bits <<= 1;
+                final byte[] bloom = new byte[bits / 8];
+                for (String value : values) {
+                    for (int idx : bloomIndices(value, bits)) {
+                        bloom[idx >>> 3] |= (byte) (1 << (idx & 7));
+                    }
+                }
+                sb.append("|B").append(encoder.encodeToString(bloom));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @return Whether the value is a plain decimal number, values such as NaN or hex numbers are not summarized
+     * as numbers as they might not be read as numbers by queries.
+     */
+    static boolean isNumber(String value) {
+        final int len = value.length();
+        int i = 0;
+        if (i < len && (value.charAt(i) == '-' || value.charAt(i) == '+')) i++;
+        int digits = 0;
+        while (i < len && Character.isDigit(value.charAt(i))) { i++; digits++; }
+        if (i < len && value.charAt(i) == '.') {
+            i++;
+            while (i < len && Character.isDigit(value.charAt(i))) { i++; digits++; }
+        }
+        if (digits == 0) return false;
+        if (i < len && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < len && (value.charAt(i) == '-' || value.charAt(i) == '+')) i++;
+            final int expStart = i;
+            while (i < len && Character.isDigit(value.charAt(i))) i++;
+            if (i == expStart) return false;
+        }
+        return i == len;
+    }
+
+    private static int[] bloomIndices(String value, int bits) {
+        // FNV-1a, split into two hashes for double hashing
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        final int[] indices = new int[BLOOM_HASHES];
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            indices[i] = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+        }
+        return indices;
+    }
+
+    private static String encode(String value) {
+        return encoder.encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String value) {
+        return new String(decoder.decode(value), StandardCharsets.UTF_8);
+    }
+}
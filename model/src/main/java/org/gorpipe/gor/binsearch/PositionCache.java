@@ -27,13 +27,30 @@ import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Caches known file positions of keys in sorted files, so seeks can narrow down the range to search.
+ * <p>
+ * The files are kept in striped access ordered maps, so threads seeking in different files rarely wait on each
+ * other. Lookups in the positions of a file do not lock. If gor.positioncache.file is set, the cache is loaded from
+ * that file on startup and saved to it on shutdown.
+ *
  * @author hjaltii
  */
 public class PositionCache {
@@ -41,65 +58,288 @@ public class PositionCache {
 
     static final int DEFAULT_MAX_NUMBER_OF_FILES_IN_CACHE = 100_000;
     static final int DEFAULT_MAX_NUMBER_OF_POS_PER_GB = 256;
+    static final int MAX_STRIPES = 16;
+    static final int MIN_FILES_PER_STRIPE = 1024;
 
     static int MAX_NUMBER_OF_FILES_IN_CACHE = DEFAULT_MAX_NUMBER_OF_FILES_IN_CACHE;
     static int MAX_NUMBER_OF_POS_PER_GB = DEFAULT_MAX_NUMBER_OF_POS_PER_GB;
     static final int GB = 1024 * 1024 * 1024;
 
-    private static final Map<String, PositionCache> GLOBAL_CACHE =
-            new LinkedHashMap<String, PositionCache>(16, 0.75f, true) {
-                protected boolean removeEldestEntry(Map.Entry<String, PositionCache> e) {
-                    return size() > getMaxNumberOfFilesInCache();
+    private static final int FILE_MAGIC = 0x47504331; // GPC1
+
+    private static volatile Stripe[] stripes = createStripes(DEFAULT_MAX_NUMBER_OF_FILES_IN_CACHE);
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    static {
+        final String cacheFile = System.getProperty("gor.positioncache.file");
+        if (cacheFile != null && !cacheFile.isEmpty()) {
+            final Path path = Paths.get(cacheFile);
+            if (Files.exists(path)) {
+                try {
+                    load(path);
+                } catch (IOException e) {
+                    log.warn("Unable to load position cache from {}", path, e);
+                }
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    save(path);
+                } catch (IOException e) {
+                    log.warn("Unable to save position cache to {}", path, e);
                 }
-            };
+            }, "PositionCacheSave"));
+        }
+    }
+
+    /**
+     * An access ordered map of a part of the files in the cache, guarded by its own monitor.
+     */
+    private static class Stripe extends LinkedHashMap<String, PositionCache> {
+        private final int maxSize;
 
-    static synchronized PositionCache getFilePositionCache(Object user, String filePath, String uniqueId, long fileOffset, long fileSize) {
-        final PositionCache candidate = GLOBAL_CACHE.get(filePath);
-        final PositionCache toReturn;
-        if (candidate == null || !candidate.uniqueId.equals(uniqueId)) {
+        Stripe(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PositionCache> e) {
+            return size() > maxSize;
+        }
+    }
+
+    private static Stripe[] createStripes(int maxFiles) {
+        final int n = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, maxFiles / MIN_FILES_PER_STRIPE)));
+        final Stripe[] newStripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            newStripes[i] = new Stripe((maxFiles + n - 1) / n);
+        }
+        return newStripes;
+    }
+
+    private static Stripe stripeOf(String filePath) {
+        return stripeOf(stripes, filePath);
+    }
+
+    private static Stripe stripeOf(Stripe[] current, String filePath) {
+        final int h = filePath.hashCode();
+        return current[(h ^ (h >>> 16)) & (current.length - 1)];
+    }
+
+    static PositionCache getFilePositionCache(Object user, String filePath, String uniqueId, long fileOffset, long fileSize) {
+        final Stripe stripe = stripeOf(filePath);
+        synchronized (stripe) {
+            final PositionCache candidate = stripe.get(filePath);
+            if (candidate != null && candidate.uniqueId.equals(uniqueId)) {
+                hits.increment();
+                return candidate;
+            }
+            misses.increment();
             final int maxNumberOfPos = getMaxNumberOfPos(fileOffset, fileSize);
-            toReturn = new PositionCache(uniqueId, fileOffset, fileSize, maxNumberOfPos);
+            final PositionCache toReturn = new PositionCache(uniqueId, fileOffset, fileSize, maxNumberOfPos);
             if (uniqueId == null || uniqueId.equals("")) {
-                GLOBAL_CACHE.remove(filePath);
+                stripe.remove(filePath);
             } else {
-                GLOBAL_CACHE.put(filePath, toReturn);
+                stripe.put(filePath, toReturn);
             }
-        } else {
-            toReturn = candidate;
+            return toReturn;
         }
-        return toReturn;
     }
 
     public static void clearGlobalCache() {
-        GLOBAL_CACHE.clear();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
     }
 
-    static void setMaxNumberOfFilesInCache(int n) {
+    /**
+     * Changes the maximum number of files in the cache. If there are more files, the least recently used files of each
+     * stripe are dropped first.
+     */
+    static synchronized void setMaxNumberOfFilesInCache(int n) {
         MAX_NUMBER_OF_FILES_IN_CACHE = n;
+        final Stripe[] old = stripes;
+        final Stripe[] resized = createStripes(n);
+        final List<List<Map.Entry<String, PositionCache>>> byStripe = new ArrayList<>(old.length);
+        for (Stripe stripe : old) {
+            synchronized (stripe) {
+                byStripe.add(new ArrayList<>(stripe.entrySet()));
+            }
+        }
+        // Least recently used first, taking from the stripes in turn, so those are the ones trimmed from the new stripes
+        boolean moved = true;
+        for (int i = 0; moved; i++) {
+            moved = false;
+            for (List<Map.Entry<String, PositionCache>> entries : byStripe) {
+                if (i < entries.size()) {
+                    final Map.Entry<String, PositionCache> e = entries.get(i);
+                    stripeOf(resized, e.getKey()).put(e.getKey(), e.getValue());
+                    moved = true;
+                }
+            }
+        }
+        stripes = resized;
     }
 
     static int getMaxNumberOfFilesInCache() {
         return MAX_NUMBER_OF_FILES_IN_CACHE;
     }
 
-    public static synchronized int getNumFilesInCache() {
-        return GLOBAL_CACHE.size();
+    public static int getNumFilesInCache() {
+        int n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.size();
+            }
+        }
+        return n;
     }
 
-    public static synchronized int getTotalNumKeysInCache() {
+    public static int getTotalNumKeysInCache() {
         int n = 0;
-        for (PositionCache pc: GLOBAL_CACHE.values()) {
+        for (PositionCache pc : getCaches().values()) {
             n += pc.getSize();
         }
         return n;
     }
 
+    /**
+     * @return Number of times a file was found in the cache
+     */
+    public static long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of times a file was not found in the cache, or had changed
+     */
+    public static long getMissCount() {
+        return misses.sum();
+    }
+
+    private static Map<String, PositionCache> getCaches() {
+        final Map<String, PositionCache> caches = new LinkedHashMap<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                caches.putAll(stripe);
+            }
+        }
+        return caches;
+    }
+
+    /**
+     * Writes the positions of all files in the cache to a file, so they can be loaded by a restarted process.
+     */
+    public static void save(Path path) throws IOException {
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            int skipped = 0;
+            for (Map.Entry<String, PositionCache> e : getCaches().entrySet()) {
+                final PositionCache pc = e.getValue();
+                final PositionCacheEntry[] entries = pc.snapshot();
+                if (Arrays.stream(entries).anyMatch(entry -> entry.key.comparator != StringIntKey.cmpLexico)) {
+                    // Keys are loaded in lexicographic order
+                    skipped++;
+                    continue;
+                }
+                out.writeBoolean(true);
+                out.writeUTF(e.getKey());
+                out.writeUTF(pc.uniqueId);
+                out.writeLong(pc.fileOffset);
+                out.writeLong(pc.fileSize);
+                out.writeInt(entries.length);
+                for (PositionCacheEntry entry : entries) {
+                    out.writeUTF(entry.key.chr);
+                    out.writeInt(entry.key.bpair);
+                    out.writeLong(entry.filePosition);
+                }
+            }
+            out.writeBoolean(false);
+            if (skipped > 0) {
+                log.info("Positions of {} files with keys not in lexicographic order were not saved to {}", skipped, path);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Adds the positions in a file written by {@link #save(Path)} to the cache. Files are validated by their unique id
+     * when they are looked up, so positions of files that have changed are not used.
+     */
+    public static void load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a position cache file: " + path);
+            }
+            while (in.readBoolean()) {
+                final String filePath = in.readUTF();
+                final String uniqueId = in.readUTF();
+                final long fileOffset = in.readLong();
+                final long fileSize = in.readLong();
+                final int n = in.readInt();
+                final PositionCache pc = new PositionCache(uniqueId, fileOffset, fileSize, getMaxNumberOfPos(fileOffset, fileSize));
+                for (int i = 0; i < n; i++) {
+                    final String chr = in.readUTF();
+                    final int pos = in.readInt();
+                    pc.addEntry(new PositionCacheEntry(new StringIntKey(chr, pos), in.readLong()));
+                }
+                final Stripe stripe = stripeOf(filePath);
+                synchronized (stripe) {
+                    stripe.putIfAbsent(filePath, pc);
+                }
+            }
+        }
+    }
+
     static void setMaxNumberOfPosPerGb(int n) {
         MAX_NUMBER_OF_POS_PER_GB = n;
     }
 
-    private PositionCacheEntry[] entries = new PositionCacheEntry[16];
-    private int numEntries;
+    // Entries are added to a small sorted part of recent entries, which is merged into the main part when it is full,
+    // so adding an entry does not copy all the entries. Both parts are replaced, never changed, so lookups do not lock.
+    private static final int MAX_RECENT_ENTRIES = 32;
+    private static final PositionCacheEntry[] NO_ENTRIES = new PositionCacheEntry[0];
+
+    private static final class Entries {
+        final PositionCacheEntry[] main;
+        final PositionCacheEntry[] recent;
+
+        Entries(PositionCacheEntry[] main, PositionCacheEntry[] recent) {
+            this.main = main;
+            this.recent = recent;
+        }
+
+        int size() {
+            return main.length + recent.length;
+        }
+
+        boolean contains(PositionCacheEntry entry) {
+            return Arrays.binarySearch(main, entry) >= 0 || Arrays.binarySearch(recent, entry) >= 0;
+        }
+
+        PositionCacheEntry[] all() {
+            if (recent.length == 0) {
+                return main;
+            }
+            final PositionCacheEntry[] merged = new PositionCacheEntry[main.length + recent.length];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < main.length && j < recent.length) {
+                merged[k++] = main[i].compareTo(recent[j]) <= 0 ? main[i++] : recent[j++];
+            }
+            while (i < main.length) merged[k++] = main[i++];
+            while (j < recent.length) merged[k++] = recent[j++];
+            return merged;
+        }
+    }
+
+    // Written while holding the monitor of the cache
+    private volatile Entries entries = new Entries(NO_ENTRIES, NO_ENTRIES);
 
     private final long fileOffset;
     private final long fileSize;
@@ -119,70 +359,99 @@ public class PositionCache {
         this.isIndexLoaded = false;
     }
 
-    synchronized Position getLowerBound(StringIntKey key) {
-        PositionCacheEntry entry = new PositionCacheEntry(key, 0);
-        int index = Arrays.binarySearch(entries, 0, numEntries, entry);
-
-        if (index < 0) {
-            index = -index - 1;
-        }
-        if (index > 0) {
-            PositionCacheEntry candidate = entries[index - 1];
+    Position getLowerBound(StringIntKey key) {
+        final Entries current = entries;
+        final PositionCacheEntry entry = new PositionCacheEntry(key, 0);
+        final PositionCacheEntry inMain = below(current.main, entry);
+        final PositionCacheEntry inRecent = below(current.recent, entry);
+        final PositionCacheEntry candidate = inMain == null || (inRecent != null && inRecent.compareTo(inMain) > 0) ? inRecent : inMain;
+        if (candidate != null) {
             return new Position(candidate.key, candidate.filePosition);
         } else {
             return new Position(null, this.fileOffset);
         }
     }
 
-    synchronized Position getUpperBound(StringIntKey key) {
-        PositionCacheEntry entry = new PositionCacheEntry(key, 0);
-        int index = Arrays.binarySearch(entries, 0, numEntries, entry);
-
-        if (index < 0) {
-            index = -index - 1;
-        }
-        if (index < numEntries) {
-            PositionCacheEntry candidate = entries[index];
+    Position getUpperBound(StringIntKey key) {
+        final Entries current = entries;
+        final PositionCacheEntry entry = new PositionCacheEntry(key, 0);
+        final PositionCacheEntry inMain = atOrAbove(current.main, entry);
+        final PositionCacheEntry inRecent = atOrAbove(current.recent, entry);
+        final PositionCacheEntry candidate = inMain == null || (inRecent != null && inRecent.compareTo(inMain) < 0) ? inRecent : inMain;
+        if (candidate != null) {
             return new Position(candidate.key, candidate.filePosition);
         } else {
             return new Position(null, this.fileSize);
         }
     }
 
-    synchronized void putFilePosition(StringIntKey keyToPut, long posToPut) {
-        if (numEntries == entries.length) {
-            int newLength =  entries.length*2;
-            if (newLength > maxNumberOfPos) {
-                newLength = maxNumberOfPos + 1;
-            }
-            entries = Arrays.copyOf(entries, newLength);
+    /**
+     * @return The last entry before the key of entry, or null if there is none
+     */
+    private static PositionCacheEntry below(PositionCacheEntry[] sorted, PositionCacheEntry entry) {
+        int index = Arrays.binarySearch(sorted, entry);
+        if (index < 0) {
+            index = -index - 1;
         }
+        return index > 0 ? sorted[index - 1] : null;
+    }
 
-        PositionCacheEntry entry = new PositionCacheEntry(keyToPut, posToPut);
-        int index = Arrays.binarySearch(entries, 0, numEntries, entry);
+    /**
+     * @return The first entry with the key of entry or after it, or null if there is none
+     */
+    private static PositionCacheEntry atOrAbove(PositionCacheEntry[] sorted, PositionCacheEntry entry) {
+        int index = Arrays.binarySearch(sorted, entry);
         if (index < 0) {
-            int insertionPoint = -index - 1;
-            int entriesToShift = numEntries - insertionPoint;
-            if (entriesToShift > 0) {
-                System.arraycopy(entries, insertionPoint, entries, insertionPoint + 1, entriesToShift);
-            }
-            entries[insertionPoint] = entry;
-            numEntries++;
+            index = -index - 1;
         }
+        return index < sorted.length ? sorted[index] : null;
+    }
+
+    private PositionCacheEntry[] snapshot() {
+        return entries.all();
+    }
+
+    void putFilePosition(StringIntKey keyToPut, long posToPut) {
+        final PositionCacheEntry entry = new PositionCacheEntry(keyToPut, posToPut);
+        if (entries.contains(entry)) {
+            // Known key, the common case when seeking in a file that has been read before
+            return;
+        }
+        addEntry(entry);
+    }
 
-        if (numEntries > maxNumberOfPos) {
+    private synchronized void addEntry(PositionCacheEntry entry) {
+        final Entries current = entries;
+        final int index = Arrays.binarySearch(current.recent, entry);
+        if (index >= 0 || Arrays.binarySearch(current.main, entry) >= 0) {
+            return;
+        }
+
+        final int insertionPoint = -index - 1;
+        final PositionCacheEntry[] recent = new PositionCacheEntry[current.recent.length + 1];
+        System.arraycopy(current.recent, 0, recent, 0, insertionPoint);
+        recent[insertionPoint] = entry;
+        System.arraycopy(current.recent, insertionPoint, recent, insertionPoint + 1, current.recent.length - insertionPoint);
+        Entries updated = new Entries(current.main, recent);
+        if (recent.length > MAX_RECENT_ENTRIES) {
+            updated = new Entries(updated.all(), NO_ENTRIES);
+        }
+        entries = updated;
+
+        if (updated.size() > maxNumberOfPos) {
             removeLeastUsefulKey();
         }
     }
 
     synchronized void removeLeastUsefulKey() {
+        final PositionCacheEntry[] all = entries.all();
         int indexOfSmallest = -1;
         long smallestValue = Long.MAX_VALUE;
 
-        for (int i = 1; i < numEntries - 1; i++) {
-            PositionCacheEntry left = entries[i-1];
-            PositionCacheEntry me = entries[i];
-            PositionCacheEntry right = entries[i+1];
+        for (int i = 1; i < all.length - 1; i++) {
+            PositionCacheEntry left = all[i-1];
+            PositionCacheEntry me = all[i];
+            PositionCacheEntry right = all[i+1];
 
             if (left.chromHash != me.chromHash) {
                 // First position in chromosome - key is useful
@@ -202,28 +471,33 @@ public class PositionCache {
         }
 
         if (indexOfSmallest >= 0) {
-            System.arraycopy(entries, indexOfSmallest + 1, entries, indexOfSmallest, numEntries - indexOfSmallest - 1);
-            numEntries--;
-            entries[numEntries] = null;
+            final PositionCacheEntry[] remaining = new PositionCacheEntry[all.length - 1];
+            System.arraycopy(all, 0, remaining, 0, indexOfSmallest);
+            System.arraycopy(all, indexOfSmallest + 1, remaining, indexOfSmallest, all.length - indexOfSmallest - 1);
+            entries = new Entries(remaining, NO_ENTRIES);
+        } else {
+            entries = new Entries(all, NO_ENTRIES);
         }
     }
 
-    synchronized int getSize() {
-        return numEntries;
+    int getSize() {
+        return entries.size();
     }
 
-    synchronized StringIntKey[] getKeysInCache() {
-        StringIntKey[] keys = new StringIntKey[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            keys[i] = entries[i].key;
+    StringIntKey[] getKeysInCache() {
+        final PositionCacheEntry[] all = entries.all();
+        StringIntKey[] keys = new StringIntKey[all.length];
+        for (int i = 0; i < all.length; i++) {
+            keys[i] = all[i].key;
         }
         return keys;
     }
 
-    synchronized long[] getFilePositionsInCache() {
-        long[] positions = new long[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            positions[i] = entries[i].filePosition;
+    long[] getFilePositionsInCache() {
+        final PositionCacheEntry[] all = entries.all();
+        long[] positions = new long[all.length];
+        for (int i = 0; i < all.length; i++) {
+            positions[i] = all[i].filePosition;
         }
         return positions;
     }
@@ -23,6 +23,7 @@
 package org.gorpipe.gor.binsearch;
 
 import org.gorpipe.gor.driver.adapters.StreamSourceSeekableFile;
+import org.gorpipe.gor.model.Row;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -152,6 +153,19 @@ public class SeekableIterator implements AutoCloseable {
         return this.bufferIterator.getNextAsString();
     }
 
+    /**
+     * @param numColumns The number of columns in the line, or a negative value if it should be counted.
+     * @param prevChr The chromosome of the previous row, reused by the row if it matches.
+     * @return The next line of the file as a row viewing the read buffer.
+     * @throws IOException If we encounter a problem reading the file.
+     */
+    public Row getNextAsRow(int numColumns, String prevChr) throws IOException {
+        if (!this.bufferIterator.hasNext()) {
+            slideBuffer();
+        }
+        return this.bufferIterator.getNextAsRow(numColumns, prevChr);
+    }
+
     public void writeNextToStream(OutputStream os) throws IOException {
         if (!this.bufferIterator.hasNext()) {
             slideBuffer();
@@ -192,7 +206,13 @@ public class SeekableIterator implements AutoCloseable {
         final int bufferUpperBound = this.bufferIterator.getUpperBound();
         this.bufferPosInFile += bufferUpperBound;
         this.numberOfBytesInBuffer -= bufferUpperBound;
-        if (this.numberOfBytesInBuffer > 0) {
+        if (this.bufferIterator.isShared(this.buffer)) {
+            final byte[] oldBuffer = this.buffer;
+            this.buffer = new byte[oldBuffer.length];
+            if (this.numberOfBytesInBuffer > 0) {
+                System.arraycopy(oldBuffer, bufferUpperBound, this.buffer, 0, this.numberOfBytesInBuffer);
+            }
+        } else if (this.numberOfBytesInBuffer > 0) {
             System.arraycopy(this.buffer, bufferUpperBound, this.buffer, 0, this.numberOfBytesInBuffer);
         }
         if (this.file.getFilePointer() != this.bufferEndInFile) {
@@ -308,6 +328,9 @@ public class SeekableIterator implements AutoCloseable {
     }
 
     private int readToBufferFromPos(long posToSeekTo) throws IOException {
+        if (this.bufferIterator.isShared(this.buffer)) {
+            this.buffer = new byte[this.buffer.length];
+        }
         this.file.seek(posToSeekTo);
         return readFully(this.buffer, 0, this.buffer.length);
     }
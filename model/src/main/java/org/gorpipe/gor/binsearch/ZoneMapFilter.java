@@ -0,0 +1,344 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.binsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A WHERE filter evaluated against the column summaries of a gorz zone map, see {@link GorzZoneMap}.
+ * <p>
+ * Only conjunctions of comparisons between a column and a constant are supported, such as
+ * {@code Gene = 'BRCA2' and AF < 0.01 and Type in ('snp','del')}. The evaluation is conservative, a block is
+ * only reported as not matching when no value in it can satisfy a comparison, no matter how the value is typed
+ * by the query. The filter itself must still be applied to the rows of the blocks that are read.
+ */
+public class ZoneMapFilter {
+    private final List<Term> terms;
+
+    private ZoneMapFilter(List<Term> terms) {
+        this.terms = terms;
+    }
+
+    /**
+     * @param where   The WHERE expression
+     * @param columns The columns of the file
+     * @return The filter, or null if the expression can not be evaluated against zone maps
+     */
+    public static ZoneMapFilter parse(String where, String[] columns) {
+        try {
+            final Parser parser = new Parser(tokenize(where), columns);
+            final List<Term> terms = new ArrayList<>();
+            parser.parseConjunction(terms);
+            if (parser.pos != parser.tokens.size()) {
+                return null;
+            }
+            // Chromosome and position are not summarized, the seek logic handles ranges on them
+            terms.removeIf(t -> t.column < 2);
+            return terms.isEmpty() ? null : new ZoneMapFilter(terms);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param columns The column in the file of each column the filter was parsed with
+     * @return The filter on the columns of the file
+     */
+    ZoneMapFilter project(int[] columns) {
+        final List<Term> projected = new ArrayList<>();
+        for (Term term : terms) {
+            projected.add(new Term(columns[term.column], term.op, term.values));
+        }
+        return new ZoneMapFilter(projected);
+    }
+
+    /**
+     * @param fields The fields of a zone map line, field i is the summary of column i
+     * @return Whether rows in the block might match the filter
+     */
+    boolean mayMatch(String[] fields) {
+        for (Term term : terms) {
+            if (term.column >= fields.length || fields[term.column].isEmpty()) continue;
+            if (!term.mayMatch(GorzZoneMap.ColumnSummary.parse(fields[term.column]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return terms.stream().map(Term::toString).collect(Collectors.joining(" and "));
+    }
+
+    private static class Term {
+        final int column;
+        final String op;
+        final String[] values;
+
+        Term(int column, String op, String[] values) {
+            this.column = column;
+            this.op = op;
+            this.values = values;
+        }
+
+        boolean mayMatch(GorzZoneMap.ColumnSummary summary) {
+            if (op.equals("in")) {
+                for (String value : values) {
+                    if (mayEqual(summary, value)) return true;
+                }
+                return false;
+            }
+            final String value = values[0];
+            switch (op) {
+                case "=":
+                    return mayEqual(summary, value);
+                case "!=":
+                    return summary.dictionary == null || summary.dictionary.size() != 1
+                            || !summary.dictionary.contains(value);
+                default:
+                    // A number might be compared as a string or as a number depending on the type of the column
+                    final boolean mayMatchString = mayCompare(summary.min, summary.max, value);
+                    if (mayMatchString || !GorzZoneMap.isNumber(value)) return mayMatchString;
+                    return !summary.numeric || mayCompare(summary.numMin, summary.numMax, Double.parseDouble(value));
+            }
+        }
+
+        private boolean mayEqual(GorzZoneMap.ColumnSummary summary, String value) {
+            if (GorzZoneMap.isNumber(value) && summary.numeric) {
+                // Values equal as strings are also equal as numbers
+                final double d = Double.parseDouble(value);
+                return d >= summary.numMin && d <= summary.numMax;
+            }
+            if (GorzZoneMap.isNumber(value)) {
+                // Non numeric values in the block, numbers in it might still be equal to the value as numbers
+                return true;
+            }
+            return summary.mightContain(value);
+        }
+
+        private boolean mayCompare(String min, String max, String value) {
+            switch (op) {
+                case "<": return min.compareTo(value) < 0;
+                case "<=": return min.compareTo(value) <= 0;
+                case ">": return max.compareTo(value) > 0;
+                case ">=": return max.compareTo(value) >= 0;
+                default: return true;
+            }
+        }
+
+        private boolean mayCompare(double min, double max, double value) {
+            switch (op) {
+                case "<": return min < value;
+                case "<=": return min <= value;
+                case ">": return max > value;
+                case ">=": return max >= value;
+                default: return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "#" + (column + 1) + " " + op + " " + Arrays.toString(values);
+        }
+    }
+
+    private static class Token {
+        final String text;
+        final boolean quoted;
+
+        Token(String text, boolean quoted) {
+            this.text = text;
+            this.quoted = quoted;
+        }
+
+        boolean is(String s) {
+            return !quoted && text.equalsIgnoreCase(s);
+        }
+    }
+
+    private static List<Token> tokenize(String where) {
+        final List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < where.length()) {
+            final char c = where.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                final int end = where.indexOf(c, i + 1);
+                if (end < 0) throw new IllegalArgumentException("Unterminated string");
+                tokens.add(new Token(where.substring(i + 1, end), true));
+                i = end + 1;
+            } else if (c == '(' || c == ')' || c == ',') {
+                tokens.add(new Token(String.valueOf(c), false));
+                i++;
+            } else if (c == '=' || c == '!' || c == '<' || c == '>') {
+                final String two = i + 1 < where.length() ? where.substring(i, i + 2) : "";
+                if (two.equals("==") || two.equals("!=") || two.equals("<>") || two.equals("<=") || two.equals(">=")) {
+                    tokens.add(new Token(two, false));
+                    i += 2;
+                } else if (c != '!') {
+                    tokens.add(new Token(String.valueOf(c), false));
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("Unsupported operator");
+                }
+            } else {
+                int end = i;
+                while (end < where.length() && !Character.isWhitespace(where.charAt(end))
+                        && "'\"(),=!<>".indexOf(where.charAt(end)) < 0) {
+                    end++;
+                }
+                tokens.add(new Token(where.substring(i, end), false));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+
+    private static class Parser {
+        final List<Token> tokens;
+        final String[] columns;
+        int pos = 0;
+
+        Parser(List<Token> tokens, String[] columns) {
+            this.tokens = tokens;
+            this.columns = columns;
+        }
+
+        void parseConjunction(List<Term> terms) {
+            parseTerm(terms);
+            while (pos < tokens.size() && tokens.get(pos).is("and")) {
+                pos++;
+                parseTerm(terms);
+            }
+        }
+
+        void parseTerm(List<Term> terms) {
+            if (peek().is("(")) {
+                pos++;
+                parseConjunction(terms);
+                expect(")");
+                return;
+            }
+            final Token left = next();
+            if (peek().is("in")) {
+                pos++;
+                final int column = column(left);
+                expect("(");
+                final List<String> values = new ArrayList<>();
+                values.add(literal(next()));
+                while (peek().is(",")) {
+                    pos++;
+                    values.add(literal(next()));
+                }
+                expect(")");
+                terms.add(new Term(column, "in", values.toArray(new String[0])));
+                return;
+            }
+            final String op = operator(next());
+            final Token right = next();
+            final int leftColumn = findColumn(left);
+            if (leftColumn >= 0) {
+                terms.add(new Term(leftColumn, op, new String[] {literal(right)}));
+            } else {
+                terms.add(new Term(column(right), swap(op), new String[] {literal(left)}));
+            }
+        }
+
+        private Token peek() {
+            return pos < tokens.size() ? tokens.get(pos) : new Token("", true);
+        }
+
+        private Token next() {
+            if (pos >= tokens.size()) throw new IllegalArgumentException("Unexpected end of filter");
+            return tokens.get(pos++);
+        }
+
+        private void expect(String s) {
+            if (!next().is(s)) throw new IllegalArgumentException("Expected " + s);
+        }
+
+        private int column(Token token) {
+            final int column = findColumn(token);
+            if (column < 0) throw new IllegalArgumentException("Unknown column " + token.text);
+            return column;
+        }
+
+        private int findColumn(Token token) {
+            if (token.quoted) return -1;
+            if (token.text.startsWith("#")) {
+                try {
+                    final int column = Integer.parseInt(token.text.substring(1)) - 1;
+                    if (column >= 0 && column < columns.length) return column;
+                } catch (NumberFormatException e) {
+                    // Not a column reference
+                }
+                throw new IllegalArgumentException("Unknown column " + token.text);
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(token.text)) return i;
+            }
+            return -1;
+        }
+
+        private String literal(Token token) {
+            if (token.quoted || GorzZoneMap.isNumber(token.text)) {
+                return token.text;
+            }
+            throw new IllegalArgumentException("Not a constant " + token.text);
+        }
+
+        private static String operator(Token token) {
+            if (token.quoted) throw new IllegalArgumentException("Expected operator");
+            switch (token.text) {
+                case "=":
+                case "==":
+                    return "=";
+                case "!=":
+                case "<>":
+                    return "!=";
+                case "<":
+                case "<=":
+                case ">":
+                case ">=":
+                    return token.text;
+                default:
+                    throw new IllegalArgumentException("Unsupported operator " + token.text);
+            }
+        }
+
+        private static String swap(String op) {
+            switch (op) {
+                case "<": return ">";
+                case "<=": return ">=";
+                case ">": return "<";
+                case ">=": return "<=";
+                default: return op;
+            }
+        }
+    }
+}
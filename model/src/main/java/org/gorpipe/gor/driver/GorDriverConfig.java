@@ -143,6 +143,23 @@ public interface GorDriverConfig extends Config {
     @ConverterClass(ByteSizeConverter.class)
     ByteSize extendedRangeStreamingSeekThreshold();
 
+    @Documentation("Whether to read sequential parts of remote sources with concurrent range requests, for sources that support it.")
+    @Key("org.gorpipe.gor.driver.parallel_range_streaming.remote")
+    @DefaultValue("disabled")
+    @ConverterClass(EnhancedBooleanConverter.class)
+    boolean remoteParallelRangeStreamingEnabled();
+
+    @Documentation("The maximum size of each range request when reading with concurrent range requests.")
+    @Key("org.gorpipe.gor.driver.parallel_range_streaming.chunk_size")
+    @DefaultValue("8 mb")
+    @ConverterClass(ByteSizeConverter.class)
+    ByteSize parallelRangeStreamingChunkSize();
+
+    @Documentation("The maximum number of concurrent range requests of a stream.")
+    @Key("org.gorpipe.gor.driver.parallel_range_streaming.max_in_flight")
+    @DefaultValue("4")
+    int parallelRangeStreamingMaxInFlight();
+
     @Documentation("The maximum size of an index file to cache.")
     @Key("org.gorpipe.gor.driver.index_cache.file_byte_limit")
     @DefaultValue("10 mb")
@@ -171,6 +188,29 @@ public interface GorDriverConfig extends Config {
     @ConverterClass(ByteSizeConverter.class)
     ByteSize maxSize();
 
+    @Documentation("Whether to cache the blocks of remote sources that are read in the local block cache.")
+    @Key("org.gorpipe.gor.driver.block_cache.remote")
+    @DefaultValue("disabled")
+    @ConverterClass(EnhancedBooleanConverter.class)
+    boolean remoteBlockCacheEnabled();
+
+    @Documentation("Base directory for the local block cache.")
+    @Key("org.gorpipe.gor.driver.block_cache.dir")
+    @DefaultValue("${java.io.tmpdir}/local_gordriver_blockcache")
+    String blockCacheDir();
+
+    @Documentation("Size of the blocks in the local block cache.")
+    @Key("org.gorpipe.gor.driver.block_cache.block_size")
+    @DefaultValue("2 mb")
+    @ConverterClass(ByteSizeConverter.class)
+    ByteSize blockCacheBlockSize();
+
+    @Documentation("Maximum total size of the local block cache directory.")
+    @Key("org.gorpipe.gor.driver.block_cache.max_size")
+    @DefaultValue("20 GiB")
+    @ConverterClass(ByteSizeConverter.class)
+    ByteSize blockCacheMaxSize();
+
     @Documentation("Whether to enable link folders.")
     @Key("GOR_DRIVER_LINK_FOLDERS")
     @DefaultValue("false")
@@ -0,0 +1,285 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.driver.providers.stream;
+
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
+import org.gorpipe.gor.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Local disk cache of fixed size blocks of stream sources. Unlike {@link FileCache} only the parts of a source that
+ * are read are fetched, so seeking in a few regions of a very large remote file only downloads those regions.
+ * <p>
+ * Blocks are stored by the unique id of the source, the block size and the block index, and the least recently used
+ * blocks are deleted when the total size is above the maximum. Concurrent reads of the same missing block fetch it
+ * only once. Blocks of another block size and fetches left behind by a stopped process are deleted when the cache is
+ * opened.
+ */
+public class BlockCache {
+    private static final Logger log = LoggerFactory.getLogger(BlockCache.class);
+
+    static final String SUFFIX = ".block";
+    // Fetches are written to a temporary file named by the block key and a random UUID
+    private static final Pattern TEMP_FILE = Pattern.compile("[0-9A-F]{32}\\.\\d+\\.\\d+\\.[0-9a-f-]{36}");
+    private static final long TEMP_FILE_MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final Map<String, BlockCache> CACHES = new ConcurrentHashMap<>();
+
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final int blockSize;
+
+    // Size of each block in the cache, in access order. Guarded by the cache monitor.
+    private final LinkedHashMap<String, Long> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final Map<String, CompletableFuture<Path>> fills = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+
+    public BlockCache(String cacheDir, long maxBytes, int blockSize) {
+        this.cacheDir = Paths.get(cacheDir);
+        this.maxBytes = maxBytes;
+        this.blockSize = blockSize;
+        loadExistingBlocks();
+    }
+
+    /**
+     * @return The cache using the given directory, blocks of a directory must be accounted for by one cache
+     */
+    public static BlockCache forDirectory(String cacheDir, long maxBytes, int blockSize) {
+        final BlockCache cache = CACHES.computeIfAbsent(cacheDir, dir -> new BlockCache(dir, maxBytes, blockSize));
+        if (cache.maxBytes != maxBytes || cache.blockSize != blockSize) {
+            log.warn("Block cache {} is already open with max bytes {} and block size {}, ignoring max bytes {} and block size {}",
+                    cacheDir, cache.maxBytes, cache.blockSize, maxBytes, blockSize);
+        }
+        return cache;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Get the file of a block of a source, fetching it from the source if it is not in the cache. The file is shorter
+     * than the block size for the last block of the source, and empty for blocks past its end.
+     *
+     * @param uniqueId Unique id of the source, should change when the source changes
+     * @param index    Index of the block
+     * @param source   Source to read the block from if it is not in the cache
+     */
+    public Path getBlock(String uniqueId, long index, StreamSource source) throws IOException {
+        final String key = Util.md5(uniqueId) + "." + blockSize + "." + index;
+        if (touch(key)) {
+            hits.increment();
+            return blockPath(key);
+        }
+
+        final CompletableFuture<Path> fill = new CompletableFuture<>();
+        final CompletableFuture<Path> pending = fills.putIfAbsent(key, fill);
+        if (pending != null) {
+            // Another thread is fetching the block
+            hits.increment();
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            final Path path = touch(key) ? blockPath(key) : fetch(key, index, source);
+            fill.complete(path);
+            return path;
+        } catch (IOException | RuntimeException e) {
+            fill.completeExceptionally(e);
+            throw e;
+        } finally {
+            fills.remove(key);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched.sum();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getNumBlocks() {
+        return blocks.size();
+    }
+
+    /**
+     * Delete all blocks from the cache.
+     */
+    public synchronized void clear() {
+        for (String key : blocks.keySet()) {
+            StreamUtils.tryDelete(blockPath(key).toFile());
+        }
+        blocks.clear();
+        totalBytes = 0;
+    }
+
+    private synchronized boolean touch(String key) {
+        return blocks.get(key) != null;
+    }
+
+    private Path fetch(String key, long index, StreamSource source) throws IOException {
+        misses.increment();
+        Files.createDirectories(cacheDir);
+        final Path path = blockPath(key);
+        final Path tempFile = cacheDir.resolve(key + "." + UUID.randomUUID());
+        final long start = index * blockSize;
+        final Long sourceLength = source.getSourceMetadata().getLength();
+        // Range requests past the end fail for remote sources, the block is empty or cut short at the end
+        final long length = sourceLength != null ? Math.max(0, Math.min(blockSize, sourceLength - start)) : blockSize;
+        long size = 0;
+        try {
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                if (length > 0) {
+                    try (InputStream in = source.open(start, length)) {
+                        final byte[] buffer = new byte[Math.min(blockSize, 128 * 1024)];
+                        while (size < length) {
+                            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - size));
+                            if (read < 0) {
+                                break;
+                            }
+                            out.write(buffer, 0, read);
+                            size += read;
+                        }
+                    }
+                }
+            }
+            // Atomic move after successful read
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Best effort - try to delete temp file if it exists
+            StreamUtils.tryDelete(tempFile.toFile());
+            throw e;
+        }
+        bytesFetched.add(size);
+        added(key, size);
+        return path;
+    }
+
+    private synchronized void added(String key, long size) {
+        final Long previous = blocks.put(key, size);
+        totalBytes += size - (previous != null ? previous : 0);
+        final Iterator<Map.Entry<String, Long>> it = blocks.entrySet().iterator();
+        // The block just added is the most recently used one and is kept
+        while (totalBytes > maxBytes && blocks.size() > 1) {
+            final Map.Entry<String, Long> eldest = it.next();
+            log.debug("Evicting cached block: {}", eldest.getKey());
+            StreamUtils.tryDelete(blockPath(eldest.getKey()).toFile());
+            totalBytes -= eldest.getValue();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private void loadExistingBlocks() {
+        deleteStaleFetches();
+        final File[] files = cacheDir.toFile().listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        // Oldest first, so they are evicted first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            final String name = f.getName();
+            final String key = name.substring(0, name.length() - SUFFIX.length());
+            if (hasBlockSize(key) && f.length() <= blockSize) {
+                added(key, f.length());
+            } else {
+                // Written with another block size, it holds a different range of the source than its index says
+                log.debug("Deleting cached block of another block size: {}", name);
+                StreamUtils.tryDelete(f);
+            }
+        }
+    }
+
+    private boolean hasBlockSize(String key) {
+        final String[] parts = key.split("\\.");
+        return parts.length == 3 && parts[1].equals(Integer.toString(blockSize));
+    }
+
+    private void deleteStaleFetches() {
+        final long before = System.currentTimeMillis() - TEMP_FILE_MAX_AGE_MS;
+        // Recent ones may belong to another process using the directory
+        final File[] files = cacheDir.toFile().listFiles((dir, name) -> TEMP_FILE.matcher(name).matches());
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.lastModified() < before) {
+                log.debug("Deleting unfinished block fetch: {}", f.getName());
+                StreamUtils.tryDelete(f);
+            }
+        }
+    }
+
+    private Path blockPath(String key) {
+        return cacheDir.resolve(key + SUFFIX);
+    }
+}
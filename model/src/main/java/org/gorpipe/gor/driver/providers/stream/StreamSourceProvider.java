@@ -28,9 +28,11 @@ import org.gorpipe.gor.driver.GorDriverFactory;
 import org.gorpipe.gor.driver.SourceProvider;
 import org.gorpipe.gor.driver.meta.*;
 import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
+import org.gorpipe.gor.driver.providers.stream.sources.wrappers.BlockCacheWrapper;
 import org.gorpipe.gor.driver.providers.stream.sources.wrappers.CachedSourceWrapper;
 import org.gorpipe.gor.driver.providers.stream.sources.wrappers.ExtendedRangeWrapper;
 import org.gorpipe.gor.driver.providers.stream.sources.wrappers.FullRangeWrapper;
+import org.gorpipe.gor.driver.providers.stream.sources.wrappers.ParallelRangeWrapper;
 import org.gorpipe.gor.driver.providers.stream.sources.wrappers.RetryStreamSourceWrapper;
 import org.gorpipe.gor.driver.utils.RetryHandlerBase;
 import org.gorpipe.gor.model.FileReader;
@@ -103,7 +105,16 @@ public abstract class StreamSourceProvider implements SourceProvider {
         }
 
         if (source.getSourceType().isRemote()) {
-            if (config.remoteExtendedRangeStreamingEnabled()) {
+            if (config.remoteBlockCacheEnabled()) {
+                // Blocks are fetched with one request each, so range extension is not needed
+                log.debug("Wrapping remote source with BlockCacheWrapper");
+                source = new BlockCacheWrapper(BlockCache.forDirectory(config.blockCacheDir(),
+                        config.blockCacheMaxSize().getBytesAsLong(), config.blockCacheBlockSize().getBytesAsInt()), source);
+            } else if (config.remoteParallelRangeStreamingEnabled() && source.supportsConcurrentRangeReads()) {
+                log.debug("Wrapping remote source with ParallelRangeWrapper");
+                source = new ParallelRangeWrapper(source, config.extendedRangeStreamingSeekThreshold().getBytesAsInt(),
+                        config.parallelRangeStreamingChunkSize().getBytesAsInt(), config.parallelRangeStreamingMaxInFlight());
+            } else if (config.remoteExtendedRangeStreamingEnabled()) {
                 log.debug("Wrapping remote source with ExtendedRangeWrapper");
                 source = new ExtendedRangeWrapper(source, config.extendedRangeStreamingSeekThreshold().getBytesAsInt(),
                         config.extendedRangeStreamingMaxRequestSize().getBytesAsInt());
@@ -29,6 +29,7 @@ import org.gorpipe.gor.driver.DataSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Represents all sources that can return byte streams.
@@ -65,6 +66,30 @@ public interface StreamSource extends DataSource {
      */
     InputStream open(long start, long minLength);
 
+    /**
+     * Read a range of the source. The range is shorter than length if it reaches the end of the source.
+     * <p>
+     * The default reads the range in the calling thread, sources that can read several ranges concurrently should
+     * override this and {@link #supportsConcurrentRangeReads()}.
+     */
+    default CompletableFuture<byte[]> readRange(long start, int length) {
+        try (InputStream in = open(start, length)) {
+            return CompletableFuture.completedFuture(in.readNBytes(length));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(GorResourceException.fromIOException(e, getName()));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return Whether {@link #readRange(long, int)} can be called again before earlier reads complete, and does not
+     * interfere with streams opened from the source
+     */
+    default boolean supportsConcurrentRangeReads() {
+        return false;
+    }
+
     default OutputStream getOutputStream(long start) {
         return getOutputStream(false);
     }
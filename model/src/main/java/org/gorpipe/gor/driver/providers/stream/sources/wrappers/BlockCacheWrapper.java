@@ -0,0 +1,180 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.driver.providers.stream.sources.wrappers;
+
+import org.gorpipe.exceptions.GorResourceException;
+import org.gorpipe.gor.driver.providers.stream.BlockCache;
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Serves reads of a source from fixed size blocks in a {@link BlockCache}, fetching the blocks from the wrapped source
+ * when they are not in the cache.
+ * <p>
+ * Where {@link CachedSourceWrapper} downloads the whole source before serving the first byte, this wrapper only
+ * fetches the blocks that are read, which makes it usable for seeking in large remote files. Sources without a unique
+ * id are read directly.
+ */
+public class BlockCacheWrapper extends WrappedStreamSource {
+    private final BlockCache cache;
+    private String uniqueId;
+    private boolean resolved;
+
+    public BlockCacheWrapper(BlockCache cache, StreamSource source) {
+        super(source);
+        this.cache = cache;
+    }
+
+    @Override
+    public InputStream open() {
+        return open(0);
+    }
+
+    @Override
+    public InputStream openClosable() {
+        return open(0);
+    }
+
+    @Override
+    public InputStream open(long start) {
+        final String id = uniqueId();
+        if (id == null) {
+            return super.open(start);
+        }
+        return new BlockStream(id, start);
+    }
+
+    @Override
+    public InputStream open(long start, long minLength) {
+        final String id = uniqueId();
+        if (id == null) {
+            return super.open(start, minLength);
+        }
+        return new BlockStream(id, start);
+    }
+
+    private String uniqueId() {
+        if (!resolved) {
+            uniqueId = getSourceMetadata().getUniqueId();
+            resolved = true;
+        }
+        return uniqueId;
+    }
+
+    class BlockStream extends InputStream {
+        private final String id;
+        private long position;
+        private long blockIndex = -1;
+        private long blockLength;
+        private RandomAccessFile block;
+
+        BlockStream(String id, long start) {
+            this.id = id;
+            this.position = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final int blockSize = cache.getBlockSize();
+            final long index = position / blockSize;
+            if (index != blockIndex) {
+                openBlock(index);
+            }
+            final long offsetInBlock = position - index * blockSize;
+            if (offsetInBlock >= blockLength) {
+                // Blocks are only shorter than the block size at the end of the source
+                return -1;
+            }
+            block.seek(offsetInBlock);
+            final int read = block.read(b, off, (int) Math.min(len, blockLength - offsetInBlock));
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeBlock();
+        }
+
+        private void openBlock(long index) throws IOException {
+            closeBlock();
+            try {
+                open(index);
+            } catch (NoSuchFileException e) {
+                // Evicted between being looked up and opened, fetch it again
+                open(index);
+            }
+            blockIndex = index;
+            blockLength = block.length();
+        }
+
+        private void open(long index) throws IOException {
+            final Path path;
+            try {
+                path = cache.getBlock(id, index, getWrapped());
+            } catch (IOException e) {
+                throw GorResourceException.fromIOException(e, getPath().toString());
+            }
+            try {
+                block = new RandomAccessFile(path.toFile(), "r");
+            } catch (FileNotFoundException e) {
+                throw new NoSuchFileException(path.toString());
+            }
+        }
+
+        private void closeBlock() throws IOException {
+            if (block != null) {
+                block.close();
+                block = null;
+                blockIndex = -1;
+            }
+        }
+    }
+}
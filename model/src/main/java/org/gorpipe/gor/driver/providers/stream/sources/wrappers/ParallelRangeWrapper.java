@@ -0,0 +1,265 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.driver.providers.stream.sources.wrappers;
+
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Wrapper reading sequential parts of a source with several concurrent range requests.
+ * <p>
+ * A single ranged request to an object store is limited by the throughput of one connection, even when extended as by
+ * {@link ExtendedRangeWrapper}. When this wrapper detects sequential reads, or a stream to the end of the source is
+ * opened, the upcoming chunks of the source are requested concurrently with {@link StreamSource#readRange(long, int)}
+ * and served in order. The chunks start small and double up to the chunk size, and the number of chunks in flight
+ * grows by one with each chunk read up to the maximum, which bounds the memory used by a stream.
+ * <p>
+ * Seeks are forwarded to the source. Sources that do not support concurrent range reads are not affected.
+ */
+public class ParallelRangeWrapper extends WrappedStreamSource {
+    private static final Logger log = LoggerFactory.getLogger(ParallelRangeWrapper.class);
+
+    static final int INITIAL_CHUNK_SIZE = 256 * 1024;
+
+    private final int seekThreshold;
+    private final int chunkSize;
+    private final int maxInFlight;
+
+    ParallelRangeStream parallelStream;
+    private long lastStart = -1;
+    private long lastLength;
+
+    public ParallelRangeWrapper(StreamSource source, int seekThreshold, int chunkSize, int maxInFlight) {
+        super(source);
+        this.seekThreshold = seekThreshold;
+        this.chunkSize = chunkSize;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public InputStream openClosable() {
+        return open(0);
+    }
+
+    @Override
+    public InputStream open() {
+        return open(0);
+    }
+
+    @Override
+    public InputStream open(long start) {
+        if (!getWrapped().supportsConcurrentRangeReads()) {
+            return super.open(start);
+        }
+        clearStream();
+        parallelStream = new ParallelRangeStream(start);
+        return parallelStream;
+    }
+
+    @Override
+    public InputStream open(long start, long minLength) {
+        if (!getWrapped().supportsConcurrentRangeReads()) {
+            return super.open(start, minLength);
+        }
+        if (parallelStream != null) {
+            final long seek = start - parallelStream.position;
+            if (parallelStream.closed && seek >= 0 && seek <= seekThreshold) {
+                parallelStream.closed = false;
+                parallelStream.skip(seek);
+                return parallelStream;
+            }
+            log.debug("Seek is {} - close parallel range stream", seek);
+            clearStream();
+        }
+        final boolean sequential = lastStart >= 0 && start >= lastStart && start <= lastStart + lastLength + seekThreshold;
+        lastStart = start;
+        lastLength = minLength;
+        if (sequential) {
+            parallelStream = new ParallelRangeStream(start);
+            return parallelStream;
+        }
+        return super.open(start, minLength);
+    }
+
+    private void clearStream() {
+        if (parallelStream != null) {
+            parallelStream.cancel();
+            parallelStream = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        clearStream();
+        super.close();
+    }
+
+    private static class Chunk {
+        final long start;
+        final int length;
+        final CompletableFuture<byte[]> data;
+
+        Chunk(long start, int length, CompletableFuture<byte[]> data) {
+            this.start = start;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    class ParallelRangeStream extends InputStream {
+        private final ArrayDeque<Chunk> inFlight = new ArrayDeque<>();
+        private final Long sourceLength;
+        long position;
+        boolean closed = false;
+        private long nextFetch;
+        private int nextChunkSize = Math.min(INITIAL_CHUNK_SIZE, chunkSize);
+        private int window = 1;
+        private byte[] current;
+        private int currentOffset;
+        // Bytes to skip at the start of the next chunk
+        private int pendingSkip = 0;
+        // The last chunk was shorter than requested, so it was at the end of the source
+        private boolean endOfSource = false;
+
+        ParallelRangeStream(long start) {
+            this.position = start;
+            this.nextFetch = start;
+            this.sourceLength = getSourceMetadata().getLength();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if ((current == null || currentOffset >= current.length) && !nextChunk()) {
+                return -1;
+            }
+            final int n = Math.min(len, current.length - currentOffset);
+            System.arraycopy(current, currentOffset, b, off, n);
+            currentOffset += n;
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            final long target = position + n;
+            position = target;
+            if (current != null && n <= current.length - currentOffset) {
+                currentOffset += (int) n;
+                return n;
+            }
+            current = null;
+            // The target replaces the target of an earlier skip that has not been read from
+            pendingSkip = 0;
+            while (!inFlight.isEmpty() && inFlight.peek().start + inFlight.peek().length <= target) {
+                inFlight.poll().data.cancel(false);
+            }
+            if (inFlight.isEmpty()) {
+                nextFetch = Math.max(nextFetch, target);
+            } else if (inFlight.peek().start < target) {
+                // Continue reading the chunk containing the target, the rest of it is skipped when it is read
+                pendingSkip = (int) (target - inFlight.peek().start);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        void cancel() {
+            closed = true;
+            for (Chunk chunk : inFlight) {
+                chunk.data.cancel(false);
+            }
+            inFlight.clear();
+            current = null;
+        }
+
+        private boolean nextChunk() throws IOException {
+            do {
+                if (endOfSource && inFlight.isEmpty()) {
+                    return false;
+                }
+                fill();
+                final Chunk chunk = inFlight.poll();
+                if (chunk == null) {
+                    return false;
+                }
+                current = await(chunk);
+                currentOffset = Math.min(pendingSkip, current.length);
+                pendingSkip = 0;
+                if (current.length < chunk.length) {
+                    endOfSource = true;
+                    for (Chunk c : inFlight) {
+                        c.data.cancel(false);
+                    }
+                    inFlight.clear();
+                }
+                window = Math.min(maxInFlight, window + 1);
+            } while (currentOffset >= current.length);
+            return true;
+        }
+
+        private void fill() {
+            while (inFlight.size() < window && !endOfSource && (sourceLength == null || nextFetch < sourceLength)) {
+                final int length = nextChunkSize;
+                inFlight.add(new Chunk(nextFetch, length, getWrapped().readRange(nextFetch, length)));
+                nextFetch += length;
+                nextChunkSize = (int) Math.min(chunkSize, 2L * nextChunkSize);
+            }
+        }
+
+        private byte[] await(Chunk chunk) throws IOException {
+            try {
+                return chunk.data.join();
+            } catch (CompletionException e) {
+                log.debug("Parallel range read failed at {}, reading it again", chunk.start, e);
+                // Read through the wrapped source, which may retry the request
+                try (InputStream in = ParallelRangeWrapper.super.open(chunk.start, chunk.length)) {
+                    return in.readNBytes(chunk.length);
+                }
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import org.gorpipe.gor.driver.providers.stream.sources.StreamSourceMetadata;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by villi on 24/08/15.
@@ -58,6 +59,16 @@ public class WrappedStreamSource extends WrappedDataSource implements StreamSour
         return getWrapped().open(start, minLength);
     }
 
+    @Override
+    public CompletableFuture<byte[]> readRange(long start, int length) {
+        return getWrapped().readRange(start, length);
+    }
+
+    @Override
+    public boolean supportsConcurrentRangeReads() {
+        return getWrapped().supportsConcurrentRangeReads();
+    }
+
     @Override
     public InputStream openClosable() {
         return getWrapped().openClosable();
@@ -0,0 +1,182 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.model;
+
+import org.gorpipe.model.gor.RowObj;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A row that is a view on a line within a byte buffer, e.g. a decompressed gorz block, instead of a copy of
+ * the line as a String. The split array is computed directly from the bytes, numeric columns are parsed from
+ * the bytes and string columns are only decoded when they are accessed.
+ * <p>
+ * The buffer must not be modified while rows are viewing it. Readers producing these rows must switch to a
+ * new buffer instead of overwriting one that rows have been created from. Steps that hold on to rows for a
+ * long time should call {@link #detachedRow()} so that a retained row does not keep the whole buffer alive.
+ */
+public class ByteRowBase extends RowBase {
+
+    /**
+     * Whether readers should produce byte backed rows.
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("gor.row.bytebacked", "true"));
+
+    private ByteRowBase(String chr, ByteSequence allCols, int[] splitArray) {
+        this.chr = chr;
+        this.allCols = allCols;
+        this.splitArray = splitArray;
+        this.pos = colAsInt(1);
+    }
+
+    /**
+     * Creates a row viewing the line at {@code [offset, offset + length)} in the buffer. Lines containing
+     * non-ascii characters are decoded as UTF-8 into a regular {@link RowBase}.
+     *
+     * @param buffer     The buffer containing the line, without the line ending
+     * @param offset     Start of the line in the buffer
+     * @param length     Length of the line
+     * @param numColumns Number of columns in the line, or a negative value if it should be counted
+     * @param prevChr    Chromosome of the previous row from the same source, reused if it matches this row
+     * @return The row
+     */
+    public static Row create(byte[] buffer, int offset, int length, int numColumns, String prevChr) {
+        final int end = offset + length;
+        if (numColumns < 0) {
+            numColumns = 1;
+            for (int i = offset; i < end; i++) {
+                if (buffer[i] == '\t') numColumns++;
+            }
+        }
+
+        final int[] splitArray = new int[numColumns];
+        boolean isAscii = true;
+        int col = 0;
+        for (int i = offset; i < end; i++) {
+            final byte b = buffer[i];
+            if (b == '\t') {
+                if (col < numColumns) {
+                    splitArray[col++] = i - offset;
+                }
+            } else if (b < 0) {
+                isAscii = false;
+                break;
+            }
+        }
+        if (!isAscii) {
+            return new RowBase(new String(buffer, offset, length, StandardCharsets.UTF_8), numColumns);
+        }
+        int next = length;
+        while (col < numColumns) {
+            splitArray[col++] = next++;
+        }
+
+        return new ByteRowBase(chromosome(buffer, offset, splitArray[0], prevChr),
+                new ByteSequence(buffer, offset, length), splitArray);
+    }
+
+    private static String chromosome(byte[] buffer, int offset, int length, String prevChr) {
+        if (prevChr != null && prevChr.length() == length) {
+            int i = 0;
+            while (i < length && prevChr.charAt(i) == buffer[offset + i]) i++;
+            if (i == length) {
+                return prevChr;
+            }
+        }
+        return new String(buffer, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public byte[] colAsBytes(int colNum) {
+        if (allCols instanceof ByteSequence) {
+            testColumnIndex(colNum);
+            final ByteSequence bytes = (ByteSequence) allCols;
+            final int start = colNum == 0 ? 0 : splitArray[colNum - 1] + 1;
+            return Arrays.copyOfRange(bytes.buffer, bytes.offset + start, bytes.offset + splitArray[colNum]);
+        }
+        return super.colAsBytes(colNum);
+    }
+
+    @Override
+    public void writeRowToStream(OutputStream outputStream) throws IOException {
+        if (allCols instanceof ByteSequence) {
+            final ByteSequence bytes = (ByteSequence) allCols;
+            outputStream.write(bytes.buffer, bytes.offset, bytes.length);
+        } else {
+            super.writeRowToStream(outputStream);
+        }
+    }
+
+    @Override
+    public Row copyRow() {
+        return detachedRow();
+    }
+
+    @Override
+    public Row detachedRow() {
+        if (!(allCols instanceof ByteSequence)) {
+            return this;
+        }
+        return new RowBase(chr, pos, allCols.toString(), splitArray.clone(), bH);
+    }
+
+    /**
+     * Character view of an ascii encoded region of a byte buffer. Sub sequences are decoded into strings, so
+     * columns read through {@link RowObj#colString} behave as they do for string backed rows.
+     */
+    static final class ByteSequence implements CharSequence, Serializable {
+        final byte[] buffer;
+        final int offset;
+        final int length;
+
+        ByteSequence(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer[offset + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(buffer, offset + start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interning of chromosome names into integer ids, used to compare genomic positions of rows without comparing
+ * chromosome strings.
+ * <p>
+ * The order is defined by a {@link ContigDataScheme}. The contigs of the scheme get the ids and the order of the
+ * scheme, other names are assigned ids as they are seen. When the contigs of the scheme are in lexicographical order
+ * new names are placed among them in lexicographical order, otherwise they are placed after the contigs of the
+ * scheme, in lexicographical order. Rows are compared with the order of {@link #get()}, which is the order of
+ * {@link ChrDataScheme#ChrLexico} unless another scheme is set with gor.chromosome.order.
+ * <p>
+ * Ranks are spread out with gaps so a new name usually gets a rank between its neighbours without changing any
+ * other rank. Only when there is no gap left are all ranks renumbered, which gives a new {@link Ranks} epoch. The
+ * number of names is bounded, names seen after that get {@link #UNKNOWN} as id and are compared as strings, after
+ * the contigs of the scheme when the order is not lexicographical.
+ */
+public final class ChromoOrder {
+
+    public static final int UNKNOWN = -1;
+
+    private static final int GAP = 1 << 12;
+    private static final int MAX_NAMES = Integer.getInteger("gor.chromosome.ids.max", 100000);
+
+    private static final Logger log = LoggerFactory.getLogger(ChromoOrder.class);
+
+    private static final ChromoOrder ORDER = new ChromoOrder(scheme(System.getProperty("gor.chromosome.order", "lexico")), MAX_NAMES);
+
+    private final boolean lexicographic;
+    private final int maxNames;
+    private final int schemeLength;
+    // Key of the last name looked up, consecutive rows are usually on the same chromosome
+    private volatile Key lastKey;
+    private final ConcurrentHashMap<String, Integer> name2id = new ConcurrentHashMap<>();
+    // The fields below are guarded by this
+    private final List<String> id2name = new ArrayList<>();
+    private final int[] schemeIds; // Contigs of a scheme that is not lexicographical, in the order of the scheme
+    private final TreeMap<String, Integer> placed = new TreeMap<>(); // Names placed in lexicographical order
+    private volatile Ranks ranks;
+
+    /**
+     * @param scheme   The scheme defining the order of its contigs
+     * @param maxNames Maximum number of names to assign ids to
+     */
+    public ChromoOrder(ContigDataScheme scheme, int maxNames) {
+        this.maxNames = maxNames;
+        this.schemeLength = scheme.length();
+        final Integer[] inOrder = new Integer[scheme.length()];
+        for (int i = 0; i < inOrder.length; i++) inOrder[i] = i;
+        Arrays.sort(inOrder, (a, b) -> Integer.compare(scheme.id2order(a), scheme.id2order(b)));
+        final List<String> namesInOrder = new ArrayList<>();
+        for (int id : inOrder) {
+            if (scheme.id2chr(id) != null) namesInOrder.add(scheme.id2chr(id));
+        }
+        this.lexicographic = ChrDataScheme.isStrictLexicalOrder(namesInOrder);
+
+        for (int i = 0; i < scheme.length(); i++) {
+            final String name = scheme.id2chr(i);
+            id2name.add(name);
+            if (name != null) {
+                name2id.putIfAbsent(name, i);
+                if (lexicographic) placed.putIfAbsent(name, i);
+            }
+        }
+        this.schemeIds = lexicographic ? new int[0]
+                : Arrays.stream(inOrder).filter(id -> id2name.get(id) != null).mapToInt(Integer::intValue).toArray();
+        synchronized (this) {
+            renumber(new int[Math.max(16, id2name.size() * 2)]);
+        }
+    }
+
+    /**
+     * @param name Name of a scheme, lexico, numeric or hg
+     * @return The scheme, {@link ChrDataScheme#ChrLexico} if the name is not known
+     */
+    static ContigDataScheme scheme(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "lexico":
+                return ChrDataScheme.newChrLexico();
+            case "numeric":
+                return ChrDataScheme.newChrNumerical();
+            case "hg":
+                return ChrDataScheme.HG;
+            default:
+                log.warn("Unknown chromosome order {}, using lexico", name);
+                return ChrDataScheme.newChrLexico();
+        }
+    }
+
+    /**
+     * @return The order of chromosomes in gor streams
+     */
+    public static ChromoOrder get() {
+        return ORDER;
+    }
+
+    /**
+     * @param chr Chromosome name
+     * @return The id of the chromosome in {@link #get()}, see {@link #id}
+     */
+    public static int toId(String chr) {
+        return ORDER.id(chr);
+    }
+
+    /**
+     * @param id Chromosome id
+     * @return The name of the chromosome in {@link #get()}
+     */
+    public static String toName(int id) {
+        return ORDER.name(id);
+    }
+
+    /**
+     * @return The current ranks of {@link #get()}
+     */
+    public static Ranks ranks() {
+        return ORDER.currentRanks();
+    }
+
+    /**
+     * Packs a genomic position into a long such that comparing the longs compares the positions.
+     *
+     * @param rank Rank of the chromosome
+     * @param pos  Position
+     * @return Packed position
+     */
+    public static long packedKey(int rank, int pos) {
+        return ((long) rank << 32) | ((pos ^ Integer.MIN_VALUE) & 0xffffffffL);
+    }
+
+    /**
+     * @param chr Chromosome name
+     * @return The id of the chromosome, a new id is assigned if the name has not been seen before. {@link #UNKNOWN}
+     * if the maximum number of names has been reached.
+     */
+    public int id(String chr) {
+        final Integer id = name2id.get(chr);
+        return id != null ? id : add(chr);
+    }
+
+    /**
+     * @param chr Chromosome name
+     * @return The name with its id, the same key as for the last name looked up if the name is the same
+     */
+    public Key key(String chr) {
+        final Key last = lastKey;
+        if (last != null && (last.name == chr || last.name.equals(chr))) {
+            return last;
+        }
+        final Key key = new Key(chr, id(chr));
+        lastKey = key;
+        return key;
+    }
+
+    public synchronized String name(int id) {
+        return id2name.get(id);
+    }
+
+    public Ranks currentRanks() {
+        return ranks;
+    }
+
+    /**
+     * Compares two chromosome names in this order.
+     */
+    public int compare(String chr1, String chr2) {
+        if (chr1.equals(chr2)) return 0;
+        return compare(chr1, id(chr1), chr2, id(chr2));
+    }
+
+    /**
+     * Compares two chromosomes in this order, by their ids unless one of them is {@link #UNKNOWN}.
+     */
+    public int compare(String chr1, int id1, String chr2, int id2) {
+        if (id1 == UNKNOWN || id2 == UNKNOWN) {
+            if (!lexicographic) {
+                // Names without ids come after the contigs of the scheme, as the other names that are not in it
+                final boolean inScheme1 = id1 != UNKNOWN && id1 < schemeLength;
+                final boolean inScheme2 = id2 != UNKNOWN && id2 < schemeLength;
+                if (inScheme1 != inScheme2) return inScheme1 ? -1 : 1;
+            }
+            return chr1.compareTo(chr2);
+        }
+        if (id1 == id2) return 0;
+        final Ranks r = ranks;
+        return Integer.compare(r.rank(id1), r.rank(id2));
+    }
+
+    public boolean isLexicographic() {
+        return lexicographic;
+    }
+
+    private synchronized int add(String chr) {
+        final Integer existing = name2id.get(chr);
+        if (existing != null) {
+            return existing;
+        }
+        if (id2name.size() >= maxNames) {
+            return UNKNOWN;
+        }
+        final int id = id2name.size();
+        id2name.add(chr);
+        placed.put(chr, id);
+
+        final Ranks current = ranks;
+        int[] id2rank = current.id2rank;
+        if (id >= id2rank.length) {
+            id2rank = Arrays.copyOf(id2rank, id2rank.length * 2);
+        }
+        final Map.Entry<String, Integer> lower = placed.lowerEntry(chr);
+        final Map.Entry<String, Integer> higher = placed.higherEntry(chr);
+        final long low = lower != null ? id2rank[lower.getValue()]
+                : schemeIds.length > 0 ? id2rank[schemeIds[schemeIds.length - 1]] : Integer.MIN_VALUE;
+        final long high = higher != null ? id2rank[higher.getValue()] : low + 2L * GAP;
+        if (high - low >= 2 && high <= Integer.MAX_VALUE) {
+            // Existing ranks are unchanged, the rank of the new id is written in place before the id is published
+            id2rank[id] = (int) ((low + high) >>> 1);
+            if (id2rank != current.id2rank) {
+                ranks = new Ranks(current.epoch, id2rank);
+            }
+        } else {
+            renumber(new int[id2rank.length]);
+        }
+        name2id.put(chr, id);
+        return id;
+    }
+
+    /**
+     * Assigns evenly spaced ranks to all names and publishes them with a new epoch.
+     */
+    private void renumber(int[] id2rank) {
+        long rank = Integer.MIN_VALUE + GAP;
+        final long step = Math.max(1, Math.min(GAP, (2L * Integer.MAX_VALUE - 2L * GAP) / Math.max(1, id2name.size())));
+        for (int id : schemeIds) {
+            id2rank[id] = (int) rank;
+            rank += step;
+        }
+        for (int id : placed.values()) {
+            id2rank[id] = (int) rank;
+            rank += step;
+        }
+        final Ranks old = ranks;
+        ranks = new Ranks(old == null ? 0 : old.epoch + 1, id2rank);
+    }
+
+    /**
+     * A chromosome name with its id. Immutable, so a row that holds one never sees a name and an id that do not match.
+     */
+    public static final class Key {
+        public final String name;
+        public final int id;
+
+        Key(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Snapshot of chromosome ranks. Ranks of ids in a snapshot never change, ids added later may share the snapshot.
+     * When existing ranks have to change a new snapshot with a higher {@link #epoch} is made, callers caching ranks
+     * or packed keys should use the epoch to detect that they must be recomputed.
+     */
+    public static final class Ranks {
+        public final int epoch;
+        private final int[] id2rank;
+
+        Ranks(int epoch, int[] id2rank) {
+            this.epoch = epoch;
+            this.id2rank = id2rank;
+        }
+
+        /**
+         * @param id Chromosome id
+         * @return Rank of the chromosome
+         */
+        public int rank(int id) {
+            return id2rank[id];
+        }
+
+        /**
+         * @param id  Chromosome id
+         * @param pos Position
+         * @return Packed key for the position, see {@link ChromoOrder#packedKey(int, int)}
+         */
+        public long packedKey(int id, int pos) {
+            return ChromoOrder.packedKey(id2rank[id], pos);
+        }
+    }
+}
@@ -103,6 +103,13 @@ public abstract class GenomicIteratorBase implements GenomicIterator {
         }
     }
 
+    /**
+     * @return The counter of the stat for updates on hot paths, or null if stats are not collected
+     */
+    protected StatsCollector.Counter statCounter(String name) {
+        return statsCollector != null ? statsCollector.counter(statsSenderId, name) : null;
+    }
+
     @Override
     public GenomicIterator clone() throws CloneNotSupportedException {
         throw new CloneNotSupportedException();
@@ -443,11 +443,15 @@ public class GorOptions {
         Stream<SourceRef> preparedSources = prepareSources(withTag);
 
         List<GenomicIterator> genomicIterators;
-        try {
-            genomicIterators = CommonThreadPools.seekThreadPool.submit(
-                    () -> preparedSources.parallel().map(this::createGenomicIteratorFromRef).collect(Collectors.toList())).get();
-        } catch (Exception e) {
-            throw ExceptionUtilities.wrapExceptionInGorSystemException(e);
+        if (SourceHandlePool.LAZY) {
+            genomicIterators = createLazyIterators(preparedSources.collect(Collectors.toList()));
+        } else {
+            try {
+                genomicIterators = CommonThreadPools.seekThreadPool.submit(
+                        () -> preparedSources.parallel().map(this::createGenomicIteratorFromRef).collect(Collectors.toList())).get();
+            } catch (Exception e) {
+                throw ExceptionUtilities.wrapExceptionInGorSystemException(e);
+            }
         }
 
         if (genomicIterators.isEmpty()) {
@@ -464,6 +468,37 @@ public class GorOptions {
         return genomicIterators;
     }
 
+    /**
+     * Creates iterators which only open their sources when they are read from, with at most gor.merge.maxOpenSources
+     * sources open at a time, see {@link LazyGenomicIterator}. The first source is opened to get the header.
+     */
+    private List<GenomicIterator> createLazyIterators(List<SourceRef> refs) {
+        final List<GenomicIterator> iterators = new ArrayList<>();
+        if (refs.size() < 2) {
+            refs.forEach(ref -> iterators.add(createGenomicIteratorFromRef(ref)));
+            return iterators;
+        }
+        final SourceRef first = refs.get(0);
+        final String header;
+        try (GenomicIterator it = createGenomicIteratorFromRef(first)) {
+            header = it.getHeader();
+        }
+        final SourceHandlePool pool = new SourceHandlePool(SourceHandlePool.DEFAULT_MAX_OPEN);
+        for (SourceRef ref : refs) {
+            if (ref.sourceAlreadyInserted != first.sourceAlreadyInserted) {
+                // The header of the source differs from the first one
+                iterators.add(createGenomicIteratorFromRef(ref));
+                continue;
+            }
+            final LazyGenomicIterator it = new LazyGenomicIterator(() -> createGenomicIteratorFromRef(ref), header,
+                    ref.startChr, ref.startPos, ref.stopChr, ref.stopPos, pool);
+            it.setSourceName(ref.getName());
+            it.setSourceAlreadyInserted(ref.sourceAlreadyInserted);
+            iterators.add(it);
+        }
+        return iterators;
+    }
+
     private Stream<SourceRef> prepareSources(Stream<SourceRef> sources) {
         if (this.session != null) {
             return this.session.getProjectContext().getFileReader().prepareSources(sources);
@@ -0,0 +1,276 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.model;
+
+import org.gorpipe.exceptions.GorDataException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * A source of a merge which is only opened when it is read from, and may be closed by a {@link SourceHandlePool}
+ * when it has not been used for a while.
+ * <p>
+ * If the first position of the source is known, for example from the range of a dictionary entry, the iterator
+ * starts by returning a progress row at that position without opening the source. The merge then only opens the
+ * source when it has reached that position. When a closed source is read from again it is seeked to the position of
+ * the last row returned, and the rows already returned at that position are skipped. If no row has been returned
+ * since the last seek it is seeked to the position of that seek.
+ */
+public class LazyGenomicIterator extends GenomicIteratorBase {
+    private final Supplier<GenomicIterator> opener;
+    private final String startChr;
+    private final int startPos;
+    private final String stopChr;
+    private final int stopPos;
+    private final SourceHandlePool pool;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Filters and selections, applied in order to the source when it is opened
+    private final List<UnaryOperator<GenomicIterator>> wrappers = new ArrayList<>();
+    private GenomicIterator delegate;
+    private boolean started;
+    private boolean exhausted = false;
+    private String seekChr;
+    private int seekPos;
+    // Position of the last seek, where the source continues from if it is closed before a row is returned
+    private String requestedChr;
+    private int requestedPos;
+    private String lastChr;
+    private int lastPos;
+    private int rowsAtLastPos;
+    private volatile long lastUsed;
+
+    /**
+     * @param opener   Opens the source
+     * @param header   The header of the source
+     * @param startChr Chromosome of the first row in the source, or null if not known
+     * @param startPos Position of the first row in the source
+     * @param stopChr  Chromosome of the last row in the source, or null if not known
+     * @param stopPos  Position of the last row in the source
+     * @param pool     Pool bounding the number of open sources
+     */
+    LazyGenomicIterator(Supplier<GenomicIterator> opener, String header, String startChr, int startPos,
+                        String stopChr, int stopPos, SourceHandlePool pool) {
+        this.opener = opener;
+        this.startChr = startChr == null || startChr.isEmpty() ? null : startChr;
+        this.startPos = startPos;
+        this.stopChr = stopChr == null || stopChr.isEmpty() ? null : stopChr;
+        this.stopPos = stopPos;
+        this.pool = pool;
+        this.started = this.startChr == null;
+        setHeader(header);
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    boolean isOpen() {
+        return delegate != null;
+    }
+
+    @Override
+    public boolean seek(String chr, int pos) {
+        lock.lock();
+        try {
+            lastChr = null;
+            rowsAtLastPos = 0;
+            if (stopChr != null && compare(chr, pos, stopChr, stopPos) > 0) {
+                exhausted = true;
+                closeDelegate();
+                return false;
+            }
+            exhausted = false;
+            seekChr = chr;
+            seekPos = pos;
+            requestedChr = chr;
+            requestedPos = pos;
+            started = startChr == null || compare(chr, pos, startChr, startPos) > 0;
+            // A progress row is returned for the start of the source, the seek is done when it is opened
+            return !started || hasNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        lock.lock();
+        try {
+            if (exhausted) {
+                return false;
+            }
+            if (!started) {
+                return true;
+            }
+            ensureOpen();
+            if (!delegate.hasNext()) {
+                exhausted = true;
+                closeDelegate();
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Row next() {
+        lock.lock();
+        try {
+            if (!started && !exhausted) {
+                started = true;
+                return RowBase.getProgressRow(startChr, startPos);
+            }
+            ensureOpen();
+            final Row r = delegate.next();
+            if (!r.isProgress) {
+                if (r.pos == lastPos && r.chr.equals(lastChr)) {
+                    rowsAtLastPos++;
+                } else {
+                    lastChr = r.chr;
+                    lastPos = r.pos;
+                    rowsAtLastPos = 1;
+                }
+            }
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public GenomicIterator filter(Predicate<Row> rf) {
+        return wrap(it -> it.filter(rf));
+    }
+
+    @Override
+    public GenomicIterator select(int[] cols) {
+        return wrap(it -> it.select(cols));
+    }
+
+    private GenomicIterator wrap(UnaryOperator<GenomicIterator> wrapper) {
+        lock.lock();
+        try {
+            wrappers.add(wrapper);
+            if (delegate != null) {
+                delegate = wrapper.apply(delegate);
+            }
+            return this;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            exhausted = true;
+            closeDelegate();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the source if it is not being read from. It is opened again when it is read from.
+     *
+     * @return Whether the source was closed
+     */
+    boolean tryEvict() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (delegate == null) {
+                return true;
+            }
+            if (lastChr != null) {
+                seekChr = lastChr;
+                seekPos = lastPos;
+            } else if (requestedChr != null) {
+                seekChr = requestedChr;
+                seekPos = requestedPos;
+            }
+            closeDelegate();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureOpen() {
+        lastUsed = System.nanoTime();
+        if (delegate != null && seekChr == null) {
+            return;
+        }
+        if (delegate == null) {
+            GenomicIterator it = opener.get();
+            if (!it.getHeader().equalsIgnoreCase(getHeader())) {
+                it.close();
+                throw new GorDataException("Error initializing query: Header for " + getSourceName() + " ("
+                        + it.getHeader().replace('\t', ',') + ") is different from the first opened file ("
+                        + getHeader().replace('\t', ',') + ")");
+            }
+            for (UnaryOperator<GenomicIterator> wrapper : wrappers) {
+                it = wrapper.apply(it);
+            }
+            delegate = it;
+            pool.opened(this);
+        }
+        if (seekChr != null) {
+            delegate.seek(seekChr, seekPos);
+            seekChr = null;
+            if (lastChr != null) {
+                // Reopened after being closed by the pool, skip the rows already returned at this position
+                int skip = rowsAtLastPos;
+                while (skip > 0 && delegate.hasNext()) {
+                    final Row r = delegate.next();
+                    if (!r.isProgress && r.pos == lastPos && r.chr.equals(lastChr)) {
+                        skip--;
+                    }
+                }
+            }
+        }
+    }
+
+    private void closeDelegate() {
+        if (delegate != null) {
+            delegate.close();
+            delegate = null;
+            pool.closed(this);
+        }
+    }
+
+    private static int compare(String chr1, int pos1, String chr2, int pos2) {
+        final int chrCmp = chr1.compareTo(chr2);
+        return chrCmp != 0 ? chrCmp : Integer.compare(pos1, pos2);
+    }
+}
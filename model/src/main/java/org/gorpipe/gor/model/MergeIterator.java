@@ -28,13 +28,22 @@ import org.gorpipe.exceptions.ExceptionUtilities;
 import org.gorpipe.exceptions.GorDataException;
 import org.gorpipe.exceptions.GorSystemException;
 import org.gorpipe.gor.session.GorContext;
+import org.gorpipe.gor.stats.StatsCollector;
 import org.gorpipe.gor.monitor.GorMonitor;
+import org.gorpipe.gor.util.LoserTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -43,10 +52,22 @@ import java.util.stream.IntStream;
  * MergeIterator merges lines from multiple genomic iterators. All the iterators must have the same
  * layout, and lines are interleaved in genomic order. This is effectively doing a merge-sort on
  * the iterators.
+ * <p>
+ * With prefetching on, see gor.merge.prefetch, every source is read ahead in batches of rows on the seek thread
+ * pool, so reads from all the sources overlap, and the batches are merged with a loser tree on the packed positions
+ * of the rows. A progress row ends a batch, the source is not read past it until the merge has reached its position,
+ * so sources that are opened lazily stay closed until they are needed.
  */
 public class MergeIterator extends GenomicIteratorBase {
     private static final Logger log = LoggerFactory.getLogger(MergeIterator.class);
 
+    static final boolean PREFETCH = Boolean.parseBoolean(System.getProperty("gor.merge.prefetch", "false"));
+    private static final int PREFETCH_ROWS = Integer.parseInt(System.getProperty("gor.merge.prefetch.rows", "128"));
+    private static final int PREFETCH_BATCHES = Integer.parseInt(System.getProperty("gor.merge.prefetch.batches", "2"));
+    private static final RowFromIterator[] NO_ROWS = new RowFromIterator[0];
+    // Read ahead of a batch ending with a progress row, reading resumes when the merge reaches the progress row
+    private static final RowFromIterator[] DEFERRED = new RowFromIterator[0];
+
     private static final String DEFAULT_SOURCE_COLUMN_NAME = "Source";
     private List<GenomicIterator> sources;
     /**
@@ -74,9 +95,22 @@ public class MergeIterator extends GenomicIteratorBase {
      */
     private final GorMonitor gorMonitor;
 
+    private final boolean prefetch;
+    private List<PrefetchingSource> prefetchingSources;
+    private LoserTree<RowFromIterator> tree;
+
+    private StatsCollector.Counter seekStat;
+    private StatsCollector.Counter hasNextStat;
+    private StatsCollector.Counter nextStat;
+
     public MergeIterator(List<GenomicIterator> sources, boolean insertSource, String sourceColName, GorMonitor gm) {
+        this(sources, insertSource, sourceColName, gm, PREFETCH);
+    }
+
+    public MergeIterator(List<GenomicIterator> sources, boolean insertSource, String sourceColName, GorMonitor gm, boolean prefetch) {
         this.sources = sources;
         this.insertSource = insertSource;
+        this.prefetch = prefetch;
         gorMonitor = gm;
 
         try {
@@ -102,6 +136,9 @@ public class MergeIterator extends GenomicIteratorBase {
         statsSenderName = "MergeIterator";
         super.setContext(context);
         addStat("numSources", sources.size());
+        seekStat = statCounter("seek");
+        hasNextStat = statCounter("hasNext");
+        nextStat = statCounter("next");
     }
 
     private static String[] getHeaderWithOptionalSourceColumn(boolean insertSource, String sourceColName, GenomicIterator i) {
@@ -124,7 +161,13 @@ public class MergeIterator extends GenomicIteratorBase {
 
     @Override
     public boolean seek(String chr, int pos) {
-        incStat("seek");
+        if (seekStat != null) seekStat.inc();
+
+        if (prefetch) {
+            isPrimed = true;
+            startPrefetching(chr, pos);
+            return this.hasNext();
+        }
 
         clearQueue();
         isPrimed = true;
@@ -147,7 +190,7 @@ public class MergeIterator extends GenomicIteratorBase {
 
     @Override
     public boolean hasNext() {
-        incStat("hasNext");
+        if (hasNextStat != null) hasNextStat.inc();
 
         if (isClosed) {
             throw new GorSystemException("Iterator is closed", null);
@@ -156,6 +199,9 @@ public class MergeIterator extends GenomicIteratorBase {
         if (!isPrimed) {
             primeQueue();
         }
+        if (prefetch) {
+            return hasNextInTree();
+        }
         if (queue.size() > 0) {
             if (queue.peek().row.isProgress) {
                 //The first row in the queue is a progress row.
@@ -172,7 +218,7 @@ public class MergeIterator extends GenomicIteratorBase {
 
     @Override
     public Row next() {
-        incStat("next");
+        if (nextStat != null) nextStat.inc();
 
         if (isClosed) {
             throw new GorSystemException("Iterator is closed", null);
@@ -181,6 +227,12 @@ public class MergeIterator extends GenomicIteratorBase {
         if (!isPrimed) {
             primeQueue();
         }
+        if (prefetch) {
+            if (!hasNextInTree()) {
+                throw new NoSuchElementException();
+            }
+            return tree.next().row;
+        }
         RowFromIterator rowFromIterator = queue.poll();
         if (rowFromIterator == null || rowFromIterator.row == null) {
             throw new NoSuchElementException();
@@ -192,6 +244,19 @@ public class MergeIterator extends GenomicIteratorBase {
         return rowFromIterator.row;
     }
 
+    /**
+     * Drops the progress rows at the front of the merge, they only hold the place of their sources.
+     */
+    private boolean hasNextInTree() {
+        if (tree == null) {
+            return false;
+        }
+        while (tree.hasNext() && tree.peek().row.isProgress) {
+            tree.next();
+        }
+        return tree.hasNext();
+    }
+
     @Override
     public void close() {
         doClose();
@@ -199,6 +264,7 @@ public class MergeIterator extends GenomicIteratorBase {
     }
 
     private void doClose() {
+        stopPrefetching();
         for (GenomicIterator it : sources) {
             it.close();
         }
@@ -239,6 +305,12 @@ public class MergeIterator extends GenomicIteratorBase {
 
     private void primeQueue() {
         isPrimed = true;
+        if (prefetch) {
+            if (gorMonitor == null || !gorMonitor.isCancelled()) {
+                startPrefetching(null, 0);
+            }
+            return;
+        }
         clearQueue();
         for (int itIdx = 0; itIdx < this.sources.size(); ++itIdx) {
             if (gorMonitor != null && gorMonitor.isCancelled()) {
@@ -257,21 +329,22 @@ public class MergeIterator extends GenomicIteratorBase {
     }
 
     private void addNextToQueue(int itIdx) {
-        final GenomicIterator it = this.sources.get(itIdx);
-        if (it.hasNext()) {
-            Row r = it.next();
-            if (r == null) {
-                String msg = String.format("Iterator next returned null after hasNext returned true (%s, %s)", it.getClass().getName(), it.getSourceName());
-                throw new GorSystemException(msg, null);
-            }
-            if (insertSource && !it.isSourceAlreadyInserted()) {
-                insertOptionalSourceColumn(r, it.getSourceName());
-            }
-            queue.add(new RowFromIterator(r, itIdx));
+        final RowFromIterator next = nextFromSource(itIdx);
+        if (next != null) {
+            queue.add(next);
         }
     }
 
     private void addNextToSynchronizedQueue(int itIdx) {
+        final RowFromIterator next = nextFromSource(itIdx);
+        if (next != null) {
+            synchronized(this) {
+                queue.add(next);
+            }
+        }
+    }
+
+    private RowFromIterator nextFromSource(int itIdx) {
         final GenomicIterator it = this.sources.get(itIdx);
         if (it.hasNext()) {
             Row r = it.next();
@@ -282,8 +355,36 @@ public class MergeIterator extends GenomicIteratorBase {
             if (insertSource && !it.isSourceAlreadyInserted()) {
                 insertOptionalSourceColumn(r, it.getSourceName());
             }
-            synchronized(this) {
-                queue.add(new RowFromIterator(r, itIdx));
+            return new RowFromIterator(r, itIdx);
+        }
+        return null;
+    }
+
+    /**
+     * Starts reading ahead from all the sources and merges them with a new loser tree.
+     *
+     * @param chr Chromosome to seek the sources to, or null to read from their current positions
+     * @param pos Position to seek the sources to
+     */
+    private void startPrefetching(String chr, int pos) {
+        stopPrefetching();
+        if (prefetchingSources == null) {
+            prefetchingSources = new ArrayList<>(sources.size());
+            for (int itIdx = 0; itIdx < sources.size(); ++itIdx) {
+                prefetchingSources.add(new PrefetchingSource(itIdx));
+            }
+        }
+        for (PrefetchingSource source : prefetchingSources) {
+            source.start(chr, pos);
+        }
+        tree = new LoserTree<>(prefetchingSources, Comparator.naturalOrder());
+    }
+
+    private void stopPrefetching() {
+        tree = null;
+        if (prefetchingSources != null) {
+            for (PrefetchingSource source : prefetchingSources) {
+                source.stop();
             }
         }
     }
@@ -297,26 +398,168 @@ public class MergeIterator extends GenomicIteratorBase {
         }
     }
 
+    /**
+     * Reads batches of rows from one source on the seek thread pool, keeping up to PREFETCH_BATCHES batches
+     * in flight. The reads are chained so only one thread reads from the source at a time. A progress row ends its
+     * batch and the reads behind it are deferred, they are started again when the merge has taken the progress row.
+     */
+    private final class PrefetchingSource implements Iterator<RowFromIterator> {
+        private final int itIdx;
+        private final ArrayDeque<CompletableFuture<RowFromIterator[]>> batches = new ArrayDeque<>();
+        private CompletableFuture<RowFromIterator[]> lastRead;
+        private volatile boolean stopped;
+        private RowFromIterator[] batch = NO_ROWS;
+        private int batchIdx = 0;
+        private boolean endOfSource = false;
+
+        PrefetchingSource(int itIdx) {
+            this.itIdx = itIdx;
+        }
+
+        void start(String chr, int pos) {
+            stopped = false;
+            endOfSource = false;
+            lastRead = CompletableFuture.supplyAsync(() -> {
+                if (chr != null) {
+                    sources.get(itIdx).seek(chr, pos);
+                }
+                return readBatch();
+            }, CommonThreadPools.seekThreadPool);
+            batches.add(lastRead);
+            for (int i = 1; i < PREFETCH_BATCHES; ++i) {
+                readAhead();
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            if (lastRead != null) {
+                // The source must not be in use when it is seeked or closed
+                lastRead.handle((rows, e) -> null).join();
+                lastRead = null;
+            }
+            batches.clear();
+            batch = NO_ROWS;
+            batchIdx = 0;
+        }
+
+        private void readAhead() {
+            lastRead = lastRead.thenApplyAsync(previous -> {
+                if (previous == DEFERRED || endsWithProgress(previous)) {
+                    return DEFERRED;
+                }
+                return stopped || previous.length < PREFETCH_ROWS ? NO_ROWS : readBatch();
+            }, CommonThreadPools.seekThreadPool);
+            batches.add(lastRead);
+        }
+
+        /**
+         * Starts reading again after a deferred read, all the reads in flight are deferred.
+         */
+        private void resume() {
+            lastRead.join();
+            batches.clear();
+            lastRead = CompletableFuture.supplyAsync(this::readBatch, CommonThreadPools.seekThreadPool);
+            batches.add(lastRead);
+            for (int i = 1; i < PREFETCH_BATCHES; ++i) {
+                readAhead();
+            }
+        }
+
+        private RowFromIterator[] readBatch() {
+            final RowFromIterator[] rows = new RowFromIterator[PREFETCH_ROWS];
+            int count = 0;
+            while (count < rows.length && !stopped) {
+                final RowFromIterator next = nextFromSource(itIdx);
+                if (next == null) {
+                    break;
+                }
+                rows[count++] = next;
+                if (next.row.isProgress) {
+                    break;
+                }
+            }
+            return count == rows.length ? rows : Arrays.copyOf(rows, count);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (batchIdx == batch.length) {
+                if (endOfSource || batches.isEmpty()) {
+                    return false;
+                }
+                try {
+                    batch = batches.poll().join();
+                } catch (CompletionException e) {
+                    throw ExceptionUtilities.wrapExceptionInGorSystemException(e);
+                }
+                batchIdx = 0;
+                if (batch == DEFERRED) {
+                    resume();
+                } else if (batch.length < PREFETCH_ROWS && !endsWithProgress(batch)) {
+                    endOfSource = true;
+                } else {
+                    readAhead();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public RowFromIterator next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch[batchIdx++];
+        }
+
+        private boolean endsWithProgress(RowFromIterator[] rows) {
+            return rows.length > 0 && rows[rows.length - 1].row.isProgress;
+        }
+    }
+
     static class RowFromIterator implements Comparable<RowFromIterator> {
         final Row row;
         final int itIdx;
+        /**
+         * Packed genomic position of the row and the epoch of the chromosome ranks it was computed from. Rows with
+         * chromosomes that have no id are compared by name.
+         */
+        private final boolean packed;
+        private long key;
+        private int epoch;
 
         RowFromIterator(Row r, int itIdx) {
             this.row = r;
             this.itIdx = itIdx;
+            // The id must be known before the ranks are read
+            this.packed = r.chrId() != ChromoOrder.UNKNOWN;
+            if (packed) {
+                final ChromoOrder.Ranks ranks = ChromoOrder.ranks();
+                this.key = r.packedKey(ranks);
+                this.epoch = ranks.epoch;
+            }
+        }
+
+        private long key(ChromoOrder.Ranks ranks) {
+            if (epoch != ranks.epoch) {
+                key = row.packedKey(ranks);
+                epoch = ranks.epoch;
+            }
+            return key;
         }
 
         @Override
         public int compareTo(RowFromIterator rfi) {
-            int chrCompare = this.row.chr.compareTo(rfi.row.chr);
-            if (chrCompare == 0) {
-                int posCompare = this.row.pos - rfi.row.pos;
-                if (posCompare == 0) {
-                    return Integer.compare(this.itIdx, rfi.itIdx);
-                }
-                return posCompare;
+            final int cmp;
+            if (this.packed && rfi.packed) {
+                final ChromoOrder.Ranks ranks = ChromoOrder.ranks();
+                cmp = Long.compare(this.key(ranks), rfi.key(ranks));
+            } else {
+                final int chrCmp = this.row.compareChr(rfi.row);
+                cmp = chrCmp != 0 ? chrCmp : Integer.compare(this.row.pos, rfi.row.pos);
             }
-            return chrCompare;
+            return cmp != 0 ? cmp : Integer.compare(this.itIdx, rfi.itIdx);
         }
     }
-}
\ No newline at end of file
+}
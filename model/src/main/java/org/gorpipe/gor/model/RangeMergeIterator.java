@@ -98,7 +98,7 @@ public class RangeMergeIterator extends GenomicIteratorBase {
             if (o1.equals(o2)) return 0;
             final Row r1 = this.rows[o1];
             final Row r2 = this.rows[o2];
-            final int chrCmp = r1.chr.compareTo(r2.chr);
+            final int chrCmp = r1.compareChr(r2);
             if (chrCmp != 0) return chrCmp;
             final int posCmp = Integer.compare(r1.pos, r2.pos);
             if (posCmp != 0) return posCmp;
@@ -59,6 +59,12 @@ public abstract class Row implements Comparable<Row>,ColumnValueProvider, Serial
      */
     public BinaryHolder bH;
 
+    /**
+     * Chromosome id from {@link ChromoOrder}, valid while {@link #chr} equals the name in it. The key is shared by
+     * consecutive rows on the same chromosome.
+     */
+    private transient ChromoOrder.Key chrKey;
+
     public Row() {
         super();
     }
@@ -69,9 +75,57 @@ public abstract class Row implements Comparable<Row>,ColumnValueProvider, Serial
         this.pos = pos;
     }
 
+    /**
+     * @return The {@link ChromoOrder} id of the chromosome of this row, {@link ChromoOrder#UNKNOWN} if it has none
+     */
+    public int chrId() {
+        final String c = chr;
+        ChromoOrder.Key key = chrKey;
+        if (key == null || (key.name != c && !key.name.equals(c))) {
+            key = ChromoOrder.get().key(c);
+            chrKey = key;
+        }
+        return key.id;
+    }
+
+    /**
+     * Compares the chromosome of this row with the chromosome of another row, in the order of
+     * {@link ChromoOrder#get()} but without comparing the strings.
+     * @param that The row to compare with
+     * @return negative, zero or positive as the chromosome of this row is before, equal or after the other
+     */
+    public int compareChr(Row that) {
+        if (this.chr == that.chr) {
+            return 0;
+        }
+        return ChromoOrder.get().compare(this.chr, this.chrId(), that.chr, that.chrId());
+    }
+
+    /**
+     * Compares the chromosome of this row with a chromosome name, in the same order as {@link #compareChr(Row)}.
+     * @param otherChr The chromosome name to compare with
+     * @return negative, zero or positive as the chromosome of this row is before, equal or after the other
+     */
+    public int compareChr(String otherChr) {
+        if (this.chr == otherChr) {
+            return 0;
+        }
+        return ChromoOrder.get().compare(this.chr, this.chrId(), otherChr, ChromoOrder.toId(otherChr));
+    }
+
+    /**
+     * Returns the genomic position of the row packed into a long, comparing the keys of two rows compares their
+     * positions. Keys are only comparable when created from the same ranks.
+     * @param ranks The chromosome ranks to use, read after the id of the row is known
+     * @return The packed (chromosome, position) key
+     */
+    public long packedKey(ChromoOrder.Ranks ranks) {
+        return ranks.packedKey(chrId(), pos);
+    }
+
     @Override
     public int compareTo(Row that) {
-        int chrcmp = this.chr.compareTo(that.chr);
+        int chrcmp = compareChr(that);
         if (chrcmp == 0) {
             int poscmp = this.pos - that.pos;
             if (poscmp == 0) {
@@ -115,7 +169,7 @@ public abstract class Row implements Comparable<Row>,ColumnValueProvider, Serial
     }
 
     public int advancedCompare(Row that, SortInfo[] sortArray) {
-        int chrcmp = this.chr.compareTo(that.chr);
+        int chrcmp = compareChr(that);
         if (chrcmp == 0) {
             int poscmp = this.pos - that.pos;
             if (poscmp == 0) {
@@ -151,12 +205,13 @@ public abstract class Row implements Comparable<Row>,ColumnValueProvider, Serial
 
     public boolean atSamePos(Row other) {
         // Position comparison only
-        return pos == other.pos && chr.equals(other.chr);
+        return pos == other.pos && compareChr(other) == 0;
     }
 
     public boolean atPriorPos(Row other) {
         // Position comparison only
-        return (pos < other.pos && chr.equals(other.chr)) || chr.compareTo(other.chr) < 0;
+        final int chrcmp = compareChr(other);
+        return chrcmp < 0 || (chrcmp == 0 && pos < other.pos);
     }
 
     public static int countColumns(CharSequence input) {
@@ -432,6 +487,15 @@ public abstract class Row implements Comparable<Row>,ColumnValueProvider, Serial
         throw new RuntimeException("Not implemented");
     }
 
+    /**
+     * Returns a row that can be held on to after the source that produced it has moved on. Rows that are views
+     * on a shared buffer return a compact copy, other rows return themselves.
+     * @return A row that does not reference shared buffers
+     */
+    public Row detachedRow() {
+        return this;
+    }
+
     /**
      * Populates the chr and pos fields based on the input, and returns the offset into input
      * where pos ended.
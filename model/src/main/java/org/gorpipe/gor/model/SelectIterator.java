@@ -46,6 +46,17 @@ public class SelectIterator extends GenomicIteratorAdapterBase {
         return selectHeader;
     }
 
+    @Override
+    public boolean pushdownFilter(String where) {
+        // Column references in the filter are to the selected columns, not the columns of the underlying iterator
+        return false;
+    }
+
+    @Override
+    public boolean pushdownSelect(String[] colList) {
+        return false;
+    }
+
     protected void selectHeader(int[] cols) {
         String header = iterator.getHeader();
         if (header != null && !header.equals("")) {
@@ -0,0 +1,78 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bounds the number of open sources of a merge. When a {@link LazyGenomicIterator} opens its source and there are
+ * more than the maximum number of sources open, the least recently used ones are closed. They are opened again
+ * when they are read from.
+ */
+class SourceHandlePool {
+    static final boolean LAZY = Boolean.parseBoolean(System.getProperty("gor.merge.lazy", "false"));
+    static final int DEFAULT_MAX_OPEN = Integer.parseInt(System.getProperty("gor.merge.maxOpenSources", "1024"));
+
+    private final int maxOpen;
+    private final Set<LazyGenomicIterator> open = new HashSet<>();
+
+    SourceHandlePool(int maxOpen) {
+        this.maxOpen = maxOpen;
+    }
+
+    int getOpenCount() {
+        synchronized (this) {
+            return open.size();
+        }
+    }
+
+    void opened(LazyGenomicIterator it) {
+        final List<LazyGenomicIterator> candidates;
+        synchronized (this) {
+            open.add(it);
+            if (open.size() <= maxOpen) {
+                return;
+            }
+            candidates = new ArrayList<>(open);
+        }
+        candidates.remove(it);
+        candidates.sort(Comparator.comparingLong(LazyGenomicIterator::getLastUsed));
+        int excess = candidates.size() + 1 - maxOpen;
+        // Sources being read from are skipped, so the pool may be over its limit for a while
+        for (int i = 0; i < candidates.size() && excess > 0; i++) {
+            if (candidates.get(i).tryEvict()) {
+                excess--;
+            }
+        }
+    }
+
+    void closed(LazyGenomicIterator it) {
+        synchronized (this) {
+            open.remove(it);
+        }
+    }
+}
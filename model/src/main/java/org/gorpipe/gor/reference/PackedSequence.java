@@ -0,0 +1,289 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.reference;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A reference sequence of one chromosome packed with 2 bits per base in a memory mapped file.
+ * <p>
+ * Bases other than A, C, G and T, such as N, are stored as runs of the same character and soft masked (lower case)
+ * bases as runs of positions, so the sequence read back is exactly the one packed. Reads only use absolute gets on
+ * the mapped buffer, so one instance can be shared by all threads without locking.
+ * <p>
+ * The file holds a header, the packed bases, 4 per byte with the first base in the highest bits, the runs of other
+ * characters as (start, length, character) and the masked runs as (start, length). Positions are zero based.
+ */
+public class PackedSequence {
+    public static final String SUFFIX = ".gor2bit";
+
+    private static final int MAGIC = 0x47324254;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final ByteBuffer buffer;
+    private final int length;
+    private final int otherRuns;
+    private final int otherOffset;
+    private final int maskRuns;
+    private final int maskOffset;
+
+    private PackedSequence(ByteBuffer buffer, int length, int otherRuns, int maskRuns) {
+        this.buffer = buffer;
+        this.length = length;
+        this.otherRuns = otherRuns;
+        this.otherOffset = HEADER_SIZE + packedSize(length);
+        this.maskRuns = maskRuns;
+        this.maskOffset = otherOffset + otherRuns * 12;
+    }
+
+    /**
+     * Pack the bases of a chromosome.
+     *
+     * @param in   Stream of the bases of the chromosome, one byte per base
+     * @param file The file to write the packed sequence to
+     */
+    public static void pack(InputStream in, Path file) throws IOException {
+        final Runs other = new Runs(3);
+        final Runs masked = new Runs(2);
+        int length = 0;
+        try (InputStream bases = new BufferedInputStream(in, 1 << 16);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            // The header is written when the number of runs is known
+            out.write(new byte[HEADER_SIZE]);
+            int packed = 0;
+            int b;
+            while ((b = bases.read()) >= 0) {
+                if (length == Integer.MAX_VALUE) {
+                    throw new IOException("Sequence too long to pack");
+                }
+                if (b >= 'a' && b <= 'z') {
+                    masked.extend(length, 0);
+                    b -= 'a' - 'A';
+                }
+                final int code = code(b);
+                if (code < 0) {
+                    other.extend(length, b == 0 ? 'N' : b);
+                }
+                packed = packed << 2 | Math.max(code, 0);
+                length++;
+                if ((length & 3) == 0) {
+                    out.write(packed);
+                    packed = 0;
+                }
+            }
+            if ((length & 3) != 0) {
+                out.write(packed << (2 * (4 - (length & 3))));
+            }
+            other.write(out);
+            masked.write(out);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(length);
+            raf.writeInt(other.count);
+            raf.writeInt(masked.count);
+        }
+    }
+
+    /**
+     * Map a packed sequence. The file can be deleted once it is open.
+     *
+     * @throws IOException If the file can not be read or is not a complete packed sequence
+     */
+    public static PackedSequence open(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a packed sequence: " + file);
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a packed sequence: " + file);
+            }
+            final int length = buffer.getInt(8);
+            final int otherRuns = buffer.getInt(12);
+            final int maskRuns = buffer.getInt(16);
+            if (size != HEADER_SIZE + (long) packedSize(length) + otherRuns * 12L + maskRuns * 8L) {
+                throw new IOException("Incomplete packed sequence: " + file);
+            }
+            return new PackedSequence(buffer, length, otherRuns, maskRuns);
+        }
+    }
+
+    /**
+     * @return Number of bases in the sequence
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param pos Zero based position
+     * @return The base at the position, N if it is outside the sequence
+     */
+    public char getBase(int pos) {
+        if (pos < 0 || pos >= length) {
+            return 'N';
+        }
+        final int run = findRun(otherOffset, 12, otherRuns, pos);
+        final char base = run >= 0 ? (char) buffer.getInt(otherOffset + run * 12 + 8) : packedBase(pos);
+        return findRun(maskOffset, 8, maskRuns, pos) >= 0 ? Character.toLowerCase(base) : base;
+    }
+
+    /**
+     * @param start Zero based start position
+     * @param end   Zero based end position, exclusive
+     * @return The bases in the range, N for positions outside the sequence
+     */
+    public String getBases(int start, int end) {
+        final char[] bases = new char[Math.max(0, end - start)];
+        Arrays.fill(bases, 'N');
+        final int from = Math.max(start, 0);
+        final int to = Math.min(end, length);
+        for (int pos = from; pos < to; pos++) {
+            bases[pos - start] = packedBase(pos);
+        }
+        if (from < to) {
+            for (int run = firstRun(otherOffset, 12, otherRuns, from); run < otherRuns; run++) {
+                final int runStart = buffer.getInt(otherOffset + run * 12);
+                if (runStart >= to) break;
+                final char c = (char) buffer.getInt(otherOffset + run * 12 + 8);
+                final int runEnd = Math.min(to, runStart + buffer.getInt(otherOffset + run * 12 + 4));
+                for (int pos = Math.max(from, runStart); pos < runEnd; pos++) {
+                    bases[pos - start] = c;
+                }
+            }
+            for (int run = firstRun(maskOffset, 8, maskRuns, from); run < maskRuns; run++) {
+                final int runStart = buffer.getInt(maskOffset + run * 8);
+                if (runStart >= to) break;
+                final int runEnd = Math.min(to, runStart + buffer.getInt(maskOffset + run * 8 + 4));
+                for (int pos = Math.max(from, runStart); pos < runEnd; pos++) {
+                    bases[pos - start] = Character.toLowerCase(bases[pos - start]);
+                }
+            }
+        }
+        return new String(bases);
+    }
+
+    private char packedBase(int pos) {
+        return BASES[buffer.get(HEADER_SIZE + (pos >>> 2)) >>> (2 * (3 - (pos & 3))) & 3];
+    }
+
+    /**
+     * @return The run containing the position, or -1
+     */
+    private int findRun(int offset, int recordSize, int count, int pos) {
+        final int run = firstRun(offset, recordSize, count, pos);
+        if (run < count) {
+            final int runStart = buffer.getInt(offset + run * recordSize);
+            if (runStart <= pos && pos < runStart + buffer.getInt(offset + run * recordSize + 4)) {
+                return run;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The first run ending after the position
+     */
+    private int firstRun(int offset, int recordSize, int count, int pos) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final int runEnd = buffer.getInt(offset + mid * recordSize) + buffer.getInt(offset + mid * recordSize + 4);
+            if (runEnd <= pos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int packedSize(int length) {
+        return (int) ((length + 3L) / 4);
+    }
+
+    private static int code(int b) {
+        switch (b) {
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Runs of positions, each with an optional value, extended one position at a time.
+     */
+    private static class Runs {
+        private final int fields;
+        private int[] data = new int[3 * 256];
+        private int count = 0;
+
+        Runs(int fields) {
+            this.fields = fields;
+        }
+
+        void extend(int pos, int value) {
+            final int last = (count - 1) * fields;
+            if (count > 0 && data[last] + data[last + 1] == pos && (fields == 2 || data[last + 2] == value)) {
+                data[last + 1]++;
+                return;
+            }
+            if ((count + 1) * fields > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            final int next = count * fields;
+            data[next] = pos;
+            data[next + 1] = 1;
+            if (fields == 3) {
+                data[next + 2] = value;
+            }
+            count++;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            for (int i = 0; i < count * fields; i++) {
+                out.writeInt(data[i]);
+            }
+        }
+    }
+}
@@ -24,46 +24,120 @@ package org.gorpipe.gor.stats;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Collects named stats from senders. Updates do not lock, callers on hot paths should get the counter for a
+ * stat once with {@link #counter(int, String)} and update it directly.
+ */
 public class StatsCollector {
-    private final Map<Integer, Map<String, Double>> statsPerSender = new HashMap<>();
-    private final Map<Integer, String> senderNames = new HashMap<>();
-    private final Map<Integer, String> senderAnnotations = new HashMap<>();
-    private final Map<String, Integer> registeredNames = new HashMap<>();
+    private final Map<Integer, Sender> senders = new ConcurrentHashMap<>();
+    private final Map<String, Integer> registeredNames = new ConcurrentHashMap<>();
+    private final AtomicInteger lastSenderId = new AtomicInteger();
 
-    public synchronized int registerSender(String senderName, String annotation) {
+    public int registerSender(String senderName, String annotation) {
         String registeredName = senderName + ":" + annotation;
-        int id = registeredNames.getOrDefault(registeredName, 0);
-        if (id == 0) {
-            id = senderNames.size() + 1;
-            registeredNames.put(registeredName, id);
-
-            senderNames.put(id, senderName);
-            statsPerSender.put(id, new HashMap<>());
+        return registeredNames.computeIfAbsent(registeredName, k -> {
+            int id = lastSenderId.incrementAndGet();
+            senders.put(id, new Sender(senderName, annotation));
+            return id;
+        });
+    }
 
-            senderAnnotations.put(id, annotation);
+    /**
+     * @param sender Id of the sender
+     * @param stat   Name of the stat
+     * @return The counter of the stat, created if it does not exist
+     */
+    public Counter counter(int sender, String stat) {
+        Sender s = senders.get(sender);
+        if (s == null) {
+            s = senders.computeIfAbsent(sender, k -> new Sender(null, null));
         }
-        return id;
+        Counter counter = s.counters.get(stat);
+        if (counter == null) {
+            counter = s.counters.computeIfAbsent(stat, k -> new Counter());
+        }
+        return counter;
     }
 
-    public synchronized void inc(int sender, String stat) {
-        Map<String, Double> senderStats = statsPerSender.computeIfAbsent(sender, k ->new HashMap<>());
-        senderStats.compute(stat, (k, v) -> v == null ? 1.0 : v + 1.0);
+    public void inc(int sender, String stat) {
+        counter(sender, stat).inc();
     }
 
-    public synchronized void dec(int sender, String stat) {
-        Map<String, Double> senderStats = statsPerSender.computeIfAbsent(sender, k ->new HashMap<>());
-        senderStats.compute(stat, (k, v) -> v == null ? -1.0 : v - 1.0);
+    public void dec(int sender, String stat) {
+        counter(sender, stat).dec();
     }
 
-    public synchronized void add(int sender, String stat, double delta) {
-        Map<String, Double> senderStats = statsPerSender.computeIfAbsent(sender, k ->new HashMap<>());
-        senderStats.compute(stat, (k, v) -> v == null ? delta : v + delta);
+    public void add(int sender, String stat, double delta) {
+        counter(sender, stat).add(delta);
     }
 
-    public synchronized Map<String, Map<String, Double>> getStats() {
+    public Map<String, Map<String, Double>> getStats() {
         HashMap<String, Map<String, Double>> namedStats = new HashMap<>();
-        statsPerSender.forEach((k,v) -> namedStats.put(senderNames.get(k) + ":" + senderAnnotations.get(k), v));
+        senders.forEach((k, v) -> {
+            Map<String, Double> values = new HashMap<>();
+            v.counters.forEach((stat, counter) -> {
+                // Counters fetched ahead of time are only reported once they are updated
+                if (counter.isUpdated()) {
+                    values.put(stat, counter.get());
+                }
+            });
+            namedStats.put(v.name + ":" + v.annotation, values);
+        });
         return namedStats;
     }
+
+    /**
+     * A stat that can be updated from many threads without locking.
+     */
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+        private volatile boolean updated;
+
+        public void inc() {
+            count.increment();
+            markUpdated();
+        }
+
+        public void dec() {
+            count.decrement();
+            markUpdated();
+        }
+
+        public void add(double delta) {
+            sum.add(delta);
+            markUpdated();
+        }
+
+        public double get() {
+            return count.sum() + sum.sum();
+        }
+
+        public boolean isUpdated() {
+            return updated;
+        }
+
+        private void markUpdated() {
+            // Read before writing, so updates do not write the shared flag once it is set
+            if (!updated) {
+                updated = true;
+            }
+        }
+    }
+
+    private static class Sender {
+        final String name;
+        final String annotation;
+        final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+        Sender(String name, String annotation) {
+            this.name = name;
+            this.annotation = annotation;
+        }
+    }
 }
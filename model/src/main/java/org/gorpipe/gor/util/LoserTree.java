@@ -0,0 +1,125 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges sorted iterators into one sorted iterator with a tournament tree of losers. Each element returned costs
+ * log2(k) comparisons for k iterators, the element taken is only compared to the losers on its path to the root.
+ * Elements that compare equal are returned in the order of the iterators in the list, so the merge is stable.
+ *
+ * @param <T> Type of the elements
+ */
+public class LoserTree<T> implements Iterator<T> {
+    private final Iterator<? extends T>[] sources;
+    private final Comparator<? super T> comparator;
+    private final Object[] heads;
+    // tree[0] is the index of the winner, tree[n] the index of the loser at internal node n. The leaf of source i
+    // is node k + i, the parent of node n is n / 2.
+    private final int[] tree;
+    private final int k;
+
+    @SuppressWarnings("unchecked")
+    public LoserTree(List<? extends Iterator<? extends T>> sources, Comparator<? super T> comparator) {
+        this.sources = sources.toArray(new Iterator[0]);
+        this.comparator = comparator;
+        this.k = this.sources.length;
+        this.heads = new Object[k];
+        this.tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; i++) {
+            advance(i);
+        }
+        build();
+    }
+
+    private void build() {
+        if (k == 0) return;
+        final int[] winners = new int[2 * k];
+        for (int n = 2 * k - 1; n >= k; n--) {
+            winners[n] = n - k;
+        }
+        for (int n = k - 1; n >= 1; n--) {
+            final int a = winners[2 * n];
+            final int b = winners[2 * n + 1];
+            if (beats(a, b)) {
+                winners[n] = a;
+                tree[n] = b;
+            } else {
+                winners[n] = b;
+                tree[n] = a;
+            }
+        }
+        tree[0] = k == 1 ? 0 : winners[1];
+    }
+
+    private void advance(int source) {
+        heads[source] = sources[source].hasNext() ? sources[source].next() : null;
+    }
+
+    /**
+     * @return Whether the head of source a comes before the head of source b, exhausted sources come last
+     */
+    @SuppressWarnings("unchecked")
+    private boolean beats(int a, int b) {
+        if (heads[a] == null) return false;
+        if (heads[b] == null) return true;
+        final int cmp = comparator.compare((T) heads[a], (T) heads[b]);
+        return cmp < 0 || (cmp == 0 && a < b);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return k > 0 && heads[tree[0]] != null;
+    }
+
+    /**
+     * @return The next element, without removing it
+     */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return (T) heads[tree[0]];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int winner = tree[0];
+        final T result = (T) heads[winner];
+        advance(winner);
+        for (int n = (winner + k) / 2; n >= 1; n /= 2) {
+            if (beats(tree[n], winner)) {
+                final int loser = winner;
+                winner = tree[n];
+                tree[n] = loser;
+            }
+        }
+        tree[0] = winner;
+        return result;
+    }
+}
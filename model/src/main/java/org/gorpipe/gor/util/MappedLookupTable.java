@@ -0,0 +1,542 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import org.gorpipe.exceptions.GorSystemException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+/**
+ * An immutable hash table of string keys and values stored in a memory mapped file, outside the java heap.
+ * <p>
+ * The table is built once from a lookup file and can then be shared by all sessions and threads reading the file,
+ * the heap only holds the mapped buffers. A key can have a chain of values, for multi maps.
+ * <p>
+ * The file holds a header, the records and the index. A record is the offset of the previous record of the key plus
+ * one (0 if none), the length of the key, the length of the value, the key and the value, all UTF-8. Records never
+ * cross the chunks the file is mapped in. The index is a power of two of 8 byte slots, each holding the offset of the
+ * last record of a key plus one in the low 40 bits and the high bits of the hash of the key in the rest. 0 is an
+ * empty slot.
+ */
+public class MappedLookupTable {
+    public static final String SUFFIX = ".gorlut";
+
+    private static final long MAGIC = 0x474f524c55543031L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int DEFAULT_CHUNK_SHIFT = 30;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final ByteBuffer[] chunks;
+    private final int chunkShift;
+    private final long chunkMask;
+    private final boolean multi;
+    private final long size;
+    private final long slotCount;
+    private final long slotsOffset;
+
+    private MappedLookupTable(ByteBuffer[] chunks, int chunkShift, boolean multi, long size, long slotCount, long slotsOffset) {
+        this.chunks = chunks;
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1L << chunkShift) - 1;
+        this.multi = multi;
+        this.size = size;
+        this.slotCount = slotCount;
+        this.slotsOffset = slotsOffset;
+    }
+
+    /**
+     * Map a table written by {@link Builder}. The file can be deleted once it is open.
+     *
+     * @param file The table file
+     * @return The table
+     * @throws IOException If the file can not be read or is not a complete table
+     */
+    public static MappedLookupTable open(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Not a lookup table: " + file);
+            }
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getLong() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a lookup table: " + file);
+            }
+            final int flags = header.getInt();
+            final int chunkShift = header.getInt();
+            final long size = header.getLong();
+            final long slotCount = header.getLong();
+            final long slotsOffset = header.getLong();
+            if (slotCount == 0 || slotsOffset + slotCount * 8 != length) {
+                throw new IOException("Incomplete lookup table: " + file);
+            }
+
+            final long chunkSize = 1L << chunkShift;
+            final ByteBuffer[] chunks = new ByteBuffer[(int) ((length + chunkSize - 1) >>> chunkShift)];
+            for (int i = 0; i < chunks.length; i++) {
+                final long start = (long) i << chunkShift;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length - start));
+            }
+            return new MappedLookupTable(chunks, chunkShift, (flags & 1) != 0, size, slotCount, slotsOffset);
+        }
+    }
+
+    /**
+     * @return Number of distinct keys in the table
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isMulti() {
+        return multi;
+    }
+
+    /**
+     * @return The last value added for the key, or null if the key is not in the table
+     */
+    public String get(String key) {
+        final long record = find(key.getBytes(StandardCharsets.UTF_8));
+        return record < 0 ? null : value(record);
+    }
+
+    /**
+     * @return All values added for the key in the order they were added, or null if the key is not in the table
+     */
+    public String[] getAll(String key) {
+        final long record = find(key.getBytes(StandardCharsets.UTF_8));
+        return record < 0 ? null : values(record);
+    }
+
+    /**
+     * @return A read only map view of the table, with the last value of each key
+     */
+    public Map<String, String> asMap() {
+        return new MapView<>(this::value) {
+            @Override
+            public String get(Object key) {
+                return key instanceof String ? MappedLookupTable.this.get((String) key) : null;
+            }
+        };
+    }
+
+    /**
+     * @return A read only map view of the table, with all values of each key
+     */
+    public Map<String, String[]> asMultiMap() {
+        return new MapView<>(this::values) {
+            @Override
+            public String[] get(Object key) {
+                return key instanceof String ? getAll((String) key) : null;
+            }
+        };
+    }
+
+    private long find(byte[] key) {
+        final long hash = hash(key, 0, key.length);
+        final long tag = hash >>> OFFSET_BITS;
+        final long mask = slotCount - 1;
+        long slot = hash & mask;
+        while (true) {
+            final long entry = getLong(slotsOffset + slot * 8);
+            if (entry == 0) {
+                return -1;
+            }
+            if (entry >>> OFFSET_BITS == tag) {
+                final long record = (entry & OFFSET_MASK) - 1;
+                if (keyEquals(record, key)) {
+                    return record;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(long record, byte[] key) {
+        final ByteBuffer chunk = chunks[(int) (record >>> chunkShift)];
+        final int pos = (int) (record & chunkMask);
+        if (chunk.getInt(pos + 8) != key.length) {
+            return false;
+        }
+        final int keyPos = pos + RECORD_HEADER_SIZE;
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(keyPos + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String key(long record) {
+        final ByteBuffer chunk = chunks[(int) (record >>> chunkShift)];
+        final int pos = (int) (record & chunkMask);
+        final byte[] bytes = new byte[chunk.getInt(pos + 8)];
+        chunk.get(pos + RECORD_HEADER_SIZE, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String value(long record) {
+        final ByteBuffer chunk = chunks[(int) (record >>> chunkShift)];
+        final int pos = (int) (record & chunkMask);
+        final byte[] bytes = new byte[chunk.getInt(pos + 12)];
+        chunk.get(pos + RECORD_HEADER_SIZE + chunk.getInt(pos + 8), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String[] values(long record) {
+        final List<String> values = new ArrayList<>();
+        long current = record;
+        while (current >= 0) {
+            values.add(value(current));
+            current = chunks[(int) (current >>> chunkShift)].getLong((int) (current & chunkMask)) - 1;
+        }
+        Collections.reverse(values);
+        return values.toArray(new String[0]);
+    }
+
+    private long getLong(long offset) {
+        return chunks[(int) (offset >>> chunkShift)].getLong((int) (offset & chunkMask));
+    }
+
+    static long hash(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private abstract class MapView<V> extends AbstractMap<String, V> {
+        private final LongFunction<V> valueOf;
+
+        MapView(LongFunction<V> valueOf) {
+            this.valueOf = valueOf;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && find(((String) key).getBytes(StandardCharsets.UTF_8)) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    return new Iterator<>() {
+                        private long slot = nextSlot(0);
+
+                        private long nextSlot(long from) {
+                            long s = from;
+                            while (s < slotCount && getLong(slotsOffset + s * 8) == 0) {
+                                s++;
+                            }
+                            return s;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return slot < slotCount;
+                        }
+
+                        @Override
+                        public Entry<String, V> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            final long record = (getLong(slotsOffset + slot * 8) & OFFSET_MASK) - 1;
+                            slot = nextSlot(slot + 1);
+                            return new SimpleImmutableEntry<>(key(record), valueOf.apply(record));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return MapView.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes a lookup table file. Keys can be looked up while the table is built, the index of the keys is kept on
+     * the heap as primitive arrays until the table is finished.
+     */
+    public static class Builder implements Closeable {
+        private final FileChannel channel;
+        private final boolean multi;
+        private final int chunkShift;
+        private final long chunkSize;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        private long bufferStart = HEADER_SIZE;
+
+        private long[] hashes = new long[1024];
+        private long[] lastRecords = new long[1024];
+        private int keyCount = 0;
+        private int[] index = new int[2048];
+
+        /**
+         * @param file  The file to write, it is overwritten
+         * @param multi Whether keys can have many values, see {@link #add(String, String)}
+         */
+        public Builder(Path file, boolean multi) throws IOException {
+            this(file, multi, DEFAULT_CHUNK_SHIFT);
+        }
+
+        Builder(Path file, boolean multi, int chunkShift) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.multi = multi;
+            this.chunkShift = chunkShift;
+            this.chunkSize = 1L << chunkShift;
+        }
+
+        /**
+         * @return The last value added for the key, or null if the key has not been added
+         */
+        public String get(String key) throws IOException {
+            final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            final int k = find(bytes, hash(bytes, 0, bytes.length));
+            if (k < 0) {
+                return null;
+            }
+            final ByteBuffer record = readRecord(lastRecords[k]);
+            final byte[] value = new byte[record.getInt(12)];
+            record.get(RECORD_HEADER_SIZE + record.getInt(8), value);
+            return new String(value, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Set the value of the key, replacing earlier values.
+         */
+        public void put(String key, String value) throws IOException {
+            write(key, value, false);
+        }
+
+        /**
+         * Add a value to the values of the key.
+         */
+        public void add(String key, String value) throws IOException {
+            if (!multi) {
+                throw new IllegalStateException("Values can only be added to multi tables");
+            }
+            write(key, value, true);
+        }
+
+        /**
+         * Write the index and header and close the file.
+         */
+        public void finish() throws IOException {
+            try {
+                flush();
+                final long slotCount = Math.max(2, Long.highestOneBit(Math.max(1, keyCount) * 2L - 1) << 1);
+                final long slotsOffset = (bufferStart + 7) & ~7L;
+                final long end = slotsOffset + slotCount * 8;
+                final long mask = slotCount - 1;
+
+                final MappedByteBuffer[] slotChunks = new MappedByteBuffer[(int) (((end - 1) >>> chunkShift) + 1)];
+                for (int i = (int) (slotsOffset >>> chunkShift); i < slotChunks.length; i++) {
+                    final long start = Math.max(slotsOffset, (long) i << chunkShift);
+                    final long chunkEnd = Math.min(end, ((long) i + 1) << chunkShift);
+                    slotChunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, chunkEnd - start);
+                }
+                for (int k = 0; k < keyCount; k++) {
+                    final long hash = hashes[k];
+                    long slot = hash & mask;
+                    while (true) {
+                        final long offset = slotsOffset + slot * 8;
+                        final ByteBuffer chunk = slotChunks[(int) (offset >>> chunkShift)];
+                        final int pos = (int) (offset - Math.max(slotsOffset, (offset >>> chunkShift) << chunkShift));
+                        if (chunk.getLong(pos) == 0) {
+                            chunk.putLong(pos, (hash >>> OFFSET_BITS) << OFFSET_BITS | (lastRecords[k] + 1));
+                            break;
+                        }
+                        slot = (slot + 1) & mask;
+                    }
+                }
+
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putLong(MAGIC).putInt(VERSION).putInt(multi ? 1 : 0).putInt(chunkShift)
+                        .putLong(keyCount).putLong(slotCount).putLong(slotsOffset);
+                header.position(HEADER_SIZE).flip();
+                channel.write(header, 0);
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void write(String key, String value, boolean chain) throws IOException {
+            final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            final long hash = hash(keyBytes, 0, keyBytes.length);
+            final int k = find(keyBytes, hash);
+            final long previous = k >= 0 && chain ? lastRecords[k] : -1;
+
+            final int length = RECORD_HEADER_SIZE + keyBytes.length + valueBytes.length;
+            if (length > chunkSize) {
+                throw new GorSystemException("Lookup table entry too large for key " + key, null);
+            }
+            long position = bufferStart + buffer.position();
+            if ((position & (chunkSize - 1)) + length > chunkSize) {
+                // Records do not cross chunks, skip to the next one
+                flush();
+                position = (position | (chunkSize - 1)) + 1;
+                bufferStart = position;
+            }
+            if (length > buffer.remaining()) {
+                flush();
+            }
+            final ByteBuffer target = length > buffer.capacity() ? ByteBuffer.allocate(length) : buffer;
+            target.putLong(previous + 1).putInt(keyBytes.length).putInt(valueBytes.length).put(keyBytes).put(valueBytes);
+            if (target != buffer) {
+                target.flip();
+                while (target.hasRemaining()) {
+                    channel.write(target, position + target.position());
+                }
+                bufferStart = position + length;
+            }
+
+            if (k >= 0) {
+                lastRecords[k] = position;
+            } else {
+                addKey(hash, position);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, bufferStart + buffer.position());
+            }
+            bufferStart += buffer.limit();
+            buffer.clear();
+        }
+
+        private ByteBuffer readRecord(long position) throws IOException {
+            if (position >= bufferStart) {
+                final int pos = (int) (position - bufferStart);
+                final int length = RECORD_HEADER_SIZE + buffer.getInt(pos + 8) + buffer.getInt(pos + 12);
+                return buffer.duplicate().position(pos).limit(pos + length).slice();
+            }
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            readFully(header, position);
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + header.getInt(8) + header.getInt(12));
+            readFully(record, position);
+            return record;
+        }
+
+        private void readFully(ByteBuffer target, long position) throws IOException {
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    throw new IOException("Unexpected end of lookup table");
+                }
+            }
+            target.flip();
+        }
+
+        private int find(byte[] key, long hash) throws IOException {
+            final int mask = index.length - 1;
+            int slot = (int) hash & mask;
+            while (index[slot] != 0) {
+                final int k = index[slot] - 1;
+                if (hashes[k] == hash) {
+                    final ByteBuffer record = readRecord(lastRecords[k]);
+                    if (record.getInt(8) == key.length
+                            && record.slice(RECORD_HEADER_SIZE, key.length).equals(ByteBuffer.wrap(key))) {
+                        return k;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void addKey(long hash, long record) {
+            if (keyCount == hashes.length) {
+                hashes = Arrays.copyOf(hashes, keyCount * 2);
+                lastRecords = Arrays.copyOf(lastRecords, keyCount * 2);
+            }
+            hashes[keyCount] = hash;
+            lastRecords[keyCount] = record;
+            keyCount++;
+            if (keyCount * 2 > index.length) {
+                index = new int[index.length * 2];
+                for (int k = 0; k < keyCount; k++) {
+                    insert(k);
+                }
+            } else {
+                insert(keyCount - 1);
+            }
+        }
+
+        private void insert(int k) {
+            final int mask = index.length - 1;
+            int slot = (int) hashes[k] & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = k + 1;
+        }
+    }
+}
@@ -70,6 +70,13 @@ abstract class Analysis() extends Processor with Cloneable {
     }
   }
 
+  /**
+    * @return The counter of the stat for updates on hot paths, or null if stats are not collected
+    */
+  def statsCounter(name: String): StatsCollector.Counter = {
+    if (statsCollector != null) statsCollector.counter(statsSenderId, name) else null
+  }
+
   def init(cloned: Analysis) = {
     isCloned = true
     if (pipeTo != null) {
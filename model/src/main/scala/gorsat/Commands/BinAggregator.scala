@@ -22,10 +22,43 @@
 
 package gorsat.Commands
 
+import org.gorpipe.base.concurrency.CommonThreadPools
 import org.gorpipe.exceptions.GorParsingException
 import org.gorpipe.gor.model.Row
 
+import java.util
+import java.util.concurrent.{CompletableFuture, CompletionException}
+import scala.collection.mutable.ArrayBuffer
 
+object BinAggregator {
+  def parallelEnabled: Boolean = System.getProperty("gor.bin.parallel", "false").toBoolean
+
+  val MAX_IN_FLIGHT: Int = System.getProperty("gor.bin.parallel.inflight",
+    String.valueOf(2 * CommonThreadPools.binThreadPool.getParallelism)).toInt
+  val BATCH_ROWS: Int = System.getProperty("gor.bin.parallel.batch.rows", "10000").toInt
+
+  /**
+    * Collects the rows of the bins sent on a worker thread.
+    */
+  private class Collector(wantsNoMoreAtStart: Boolean) extends Analysis {
+    val rows = new util.ArrayList[Row]()
+    wantsNoMore = wantsNoMoreAtStart
+
+    override def process(r: Row): Unit = {
+      rows.add(r)
+    }
+  }
+}
+
+/**
+  * Aggregates rows into bins and sends the rows of each bin to the next processor when the bin is complete.
+  * <p>
+  * With gor.bin.parallel and a factory whose states can be sent on other threads, the completed bins are taken out
+  * of the aggregator and sent on a worker pool, batched by the number of rows in them, while new bins are filled.
+  * The rows of the bins are passed on in the order of the bins, and at most gor.bin.parallel.inflight batches are
+  * in flight at a time. The states of sent bins are given back to the aggregator and reused for new bins, as the
+  * states of some factories are large.
+  */
 case class BinAggregator(binFactory: BinFactory, numBins: Int, window: Int, useKeyForChrom: Boolean = false) {
   if (numBins < window) {
     throw new GorParsingException(s"Error in BinAggregator setup - numBins ($numBins) must be larger than window ($window): ")
@@ -37,6 +70,14 @@ case class BinAggregator(binFactory: BinFactory, numBins: Int, window: Int, useK
   private var currentKey: String = _
   private var nextProcessor: Processor = _
 
+  private val parallel = BinAggregator.parallelEnabled && binFactory.isParallelizable
+  private val binRows = new Array[Int](numBins)
+  private var pending = new ArrayBuffer[(BinState, BinInfo)]()
+  private var pendingRows = 0
+  private val inFlight = new util.ArrayDeque[CompletableFuture[(util.ArrayList[Row], ArrayBuffer[(BinState, BinInfo)])]]()
+  // States of bins that have been sent, ready for new bins
+  private val free = new util.ArrayDeque[(BinState, BinInfo)]()
+
   def setNextProcessor(p: Processor): Unit = {
     nextProcessor = p
   }
@@ -64,6 +105,7 @@ case class BinAggregator(binFactory: BinFactory, numBins: Int, window: Int, useK
     }
     currentBinInfo.used = true
     currentBin.process(r)
+    binRows(mID) += 1
 
     if (eBinID < binID) {
       eBinID = binID
@@ -86,8 +128,7 @@ case class BinAggregator(binFactory: BinFactory, numBins: Int, window: Int, useK
     for (i <- 0 to mEnd) {
       val mID = mInd(sBinID + i)
       if (binInfo(mID).used) {
-        bins(mID).sendToNextProcessor(binInfo(mID), nextProcessor)
-        binInfo(mID).used = false
+        send(mID)
       }
     }
     eBinID = curBinID
@@ -103,11 +144,24 @@ case class BinAggregator(binFactory: BinFactory, numBins: Int, window: Int, useK
       for (i <- 0 to mEnd) {
         val mID = mInd(sBinID + i)
         if (binInfo(mID).used) {
-          bins(mID).sendToNextProcessor(binInfo(mID), nextProcessor)
-          binInfo(mID).used = false
+          send(mID)
         }
       }
+      if (parallel) {
+        submit()
+        drain()
+      }
     } finally {
+      if (parallel) {
+        // Wait for the bins still being sent, a failed batch closes its own states
+        inFlight.forEach(f => f.handle[Unit]((result, _) => if (result != null) closeStates(result._2)).join())
+        inFlight.clear()
+        closeStates(pending)
+        pending.clear()
+        pendingRows = 0
+        free.forEach(x => closeStates(Seq(x)))
+        free.clear()
+      }
       for (i <- 0 to mEnd) {
         try {
           val mID = mInd(sBinID + i)
@@ -120,5 +174,83 @@ case class BinAggregator(binFactory: BinFactory, numBins: Int, window: Int, useK
     }
     currentKey = null
   }
-}
 
+  private def send(mID: Int): Unit = {
+    if (parallel) {
+      // The state is sent later on a worker, the slot gets a state of a sent bin or a new one
+      pending += ((bins(mID), binInfo(mID)))
+      pendingRows += binRows(mID)
+      val next = free.poll()
+      if (next != null) {
+        bins(mID) = next._1
+        binInfo(mID) = next._2
+      } else {
+        bins(mID) = binFactory.create
+        binInfo(mID) = new BinInfo
+      }
+      binRows(mID) = 0
+      if (pendingRows >= BinAggregator.BATCH_ROWS) submit()
+    } else {
+      bins(mID).sendToNextProcessor(binInfo(mID), nextProcessor)
+      binInfo(mID).used = false
+    }
+  }
+
+  private def submit(): Unit = {
+    if (pending.isEmpty) return
+    while (inFlight.size() >= BinAggregator.MAX_IN_FLIGHT) emit(await(inFlight.poll()))
+
+    val batch = pending
+    val collector = new BinAggregator.Collector(nextProcessor.wantsNoMore)
+    inFlight.add(CompletableFuture.supplyAsync(() => {
+      try {
+        batch.foreach { case (state, info) => if (!collector.wantsNoMore) state.sendToNextProcessor(info, collector) }
+      } catch {
+        case e: Throwable =>
+          closeStates(batch)
+          throw e
+      }
+      (collector.rows, batch)
+    }, CommonThreadPools.binThreadPool))
+    pending = new ArrayBuffer[(BinState, BinInfo)]()
+    pendingRows = 0
+
+    while (!inFlight.isEmpty && inFlight.peek().isDone) emit(await(inFlight.poll()))
+  }
+
+  private def drain(): Unit = {
+    while (!inFlight.isEmpty) emit(await(inFlight.poll()))
+  }
+
+  private def await(f: CompletableFuture[(util.ArrayList[Row], ArrayBuffer[(BinState, BinInfo)])]): (util.ArrayList[Row], ArrayBuffer[(BinState, BinInfo)]) = {
+    try {
+      f.join()
+    } catch {
+      case e: CompletionException if e.getCause != null => throw e.getCause
+    }
+  }
+
+  private def emit(result: (util.ArrayList[Row], ArrayBuffer[(BinState, BinInfo)])): Unit = {
+    val (rows, batch) = result
+    batch.foreach { case (state, info) =>
+      info.used = false
+      free.add((state, info))
+    }
+    var i = 0
+    while (i < rows.size() && !nextProcessor.wantsNoMore) {
+      nextProcessor.process(rows.get(i))
+      i += 1
+    }
+  }
+
+  private def closeStates(states: collection.Seq[(BinState, BinInfo)]): Unit = {
+    states.foreach { case (state, _) =>
+      try {
+        state.close()
+      } catch {
+        case _: Exception =>
+        // ignore close error
+      }
+    }
+  }
+}
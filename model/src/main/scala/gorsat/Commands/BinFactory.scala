@@ -24,4 +24,10 @@ package gorsat.Commands
 
 abstract class BinFactory {
   def create: BinState
+
+  /**
+    * @return True if the states only use their own data when sending their rows, so completed bins can be sent
+    *         on other threads while new bins are filled, see [[BinAggregator]]
+    */
+  def isParallelizable: Boolean = false
 }
@@ -22,11 +22,18 @@
 
 package gorsat.gorsatGorIterator
 
-import java.nio.file.Files
+import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths, StandardCopyOption}
+import java.util.UUID
 import java.util.stream.Collectors
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource
 import org.gorpipe.gor.model.{DriverBackedFileReader, FileReader}
 import org.gorpipe.gor.session.GorSession
+import org.gorpipe.gor.util.{DataUtil, MappedLookupTable}
 import org.gorpipe.model.gor.iterators.LineIterator
+import org.slf4j.{Logger, LoggerFactory}
 
 import scala.collection.mutable.ListBuffer
 import scala.jdk.CollectionConverters.IterableHasAsScala
@@ -37,6 +44,15 @@ object MapAndListUtilities {
   type singleHashMap =  java.util.Map[String,String] //scala.collection.mutable.HashMap[String, String]
   type multiHashMap = java.util.Map[String, Array[String]] //scala.collection.mutable.HashMap[String, List[String]]
 
+  private val log: Logger = LoggerFactory.getLogger(this.getClass)
+
+  // Lookup tables of large files are built once per file version into memory mapped files shared by all sessions
+  def offHeapTables: Boolean = System.getProperty("gor.lookup.offheap", "false").toBoolean
+  private def offHeapMinimumSize: Long = System.getProperty("gor.lookup.offheap.minsize", "10000000").toLong
+  private def offHeapDirectory: String = System.getProperty("gor.lookup.offheap.dir", "")
+  private val sharedTables: Cache[String, MappedLookupTable] = Caffeine.newBuilder()
+    .maximumSize(System.getProperty("gor.lookup.offheap.cachesize", "100").toLong).build()
+
   def exists(filename: String, reader: FileReader): Boolean = {
 
     if (filename == null) return false
@@ -51,15 +67,26 @@ object MapAndListUtilities {
                        asSet: Boolean, skipEmpty: Boolean, session: GorSession): singleHashMap = {
     if(!exists(filename, session.getProjectContext.getSystemFileReader)) return new java.util.HashMap[String, String]()
 
-    getSingleHashMap(filename, FileLineIterator(filename, session.getProjectContext.getSystemFileReader), caseInsensitive,
-      ic, oc, asSet, skipEmpty, session)
+    val reader = session.getProjectContext.getSystemFileReader
+    sharedTable(filename, filename, reader, s"map$ic${oc.mkString(",")}$asSet$caseInsensitive$skipEmpty", multi = false)(
+      builder => readLines(filename, reader, line => addSingleLine(line, caseInsensitive, ic, oc, asSet, skipEmpty, builder.get, builder.put))) match {
+      case Some(table) => table.asMap()
+      case None => getSingleHashMap(filename, FileLineIterator(filename, session.getProjectContext.getSystemFileReader),
+        caseInsensitive, ic, oc, asSet, skipEmpty, session)
+    }
   }
 
   def getMultiHashMap(filename: String, caseInsensitive: Boolean, ic: Int, oc: Array[Int],
                       session: GorSession): multiHashMap = {
     if (!exists(filename, session.getProjectContext.getSystemFileReader)) return new java.util.HashMap[String, Array[String]]
 
-    getMultiHashMap(filename, FileLineIterator(filename, session.getProjectContext.getSystemFileReader), caseInsensitive, ic, oc, session)
+    val reader = session.getProjectContext.getSystemFileReader
+    sharedTable(filename, filename, reader, s"multimap$ic${oc.mkString(",")}$caseInsensitive", multi = true)(
+      builder => readLines(filename, reader, line => addMultiLine(line, caseInsensitive, ic, oc, builder.add))) match {
+      case Some(table) => table.asMultiMap()
+      case None => getMultiHashMap(filename, FileLineIterator(filename, session.getProjectContext.getSystemFileReader),
+        caseInsensitive, ic, oc, session)
+    }
   }
 
   def getMultiHashMap(filename: String, iterator: LineIterator,
@@ -115,8 +142,9 @@ object MapAndListUtilities {
   def getSingleHashMap(filename: String, iterator: LineIterator, caseInsensitive: Boolean, ic: Int,
                        oc: Array[Int], asSet: Boolean, skipEmpty: Boolean, session: GorSession): singleHashMap =  {
     val extFilename = "map" + filename + ic + oc.mkString(",") + asSet
-    val ocl = oc.length
-    syncGetSingleHashMap(extFilename, session) match {
+    syncGetSingleHashMap(extFilename, session).orElse(sharedNorTable(filename, iterator, session,
+      s"map$ic${oc.mkString(",")}$asSet$caseInsensitive$skipEmpty", multi = false)(
+      (line, builder) => addSingleLine(line, caseInsensitive, ic, oc, asSet, skipEmpty, builder.get, builder.put)).map(_.asMap())) match {
       case Some(theMap) =>
         iterator.close()
         theMap
@@ -128,28 +156,8 @@ object MapAndListUtilities {
 
           while (iterator.hasNext) {
             val x = iterator.nextLine
-            val cols = x.split("\t", -1)
             mmu.check("getSingleHashMap", mmu.lineNum, x)
-            if (asSet) {
-              val lookupString =
-                if (caseInsensitive) cols.slice(0, 1.max(ic)).mkString("\t").toUpperCase
-                else cols.slice(0, 1.max(ic)).mkString("\t")
-              colMap.put(lookupString, "1")
-            } else {
-              //            if (cols.length >= ic + oc) colMap += (cols.slice(0,ic).mkString("\t") -> cols.slice(ic,ic+oc).mkString("\t"))
-              if (cols.length >= ic + ocl) {
-                val lookupString =
-                  if (caseInsensitive) cols.slice(0, ic).mkString("\t").toUpperCase
-                  else cols.slice(0, ic).mkString("\t")
-                if (colMap.getOrDefault(lookupString,null) == null) {
-                  colMap.put(lookupString, oc.tail.map(c => cols(c)).foldLeft(cols(oc.head))(_ + "\t" + _))
-                } else {
-                  val existingValues = colMap.get(lookupString).split("\t",-1)
-                  val newValues = if( skipEmpty ) existingValues.zip(oc.map(c => cols(c))).map(_.productIterator.filter(_.toString.nonEmpty).mkString(",")) else existingValues.zip(oc.map(c => cols(c))).map(x => x._1 + "," + x._2 )
-                  colMap.put(lookupString, newValues.tail.foldLeft(newValues.head)(_ + "\t" + _))
-                }
-              }
-            }
+            addSingleLine(x, caseInsensitive, ic, oc, asSet, skipEmpty, colMap.get, colMap.put)
           }
           syncAddSingleHashMap(extFilename, colMap, session)
           colMap
@@ -162,8 +170,9 @@ object MapAndListUtilities {
   def getMultiHashMap(filename: String, iterator: LineIterator, caseInsensitive: Boolean, ic: Int,
                       oc: Array[Int], session: GorSession): multiHashMap = {
     val extFilename = "multimap" + filename + ic + oc.mkString(",")
-    val ocl = oc.length
-    syncGetMultiHashMap(extFilename, session) match {
+    syncGetMultiHashMap(extFilename, session).orElse(sharedNorTable(filename, iterator, session,
+      s"multimap$ic${oc.mkString(",")}$caseInsensitive", multi = true)(
+      (line, builder) => addMultiLine(line, caseInsensitive, ic, oc, builder.add)).map(_.asMultiMap())) match {
       case Some(theMap) =>
         iterator.close()
         theMap
@@ -173,18 +182,15 @@ object MapAndListUtilities {
           val mmu: MemoryMonitorUtil = new MemoryMonitorUtil(MemoryMonitorUtil.basicOutOfMemoryHandler)
           while (iterator.hasNext) {
             val x = iterator.nextLine
-            val cols = x.split("\t", -1)
             mmu.check("getMultiHashMap", mmu.lineNum, x)
-            if (cols.length >= ic + ocl) {
-              val (a, b) = (cols.slice(0, ic).mkString("\t"), oc.tail.map(c => cols(c)).foldLeft(cols(oc.head))(_ + "\t" + _))
-              val cisa = if (caseInsensitive) a.toUpperCase else a
-              if (multiMap.containsKey(cisa)) {
-                multiMap.put(cisa, multiMap.get(cisa) += b)
+            addMultiLine(x, caseInsensitive, ic, oc, (key, value) => {
+              if (multiMap.containsKey(key)) {
+                multiMap.put(key, multiMap.get(key) += value)
               } else {
-                val buffer = ListBuffer(b)
-                multiMap.put(cisa, buffer)
+                val buffer = ListBuffer(value)
+                multiMap.put(key, buffer)
               }
-            }
+            })
           }
           val multiOutputMap = new java.util.HashMap[String, Array[String]]()
           multiMap.forEach((k, v) => {
@@ -198,6 +204,156 @@ object MapAndListUtilities {
     }
   }
 
+  private def addSingleLine(line: String, caseInsensitive: Boolean, ic: Int, oc: Array[Int], asSet: Boolean,
+                            skipEmpty: Boolean, get: String => String, put: (String, String) => Any): Unit = {
+    val cols = line.split("\t", -1)
+    if (asSet) {
+      val lookupString =
+        if (caseInsensitive) cols.slice(0, 1.max(ic)).mkString("\t").toUpperCase
+        else cols.slice(0, 1.max(ic)).mkString("\t")
+      put(lookupString, "1")
+    } else {
+      //            if (cols.length >= ic + oc) colMap += (cols.slice(0,ic).mkString("\t") -> cols.slice(ic,ic+oc).mkString("\t"))
+      if (cols.length >= ic + oc.length) {
+        val lookupString =
+          if (caseInsensitive) cols.slice(0, ic).mkString("\t").toUpperCase
+          else cols.slice(0, ic).mkString("\t")
+        val existing = get(lookupString)
+        if (existing == null) {
+          put(lookupString, oc.tail.map(c => cols(c)).foldLeft(cols(oc.head))(_ + "\t" + _))
+        } else {
+          val existingValues = existing.split("\t",-1)
+          val newValues = if( skipEmpty ) existingValues.zip(oc.map(c => cols(c))).map(_.productIterator.filter(_.toString.nonEmpty).mkString(",")) else existingValues.zip(oc.map(c => cols(c))).map(x => x._1 + "," + x._2 )
+          put(lookupString, newValues.tail.foldLeft(newValues.head)(_ + "\t" + _))
+        }
+      }
+    }
+  }
+
+  private def addMultiLine(line: String, caseInsensitive: Boolean, ic: Int, oc: Array[Int],
+                           add: (String, String) => Any): Unit = {
+    val cols = line.split("\t", -1)
+    if (cols.length >= ic + oc.length) {
+      val (a, b) = (cols.slice(0, ic).mkString("\t"), oc.tail.map(c => cols(c)).foldLeft(cols(oc.head))(_ + "\t" + _))
+      add(if (caseInsensitive) a.toUpperCase else a, b)
+    }
+  }
+
+  /**
+    * @return The shared lookup table of a nested query that only reads a file with nor, the table is built from the
+    *         lines of the iterator
+    */
+  private def sharedNorTable(command: String, iterator: LineIterator, session: GorSession, parameters: String, multi: Boolean)
+                            (addLine: (String, MappedLookupTable.Builder) => Unit): Option[MappedLookupTable] = {
+    if (!offHeapTables) return None
+
+    val parts = command.trim.split("\\s+")
+    val isPlainNor = !command.contains("|") && parts.length >= 2 && parts(0).equalsIgnoreCase("nor") &&
+      parts.slice(1, parts.length - 1).forall(_ == "-h")
+    if (!isPlainNor) return None
+
+    try {
+      sharedTable(parts.last, command, session.getProjectContext.getFileReader, parameters, multi)(builder => {
+        while (iterator.hasNext) {
+          addLine(iterator.nextLine, builder)
+        }
+      })
+    } catch {
+      case e: Throwable =>
+        iterator.close()
+        throw e
+    }
+  }
+
+  /**
+    * @return The shared lookup table of the file, if off heap tables are enabled and the file is large enough
+    */
+  private def sharedTable(file: String, source: String, reader: FileReader, parameters: String, multi: Boolean)
+                         (fill: MappedLookupTable.Builder => Unit): Option[MappedLookupTable] = {
+    if (!offHeapTables) return None
+    // Dictionaries and other sources of many files do not have a single version
+    if (!(DataUtil.isNorSource(file) || DataUtil.isTxt(file) || DataUtil.isAnyCsv(file) || DataUtil.isGor(file) || DataUtil.isGorz(file))) {
+      return None
+    }
+
+    val version = reader.resolveUrl(file) match {
+      case streamSource: StreamSource =>
+        try {
+          val metadata = streamSource.getSourceMetadata
+          val length = metadata.getLength
+          if (metadata.getUniqueId != null && length != null && length >= offHeapMinimumSize) Some(metadata.getUniqueId + ":" + length) else None
+        } finally {
+          streamSource.close()
+        }
+      case other =>
+        if (other != null) other.close()
+        None
+    }
+    version.map(v => sharedTables.get(v + "\t" + source + "\t" + parameters, key => buildTable(key, source, multi, fill)))
+  }
+
+  private def buildTable(key: String, source: String, multi: Boolean, fill: MappedLookupTable.Builder => Unit): MappedLookupTable = {
+    val persisted = if (offHeapDirectory.nonEmpty) {
+      Some(Paths.get(offHeapDirectory).resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString + MappedLookupTable.SUFFIX))
+    } else None
+    val existing = persisted.filter(Files.exists(_)).flatMap(p => {
+      try {
+        Some(MappedLookupTable.open(p))
+      } catch {
+        case e: java.io.IOException =>
+          log.warn(s"Unable to open lookup table $p for $source, rebuilding it", e)
+          None
+      }
+    })
+
+    existing.getOrElse({
+      val start = System.currentTimeMillis()
+      val directory = persisted.map(_.getParent).getOrElse(Paths.get(System.getProperty("java.io.tmpdir")))
+      Files.createDirectories(directory)
+      val temp = Files.createTempFile(directory, "lookup", MappedLookupTable.SUFFIX)
+      try {
+        val builder = new MappedLookupTable.Builder(temp, multi)
+        try {
+          fill(builder)
+        } catch {
+          case e: Throwable =>
+            builder.close()
+            throw e
+        }
+        builder.finish()
+
+        val table = persisted match {
+          case Some(p) =>
+            Files.move(temp, p, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+            MappedLookupTable.open(p)
+          case None => MappedLookupTable.open(temp)
+        }
+        log.debug(s"Built lookup table of $source with ${table.size()} keys in ${System.currentTimeMillis() - start} ms")
+        table
+      } finally {
+        // The table stays mapped after the file is deleted
+        deleteQuietly(temp)
+      }
+    })
+  }
+
+  private def readLines(filename: String, reader: FileReader, addLine: String => Unit): Unit = {
+    val lines = reader.readFile(filename)
+    try {
+      lines.forEach(line => addLine(line))
+    } finally {
+      lines.close()
+    }
+  }
+
+  private def deleteQuietly(path: Path): Unit = {
+    try {
+      Files.deleteIfExists(path)
+    } catch {
+      case _: java.io.IOException => path.toFile.deleteOnExit()
+    }
+  }
+
   def syncGetSet(extFilename: String, session: GorSession): Option[set] = {
     session.getCache.getSets.synchronized {
       Option(session.getCache.getSets.getOrDefault(extFilename, null))
@@ -0,0 +1,127 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.model.gor.iterators
+
+import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
+import org.gorpipe.exceptions.GorResourceException
+import org.gorpipe.gor.driver.meta.DataType
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource
+import org.gorpipe.gor.model.{DriverBackedFileReader, FileReader}
+import org.gorpipe.gor.reference.PackedSequence
+import org.gorpipe.gor.util.DataUtil
+import org.slf4j.{Logger, LoggerFactory}
+
+import java.io.{IOException, InputStream}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Paths, StandardCopyOption}
+import java.util.{Optional, UUID}
+import java.util.concurrent.ConcurrentHashMap
+
+object PackedRefSeq {
+  private val log: Logger = LoggerFactory.getLogger(PackedRefSeq.getClass)
+
+  def enabled: Boolean = System.getProperty("gor.refseq.packed", "false").toBoolean
+  private def packedDirectory: String = System.getProperty("gor.refseq.packed.dir", System.getProperty("java.io.tmpdir"))
+
+  // Packed chromosomes by version of the source, shared by all sessions
+  private val sequences: Cache[String, PackedSequence] = Caffeine.newBuilder().build()
+
+  def sequence(version: String, name: String, open: () => InputStream): PackedSequence = {
+    sequences.get(version, _ => load(version, name, open))
+  }
+
+  private def load(version: String, name: String, open: () => InputStream): PackedSequence = {
+    val directory = Paths.get(packedDirectory)
+    Files.createDirectories(directory)
+    val file = directory.resolve(UUID.nameUUIDFromBytes(version.getBytes(StandardCharsets.UTF_8)).toString + PackedSequence.SUFFIX)
+    if (Files.exists(file)) {
+      try {
+        return PackedSequence.open(file)
+      } catch {
+        case e: IOException => log.warn(s"Unable to open packed reference $file for $name, packing it again", e)
+      }
+    }
+
+    val start = System.currentTimeMillis()
+    val temp = Files.createTempFile(directory, "refseq", PackedSequence.SUFFIX)
+    try {
+      PackedSequence.pack(open(), temp)
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+      Files.deleteIfExists(temp)
+    }
+    val sequence = PackedSequence.open(file)
+    log.info(s"Packed reference $name with ${sequence.length()} bases in ${System.currentTimeMillis() - start} ms")
+    sequence
+  }
+}
+
+/**
+  * Reference sequence served from chromosomes packed with 2 bits per base into memory mapped files, see
+  * [[PackedSequence]]. Each chromosome is packed once and shared by all instances in the process, so instances are
+  * cheap to create and, unlike [[RefSeqFromChromSeq]], safe to use from many threads.
+  */
+class PackedRefSeq(buildPath: String, reader: FileReader) extends RefSeqFromChromSeq(buildPath, reader) {
+  private val log: Logger = LoggerFactory.getLogger(classOf[PackedRefSeq])
+
+  private val chromosomes = new ConcurrentHashMap[String, Optional[PackedSequence]]()
+
+  override def getBase(chr: String, pos: Int): Char = {
+    val sequence = chromosome(chr)
+    if (sequence.isPresent) sequence.get.getBase(pos - 1) else 'N'
+  }
+
+  override def getBases(chr: String, pos1: Int, pos2: Int): String = {
+    val sequence = chromosome(chr)
+    if (sequence.isPresent) sequence.get.getBases(pos1 - 1, pos2) else "N" * (pos2 - pos1 + 1)
+  }
+
+  private def chromosome(chr: String): Optional[PackedSequence] = {
+    val sequence = chromosomes.get(chr)
+    if (sequence != null) sequence else chromosomes.computeIfAbsent(chr, c => load(c))
+  }
+
+  private def load(chr: String): Optional[PackedSequence] = {
+    val chrFilePath = DataUtil.toFile(path + "/" + chr, DataType.TXT)
+    val source = reader match {
+      case dbfr: DriverBackedFileReader => dbfr.unsecure().resolveUrl(chrFilePath)
+      case _ => reader.resolveUrl(chrFilePath)
+    }
+    try {
+      source match {
+        case streamSource: StreamSource if streamSource.exists() =>
+          val metadata = streamSource.getSourceMetadata
+          val version = Option(metadata.getUniqueId).getOrElse(metadata.getCanonicalName) + ":" + metadata.getLength
+          Optional.of(PackedRefSeq.sequence(version, chrFilePath, () => streamSource.open()))
+        case _ =>
+          log.warn("Reference build " + path + "\n\nReference file " + chrFilePath + " does not exist")
+          Optional.empty[PackedSequence]()
+      }
+    } catch {
+      case ioex: IOException =>
+        throw new GorResourceException("Reference build " + path + " inaccessible", path, ioex)
+    } finally {
+      if (source != null) source.close()
+    }
+  }
+}
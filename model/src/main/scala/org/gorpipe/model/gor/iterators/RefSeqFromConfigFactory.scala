@@ -26,11 +26,13 @@ import org.gorpipe.gor.model.FileReader
 
 class RefSeqFromConfigFactory(path: String, reader: FileReader) extends RefSeqFactory {
 
-  override def create(): RefSeq = {
-      new RefSeqFromChromSeq(path, reader)
-  }
+  override def create(): RefSeq = create(path)
 
   def create(altPath: String): RefSeq = {
+    if (PackedRefSeq.enabled) {
+      new PackedRefSeq(altPath, reader)
+    } else {
       new RefSeqFromChromSeq(altPath, reader)
+    }
   }
 }
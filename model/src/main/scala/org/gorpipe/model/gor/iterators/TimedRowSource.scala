@@ -24,6 +24,8 @@ package org.gorpipe.model.gor.iterators
 
 import org.gorpipe.exceptions.GorSystemException
 import org.gorpipe.gor.model.{GenomicIterator, GenomicIteratorBase, Row}
+import org.gorpipe.gor.session.GorContext
+import org.gorpipe.gor.stats.StatsCollector
 
 abstract class TimedRowSource extends GenomicIteratorBase {
   val useAdaptiveMTP = System.getProperty("gor.iterators.useAdaptiveMTP", "true").toBoolean //MTP = moveToPosition
@@ -35,6 +37,15 @@ abstract class TimedRowSource extends GenomicIteratorBase {
 
   var theSource : GenomicIterator = _
 
+  private var hasNextStat: StatsCollector.Counter = _
+  private var nextStat: StatsCollector.Counter = _
+
+  override def setContext(context: GorContext): Unit = {
+    super.setContext(context)
+    hasNextStat = statCounter("hasNext")
+    nextStat = statCounter("next")
+  }
+
   var posSet: Boolean = false
   var bp_per_time = -1.0
   var time_to_seek = -1L
@@ -83,7 +94,7 @@ abstract class TimedRowSource extends GenomicIteratorBase {
   def openSource(): Unit = openSource(null, -1): Unit
 
   override def hasNext : Boolean = {
-    incStat("hasNext")
+    if (hasNextStat != null) hasNextStat.inc()
     if (!mustReCheck) return myHasNext
     if (theSource == null) openSource()
     mustReCheck = false
@@ -94,7 +105,7 @@ abstract class TimedRowSource extends GenomicIteratorBase {
   }
 
   override def next(): Row = {
-    incStat("next")
+    if (nextStat != null) nextStat.inc()
     if (hasNext) {
       mustReCheck = true
       if (measeureTime) {
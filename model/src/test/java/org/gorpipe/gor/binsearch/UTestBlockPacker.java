@@ -297,6 +297,40 @@ public class UTestBlockPacker extends TestCase {
                 size, zipped.length, (input.length() / (zipped.length * 1.0f)));
     }
 
+    /**
+     * Test decoding a subset of the columns
+     *
+     * @throws Exception
+     */
+    public void testDecodeSelectedColumns() throws Exception {
+        long seed = new Random().nextLong();
+        Random rand = new Random(seed);
+        final String input = mergeColumns(
+                generateColumnData("string", 23, 150, false, null),
+                generateColumnData("integer", 4000, 1, false, null),
+                generateColumnData("string", 50, 1, true, rand),
+                generateColumnData("integer", 140, 1, false, rand),
+                generateColumnData("string", 500, 1, false, rand));
+
+        final byte[] buf = new byte[input.length()];
+        BlockPacker.encode(input, buf);
+
+        final int[] columns = {0, 1, 4, 2};
+        final StringBuilder expected = new StringBuilder();
+        for (String line : input.split("\n")) {
+            final String[] fields = line.split("\t", -1);
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) expected.append('\t');
+                expected.append(fields[columns[i]]);
+            }
+            expected.append('\n');
+        }
+
+        final byte[] bytes = new byte[input.length() + 1];
+        final int len = BlockPacker.decode(buf, 0, bytes, 0, new HashMap<>(), columns);
+        assertEquals("seed = " + seed, expected.toString(), new String(bytes, 0, len));
+    }
+
     /**
      * Test simple rounds of encode and decode with some fields empty
      *
@@ -139,6 +139,98 @@ public class UTestGorZipLexOutputStream {
         validateNotSoBigFile(path, header, otherCol, chrs, posPerChr);
     }
 
+    @Test
+    public void testWriteQueueGivesSameOutput() throws IOException {
+        for (boolean columnCompressed : new boolean[] {false, true}) {
+            final ByteArrayOutputStream syncIdx = new ByteArrayOutputStream();
+            final ByteArrayOutputStream asyncIdx = new ByteArrayOutputStream();
+            final byte[] sync = writeManyLines(columnCompressed, 0, syncIdx);
+            final byte[] async = writeManyLines(columnCompressed, 3, asyncIdx);
+            Assert.assertArrayEquals(sync, async);
+            Assert.assertArrayEquals(syncIdx.toByteArray(), asyncIdx.toByteArray());
+        }
+    }
+
+    @Test
+    public void testWriteQueuePropagatesErrors() throws IOException {
+        final OutputStream failing = new OutputStream() {
+            int written = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++written > 100000) throw new IOException("Disk full");
+            }
+        };
+        final GorZipLexOutputStream os = new GorZipLexOutputStream(failing, false, false, null);
+        os.setWriteQueueSize(3);
+        os.setHeader("CHROM\tPOS\tCOL");
+        boolean success = false;
+        try {
+            final Random random = new Random(1);
+            for (int pos = 0; pos < 100000; ++pos) {
+                os.write(RowObj.apply("chr1\t" + pos + "\t" + random.nextLong()));
+            }
+            os.close();
+        } catch (IOException e) {
+            success = e.getMessage().equals("Disk full");
+        }
+        Assert.assertTrue(success);
+    }
+
+    @Test
+    public void testWriteQueueClosesOutputsOnError() throws IOException {
+        final boolean[] closed = new boolean[2];
+        final OutputStream failing = new OutputStream() {
+            int written = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++written > 100000) throw new IOException("Disk full");
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        final OutputStream idx = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[1] = true;
+            }
+        };
+        final GorZipLexOutputStream os = new GorZipLexOutputStream(failing, false, false, null, idx, GorIndexType.FULLINDEX, 1);
+        os.setWriteQueueSize(3);
+        os.setHeader("CHROM\tPOS\tCOL");
+        boolean failed = false;
+        try (GorZipLexOutputStream ignored = os) {
+            final Random random = new Random(1);
+            for (int pos = 0; pos < 100000; ++pos) {
+                os.write(RowObj.apply("chr1\t" + pos + "\t" + random.nextLong()));
+            }
+        } catch (IOException e) {
+            failed = e.getMessage().equals("Disk full");
+        }
+        Assert.assertTrue(failed);
+        Assert.assertTrue(closed[0]);
+        Assert.assertTrue(closed[1]);
+    }
+
+    private byte[] writeManyLines(boolean columnCompressed, int writeQueueSize, OutputStream idx) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final GorZipLexOutputStream os = new GorZipLexOutputStream(baos, columnCompressed, false, null, idx, GorIndexType.FULLINDEX, 1);
+        os.setWriteQueueSize(writeQueueSize);
+        os.setHeader("CHROM\tPOS\tREF\tCOL");
+        final Random random = new Random(1);
+        for (String chr : new String[] {"chr1", "chr2", "chr3"}) {
+            for (int pos = 0; pos < 20000; ++pos) {
+                os.write(RowObj.apply(chr + "\t" + pos + "\t" + "ACGT".charAt(random.nextInt(4)) + "\t" + random.nextInt(1000)));
+            }
+        }
+        os.close();
+        return baos.toByteArray();
+    }
+
     @Test
     public void testWrite() throws IOException {
         final GorZipLexOutputStream os = new GorZipLexOutputStream(tf.newFile("dummy").getAbsolutePath(), false);
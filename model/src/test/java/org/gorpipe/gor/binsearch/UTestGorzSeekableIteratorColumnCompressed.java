@@ -35,6 +35,8 @@ import org.junit.rules.TemporaryFolder;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class UTestGorzSeekableIteratorColumnCompressed {
 
@@ -75,4 +77,43 @@ public class UTestGorzSeekableIteratorColumnCompressed {
         Assert.assertEquals(gsi.getHeader(), fileReader.readHeaderLine(columnCompressed));
 
     }
+
+    @Test
+    public void test_pushdownSelect() throws IOException {
+        final String path = tf.newFile("wide.gorz").getAbsolutePath();
+        final String header = "Chrom\tPos\tA\tB\tC\tD";
+        final List<String> lines = new ArrayList<>();
+        for (String chr : new String[] {"chr1", "chr2"}) {
+            for (int pos = 1; pos <= 5000; pos++) {
+                lines.add(chr + "\t" + pos + "\ta" + (pos % 7) + "\t" + (pos * 3) + "\tc" + pos + "\t" + (pos % 2));
+            }
+        }
+        for (boolean columnCompressed : new boolean[] {true, false}) {
+            final GorZipLexOutputStream os = new GorZipLexOutputStream(path, columnCompressed);
+            os.setHeader(header);
+            for (String line : lines) {
+                os.write(RowObj.apply(line));
+            }
+            os.close();
+
+            final GorzSeekableIterator gsi = new GorzSeekableIterator(new StreamSourceSeekableFile(new FileSource(new SourceReference(path))));
+            Assert.assertFalse(gsi.pushdownSelect(new String[] {"A", "Pos"}));
+            Assert.assertFalse(gsi.pushdownSelect(new String[] {"Chrom", "Pos", "E"}));
+            Assert.assertEquals(columnCompressed, gsi.pushdownSelect(new String[] {"chrom", "pos", "d", "B"}));
+            if (!columnCompressed) {
+                gsi.close();
+                continue;
+            }
+            Assert.assertEquals("Chrom\tPos\tD\tB", gsi.getHeader());
+
+            gsi.seek("chr2", 100);
+            for (String line : lines.subList(5099, lines.size())) {
+                final String[] fields = line.split("\t");
+                Assert.assertTrue(gsi.hasNext());
+                Assert.assertEquals(String.join("\t", fields[0], fields[1], fields[5], fields[3]), gsi.next().toString());
+            }
+            Assert.assertFalse(gsi.hasNext());
+            gsi.close();
+        }
+    }
 }
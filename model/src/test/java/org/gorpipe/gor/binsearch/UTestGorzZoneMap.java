@@ -0,0 +1,228 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.binsearch;
+
+import org.gorpipe.gor.driver.adapters.StreamSourceSeekableFile;
+import org.gorpipe.gor.driver.meta.SourceReference;
+import org.gorpipe.gor.driver.providers.stream.sources.file.FileSource;
+import org.gorpipe.gor.model.Row;
+import org.gorpipe.model.gor.RowObj;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+public class UTestGorzZoneMap {
+
+    @Rule
+    public final TemporaryFolder tf = new TemporaryFolder();
+
+    private static final String HEADER = "Chrom\tPos\tGene\tAF\tType";
+    private static final String[] COLUMNS = HEADER.split("\t");
+    private static final String[] TYPES = {"snp", "del", "ins"};
+
+    @Test
+    public void testParseFilter() {
+        Assert.assertNotNull(ZoneMapFilter.parse("Gene = 'BRCA2'", COLUMNS));
+        Assert.assertNotNull(ZoneMapFilter.parse("gene == \"BRCA2\" and AF < 0.01", COLUMNS));
+        Assert.assertNotNull(ZoneMapFilter.parse("0.01 > AF", COLUMNS));
+        Assert.assertNotNull(ZoneMapFilter.parse("Type in ('snp', 'del')", COLUMNS));
+        Assert.assertNotNull(ZoneMapFilter.parse("(#3 <> 'x' and (#4 >= 1e-3))", COLUMNS));
+        Assert.assertNotNull(ZoneMapFilter.parse("Pos > 100 and Gene = 'A'", COLUMNS));
+
+        Assert.assertNull(ZoneMapFilter.parse("Pos > 100", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("Gene = 'A' or AF < 0.1", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("not(Gene = 'A')", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("Type not in ('snp')", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("Gene = Type", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("len(Gene) > 3", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("Unknown = 'A'", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("#9 = 'A'", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("AF < 0.1 + 0.2", COLUMNS));
+        Assert.assertNull(ZoneMapFilter.parse("Gene = 'A", COLUMNS));
+    }
+
+    @Test
+    public void testIsNumber() {
+        Assert.assertTrue(GorzZoneMap.isNumber("0"));
+        Assert.assertTrue(GorzZoneMap.isNumber("-12.5"));
+        Assert.assertTrue(GorzZoneMap.isNumber(".5"));
+        Assert.assertTrue(GorzZoneMap.isNumber("1e-3"));
+        Assert.assertFalse(GorzZoneMap.isNumber(""));
+        Assert.assertFalse(GorzZoneMap.isNumber("."));
+        Assert.assertFalse(GorzZoneMap.isNumber("NaN"));
+        Assert.assertFalse(GorzZoneMap.isNumber("Infinity"));
+        Assert.assertFalse(GorzZoneMap.isNumber("0x10"));
+        Assert.assertFalse(GorzZoneMap.isNumber("1f"));
+        Assert.assertFalse(GorzZoneMap.isNumber("1e"));
+    }
+
+    @Test
+    public void testBlockDecisions() throws IOException {
+        final ByteArrayOutputStream zoneMap = new ByteArrayOutputStream();
+        try (GorzZoneMap.Writer writer = new GorzZoneMap.Writer(zoneMap)) {
+            addBlock(writer, "chr1\t10", "chr1\t5\tBRCA1\t0.5\tsnp\n", "chr1\t10\tBRCA1\t0.25\tdel\n");
+            addBlock(writer, "chr1\t20", "chr1\t15\tBRCA2\t0.01\tsnp\n", "chr1\t20\tBRCA2\t1e-4\tsnp\n");
+            addBlock(writer, "chr2\t20", "chr2\t10\tTP53\tNA\tins\n", "chr2\t20\tTP53\t3\tins\n");
+        }
+
+        Assert.assertArrayEquals(new boolean[] {false, true, true}, skipped(zoneMap, "Gene = 'BRCA1'"));
+        Assert.assertArrayEquals(new boolean[] {false, true, false}, skipped(zoneMap, "Gene != 'BRCA2'"));
+        Assert.assertArrayEquals(new boolean[] {false, true, true}, skipped(zoneMap, "Type in ('del')"));
+        Assert.assertArrayEquals(new boolean[] {true, true, false}, skipped(zoneMap, "Gene >= 'C'"));
+        Assert.assertArrayEquals(new boolean[] {true, false, true}, skipped(zoneMap, "Gene = 'BRCA2' and Type = 'snp'"));
+        // Numbers might be compared as strings, blocks are only skipped if neither comparison can match
+        Assert.assertArrayEquals(new boolean[] {true, false, false}, skipped(zoneMap, "AF > 0.6"));
+        Assert.assertArrayEquals(new boolean[] {true, false, false}, skipped(zoneMap, "AF <= 0.01"));
+        Assert.assertArrayEquals(new boolean[] {false, true, false}, skipped(zoneMap, "AF = 0.25"));
+    }
+
+    @Test
+    public void testSkipBlocksWhenReading() throws IOException {
+        testSkipBlocksWhenReading(false);
+    }
+
+    @Test
+    public void testSkipBlocksWhenReadingColumnCompressed() throws IOException {
+        testSkipBlocksWhenReading(true);
+    }
+
+    private void testSkipBlocksWhenReading(boolean columnCompressed) throws IOException {
+        final String path = tf.newFile("zonemap.gorz").getAbsolutePath();
+        final GorZipLexOutputStream os = new GorZipLexOutputStream(path, columnCompressed);
+        os.setZoneMapOutput(new FileOutputStream(path + GorzZoneMap.SUFFIX));
+        os.setHeader(HEADER);
+        final List<Row> rows = new ArrayList<>();
+        for (String chr : new String[] {"chr1", "chr2"}) {
+            for (int pos = 1; pos <= 20000; pos++) {
+                final Row row = RowObj.apply(chr + "\t" + pos + "\tG" + (pos / 2000) + "\t" + (pos / 100000.0) + "\t" + TYPES[pos % 3]);
+                rows.add(row);
+                os.write(row);
+            }
+        }
+        os.close();
+
+        assertSameRows(path, rows, "Gene = 'G3'", r -> r.colAsString(2).toString().equals("G3"), true);
+        assertSameRows(path, rows, "AF >= 0.15", r -> r.colAsDouble(3) >= 0.15, true);
+        assertSameRows(path, rows, "Gene in ('G1', 'G7') and Type = 'ins'",
+                r -> (r.colAsString(2).toString().equals("G1") || r.colAsString(2).toString().equals("G7"))
+                        && r.colAsString(4).toString().equals("ins"), true);
+        assertSameRows(path, rows, "Type = 'snp'", r -> r.colAsString(4).toString().equals("snp"), false);
+        assertSameRows(path, rows, "Gene = 'G99'", r -> false, true);
+
+        final GorzSeekableIterator iterator = open(path);
+        iterator.setPrefetchBlocks(3);
+        iterator.useZoneMap("Gene = 'G5'");
+        iterator.seek("chr2", 100);
+        final List<Row> actual = new ArrayList<>();
+        while (iterator.hasNext()) {
+            final Row row = iterator.next();
+            if (row.colAsString(2).toString().equals("G5")) actual.add(row);
+        }
+        iterator.close();
+        Assert.assertEquals(2000, actual.size());
+        Assert.assertEquals("chr2", actual.get(0).chr);
+        Assert.assertEquals(10000, actual.get(0).pos);
+    }
+
+    @Test
+    public void testZoneMapOfOtherVersionIsIgnored() throws IOException {
+        final String path = tf.newFile("stale.gorz").getAbsolutePath();
+        writeWithZoneMap(path, "G1");
+        GorzSeekableIterator iterator = open(path);
+        iterator.useZoneMap("Gene = 'G2'");
+        Assert.assertNotNull(iterator.getBlockSkipper());
+        iterator.close();
+
+        // Appending without a zone map leaves a zone map that does not cover the whole file
+        try (GorZipLexOutputStream os = new GorZipLexOutputStream(new FileOutputStream(path, true), false, false, null)) {
+            os.write(RowObj.apply("chr3\t1\tG2\t0.5\tsnp"));
+        }
+        iterator = open(path);
+        iterator.useZoneMap("Gene = 'G2'");
+        Assert.assertNull(iterator.getBlockSkipper());
+        iterator.close();
+
+        // Rewriting without a zone map removes the old one
+        writeWithZoneMap(path, "G1");
+        final GorZipLexOutputStream os = new GorZipLexOutputStream(path, false);
+        os.setHeader(HEADER);
+        os.write(RowObj.apply("chr1\t1\tG2\t0.5\tsnp"));
+        os.close();
+        Assert.assertFalse(new java.io.File(path + GorzZoneMap.SUFFIX).exists());
+    }
+
+    private static void writeWithZoneMap(String path, String gene) throws IOException {
+        final GorZipLexOutputStream os = new GorZipLexOutputStream(path, false);
+        os.setZoneMapOutput(new FileOutputStream(path + GorzZoneMap.SUFFIX));
+        os.setHeader(HEADER);
+        for (int pos = 1; pos <= 10000; pos++) {
+            os.write(RowObj.apply("chr1\t" + pos + "\t" + gene + "\t0.5\tsnp"));
+        }
+        os.close();
+    }
+
+    private void assertSameRows(String path, List<Row> rows, String where, Predicate<Row> filter, boolean expectSkips) {
+        final GorzSeekableIterator iterator = open(path);
+        iterator.useZoneMap(where);
+        Assert.assertNotNull(iterator.getBlockSkipper());
+        Assert.assertEquals(expectSkips, iterator.getBlockSkipper().getSkipCount() > 0);
+        final List<String> actual = new ArrayList<>();
+        while (iterator.hasNext()) {
+            final Row row = iterator.next();
+            if (filter.test(row)) actual.add(row.toString());
+        }
+        iterator.close();
+
+        final List<String> expected = new ArrayList<>();
+        for (Row row : rows) {
+            if (filter.test(row)) expected.add(row.toString());
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    private static GorzSeekableIterator open(String path) {
+        return new GorzSeekableIterator(new StreamSourceSeekableFile(new FileSource(new SourceReference(path))));
+    }
+
+    private static void addBlock(GorzZoneMap.Writer writer, String key, String... lines) throws IOException {
+        final byte[] block = String.join("", lines).getBytes(StandardCharsets.UTF_8);
+        writer.addBlock(key.getBytes(StandardCharsets.UTF_8), block, block.length);
+    }
+
+    private static boolean[] skipped(ByteArrayOutputStream zoneMap, String where) throws IOException {
+        final ZoneMapFilter filter = ZoneMapFilter.parse(where, COLUMNS);
+        Assert.assertNotNull(filter);
+        final GorzZoneMap.BlockSkipper skipper = GorzZoneMap.load(new ByteArrayInputStream(zoneMap.toByteArray()), filter);
+        return new boolean[] {skipper.canSkip("chr1", 10), skipper.canSkip("chr1", 20), skipper.canSkip("chr2", 20)};
+    }
+}
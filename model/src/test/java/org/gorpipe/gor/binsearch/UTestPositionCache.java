@@ -23,19 +23,28 @@
 package org.gorpipe.gor.binsearch;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.gorpipe.gor.binsearch.PositionCache.*;
 
 public class UTestPositionCache {
     private static final Logger log = LoggerFactory.getLogger(UTestPositionCache.class);
 
+    @Rule
+    public final TemporaryFolder tf = new TemporaryFolder();
+
     @Test
     public void test_maxNumberOfPos() {
         Assert.assertEquals(0, getMaxNumberOfPos(0, 0));
@@ -197,6 +206,103 @@ public class UTestPositionCache {
         Assert.assertEquals(4, pc.getSize());
     }
 
+    @Test
+    public void test_hitAndMissCount() {
+        final long hits = PositionCache.getHitCount();
+        final long misses = PositionCache.getMissCount();
+        PositionCache.getFilePositionCache(this, "statsFile", "id1", 0, 0);
+        PositionCache.getFilePositionCache(this, "statsFile", "id1", 0, 0);
+        PositionCache.getFilePositionCache(this, "statsFile", "id2", 0, 0);
+
+        Assert.assertEquals(hits + 1, PositionCache.getHitCount());
+        Assert.assertEquals(misses + 2, PositionCache.getMissCount());
+    }
+
+    @Test
+    public void test_saveAndLoad() throws IOException {
+        PositionCache.clearGlobalCache();
+        final PositionCache pc = PositionCache.getFilePositionCache(this, "savedFile", "id1", 0, 1000);
+        pc.putFilePosition(new StringIntKey("chr1", 10), 100);
+        pc.putFilePosition(new StringIntKey("chr2", 20), 500);
+        final Path path = tf.getRoot().toPath().resolve("positions.cache");
+        PositionCache.save(path);
+
+        PositionCache.clearGlobalCache();
+        PositionCache.load(path);
+        Assert.assertEquals(1, PositionCache.getNumFilesInCache());
+        final PositionCache loaded = PositionCache.getFilePositionCache(this, "savedFile", "id1", 0, 1000);
+        Assert.assertNotSame(pc, loaded);
+        Assert.assertArrayEquals(pc.getFilePositionsInCache(), loaded.getFilePositionsInCache());
+        final Position lower = loaded.getLowerBound(new StringIntKey("chr1", 15));
+        Assert.assertEquals(100, lower.fileIdx);
+        Assert.assertEquals(new StringIntKey("chr1", 10), lower.key);
+
+        // Positions of a changed file are not used
+        PositionCache.clearGlobalCache();
+        PositionCache.load(path);
+        Assert.assertEquals(0, PositionCache.getFilePositionCache(this, "savedFile", "id2", 0, 1000).getSize());
+    }
+
+    @Test
+    public void test_concurrentPutAndLookup() {
+        final PositionCache pc = new PositionCache(0, 1_000_000, 100);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    final int pos = (i * 4 + offset) % 5000;
+                    pc.putFilePosition(new StringIntKey("chr1", pos), pos * 10L);
+                    final StringIntKey key = new StringIntKey("chr1", pos + 1);
+                    final Position lower = pc.getLowerBound(key);
+                    final Position upper = pc.getUpperBound(key);
+                    Assert.assertTrue(lower.fileIdx <= (pos + 1) * 10L);
+                    Assert.assertTrue(upper.fileIdx >= (pos + 1) * 10L);
+                }
+            }));
+        }
+        futures.forEach(CompletableFuture::join);
+        Assert.assertTrue(pc.getSize() <= 100);
+    }
+
+    @Test
+    public void test_boundsWithEntriesNotYetMerged() {
+        final PositionCache pc = new PositionCache(0, 1_000_000, 1000);
+        for (int i = 0; i < 100; i++) {
+            final int pos = (i * 37) % 100 * 10;
+            pc.putFilePosition(new StringIntKey("chr1", pos), pos);
+        }
+        Assert.assertEquals(100, pc.getSize());
+        final long[] positions = pc.getFilePositionsInCache();
+        for (int i = 0; i < positions.length; i++) {
+            Assert.assertEquals(i * 10L, positions[i]);
+        }
+        for (int pos = 0; pos <= 990; pos += 5) {
+            final StringIntKey key = new StringIntKey("chr1", pos);
+            Assert.assertEquals(pos == 0 ? 0 : (pos - 1) / 10 * 10L, pc.getLowerBound(key).fileIdx);
+            Assert.assertEquals((pos + 9) / 10 * 10L, pc.getUpperBound(key).fileIdx);
+        }
+    }
+
+    @Test
+    public void test_setMaxNumberOfFilesInCacheKeepsRecentlyUsedFiles() {
+        PositionCache.clearGlobalCache();
+        PositionCache.setMaxNumberOfFilesInCache(4);
+        final PositionCache cache1 = PositionCache.getFilePositionCache(this, "file1", "dummy", 0, 0);
+        final PositionCache cache2 = PositionCache.getFilePositionCache(this, "file2", "dummy", 0, 0);
+        final PositionCache cache3 = PositionCache.getFilePositionCache(this, "file3", "dummy", 0, 0);
+        Assert.assertSame(cache1, PositionCache.getFilePositionCache(this, "file1", "dummy", 0, 0));
+
+        try {
+            PositionCache.setMaxNumberOfFilesInCache(2);
+            Assert.assertSame(cache3, PositionCache.getFilePositionCache(this, "file3", "dummy", 0, 0));
+            Assert.assertSame(cache1, PositionCache.getFilePositionCache(this, "file1", "dummy", 0, 0));
+            Assert.assertNotSame(cache2, PositionCache.getFilePositionCache(this, "file2", "dummy", 0, 0));
+        } finally {
+            PositionCache.setMaxNumberOfFilesInCache(PositionCache.DEFAULT_MAX_NUMBER_OF_FILES_IN_CACHE);
+        }
+    }
+
     public static void main(String[] args) {
         PositionCache pc = new PositionCache(35, 7609973009L, 2000);
         try (InputStream inputStream = new FileInputStream("/Users/snorris/index-experiments/dbsnp.gorz.gori.full")) {
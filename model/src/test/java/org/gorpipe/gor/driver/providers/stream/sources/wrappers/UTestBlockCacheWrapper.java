@@ -0,0 +1,156 @@
+package org.gorpipe.gor.driver.providers.stream.sources.wrappers;
+
+import org.gorpipe.gor.driver.providers.stream.BlockCache;
+import org.gorpipe.gor.driver.providers.stream.StreamUtils;
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
+import org.gorpipe.gor.driver.providers.stream.sources.UTestHttpSource;
+import org.gorpipe.gor.util.Util;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class UTestBlockCacheWrapper extends UTestHttpSource {
+
+    private static final int BLOCK_SIZE = 1000;
+
+    @Rule
+    public final TemporaryFolder cacheDir = new TemporaryFolder();
+
+    private BlockCache blockCache;
+
+    @Override
+    protected BlockCacheWrapper createSource(String name) throws IOException {
+        StreamSource toWrap = super.createSource(name);
+        return new BlockCacheWrapper(getBlockCache(), toWrap);
+    }
+
+    private BlockCache getBlockCache() {
+        if (blockCache == null) {
+            blockCache = new BlockCache(cacheDir.getRoot().getAbsolutePath(), 1_000_000, BLOCK_SIZE);
+        }
+        return blockCache;
+    }
+
+    public long[] getSeeds() {
+        long[] arr = {System.nanoTime()};
+        return arr;
+    }
+
+    @Test
+    public void testOnlyReadBlocksAreFetched() throws IOException {
+        BlockCacheWrapper source = createSource(getDataName(lines10000File));
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        Assert.assertTrue(expected.length > 10 * BLOCK_SIZE);
+
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 5500, 5600), read(source, 5500, 100));
+        Assert.assertEquals(1, blockCache.getMissCount());
+        Assert.assertEquals(1, blockCache.getNumBlocks());
+        Assert.assertEquals(BLOCK_SIZE, blockCache.getBytesFetched());
+
+        // Spans two blocks, one of them cached
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 5900, 6200), read(source, 5900, 300));
+        Assert.assertEquals(2, blockCache.getMissCount());
+        Assert.assertEquals(1, blockCache.getHitCount());
+    }
+
+    @Test
+    public void testReadAllFromCache() throws IOException {
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        // Reading stops at a block shorter than the block size, which may be an empty block past the end
+        int blocks = expected.length / BLOCK_SIZE + 1;
+        for (int i = 0; i < 2; i++) {
+            BlockCacheWrapper source = createSource(getDataName(lines10000File));
+            try (InputStream s = source.open()) {
+                Assert.assertArrayEquals(expected, s.readAllBytes());
+            }
+        }
+        Assert.assertEquals(blocks, blockCache.getMissCount());
+        Assert.assertEquals(blocks, blockCache.getHitCount());
+        Assert.assertEquals(expected.length, blockCache.getTotalBytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        blockCache = new BlockCache(cacheDir.getRoot().getAbsolutePath(), 3 * BLOCK_SIZE, BLOCK_SIZE);
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        BlockCacheWrapper source = createSource(getDataName(lines10000File));
+        try (InputStream s = source.open()) {
+            Assert.assertArrayEquals(expected, s.readAllBytes());
+        }
+        Assert.assertTrue(blockCache.getTotalBytes() <= 3 * BLOCK_SIZE);
+        Assert.assertTrue(blockCache.getEvictionCount() > 0);
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 100, 200), read(source, 100, 100));
+
+        // Blocks left on disk are picked up by a new cache
+        BlockCache reopened = new BlockCache(cacheDir.getRoot().getAbsolutePath(), 3 * BLOCK_SIZE, BLOCK_SIZE);
+        Assert.assertEquals(blockCache.getNumBlocks(), reopened.getNumBlocks());
+        Assert.assertEquals(blockCache.getTotalBytes(), reopened.getTotalBytes());
+    }
+
+    @Test
+    public void testBlocksOfAnotherBlockSizeAreDeleted() throws IOException {
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 5500, 5600), read(createSource(getDataName(lines10000File)), 5500, 100));
+        Assert.assertEquals(1, blockCache.getNumBlocks());
+
+        blockCache = new BlockCache(cacheDir.getRoot().getAbsolutePath(), 1_000_000, 2 * BLOCK_SIZE);
+        Assert.assertEquals(0, blockCache.getNumBlocks());
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 5500, 5600), read(createSource(getDataName(lines10000File)), 5500, 100));
+        Assert.assertEquals(1, blockCache.getMissCount());
+    }
+
+    @Test
+    public void testStaleFetchesAreDeleted() throws IOException {
+        String key = Util.md5("source") + "." + BLOCK_SIZE + ".3.";
+        File stale = cacheDir.newFile(key + UUID.randomUUID());
+        Assert.assertTrue(stale.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+        File recent = cacheDir.newFile(key + UUID.randomUUID());
+
+        new BlockCache(cacheDir.getRoot().getAbsolutePath(), 1_000_000, BLOCK_SIZE);
+        Assert.assertFalse(stale.exists());
+        Assert.assertTrue(recent.exists());
+    }
+
+    @Test
+    public void testConcurrentReadsFetchOnce() throws IOException {
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        // Reading stops at a block shorter than the block size, which may be an empty block past the end
+        int blocks = expected.length / BLOCK_SIZE + 1;
+        String name = getDataName(lines10000File);
+        getBlockCache();
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try (InputStream s = createSource(name).open()) {
+                    return s.readAllBytes();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (CompletableFuture<byte[]> f : futures) {
+            Assert.assertArrayEquals(expected, f.join());
+        }
+        Assert.assertEquals(blocks, blockCache.getMissCount());
+    }
+
+    private static byte[] read(StreamSource source, long start, int length) throws IOException {
+        byte[] buf = new byte[length];
+        try (InputStream s = source.open(start, length)) {
+            StreamUtils.readToBuffer(s, buf, 0, length);
+        }
+        return buf;
+    }
+}
@@ -0,0 +1,160 @@
+package org.gorpipe.gor.driver.providers.stream.sources.wrappers;
+
+import org.gorpipe.gor.driver.providers.stream.StreamUtils;
+import org.gorpipe.gor.driver.providers.stream.sources.StreamSource;
+import org.gorpipe.gor.driver.providers.stream.sources.UTestFileSource;
+import org.gorpipe.gor.driver.providers.stream.sources.file.FileSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UTestParallelRangeWrapper extends UTestFileSource {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    @Override
+    protected StreamSource createSource(String name) {
+        return new ParallelRangeWrapper(new ConcurrentSource(new FileSource(name), -1), 100, CHUNK_SIZE, 3);
+    }
+
+    @Test
+    public void testFullStreamReadsConcurrently() throws IOException {
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        ConcurrentSource concurrent = new ConcurrentSource(new FileSource(lines10000File.getCanonicalPath()), -1);
+        ParallelRangeWrapper fs = new ParallelRangeWrapper(concurrent, 100, CHUNK_SIZE, 3);
+        try (InputStream s = fs.open()) {
+            Assert.assertSame(fs.parallelStream, s);
+            Assert.assertArrayEquals(expected, s.readAllBytes());
+        }
+        Assert.assertEquals((expected.length + CHUNK_SIZE - 1) / CHUNK_SIZE, concurrent.requests.get());
+        Assert.assertTrue(concurrent.maxConcurrent.get() <= 3);
+    }
+
+    @Test
+    public void testSequentialRangesReuseStream() throws IOException {
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        ParallelRangeWrapper fs = (ParallelRangeWrapper) createSource(lines10000File.getCanonicalPath());
+        byte[] buf = new byte[100];
+
+        // The first range is a seek, the second one is sequential
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 0, 100), read(fs, 0, buf));
+        Assert.assertNull(fs.parallelStream);
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 100, 200), read(fs, 100, buf));
+        InputStream parallel = fs.parallelStream;
+        Assert.assertNotNull(parallel);
+
+        for (int pos = 250; pos < 9000; pos += 150) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(expected, pos, pos + 100), read(fs, pos, buf));
+            Assert.assertSame(parallel, fs.parallelStream);
+        }
+
+        // Seek backwards
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 10, 110), read(fs, 10, buf));
+        Assert.assertNull(fs.parallelStream);
+    }
+
+    @Test
+    public void testSkipAcrossChunks() throws IOException {
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        Random random = new Random(17);
+        try (InputStream s = createSource(lines10000File.getCanonicalPath()).open(5)) {
+            long pos = 5;
+            byte[] buf = new byte[50];
+            while (pos + 5000 < expected.length) {
+                long skip = random.nextInt(3000);
+                Assert.assertEquals(skip, s.skip(skip));
+                pos += skip;
+                StreamUtils.readToBuffer(s, buf, 0, buf.length);
+                Assert.assertArrayEquals(Arrays.copyOfRange(expected, (int) pos, (int) pos + buf.length), buf);
+                pos += buf.length;
+            }
+        }
+    }
+
+    @Test
+    public void testConsecutiveSkips() throws IOException {
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        try (InputStream s = createSource(lines10000File.getCanonicalPath()).open(0)) {
+            byte[] buf = new byte[1010];
+            StreamUtils.readToBuffer(s, buf, 0, buf.length);
+            // The first skip ends inside the chunk in flight, the second one passes it
+            Assert.assertEquals(1090, s.skip(1090));
+            Assert.assertEquals(900, s.skip(900));
+            buf = new byte[50];
+            StreamUtils.readToBuffer(s, buf, 0, buf.length);
+            Assert.assertArrayEquals(Arrays.copyOfRange(expected, 3000, 3050), buf);
+
+            Assert.assertEquals(1500, s.skip(1500));
+            Assert.assertEquals(10, s.skip(10));
+            StreamUtils.readToBuffer(s, buf, 0, buf.length);
+            Assert.assertArrayEquals(Arrays.copyOfRange(expected, 4560, 4610), buf);
+        }
+    }
+
+    @Test
+    public void testFailedRangeIsReadAgain() throws IOException {
+        byte[] expected = Files.readAllBytes(lines10000File.toPath());
+        ConcurrentSource concurrent = new ConcurrentSource(new FileSource(lines10000File.getCanonicalPath()), 3);
+        try (InputStream s = new ParallelRangeWrapper(concurrent, 100, CHUNK_SIZE, 3).open()) {
+            Assert.assertArrayEquals(expected, s.readAllBytes());
+        }
+    }
+
+    private static byte[] read(StreamSource source, long start, byte[] buf) throws IOException {
+        try (InputStream s = source.open(start, buf.length)) {
+            StreamUtils.readToBuffer(s, buf, 0, buf.length);
+        }
+        return buf.clone();
+    }
+
+    /**
+     * File source reading ranges in other threads, failing the range request with the given index.
+     */
+    static class ConcurrentSource extends WrappedStreamSource {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final int failRequest;
+
+        ConcurrentSource(StreamSource source, int failRequest) {
+            super(source);
+            this.failRequest = failRequest;
+        }
+
+        @Override
+        public boolean supportsConcurrentRangeReads() {
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> readRange(long start, int length) {
+            final int request = requests.getAndIncrement();
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            final String file = getWrapped().getName();
+            return CompletableFuture.supplyAsync(() -> {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    if (request == failRequest) {
+                        throw new IOException("Failing request " + request);
+                    }
+                    final byte[] data = new byte[(int) Math.max(0, Math.min(length, raf.length() - start))];
+                    raf.seek(start);
+                    raf.readFully(data);
+                    return data;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+            });
+        }
+    }
+}
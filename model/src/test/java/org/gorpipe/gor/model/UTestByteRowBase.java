@@ -0,0 +1,85 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class UTestByteRowBase extends UTestRowImplementations {
+
+    public Row createRow(CharSequence input) {
+        // Put the line in the middle of a buffer to verify offsets are respected
+        final byte[] line = input.toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] buffer = new byte[line.length + 8];
+        buffer[0] = 'x';
+        buffer[1] = '\n';
+        System.arraycopy(line, 0, buffer, 2, line.length);
+        buffer[line.length + 2] = '\n';
+        return ByteRowBase.create(buffer, 2, line.length, -1, null);
+    }
+
+    @Test
+    public void chromosomeIsReused() {
+        final Row r1 = createRow("chr1\t1\ta");
+        final Row r2 = ByteRowBase.create("chr1\t2\tb".getBytes(), 0, 8, 3, r1.chr);
+        Assert.assertSame(r1.chr, r2.chr);
+        Assert.assertEquals(2, r2.pos);
+    }
+
+    @Test
+    public void nonAsciiLineIsDecoded() {
+        final Row r = createRow("chr1\t1\tbjörk");
+        Assert.assertEquals("björk", r.colAsString(2).toString());
+        Assert.assertEquals("chr1\t1\tbjörk", r.toString());
+    }
+
+    @Test
+    public void columnsAreStrings() {
+        final Row r = createRow("chr1\t1\tfoo\t42");
+        Assert.assertEquals("foo", r.colAsString(2));
+        Assert.assertEquals(42, r.colAsInt(3));
+    }
+
+    @Test
+    public void writeRowToStream() throws IOException {
+        final Row r = createRow("chr1\t1\tfoo\t42");
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        r.writeRowToStream(os);
+        Assert.assertEquals("chr1\t1\tfoo\t42", os.toString());
+    }
+
+    @Test
+    public void detachedRowDoesNotReferenceBuffer() {
+        final byte[] buffer = "chr1\t1\tfoo".getBytes();
+        final Row r = ByteRowBase.create(buffer, 0, buffer.length, 3, null);
+        final Row detached = r.detachedRow();
+        buffer[7] = 'b';
+        Assert.assertEquals("boo", r.colAsString(2));
+        Assert.assertEquals("foo", detached.colAsString(2));
+        Assert.assertEquals(1, detached.pos);
+    }
+}
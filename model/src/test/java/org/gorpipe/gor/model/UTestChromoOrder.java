@@ -0,0 +1,192 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class UTestChromoOrder {
+
+    @Test
+    public void standardChromosomesHaveLexicoIds() {
+        final ChrDataScheme scheme = ChrDataScheme.newChrLexico();
+        for (int i = 0; i < scheme.length(); i++) {
+            Assert.assertEquals(i, ChromoOrder.toId(scheme.id2chr(i)));
+        }
+    }
+
+    @Test
+    public void idsAreStable() {
+        final int id = ChromoOrder.toId("chrUn_test_stable");
+        ChromoOrder.toId("chrUn_test_stable_other");
+        Assert.assertEquals(id, ChromoOrder.toId(new String("chrUn_test_stable")));
+        Assert.assertEquals("chrUn_test_stable", ChromoOrder.toName(id));
+    }
+
+    @Test
+    public void ranksFollowLexicographicalOrder() {
+        final List<String> names = new ArrayList<>(Arrays.asList("chr1", "chr10", "chr2", "chrM", "chrX", "chrY",
+                "chr1_KI270706v1_random", "HLA-A*01:01:01:01", "chrUn_GL000195v1", "1", "MT", "X"));
+        final List<Integer> ids = new ArrayList<>();
+        for (String name : names) {
+            ids.add(ChromoOrder.toId(name));
+        }
+        final ChromoOrder.Ranks ranks = ChromoOrder.ranks();
+        for (int i = 0; i < names.size(); i++) {
+            for (int j = 0; j < names.size(); j++) {
+                Assert.assertEquals(names.get(i) + " vs " + names.get(j),
+                        Integer.signum(names.get(i).compareTo(names.get(j))),
+                        Integer.signum(Integer.compare(ranks.rank(ids.get(i)), ranks.rank(ids.get(j)))));
+            }
+        }
+    }
+
+    @Test
+    public void addingChromosomeKeepsRelativeOrder() {
+        final int a = ChromoOrder.toId("chrUn_test_a");
+        final int c = ChromoOrder.toId("chrUn_test_c");
+        final ChromoOrder.Ranks before = ChromoOrder.ranks();
+        final int b = ChromoOrder.toId("chrUn_test_b");
+        final ChromoOrder.Ranks after = ChromoOrder.ranks();
+
+        Assert.assertTrue(after.rank(a) < after.rank(b));
+        Assert.assertTrue(after.rank(b) < after.rank(c));
+        Assert.assertTrue(before.rank(a) < before.rank(c));
+        if (after.epoch == before.epoch) {
+            // No renumbering, the ranks of existing names are unchanged
+            Assert.assertEquals(before.rank(a), after.rank(a));
+            Assert.assertEquals(before.rank(c), after.rank(c));
+        }
+    }
+
+    @Test
+    public void renumberingKeepsOrder() {
+        final ChromoOrder order = new ChromoOrder(ChrDataScheme.newChrLexico(), 10000);
+        final ChromoOrder.Ranks first = order.currentRanks();
+        // Names inserted at the same place use up the gap between their neighbours
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final String name = "chr1_" + "z".repeat(200 - i);
+            names.add(name);
+            order.id(name);
+        }
+        Assert.assertTrue(order.currentRanks().epoch > first.epoch);
+        names.add("chr1");
+        names.add("chr10");
+        Collections.shuffle(names, new java.util.Random(1));
+        for (String x : names) {
+            for (String y : names) {
+                Assert.assertEquals(x + " vs " + y, Integer.signum(x.compareTo(y)), Integer.signum(order.compare(x, y)));
+            }
+        }
+    }
+
+    @Test
+    public void orderFollowsScheme() {
+        final ChromoOrder order = new ChromoOrder(ChrDataScheme.newChrNumerical(), 1000);
+        Assert.assertFalse(order.isLexicographic());
+        Assert.assertTrue(order.compare("chr2", "chr10") < 0);
+        Assert.assertTrue(order.compare("chr22", "chrX") < 0);
+        Assert.assertTrue(order.compare("chrY", "chrM") < 0);
+        // Other names come after the contigs of the scheme, in lexicographical order
+        Assert.assertTrue(order.compare("chrM", "chr1_random") < 0);
+        Assert.assertTrue(order.compare("chr1_random", "chrUn_1") < 0);
+        Assert.assertTrue(order.compare("chrUn_1", "chr1_random") > 0);
+        Assert.assertTrue(ChromoOrder.get().isLexicographic());
+    }
+
+    @Test
+    public void namesBeyondTheLimitAreComparedAsStrings() {
+        final ChromoOrder order = new ChromoOrder(ChrDataScheme.newChrLexico(), 28);
+        Assert.assertNotEquals(ChromoOrder.UNKNOWN, order.id("chr1_a"));
+        Assert.assertNotEquals(ChromoOrder.UNKNOWN, order.id("chr1_c"));
+        Assert.assertEquals(ChromoOrder.UNKNOWN, order.id("chr1_b"));
+        Assert.assertTrue(order.compare("chr1_a", "chr1_b") < 0);
+        Assert.assertTrue(order.compare("chr1_b", "chr1_c") < 0);
+        Assert.assertTrue(order.compare("chr1_b", "chr1") > 0);
+        Assert.assertEquals(0, order.compare("chr1_b", new String("chr1_b")));
+    }
+
+    @Test
+    public void namesBeyondTheLimitComeAfterTheScheme() {
+        final ChromoOrder order = new ChromoOrder(ChrDataScheme.newChrNumerical(), 27);
+        Assert.assertNotEquals(ChromoOrder.UNKNOWN, order.id("chr1_a"));
+        Assert.assertEquals(ChromoOrder.UNKNOWN, order.id("chr0_b"));
+        Assert.assertTrue(order.compare("chrM", "chr0_b") < 0);
+        Assert.assertTrue(order.compare("chr0_b", "chr2") > 0);
+        Assert.assertTrue(order.compare("chr0_b", "chr1_a") < 0);
+    }
+
+    @Test
+    public void schemeIsSelectedByName() {
+        Assert.assertTrue(new ChromoOrder(ChromoOrder.scheme("lexico"), 1000).isLexicographic());
+        Assert.assertTrue(new ChromoOrder(ChromoOrder.scheme("numeric"), 1000).compare("chr2", "chr10") < 0);
+        Assert.assertTrue(new ChromoOrder(ChromoOrder.scheme("HG"), 1000).compare("X", "MT") < 0);
+        Assert.assertTrue(new ChromoOrder(ChromoOrder.scheme("other"), 1000).isLexicographic());
+    }
+
+    @Test
+    public void consecutiveRowsShareKey() {
+        final ChromoOrder order = new ChromoOrder(ChrDataScheme.newChrLexico(), 1000);
+        final ChromoOrder.Key key = order.key(new String("chr3"));
+        Assert.assertSame(key, order.key(new String("chr3")));
+        Assert.assertEquals(order.id("chr3"), key.id);
+        final ChromoOrder.Key other = order.key("chr4");
+        Assert.assertNotSame(key, other);
+        Assert.assertEquals("chr4", other.name);
+    }
+
+    @Test
+    public void packedKeysComparePositions() {
+        final ChromoOrder.Ranks ranks = ChromoOrder.ranks();
+        final int chr1 = ChromoOrder.toId("chr1");
+        final int chr2 = ChromoOrder.toId("chr2");
+        final List<Long> keys = Arrays.asList(ranks.packedKey(chr1, -1), ranks.packedKey(chr1, 0),
+                ranks.packedKey(chr1, 100), ranks.packedKey(chr1, Integer.MAX_VALUE), ranks.packedKey(chr2, 0));
+        final List<Long> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        Assert.assertEquals(keys, sorted);
+    }
+
+    @Test
+    public void rowsCompareByChromosomeOrder() {
+        final Row r1 = new RowBase("chr10\t5\ta");
+        final Row r2 = new RowBase("chr2\t1\tb");
+        final Row r3 = new RowBase("chrUn_test_row\t1\tc");
+        Assert.assertTrue(r1.compareChr(r2) < 0);
+        Assert.assertTrue(r2.compareChr(r1) > 0);
+        Assert.assertTrue(r2.compareChr(r3) < 0);
+        Assert.assertEquals(0, r1.compareChr(new RowBase("chr10\t1\td")));
+        Assert.assertTrue(r1.atPriorPos(r2));
+        Assert.assertFalse(r2.atPriorPos(r1));
+        Assert.assertTrue(r1.packedKey(ChromoOrder.ranks()) < r2.packedKey(ChromoOrder.ranks()));
+        Assert.assertTrue(r1.compareChr("chr2") < 0);
+        Assert.assertTrue(r1.compareChr("!") > 0);
+        Assert.assertEquals(0, r1.compareChr(new String("chr10")));
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.model;
+
+import org.gorpipe.exceptions.GorDataException;
+import org.gorpipe.exceptions.GorSystemException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+public class UTestLazyGenomicIterator {
+
+    private static final String HEADER = "Chrom\tPos\tValue";
+
+    @Rule
+    public final TemporaryFolder tf = new TemporaryFolder();
+
+    @Test
+    public void testNotOpenedBeforeStart() throws IOException {
+        final SourceRef ref = writeSource(0, "chr2", 100, 10);
+        final SourceHandlePool pool = new SourceHandlePool(3);
+        try (LazyGenomicIterator it = lazy(ref, pool)) {
+            Assert.assertTrue(it.hasNext());
+            final Row progress = it.next();
+            Assert.assertTrue(progress.isProgress);
+            Assert.assertEquals("chr2", progress.chr);
+            Assert.assertEquals(100, progress.pos);
+            Assert.assertFalse(it.isOpen());
+
+            Assert.assertTrue(it.hasNext());
+            Assert.assertTrue(it.isOpen());
+            Assert.assertEquals("chr2\t100\t0", it.next().toString());
+        }
+        Assert.assertEquals(0, pool.getOpenCount());
+    }
+
+    @Test
+    public void testSeekPastStopDoesNotOpen() throws IOException {
+        final SourceRef ref = writeSource(0, "chr2", 100, 10);
+        try (LazyGenomicIterator it = lazy(ref, new SourceHandlePool(3))) {
+            Assert.assertFalse(it.seek("chr3", 1));
+            Assert.assertFalse(it.hasNext());
+            Assert.assertFalse(it.isOpen());
+
+            Assert.assertTrue(it.seek("chr2", 105));
+            Assert.assertEquals("chr2\t105\t0", it.next().toString());
+        }
+    }
+
+    @Test
+    public void testMergeWithFewOpenSources() throws IOException {
+        final List<SourceRef> refs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // Overlapping sources with several rows at each position
+            refs.add(writeSource(i, "chr" + (1 + i / 5), 1 + (i % 5) * 50, 100));
+        }
+
+        final SourceHandlePool pool = new SourceHandlePool(3);
+        final List<String> expected = readAll(new MergeIterator(eager(refs), false, "", null, false));
+        final List<String> actual = new ArrayList<>();
+        try (MergeIterator it = new MergeIterator(lazy(refs, pool), false, "", null, false)) {
+            while (it.hasNext()) {
+                actual.add(it.next().toString());
+                Assert.assertTrue(pool.getOpenCount() <= 3);
+            }
+        }
+        Assert.assertEquals(expected.size(), 20 * 100 * 2);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(0, pool.getOpenCount());
+
+        try (MergeIterator eager = new MergeIterator(eager(refs), false, "", null, false);
+             MergeIterator lazy = new MergeIterator(lazy(refs, pool), false, "", null, false)) {
+            for (String chr : new String[] {"chr3", "chr1", "chr4"}) {
+                Assert.assertEquals(eager.seek(chr, 120), lazy.seek(chr, 120));
+                for (int i = 0; i < 300 && eager.hasNext(); ++i) {
+                    Assert.assertTrue(lazy.hasNext());
+                    Assert.assertEquals(eager.next().toString(), lazy.next().toString());
+                }
+                Assert.assertTrue(pool.getOpenCount() <= 3);
+            }
+        }
+    }
+
+    @Test
+    public void testEvictedAfterSeekContinuesFromSeek() throws IOException {
+        final SourceRef ref = writeSource(0, "chr2", 100, 10);
+        final SourceHandlePool pool = new SourceHandlePool(3);
+        try (LazyGenomicIterator it = lazy(ref, pool)) {
+            Assert.assertTrue(it.seek("chr2", 105));
+            Assert.assertTrue(it.isOpen());
+            Assert.assertTrue(it.tryEvict());
+            Assert.assertFalse(it.isOpen());
+
+            Assert.assertTrue(it.hasNext());
+            Assert.assertEquals("chr2\t105\t0", it.next().toString());
+        }
+    }
+
+    @Test
+    public void testPrefetchingMergeOpensSourcesWhenReached() throws IOException {
+        final List<SourceRef> refs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            refs.add(writeSource(i, "chr" + (1 + i / 5), 1 + (i % 5) * 50, 100));
+        }
+
+        final SourceHandlePool pool = new SourceHandlePool(3);
+        final List<String> expected = readAll(new MergeIterator(eager(refs), false, "", null, false));
+        final List<String> actual = new ArrayList<>();
+        try (MergeIterator it = new MergeIterator(lazy(refs, pool), false, "", null, true)) {
+            Assert.assertTrue(it.hasNext());
+            // Only the sources starting at the first position have been opened
+            Assert.assertEquals(1, pool.getOpenCount());
+            while (it.hasNext()) {
+                actual.add(it.next().toString());
+            }
+        }
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(0, pool.getOpenCount());
+    }
+
+    @Test
+    public void testDifferentHeaderFails() throws IOException {
+        final SourceRef ref = writeSource(0, "chr1", 1, 10);
+        try (LazyGenomicIterator it = new LazyGenomicIterator(() -> open(ref), "Chrom\tPos\tOther", null, -1,
+                null, -1, new SourceHandlePool(3))) {
+            it.hasNext();
+            Assert.fail("Different header should fail");
+        } catch (GorDataException e) {
+            Assert.assertTrue(e.getMessage().contains("is different from the first opened file"));
+        }
+    }
+
+    private SourceRef writeSource(int id, String chr, int start, int count) throws IOException {
+        final File file = tf.newFile("source" + id + ".gor");
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println(HEADER);
+            for (int pos = start; pos < start + count; pos++) {
+                writer.println(chr + "\t" + pos + "\t" + id);
+                writer.println(chr + "\t" + pos + "\t" + id);
+            }
+        }
+        return new SourceRef(file.getAbsolutePath(), null, null, null, chr, start, chr, start + count - 1,
+                null, false, null, null);
+    }
+
+    private static GenomicIterator open(SourceRef ref) {
+        try {
+            final GenomicIterator it = ref.iterate(new DefaultChromoLookup(), null);
+            it.init(null);
+            return it;
+        } catch (IOException e) {
+            throw new GorSystemException(e);
+        }
+    }
+
+    private static LazyGenomicIterator lazy(SourceRef ref, SourceHandlePool pool) {
+        return new LazyGenomicIterator(() -> open(ref), HEADER, ref.startChr, ref.startPos, ref.stopChr, ref.stopPos, pool);
+    }
+
+    private static List<GenomicIterator> lazy(List<SourceRef> refs, SourceHandlePool pool) {
+        final List<GenomicIterator> iterators = new ArrayList<>();
+        refs.forEach(ref -> iterators.add(lazy(ref, pool)));
+        return iterators;
+    }
+
+    private static List<GenomicIterator> eager(List<SourceRef> refs) {
+        final List<GenomicIterator> iterators = new ArrayList<>();
+        refs.forEach(ref -> iterators.add(open(ref)));
+        return iterators;
+    }
+
+    private static List<String> readAll(MergeIterator mit) {
+        final List<String> rows = new ArrayList<>();
+        try (MergeIterator it = mit) {
+            while (it.hasNext()) {
+                rows.add(it.next().toString());
+            }
+        }
+        return rows;
+    }
+}
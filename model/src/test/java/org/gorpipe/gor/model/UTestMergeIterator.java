@@ -468,6 +468,68 @@ public class UTestMergeIterator {
         Assert.assertFalse(mit.seek("chrX", 1));
     }
 
+    @Test
+    public void test_prefetchWhenGetsDummyRows() {
+        final List<GenomicIterator> its = IntStream.range(0, 10).mapToObj(i -> getDummyIterator(2, 2)).collect(Collectors.toList());
+        try (MergeIterator mit = new MergeIterator(its, false, "", null, true)) {
+            final String[] chrs = IntStream.rangeClosed(1, 22).mapToObj(i -> "chr" + i).sorted().toArray(String[]::new);
+            for (final String chr : chrs) {
+                for (int pos = 1; pos <= 2; ++pos) {
+                    for (int itIdx = 0; itIdx < 10; ++itIdx) {
+                        Assert.assertTrue(mit.hasNext());
+                        Assert.assertEquals(chr + "\t" + pos + "\t1", mit.next().toString());
+                        Assert.assertTrue(mit.hasNext());
+                        Assert.assertEquals(chr + "\t" + pos + "\t2", mit.next().toString());
+                    }
+                }
+            }
+            Assert.assertFalse(mit.hasNext());
+
+            Assert.assertTrue(mit.seek("chr3", 2));
+            Assert.assertEquals("chr3\t2\t1", mit.next().toString());
+            Assert.assertTrue(mit.seek("chr1", 3));
+            Assert.assertEquals("chr10\t1\t1", mit.next().toString());
+        }
+    }
+
+    @Test
+    public void test_prefetchGivesSameRowsAsQueue() throws IOException {
+        final List<SourceRef> srs = writeSourceRefs(3);
+        final List<String> expected = readAll(new MergeIterator(toIterators(srs), false, "", null, false));
+        final List<String> actual = readAll(new MergeIterator(toIterators(srs), false, "", null, true));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, actual);
+
+        try (MergeIterator queue = new MergeIterator(toIterators(srs), false, "", null, false);
+             MergeIterator prefetch = new MergeIterator(toIterators(srs), false, "", null, true)) {
+            for (String chr : new String[] {"chr5", "chr2", "chr9"}) {
+                Assert.assertEquals(queue.seek(chr, 500000), prefetch.seek(chr, 500000));
+                for (int i = 0; i < 1000 && queue.hasNext(); ++i) {
+                    Assert.assertTrue(prefetch.hasNext());
+                    Assert.assertEquals(queue.next().toString(), prefetch.next().toString());
+                }
+            }
+        }
+    }
+
+    private static List<GenomicIterator> toIterators(List<SourceRef> sourceRefs) {
+        final List<GenomicIterator> iterators = new ArrayList<>();
+        for (SourceRef sourceRef : sourceRefs) {
+            iterators.add(new RangeMergeIterator(Collections.singletonList(sourceRef)));
+        }
+        return iterators;
+    }
+
+    private static List<String> readAll(MergeIterator mit) {
+        final List<String> rows = new ArrayList<>();
+        try (MergeIterator it = mit) {
+            while (it.hasNext()) {
+                rows.add(it.next().toString());
+            }
+        }
+        return rows;
+    }
+
     private String createGorFile(String header, String data) throws IOException {
         File file = File.createTempFile("UTestMergeIterator", ".gor");
         file.deleteOnExit();
@@ -102,4 +102,44 @@ public class UTestStatsCollector {
         double value = stats.get("test:bingo").get("bingo");
         assertEquals(4.14, value, 1e-8);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void counterIsSharedWithStat() {
+        int test = statsCollector.registerSender("test", "bingo");
+        StatsCollector.Counter counter = statsCollector.counter(test, "bingo");
+        assertSame(counter, statsCollector.counter(test, "bingo"));
+        counter.inc();
+        statsCollector.add(test, "bingo", 0.5);
+        double value = statsCollector.getStats().get("test:bingo").get("bingo");
+        assertEquals(1.5, value, 1e-8);
+    }
+
+    @Test
+    public void counterIsNotReportedUntilUpdated() {
+        int test = statsCollector.registerSender("test", "bingo");
+        StatsCollector.Counter counter = statsCollector.counter(test, "bingo");
+        assertTrue(statsCollector.getStats().get("test:bingo").isEmpty());
+        counter.inc();
+        counter.dec();
+        assertEquals(0.0, statsCollector.getStats().get("test:bingo").get("bingo"), 1e-8);
+    }
+
+    @Test
+    public void incFromManyThreads() throws InterruptedException {
+        int test = statsCollector.registerSender("test", "bingo");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    statsCollector.inc(test, "bingo");
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double value = statsCollector.getStats().get("test:bingo").get("bingo");
+        assertEquals(40000.0, value, 1e-8);
+    }
+}
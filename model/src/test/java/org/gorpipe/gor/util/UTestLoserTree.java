@@ -0,0 +1,82 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+public class UTestLoserTree {
+
+    @Test
+    public void testMergeRandomLists() {
+        final Random random = new Random(42);
+        for (int k = 0; k <= 17; k++) {
+            final List<Iterator<Integer>> sources = new ArrayList<>();
+            final List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < k; i++) {
+                final List<Integer> list = new ArrayList<>();
+                final int size = random.nextInt(50);
+                for (int j = 0; j < size; j++) {
+                    list.add(random.nextInt(100));
+                }
+                Collections.sort(list);
+                expected.addAll(list);
+                sources.add(list.iterator());
+            }
+            Collections.sort(expected);
+            final List<Integer> actual = new ArrayList<>();
+            new LoserTree<>(sources, Comparator.<Integer>naturalOrder()).forEachRemaining(actual::add);
+            Assert.assertEquals("Merging " + k + " lists", expected, actual);
+        }
+    }
+
+    @Test
+    public void testMergeIsStable() {
+        final Comparator<String> byFirstChar = Comparator.comparing(s -> s.charAt(0));
+        final LoserTree<String> tree = new LoserTree<>(Arrays.asList(
+                Arrays.asList("a0", "b0", "c0").iterator(),
+                Collections.<String>emptyIterator(),
+                Arrays.asList("a2", "c2").iterator(),
+                Arrays.asList("b3", "c3").iterator()), byFirstChar);
+        final List<String> actual = new ArrayList<>();
+        tree.forEachRemaining(actual::add);
+        Assert.assertEquals(Arrays.asList("a0", "a2", "b0", "b3", "c0", "c2", "c3"), actual);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testNextWhenEmpty() {
+        final LoserTree<Integer> tree = new LoserTree<>(Collections.singletonList(Collections.<Integer>emptyIterator()),
+                Comparator.<Integer>naturalOrder());
+        Assert.assertFalse(tree.hasNext());
+        tree.next();
+    }
+}
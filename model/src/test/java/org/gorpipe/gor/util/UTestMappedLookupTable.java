@@ -0,0 +1,124 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.gor.util;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class UTestMappedLookupTable {
+
+    @Rule
+    public final TemporaryFolder tf = new TemporaryFolder();
+
+    @Test
+    public void testSingleValues() throws IOException {
+        final Path file = tf.getRoot().toPath().resolve("single" + MappedLookupTable.SUFFIX);
+        final Map<String, String> expected = new HashMap<>();
+        // Small chunks so records are moved to the start of the next chunk
+        try (MappedLookupTable.Builder builder = new MappedLookupTable.Builder(file, false, 8)) {
+            for (int i = 0; i < 10000; i++) {
+                final String key = "key" + (i % 7000);
+                final String existing = builder.get(key);
+                Assert.assertEquals(expected.get(key), existing);
+                final String value = existing == null ? "v" + i : existing + ",v" + i;
+                builder.put(key, value);
+                expected.put(key, value);
+            }
+            builder.put("", "empty");
+            builder.put("GÖR", "");
+            expected.put("", "empty");
+            expected.put("GÖR", "");
+            builder.finish();
+        }
+
+        final MappedLookupTable table = MappedLookupTable.open(file);
+        Assert.assertFalse(table.isMulti());
+        Assert.assertEquals(expected.size(), table.size());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+        Assert.assertNull(table.get("key7000"));
+        Assert.assertNull(table.get("gör"));
+
+        final Map<String, String> map = table.asMap();
+        Assert.assertTrue(map.containsKey("GÖR"));
+        Assert.assertFalse(map.containsKey("missing"));
+        Assert.assertEquals(expected, new HashMap<>(map));
+    }
+
+    @Test
+    public void testMultiValues() throws IOException {
+        final Path file = tf.newFile("multi" + MappedLookupTable.SUFFIX).toPath();
+        final Map<String, List<String>> expected = new HashMap<>();
+        try (MappedLookupTable.Builder builder = new MappedLookupTable.Builder(file, true)) {
+            for (int i = 0; i < 5000; i++) {
+                final String key = "gene" + (i % 300);
+                builder.add(key, "value\t" + i);
+                expected.computeIfAbsent(key, k -> new ArrayList<>()).add("value\t" + i);
+            }
+            builder.finish();
+        }
+
+        final MappedLookupTable table = MappedLookupTable.open(file);
+        Assert.assertTrue(table.isMulti());
+        Assert.assertEquals(300, table.size());
+        final Map<String, String[]> map = table.asMultiMap();
+        int count = 0;
+        for (Map.Entry<String, String[]> entry : map.entrySet()) {
+            Assert.assertEquals(expected.get(entry.getKey()), List.of(entry.getValue()));
+            count++;
+        }
+        Assert.assertEquals(300, count);
+        Assert.assertEquals("value\t4999", table.get("gene199"));
+        Assert.assertNull(map.get("gene300"));
+    }
+
+    @Test
+    public void testEmptyTable() throws IOException {
+        final Path file = tf.newFile("empty" + MappedLookupTable.SUFFIX).toPath();
+        new MappedLookupTable.Builder(file, false).finish();
+
+        final MappedLookupTable table = MappedLookupTable.open(file);
+        Assert.assertEquals(0, table.size());
+        Assert.assertNull(table.get("a"));
+        Assert.assertTrue(table.asMap().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenIncompleteTable() throws IOException {
+        final Path file = tf.newFile("incomplete" + MappedLookupTable.SUFFIX).toPath();
+        final MappedLookupTable.Builder builder = new MappedLookupTable.Builder(file, false);
+        builder.put("a", "b");
+        builder.close();
+        MappedLookupTable.open(file);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  BEGIN_COPYRIGHT
+ *
+ *  Copyright (C) 2011-2013 deCODE genetics Inc.
+ *  Copyright (C) 2013-2019 WuXi NextCode Inc.
+ *  All Rights Reserved.
+ *
+ *  GORpipe is free software: you can redistribute it and/or modify
+ *  it under the terms of the AFFERO GNU General Public License as published by
+ *  the Free Software Foundation.
+ *
+ *  GORpipe is distributed "AS-IS" AND WITHOUT ANY WARRANTY OF ANY KIND,
+ *  INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY,
+ *  NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE. See
+ *  the AFFERO GNU General Public License for the complete license terms.
+ *
+ *  You should have received a copy of the AFFERO GNU General Public License
+ *  along with GORpipe.  If not, see <http://www.gnu.org/licenses/agpl-3.0.html>
+ *
+ *  END_COPYRIGHT
+ */
+
+package org.gorpipe.model.gor.iterators;
+
+import org.gorpipe.gor.model.DriverBackedFileReader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+public class UTestPackedRefSeq {
+
+    @Rule
+    public TemporaryFolder workDir = new TemporaryFolder();
+
+    @Rule
+    public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
+    private String buildPath;
+    private Path packedDir;
+
+    @Before
+    public void setUp() throws IOException {
+        Path build = workDir.newFolder("chromSeq").toPath();
+        packedDir = workDir.newFolder("packed").toPath();
+        System.setProperty("gor.refseq.packed.dir", packedDir.toString());
+
+        Random random = new Random(42);
+        Files.writeString(build.resolve("chr1.txt"), sequence(random, 25003), StandardCharsets.US_ASCII);
+        Files.writeString(build.resolve("chr2.txt"), sequence(random, 4001), StandardCharsets.US_ASCII);
+        buildPath = build.toString();
+    }
+
+    @Test
+    public void testSameBasesAsChromSeq() {
+        RefSeqFromChromSeq expected = new RefSeqFromChromSeq(buildPath, new DriverBackedFileReader(""));
+        RefSeq packed = new PackedRefSeq(buildPath, new DriverBackedFileReader(""));
+
+        for (String chr : new String[] {"chr1", "chr2"}) {
+            for (int pos = -2; pos <= 25010; pos++) {
+                Assert.assertEquals(chr + ":" + pos, expected.getBase(chr, pos), packed.getBase(chr, pos));
+            }
+        }
+
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int start = 1 + random.nextInt(25050);
+            int end = start + random.nextInt(i % 10 == 0 ? 15000 : 50);
+            Assert.assertEquals("chr1:" + start + "-" + end, expected.getBases("chr1", start, end), packed.getBases("chr1", start, end));
+        }
+
+        Assert.assertEquals('N', packed.getBase("chr3", 100));
+        Assert.assertEquals("NNN", packed.getBases("chr3", 100, 102));
+        expected.close();
+        packed.close();
+    }
+
+    @Test
+    public void testSharedBetweenInstancesAndThreads() throws Exception {
+        RefSeqFromChromSeq expected = new RefSeqFromChromSeq(buildPath, new DriverBackedFileReader(""));
+        String chr1 = expected.getBases("chr1", 1, 25003);
+        expected.close();
+
+        RefSeq packed = new PackedRefSeq(buildPath, new DriverBackedFileReader(""));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final long seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 20000; i++) {
+                        int pos = 1 + random.nextInt(chr1.length());
+                        Assert.assertEquals(chr1.charAt(pos - 1), packed.getBase("chr1", pos));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Another instance uses the packed chromosome already in the process
+        Assert.assertEquals(chr1.substring(99, 200), new PackedRefSeq(buildPath, new DriverBackedFileReader("")).getBases("chr1", 100, 200));
+        try (Stream<Path> files = Files.list(packedDir)) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testFactoryCreatesPackedRefSeq() {
+        RefSeqFromConfigFactory factory = new RefSeqFromConfigFactory(buildPath, new DriverBackedFileReader(""));
+        Assert.assertFalse(factory.create() instanceof PackedRefSeq);
+        System.setProperty("gor.refseq.packed", "true");
+        Assert.assertTrue(factory.create() instanceof PackedRefSeq);
+    }
+
+    private static String sequence(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            int run = 1 + random.nextInt(300);
+            int kind = random.nextInt(10);
+            for (int i = 0; i < run && sb.length() < length; i++) {
+                char base = "ACGT".charAt(random.nextInt(4));
+                if (kind == 0) {
+                    base = 'N';
+                } else if (kind == 1 && i % 7 == 0) {
+                    base = "RYKM".charAt(random.nextInt(4));
+                }
+                sb.append(kind == 2 || kind == 3 ? Character.toLowerCase(base) : base);
+            }
+        }
+        return sb.toString();
+    }
+}